@@ -48,6 +48,9 @@ public class RskSystemProperties extends SystemProperties {
     public static final RskSystemProperties RSKCONFIG = new RskSystemProperties();
     public static final int PD_DEFAULT_REFRESH_PERIOD = 60000;
     public static final int BLOCKS_FOR_PEERS_DEFAULT = 100;
+    public static final long TRIE_NODE_CACHE_SIZE_DEFAULT = 16L * 1024 * 1024;
+    public static final long CODE_CACHE_SIZE_DEFAULT = 16L * 1024 * 1024;
+    public static final int ACCOUNT_STATE_CACHE_SIZE_DEFAULT = 10000;
 
     //TODO: REMOVE THIS WHEN THE LocalBLockTests starts working with REMASC
     private boolean remascEnabled = true;
@@ -165,6 +168,61 @@ public class RskSystemProperties extends SystemProperties {
                 config.getInt("blockchain.flushNumberOfBlocks") : 20;
     }
 
+    public long trieNodeCacheSize() {
+        return config.hasPath("trie.cache.size") ?
+                config.getLong("trie.cache.size") : TRIE_NODE_CACHE_SIZE_DEFAULT;
+    }
+
+    public long codeCacheSize() {
+        return config.hasPath("details.code.cache.size") ?
+                config.getLong("details.code.cache.size") : CODE_CACHE_SIZE_DEFAULT;
+    }
+
+    public int accountStateCacheSize() {
+        return config.hasPath("repository.account.cache.size") ?
+                config.getInt("repository.account.cache.size") : ACCOUNT_STATE_CACHE_SIZE_DEFAULT;
+    }
+
+    public boolean isTrieFlusherEnabled() {
+        return config.hasPath("trie.flusher.enabled") ?
+                config.getBoolean("trie.flusher.enabled") : false;
+    }
+
+    public int trieFlusherQueueSize() {
+        return config.hasPath("trie.flusher.queue.size") && config.getInt("trie.flusher.queue.size") > 0 ?
+                config.getInt("trie.flusher.queue.size") : 16;
+    }
+
+    public int trieHashThreads() {
+        return config.hasPath("trie.hash.threads") && config.getInt("trie.hash.threads") > 0 ?
+                config.getInt("trie.hash.threads") : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int trieHashThreshold() {
+        return config.hasPath("trie.hash.threshold") && config.getInt("trie.hash.threshold") > 0 ?
+                config.getInt("trie.hash.threshold") : 1000;
+    }
+
+    public boolean isTriePruningEnabled() {
+        return config.hasPath("trie.pruning.enabled") ?
+                config.getBoolean("trie.pruning.enabled") : false;
+    }
+
+    public int triePruningBlocks() {
+        return config.hasPath("trie.pruning.blocks") && config.getInt("trie.pruning.blocks") > 0 ?
+                config.getInt("trie.pruning.blocks") : 1000;
+    }
+
+    public int triePruningInterval() {
+        return config.hasPath("trie.pruning.interval") && config.getInt("trie.pruning.interval") > 0 ?
+                config.getInt("trie.pruning.interval") : 100;
+    }
+
+    public int triePruningCheckpoint() {
+        return config.hasPath("trie.pruning.checkpoint") && config.getInt("trie.pruning.checkpoint") > 0 ?
+                config.getInt("trie.pruning.checkpoint") : 0;
+    }
+
     public int soLingerTime() {
         return config.hasPath("rpc.linger.time") ?
                 config.getInt("rpc.linger.time") : -1;
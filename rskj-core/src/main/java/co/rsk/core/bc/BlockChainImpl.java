@@ -21,6 +21,7 @@ package co.rsk.core.bc;
 import co.rsk.config.RskSystemProperties;
 import com.google.common.annotations.VisibleForTesting;
 import co.rsk.blocks.BlockRecorder;
+import co.rsk.db.StatePruner;
 import co.rsk.net.Metrics;
 import co.rsk.panic.PanicProcessor;
 import co.rsk.validators.BlockValidator;
@@ -32,8 +33,7 @@ import org.ethereum.db.ReceiptStore;
 import org.ethereum.db.TransactionInfo;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.manager.AdminInfo;
-import co.rsk.trie.Trie;
-import co.rsk.trie.TrieImpl;
+import co.rsk.trie.TrieBuilder;
 import org.ethereum.util.RLP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,10 +104,14 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
     @Autowired
     private AdminInfo adminInfo;
 
+    @Autowired(required = false)
+    private StatePruner statePruner;
+
     private volatile BlockChainStatus status = new BlockChainStatus(null, BigInteger.ZERO);
     private final Object connectLock = new Object();
     private final Object accessLock = new Object();
     private BlockExecutor blockExecutor;
+    private final SenderRecoverer senderRecoverer = new SenderRecoverer();
     private BlockRecorder blockRecorder;
     private boolean isrsk;
     private boolean noValidation;
@@ -192,6 +196,9 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
                     Hex.toHexString(block.getHash()).substring(0, 6),
                     block.getNumber());
 
+            // recover the transaction senders in parallel, before validating and executing the block
+            senderRecoverer.recoverSenders(block);
+
             synchronized (connectLock) {
                 logger.info("Start try connect");
                 long saveTime = System.nanoTime();
@@ -309,6 +316,8 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
             onBlock(block, result);
             logger.trace("Start flushData");
             flushData();
+            logger.trace("Start pruneState");
+            pruneState(block);
 
             logger.trace("Better block {} {}", block.getNumber(), block.getShortHash());
 
@@ -453,7 +462,7 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public void close() {
-
+        senderRecoverer.shutdown();
     }
 
     @Override
@@ -544,19 +553,24 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
         nFlush = nFlush % RskSystemProperties.RSKCONFIG.flushNumberOfBlocks();
     }
 
+    private void pruneState(Block block) {
+        if (statePruner != null && RskSystemProperties.RSKCONFIG.isTriePruningEnabled())
+            statePruner.onBestBlock(block);
+    }
+
     public static byte[] calcTxTrie(List<Transaction> transactions) {
         return Block.getTxTrie(transactions).getHash();
     }
 
     public static byte[] calcReceiptsTrie(List<TransactionReceipt> receipts) {
-        Trie receiptsTrie = new TrieImpl();
-
         if (receipts == null || receipts.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
+        TrieBuilder builder = new TrieBuilder(2, null, false);
+
         for (int i = 0; i < receipts.size(); i++)
-            receiptsTrie = receiptsTrie.put(RLP.encodeInt(i), receipts.get(i).getEncoded());
+            builder.put(RLP.encodeInt(i), receipts.get(i).getEncoded());
 
-        return receiptsTrie.getHash();
+        return builder.build().getHash();
     }
 }
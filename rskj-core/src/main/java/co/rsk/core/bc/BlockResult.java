@@ -22,8 +22,7 @@ import org.ethereum.core.Bloom;
 import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionReceipt;
 import org.ethereum.crypto.HashUtil;
-import co.rsk.trie.Trie;
-import co.rsk.trie.TrieImpl;
+import co.rsk.trie.TrieBuilder;
 import org.ethereum.util.RLP;
 
 import java.util.List;
@@ -89,15 +88,15 @@ public class BlockResult {
     // from original BlockchainImpl
     private static byte[] calculateReceiptsTrie(List<TransactionReceipt> receipts) {
         //TODO Fix Trie hash for receipts - doesnt match cpp
-        Trie receiptsTrie = new TrieImpl();
-
         if (receipts == null || receipts.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
+        TrieBuilder builder = new TrieBuilder(2, null, false);
+
         for (int i = 0; i < receipts.size(); i++)
-            receiptsTrie = receiptsTrie.put(RLP.encodeInt(i), receipts.get(i).getEncoded());
+            builder.put(RLP.encodeInt(i), receipts.get(i).getEncoded());
 
-        return receiptsTrie.getHash();
+        return builder.build().getHash();
     }
 
     private static byte[] calculateLogsBloom(List<TransactionReceipt> receipts) {
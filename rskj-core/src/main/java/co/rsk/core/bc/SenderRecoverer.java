@@ -0,0 +1,95 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * SenderRecoverer recovers the senders of the transactions of a block
+ * in parallel, before the block is validated and executed
+ *
+ * Each transaction keeps its recovered sender, so the validation rules
+ * and the transaction executor don't have to recover it again, one by one
+ *
+ * A transaction that fails is skipped: its sender is recovered again
+ * (and the error reported) when it is requested by the validation
+ */
+public class SenderRecoverer {
+    private static final Logger logger = LoggerFactory.getLogger("blockchain");
+
+    // blocks with less transactions are not worth the parallel tasks
+    private static final int MIN_TRANSACTIONS = 2;
+
+    // the recoverers created without an explicit parallelism share one pool,
+    // so a process with several blockchains doesn't start a pool for each one
+    private static final ForkJoinPool sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), SenderRecoverer::newThread, null, false);
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    public SenderRecoverer() {
+        this.pool = sharedPool;
+        this.ownsPool = false;
+    }
+
+    public SenderRecoverer(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, SenderRecoverer::newThread, null, false);
+        this.ownsPool = true;
+    }
+
+    public void recoverSenders(Block block) {
+        List<Transaction> txs = block.getTransactionsList();
+
+        if (txs.size() < MIN_TRANSACTIONS)
+            return;
+
+        this.pool.submit(() -> txs.parallelStream().forEach(SenderRecoverer::recoverSender)).join();
+    }
+
+    /**
+     * shutdown stops the pool created for this recoverer; the shared pool is kept
+     */
+    public void shutdown() {
+        if (this.ownsPool)
+            this.pool.shutdown();
+    }
+
+    private static void recoverSender(Transaction tx) {
+        try {
+            tx.getSender();
+        } catch (RuntimeException ex) {
+            logger.debug("Could not recover sender of transaction {}: {}", Hex.toHexString(tx.getHash()), ex.getMessage());
+        }
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("SenderRecoverer-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
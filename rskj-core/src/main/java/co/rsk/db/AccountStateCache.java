@@ -0,0 +1,162 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AccountStateCache keeps the decoded account states of the current root of a
+ * repository by address, bounded by the number of accounts. The unknown accounts
+ * are also kept, so they are not searched again in the trie
+ *
+ * The reads don't take a lock: they only mark the state as used. The states are
+ * evicted in the order they were added, except the ones used since the eviction
+ * passed them, that get a second chance (clock eviction, an approximation of
+ * least recently used)
+ *
+ * The readers that do not hold the repository lock take the version before reading
+ * the trie, and their states are not added if the cache was changed meanwhile
+ *
+ * The cached states are shared, they must not be modified
+ */
+public class AccountStateCache {
+    // marks an account that does not exist in the current root
+    static final AccountState MISSING = new AccountState();
+
+    private final int maxSize;
+    private final Map<ByteArrayWrapper, Entry> states = new ConcurrentHashMap<>();
+
+    // the addresses in eviction order, guarded by this
+    private final Queue<ByteArrayWrapper> clock = new ArrayDeque<>();
+
+    // changed holding the lock, read without it
+    private volatile long version = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public AccountStateCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * get returns the cached state of an account
+     *
+     * @param address   the account address
+     *
+     * @return  the account state, MISSING if the account does not exist, null if it is not cached
+     */
+    public AccountState get(ByteArrayWrapper address) {
+        Entry entry = this.states.get(address);
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+
+        this.hitCount.incrementAndGet();
+        entry.used = true;
+
+        return entry.state;
+    }
+
+    /**
+     * put adds a state read from the trie, if the cache was not changed since the given version
+     *
+     * @param address   the account address
+     * @param state     the account state, null if the account does not exist
+     * @param version   the cache version taken before reading the trie
+     */
+    public synchronized void put(ByteArrayWrapper address, AccountState state, long version) {
+        if (version != this.version)
+            return;
+
+        this.add(address, state);
+    }
+
+    /**
+     * update sets the new state of a changed account
+     *
+     * @param address   the account address
+     * @param state     the new account state, null if the account was deleted
+     */
+    public synchronized void update(ByteArrayWrapper address, AccountState state) {
+        this.version++;
+        this.add(address, state);
+    }
+
+    /**
+     * clear removes all the states, when the repository moves to another root
+     */
+    public synchronized void clear() {
+        this.version++;
+        this.states.clear();
+        this.clock.clear();
+    }
+
+    public long getVersion() { return this.version; }
+
+    public int getSize() { return this.states.size(); }
+
+    public long getHitCount() { return this.hitCount.get(); }
+
+    public long getMissCount() { return this.missCount.get(); }
+
+    private void add(ByteArrayWrapper address, AccountState state) {
+        if (this.maxSize <= 0)
+            return;
+
+        Entry entry = new Entry(state == null ? MISSING : state);
+        Entry previous = this.states.put(address, entry);
+
+        // a replaced state keeps its position, marked as used
+        if (previous == null)
+            this.clock.add(address);
+        else
+            entry.used = true;
+
+        while (this.states.size() > this.maxSize) {
+            ByteArrayWrapper oldest = this.clock.remove();
+            Entry oldestEntry = this.states.get(oldest);
+
+            if (oldestEntry.used) {
+                oldestEntry.used = false;
+                this.clock.add(oldest);
+            }
+            else
+                this.states.remove(oldest);
+        }
+    }
+
+    private static class Entry {
+        private final AccountState state;
+        private volatile boolean used;
+
+        Entry(AccountState state) {
+            this.state = state;
+        }
+    }
+}
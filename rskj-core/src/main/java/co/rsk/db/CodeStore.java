@@ -0,0 +1,158 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.config.RskSystemProperties;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CodeStore keeps the contract codes by code hash, so the accounts with the
+ * same code share one copy, and the contract details only keep the hash
+ *
+ * The new codes are kept in memory until the store is flushed. The recently
+ * used codes are cached, bounded by their total size in bytes
+ *
+ * The returned arrays are shared, they must not be modified
+ */
+public class CodeStore {
+    private final KeyValueDataSource dataSource;
+    private final long maxCacheSize;
+
+    private final Map<ByteArrayWrapper, byte[]> pending = new LinkedHashMap<>();
+    private final LinkedHashMap<ByteArrayWrapper, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cacheSize = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public CodeStore(KeyValueDataSource dataSource) {
+        this(dataSource, RskSystemProperties.RSKCONFIG.codeCacheSize());
+    }
+
+    public CodeStore(KeyValueDataSource dataSource, long maxCacheSize) {
+        this.dataSource = dataSource;
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * get returns the code associated with a code hash
+     *
+     * @param codeHash  the code hash
+     *
+     * @return  the code, null if it is not in the store
+     */
+    public synchronized byte[] get(byte[] codeHash) {
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+
+        byte[] code = this.pending.get(key);
+
+        if (code == null)
+            code = this.cache.get(key);
+
+        if (code != null) {
+            this.hitCount++;
+            return code;
+        }
+
+        this.missCount++;
+
+        code = this.dataSource.get(codeHash);
+
+        if (code != null)
+            addToCache(key, code);
+
+        return code;
+    }
+
+    /**
+     * put adds a code to the store, it is written to the data source on the next flush.
+     * A code that is already known is not written again
+     *
+     * @param codeHash  the code hash
+     * @param code      the code
+     */
+    public synchronized void put(byte[] codeHash, byte[] code) {
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+
+        if (this.pending.containsKey(key) || this.cache.containsKey(key))
+            return;
+
+        this.pending.put(key, code);
+    }
+
+    /**
+     * flush writes the new codes to the data source in one batch
+     *
+     * @return  the number of bytes written
+     */
+    public synchronized long flush() {
+        if (this.pending.isEmpty())
+            return 0;
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        long size = 0;
+
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : this.pending.entrySet()) {
+            batch.put(entry.getKey().getData(), entry.getValue());
+            size += entry.getValue().length;
+        }
+
+        this.dataSource.updateBatch(batch);
+
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : this.pending.entrySet())
+            addToCache(entry.getKey(), entry.getValue());
+
+        this.pending.clear();
+
+        return size;
+    }
+
+    public synchronized int getPendingCount() { return this.pending.size(); }
+
+    public synchronized long getCacheSize() { return this.cacheSize; }
+
+    public synchronized long getHitCount() { return this.hitCount; }
+
+    public synchronized long getMissCount() { return this.missCount; }
+
+    private void addToCache(ByteArrayWrapper key, byte[] code) {
+        if (code.length > this.maxCacheSize)
+            return;
+
+        byte[] previous = this.cache.put(key, code);
+
+        if (previous != null)
+            this.cacheSize -= previous.length;
+
+        this.cacheSize += code.length;
+
+        Iterator<byte[]> iterator = this.cache.values().iterator();
+
+        while (this.cacheSize > this.maxCacheSize && iterator.hasNext()) {
+            this.cacheSize -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+}
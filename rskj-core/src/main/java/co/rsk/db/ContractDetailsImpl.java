@@ -22,11 +22,12 @@ import co.rsk.panic.PanicProcessor;
 import co.rsk.trie.*;
 import com.google.common.annotations.VisibleForTesting;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.DataSourcePool;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.ContractDetails;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPItem;
@@ -43,7 +44,6 @@ import java.util.*;
 import static org.ethereum.datasource.DataSourcePool.levelDbByName;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.toHexString;
-import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * Created by ajlopez on 05/04/2017.
@@ -54,15 +54,24 @@ public class ContractDetailsImpl implements ContractDetails {
 
     private Trie trie;
     private byte[] code;
+    // the hash of the code kept in the code store, the code is loaded when it is first used
+    private byte[] codeHash;
+    private CodeStore codeStore;
     private byte[] address;
     private boolean dirty;
     private boolean deleted;
     private boolean originalExternalStorage;
     private boolean externalStorage;
     private boolean closed;
-    private Set<ByteArrayWrapper> keys = new HashSet<>();
+    // the number of keys with a value in the storage, -1 if it is not known yet
+    private int storageSize = 0;
 
     public ContractDetailsImpl(byte[] encoded) {
+        this(encoded, null);
+    }
+
+    public ContractDetailsImpl(byte[] encoded, CodeStore codeStore) {
+        this.codeStore = codeStore;
         decode(encoded);
     }
 
@@ -82,16 +91,10 @@ public class ContractDetailsImpl implements ContractDetails {
 
         checkDataSourceIsOpened();
 
-        byte[] keyBytes = key.getData();
-
-        if (value.equals(DataWord.ZERO)) {
-            this.trie = this.trie.delete(keyBytes);
-            removeKey(keyBytes);
-        }
-        else {
-            this.trie = this.trie.put(keyBytes, value.getNoLeadZeroesData());
-            addKey(keyBytes);
-        }
+        if (value.equals(DataWord.ZERO))
+            this.updateStorage(key.getData(), null);
+        else
+            this.updateStorage(key.getData(), value.getNoLeadZeroesData());
 
         this.setDirty(true);
         this.checkExternalStorage();
@@ -103,16 +106,7 @@ public class ContractDetailsImpl implements ContractDetails {
 
         checkDataSourceIsOpened();
 
-        byte[] keyBytes = key.getData();
-
-        if (bytes == null) {
-            this.trie = this.trie.delete(keyBytes);
-            removeKey(keyBytes);
-        }
-        else {
-            this.trie = this.trie.put(keyBytes, bytes);
-            addKey(keyBytes);
-        }
+        this.updateStorage(key.getData(), bytes);
 
         this.setDirty(true);
         this.checkExternalStorage();
@@ -152,13 +146,36 @@ public class ContractDetailsImpl implements ContractDetails {
     }
 
     @Override
-    public byte[] getCode() {
-        return ByteUtils.clone(this.code);
+    public synchronized byte[] getCode() {
+        return ByteUtils.clone(loadCode());
     }
 
     @Override
-    public void setCode(byte[] code) {
+    public synchronized void setCode(byte[] code) {
+        // the repository tracks set the same code again on commit, it keeps its stored hash
+        if (this.codeHash != null && this.code != null && Arrays.equals(this.code, code))
+            return;
+
         this.code = ByteUtils.clone(code);
+        this.codeHash = null;
+    }
+
+    /**
+     * storeCode adds the code to a code store, if it is not already there
+     *
+     * @param store     the code store
+     */
+    public synchronized void storeCode(CodeStore store) {
+        if (!hasCode() || (this.codeHash != null && this.codeStore == store))
+            return;
+
+        byte[] storedCode = loadCode();
+
+        if (this.codeHash == null)
+            this.codeHash = HashUtil.sha3(storedCode);
+
+        store.put(this.codeHash, storedCode);
+        this.codeStore = store;
     }
 
     @Override
@@ -180,7 +197,7 @@ public class ContractDetailsImpl implements ContractDetails {
         RLPItem rlpIsExternalStorage = (RLPItem) rlpList.get(1);
         RLPItem rlpStorage = (RLPItem) rlpList.get(2);
         RLPElement rlpCode = rlpList.get(3);
-        RLPList rlpKeys = (RLPList) rlpList.get(4);
+        RLPElement rlpStorageSize = rlpList.get(4);
 
         this.address = rlpAddress.getRLPData();
         this.externalStorage = rlpIsExternalStorage.getRLPData() != null;
@@ -192,11 +209,25 @@ public class ContractDetailsImpl implements ContractDetails {
             this.trie = TrieImpl.deserialize(rlpStorage.getRLPData());
 
         this.code = (rlpCode.getRLPData() == null) ? EMPTY_BYTE_ARRAY : rlpCode.getRLPData();
+        this.codeHash = null;
+
+        // the code is in the code store
+        if (rlpList.size() > 5) {
+            this.codeHash = rlpList.get(5).getRLPData();
+            this.code = null;
+        }
 
-        for (RLPElement key : rlpKeys)
-            addKey(key.getRLPData());
+        // the previous encoding has the storage keys, instead of their number
+        if (rlpStorageSize instanceof RLPList) {
+            for (RLPElement key : (RLPList) rlpStorageSize)
+                getTrieStore().saveKey(HashUtil.sha3(key.getRLPData()), key.getRLPData());
 
-        logger.trace("decoding contract details from bytes, hash {}, address {}, storage size {}, has external storage {}", this.getStorageHashAsString(), this.getAddressAsString(), this.getStorageSize(), this.hasExternalStorage());
+            this.storageSize = -1;
+        }
+        else
+            this.storageSize = ByteUtil.byteArrayToInt(rlpStorageSize.getRLPData());
+
+        logger.trace("decoding contract details from bytes, hash {}, address {}, storage size {}, has external storage {}", this.getStorageHashAsString(), this.getAddressAsString(), this.storageSize, this.hasExternalStorage());
     }
 
     @Override
@@ -221,7 +252,18 @@ public class ContractDetailsImpl implements ContractDetails {
 
     @Override
     public byte[] getEncoded() {
-        logger.trace("getting contract details as bytes, hash {}, address {}, storage size {}, has external storage {}", this.getStorageHashAsString(), this.getAddressAsString(), this.getStorageSize(), this.hasExternalStorage());
+        return getEncoded(null);
+    }
+
+    /**
+     * getEncoded encodes the details, with only the code hash if a code store is used
+     *
+     * @param store     the code store, null to encode the full code
+     *
+     * @return  the encoded details
+     */
+    public synchronized byte[] getEncoded(@Nullable CodeStore store) {
+        logger.trace("getting contract details as bytes, hash {}, address {}, storage size {}, has external storage {}", this.getStorageHashAsString(), this.getAddressAsString(), this.storageSize, this.hasExternalStorage());
 
         byte[] rlpAddress = RLP.encodeElement(address);
         byte[] rlpIsExternalStorage = RLP.encodeByte((byte) (externalStorage ? 1 : 0));
@@ -229,47 +271,67 @@ public class ContractDetailsImpl implements ContractDetails {
         // Serialize the full trie, or only the root hash if external storage is used
         byte[] rlpStorage = RLP.encodeElement(externalStorage ? this.trie.getHash() : this.trie.serialize());
 
-        byte[] rlpCode = RLP.encodeElement(this.code);
-        byte[] rlpKeys = RLP.encodeSet(this.keys);
+        byte[] rlpStorageSize = RLP.encodeInt(this.getStorageSize());
+
+        if (store != null && hasCode()) {
+            storeCode(store);
+
+            byte[] rlpCode = RLP.encodeElement(EMPTY_BYTE_ARRAY);
+            byte[] rlpCodeHash = RLP.encodeElement(this.codeHash);
+
+            return RLP.encodeList(rlpAddress, rlpIsExternalStorage, rlpStorage, rlpCode, rlpStorageSize, rlpCodeHash);
+        }
+
+        byte[] rlpCode = RLP.encodeElement(loadCode());
 
-        return RLP.encodeList(rlpAddress, rlpIsExternalStorage, rlpStorage, rlpCode, rlpKeys);
+        return RLP.encodeList(rlpAddress, rlpIsExternalStorage, rlpStorage, rlpCode, rlpStorageSize);
     }
 
     @Override
     public synchronized int getStorageSize() {
-        return keys.size();
+        if (this.storageSize < 0) {
+            checkDataSourceIsOpened();
+
+            int count = 0;
+
+            for (Iterator<Map.Entry<byte[], byte[]>> iterator = this.trie.iterator(); iterator.hasNext(); iterator.next())
+                count++;
+
+            this.storageSize = count;
+        }
+
+        return this.storageSize;
     }
 
     @Override
     public synchronized Set<DataWord> getStorageKeys() {
-        Set<DataWord> result = new HashSet<>();
-
-        for (ByteArrayWrapper key : keys)
-            result.add(new DataWord(key));
-
-        return result;
+        return getStorage(null).keySet();
     }
 
     @Override
     public synchronized Map<DataWord, DataWord> getStorage(@Nullable Collection<DataWord> keys) {
+        checkDataSourceIsOpened();
+
         Map<DataWord, DataWord> storage = new HashMap<>();
 
-        if (keys == null)
-            for (ByteArrayWrapper keyBytes : this.keys) {
-                DataWord key = new DataWord(keyBytes);
-                DataWord value = get(key);
+        if (keys == null) {
+            TrieStoreImpl store = getTrieStore();
 
-                // we check if the value is not null,
-                // cause we keep all historical keys
-                if (value != null)
-                    storage.put(key, value);
+            // the storage trie is secure, the keys are recovered from their hashes
+            for (Iterator<Map.Entry<byte[], byte[]>> iterator = this.trie.iterator(); iterator.hasNext();) {
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                byte[] key = store.retrieveKey(entry.getKey());
+
+                if (key == null)
+                    logger.error("storage key not found, hash {}, address {}", toHexString(entry.getKey()), this.getAddressAsString());
+                else
+                    storage.put(new DataWord(key), new DataWord(entry.getValue()));
             }
+        }
         else
             for (DataWord key : keys) {
                 DataWord value = get(key);
 
-                // we check if the value is not null,
-                // cause we keep all historical keys
                 if (value != null)
                     storage.put(key, value);
             }
@@ -290,6 +352,15 @@ public class ContractDetailsImpl implements ContractDetails {
 
     @Override
     public synchronized void setStorage(Map<DataWord, DataWord> storage) {
+        checkDataSourceIsOpened();
+
+        // the storage of a new contract is built at once, the deletes are put one by one
+        // because they can change the trie even if the key is not there
+        if (!storage.isEmpty() && ((TrieImpl) this.trie).isPristine() && !storage.containsValue(DataWord.ZERO)) {
+            buildStorage(storage);
+            return;
+        }
+
         for (Map.Entry<DataWord, DataWord> entry : storage.entrySet())
             put(entry.getKey(), entry.getValue());
     }
@@ -311,7 +382,7 @@ public class ContractDetailsImpl implements ContractDetails {
         logger.trace("syncing storage address {}", addressString);
 
         if (this.trie.hasStore()) {
-            logger.trace("syncing to storage, hash {}, address {}, storage size {}", hashString, addressString, this.getStorageSize());
+            logger.trace("syncing to storage, hash {}, address {}, storage size {}", hashString, addressString, this.storageSize);
 
             this.trie.save();
 
@@ -339,7 +410,7 @@ public class ContractDetailsImpl implements ContractDetails {
                 this.originalExternalStorage = true;
             }
 
-            if (this.externalStorage) {
+            if (this.externalStorage && !this.closed) {
                 logger.trace("closing contract details data source, hash {}, address {}", hashString, addressString);
                 DataSourcePool.closeDataSource(getDataSourceName());
                 this.closed = true;
@@ -351,25 +422,31 @@ public class ContractDetailsImpl implements ContractDetails {
     public synchronized ContractDetails getSnapshotTo(byte[] hash) {
         logger.trace("get snapshot");
 
+        checkDataSourceIsOpened();
+
         this.trie.save();
 
-        ContractDetailsImpl details = new ContractDetailsImpl(this.address, this.trie.getSnapshotTo(hash), this.code);
-        details.keys = new HashSet<>();
-        details.keys.addAll(this.keys);
+        ContractDetailsImpl details = new ContractDetailsImpl(this.address, this.trie.getSnapshotTo(hash), null);
+        // the code is never modified, it can be shared
+        details.code = this.code;
+        details.codeHash = this.codeHash;
+        details.codeStore = this.codeStore;
+        // the number of keys is only known for the current storage
+        details.storageSize = Arrays.equals(hash, this.trie.getHash()) ? this.storageSize : -1;
         details.externalStorage = this.externalStorage;
         details.originalExternalStorage = this.originalExternalStorage;
 
         if (this.externalStorage)
             levelDbByName(getDataSourceName());
 
-        logger.trace("getting contract details snapshot hash {}, address {}, storage size {}, has external storage {}", details.getStorageHashAsString(), details.getAddressAsString(), details.getStorageSize(), details.hasExternalStorage());
+        logger.trace("getting contract details snapshot hash {}, address {}, storage size {}, has external storage {}", details.getStorageHashAsString(), details.getAddressAsString(), details.storageSize, details.hasExternalStorage());
 
         return details;
     }
 
     @Override
     public boolean isNullObject() {
-        return (code==null || code.length==0) && keys.isEmpty();
+        return !hasCode() && getStorageSize() == 0;
     }
 
     @VisibleForTesting
@@ -381,16 +458,70 @@ public class ContractDetailsImpl implements ContractDetails {
         return this.externalStorage;
     }
 
-    private void addKey(byte[] key) {
-        keys.add(wrap(key));
+    private boolean hasCode() {
+        return this.codeHash != null || (this.code != null && this.code.length > 0);
+    }
+
+    private byte[] loadCode() {
+        if (this.code != null || this.codeHash == null)
+            return this.code;
+
+        byte[] storedCode = this.codeStore == null ? null : this.codeStore.get(this.codeHash);
+
+        if (storedCode == null) {
+            String message = "code not found, hash " + toHexString(this.codeHash) + ", address " + this.getAddressAsString();
+            logger.error(message);
+            panicProcessor.panic("contractcode", message);
+            throw new IllegalStateException(message);
+        }
+
+        this.code = storedCode;
+
+        return this.code;
+    }
+
+    private void updateStorage(byte[] key, byte[] value) {
+        boolean existed = this.storageSize >= 0 && hasValue(this.trie.get(key));
+
+        this.trie = value == null ? this.trie.delete(key) : this.trie.put(key, value);
+
+        boolean exists = hasValue(value);
+
+        if (this.storageSize >= 0)
+            this.storageSize += (exists ? 1 : 0) - (existed ? 1 : 0);
+
+        if (exists && !existed)
+            getTrieStore().saveKey(HashUtil.sha3(key), key);
+    }
+
+    private void buildStorage(Map<DataWord, DataWord> storage) {
+        TrieStoreImpl store = getTrieStore();
+        TrieBuilder builder = new TrieBuilder(this.trie.getArity(), store, true);
+
+        for (Map.Entry<DataWord, DataWord> entry : storage.entrySet()) {
+            byte[] key = entry.getKey().getData();
+
+            builder.put(key, entry.getValue().getNoLeadZeroesData());
+            store.saveKey(HashUtil.sha3(key), key);
+        }
+
+        this.trie = builder.build();
+        this.storageSize = storage.size();
+
+        this.setDirty(true);
+        this.checkExternalStorage();
+    }
+
+    private static boolean hasValue(byte[] value) {
+        return value != null && value.length > 0;
     }
 
-    private void removeKey(byte[] key) {
-        keys.remove(wrap(key));
+    private TrieStoreImpl getTrieStore() {
+        return (TrieStoreImpl) ((TrieImpl) this.trie).getStore();
     }
 
     private void checkExternalStorage() {
-        this.externalStorage = (keys.size() > SystemProperties.CONFIG.detailsInMemoryStorageLimit()) || this.externalStorage;
+        this.externalStorage = this.externalStorage || (getStorageSize() > SystemProperties.CONFIG.detailsInMemoryStorageLimit());
     }
 
     private String getDataSourceName() {
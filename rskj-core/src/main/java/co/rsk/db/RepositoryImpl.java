@@ -18,6 +18,7 @@
 
 package co.rsk.db;
 
+import co.rsk.config.RskSystemProperties;
 import co.rsk.trie.Trie;
 import co.rsk.trie.TrieImpl;
 import co.rsk.trie.TrieStore;
@@ -43,6 +44,12 @@ import static org.ethereum.crypto.SHA3Helper.sha3;
 import static org.ethereum.util.ByteUtil.wrap;
 
 /**
+ * RepositoryImpl keeps the world state in a secure trie of accounts
+ *
+ * The changes are done holding the repository lock. When the current trie is
+ * saved in the store, the accounts are read without the lock, from a root
+ * retrieved by each reader, so many threads can query a snapshot at once
+ *
  * Created by ajlopez on 29/03/2017.
  */
 public class RepositoryImpl implements Repository, org.ethereum.facade.Repository {
@@ -51,11 +58,16 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     private static final Logger logger = LoggerFactory.getLogger("repository");
 
-    private TrieStore store;
+    private final TrieStore store;
+    private final DetailsDataStore detailsDataStore;
     private Trie trie;
-    private DetailsDataStore detailsDataStore;
     private boolean closed;
 
+    // the hash of the current trie if it is saved in the store, null if not
+    private volatile byte[] savedRoot;
+
+    private final AccountStateCache accountStates = new AccountStateCache(RskSystemProperties.RSKCONFIG.accountStateCacheSize());
+
     public RepositoryImpl() {
         this(null);
     }
@@ -65,6 +77,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         this.trie = new TrieImpl(store, true);
         this.detailsDataStore = new DetailsDataStore();
         this.detailsDataStore.setDB(new DatabaseImpl(new HashMapDB()));
+        this.detailsDataStore.setCodeStore(new CodeStore(new HashMapDB()));
     }
 
     public RepositoryImpl(TrieStore store, KeyValueDataSource detailsDS) {
@@ -74,6 +87,11 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         this.detailsDataStore.setDB(new DatabaseImpl(detailsDS));
     }
 
+    public RepositoryImpl(TrieStore store, KeyValueDataSource detailsDS, KeyValueDataSource codeDS) {
+        this(store, detailsDS);
+        this.detailsDataStore.setCodeStore(new CodeStore(codeDS));
+    }
+
     public RepositoryImpl(TrieStore store, DetailsDataStore detailsDataStore) {
         this.store = store;
         this.trie = new TrieImpl(store, true);
@@ -89,27 +107,65 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized boolean isExist(byte[] addr) {
-        return getAccountState(addr) != null;
+    public boolean isExist(byte[] addr) {
+        return getCachedAccountState(addr) != null;
     }
 
     @Override
-    public synchronized AccountState getAccountState(byte[] addr) {
-        AccountState result = null;
-        byte[] accountData = null;
+    public AccountState getAccountState(byte[] addr) {
+        AccountState result = getCachedAccountState(addr);
+
+        return result == null ? null : result.clone();
+    }
+
+    /**
+     * getCachedAccountState returns the account state from the cache, decoding it
+     * from the trie on a miss. The returned state is shared, it must not be modified
+     */
+    private AccountState getCachedAccountState(byte[] addr) {
+        ByteArrayWrapper key = wrap(addr);
+        AccountState result = this.accountStates.get(key);
+
+        if (result != null)
+            return result == AccountStateCache.MISSING ? null : result;
 
-        accountData = this.trie.get(addr);
+        long version = this.accountStates.getVersion();
+        byte[] accountData = getAccountData(addr);
 
         if (accountData != null && accountData.length != 0)
             result = new AccountState(accountData);
 
+        this.accountStates.put(key, result, version);
+
         return result;
     }
 
+    /**
+     * getAccountData reads the encoded account state. If the current trie is saved,
+     * it is read from a root retrieved from the store, only used by the current
+     * thread, without the repository lock
+     */
+    private byte[] getAccountData(byte[] addr) {
+        byte[] root = this.savedRoot;
+
+        if (root != null) {
+            Trie rootTrie = this.store.retrieve(root);
+
+            if (rootTrie != null)
+                return rootTrie.get(addr);
+        }
+
+        synchronized (this) {
+            return this.trie.get(addr);
+        }
+    }
+
     @Override
     public synchronized void delete(byte[] addr)
     {
+        this.savedRoot = null;
         this.trie = this.trie.delete(addr);
+        this.accountStates.update(wrap(addr), null);
     }
 
     @Override
@@ -131,20 +187,24 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized BigInteger getNonce(byte[] addr) {
-        AccountState account = getAccountStateOrCreateNew(addr);
+    public BigInteger getNonce(byte[] addr) {
+        AccountState account = getCachedAccountState(addr);
+
+        if (account == null)
+            account = getAccountStateOrCreateNew(addr);
+
         return account.getNonce();
     }
 
     @Override
-    public synchronized ContractDetails getContractDetails(byte[] addr) {
+    public ContractDetails getContractDetails(byte[] addr) {
         // That part is important cause if we have
         // to sync details storage according the trie root
         // saved in the account
-        AccountState accountState = getAccountState(addr);
+        AccountState accountState = getCachedAccountState(addr);
         byte[] storageRoot = EMPTY_TRIE_HASH;
         if (accountState != null)
-            storageRoot = getAccountState(addr).getStateRoot();
+            storageRoot = accountState.getStateRoot();
         ContractDetails details =  detailsDataStore.get(addr);
         if (details != null)
             details = details.getSnapshotTo(storageRoot);
@@ -170,13 +230,10 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized byte[] getCode(byte[] addr) {
-        if (!isExist(addr))
-            return EMPTY_BYTE_ARRAY;
+    public byte[] getCode(byte[] addr) {
+        AccountState account = getCachedAccountState(addr);
 
-        AccountState  account = getAccountState(addr);
-
-        if (account.isHibernated())
+        if (account == null || account.isHibernated())
             return EMPTY_BYTE_ARRAY;
 
         byte[] codeHash = account.getCodeHash();
@@ -184,6 +241,11 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         if (Arrays.equals(codeHash, EMPTY_DATA_HASH))
             return EMPTY_BYTE_ARRAY;
 
+        byte[] code = detailsDataStore.getCode(codeHash);
+
+        if (code != null)
+            return Arrays.copyOf(code, code.length);
+
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.getCode();
     }
@@ -216,7 +278,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
+    public DataWord getStorageValue(byte[] addr, DataWord key) {
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.get(key);
     }
@@ -240,14 +302,14 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized byte[] getStorageBytes(byte[] addr, DataWord key) {
+    public byte[] getStorageBytes(byte[] addr, DataWord key) {
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.getBytes(key);
     }
 
     @Override
-    public synchronized BigInteger getBalance(byte[] addr) {
-        AccountState account = getAccountState(addr);
+    public BigInteger getBalance(byte[] addr) {
+        AccountState account = getCachedAccountState(addr);
         return (account == null) ? AccountState.EMPTY.getBalance() : account.getBalance();
     }
 
@@ -287,8 +349,11 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         if (this.detailsDataStore != null)
             this.detailsDataStore.flush();
 
-        if (this.store != null)
+        if (this.store != null) {
             this.trie.save();
+            this.store.flush();
+            this.setSavedRoot(this.trie.getHash());
+        }
     }
 
     @Override
@@ -308,7 +373,13 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public synchronized void syncToRoot(byte[] root) {
+        // the readers without the lock must not read the old root with the new cache version
+        this.savedRoot = null;
         this.trie = this.trie.getSnapshotTo(root);
+        this.accountStates.clear();
+
+        if (this.store != null)
+            this.setSavedRoot(root);
     }
 
     @Override
@@ -318,6 +389,9 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public synchronized void close() {
+        if (this.store != null)
+            this.store.close();
+
         this.closed = true;
     }
 
@@ -379,6 +453,9 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
         byte[] rootHash = this.trie.getHash();
 
+        if (this.trie.hasStore())
+            this.setSavedRoot(rootHash);
+
         logger.trace("getting repository root hash {}", Hex.toHexString(rootHash));
 
         return rootHash;
@@ -389,7 +466,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
                                          Map<ByteArrayWrapper, AccountState> cacheAccounts,
                                          Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
 
-        AccountState account = getAccountState(addr);
+        AccountState account = getCachedAccountState(addr);
         ContractDetails details = getContractDetails(addr);
 
         account = (account == null) ? new AccountState(BigInteger.ZERO, BigInteger.ZERO) : account.clone();
@@ -400,15 +477,20 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         cacheDetails.put(wrappedAddress, details);
     }
 
+    /**
+     * getSnapshotTo returns a new repository at a given root. It does not take
+     * the lock of this repository, and the new one reads its accounts without
+     * locking until it is changed
+     */
     @Override
-    public synchronized Repository getSnapshotTo(byte[] root) {
+    public Repository getSnapshotTo(byte[] root) {
         RepositoryImpl snapshotRepository = new RepositoryImpl(this.store, this.detailsDataStore);
         snapshotRepository.syncToRoot(root);
         return snapshotRepository;
     }
 
     @Override
-    public synchronized DetailsDataStore getDetailsDataStore() {
+    public DetailsDataStore getDetailsDataStore() {
         return this.detailsDataStore;
     }
 
@@ -419,7 +501,18 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public synchronized void updateAccountState(final byte[] addr, final AccountState accountState) {
+        this.savedRoot = null;
         this.trie = this.trie.put(addr, accountState.getEncoded());
+        this.accountStates.update(wrap(addr), accountState.clone());
+    }
+
+    AccountStateCache getAccountStateCache() {
+        return this.accountStates;
+    }
+
+    private void setSavedRoot(byte[] root) {
+        // the empty trie is not in the store
+        this.savedRoot = Arrays.equals(root, EMPTY_TRIE_HASH) ? null : Arrays.copyOf(root, root.length);
     }
 
     @Nonnull
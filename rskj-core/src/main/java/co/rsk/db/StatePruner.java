@@ -0,0 +1,164 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.config.RskSystemProperties;
+import co.rsk.panic.PanicProcessor;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Block;
+import org.ethereum.db.BlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StatePruner removes the account trie nodes that are only used by old states
+ * (account trie pruning)
+ *
+ * The kept states are the ones of the blocks in the last blocks of the chain,
+ * including the alternative branches, so a rebranch in that window can still be
+ * executed from the state of the common ancestor, and the ones of the checkpoint
+ * blocks of the best chain
+ *
+ * The pruning runs in a background thread every interval blocks. The state roots
+ * are collected when it starts, the nodes saved while it runs are not removed
+ *
+ * Only the account trie is pruned. The contract storage tries, saved in the
+ * details data sources, are not pruned
+ */
+public class StatePruner {
+    private static final Logger logger = LoggerFactory.getLogger("triestore");
+    private static final PanicProcessor panicProcessor = new PanicProcessor();
+    private static final String PANIC_TOPIC = "triestore";
+    private static final String ERROR_PRUNING_STATE = "Error pruning state trie";
+
+    private final TrieStoreImpl store;
+    private final BlockStore blockStore;
+    private final int blocks;
+    private final int interval;
+    private final int checkpoint;
+
+    // the running pruning, null if it was never started
+    private Thread thread;
+
+    public StatePruner(TrieStoreImpl store, BlockStore blockStore) {
+        this(store, blockStore,
+                RskSystemProperties.RSKCONFIG.triePruningBlocks(),
+                RskSystemProperties.RSKCONFIG.triePruningInterval(),
+                RskSystemProperties.RSKCONFIG.triePruningCheckpoint());
+    }
+
+    /**
+     * @param store         the state trie store, with pruning enabled
+     * @param blocks        the number of last blocks whose states are kept
+     * @param interval      the number of blocks between prunes
+     * @param checkpoint    the distance between the best chain blocks whose states are kept, 0 for none
+     */
+    public StatePruner(TrieStoreImpl store, BlockStore blockStore, int blocks, int interval, int checkpoint) {
+        this.store = store;
+        this.blockStore = blockStore;
+        this.blocks = blocks;
+        this.interval = interval;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * onBestBlock starts a pruning in background if the best block number is a multiple
+     * of the interval. It is skipped if the previous one is still running
+     *
+     * @param block the new best block
+     */
+    public synchronized void onBestBlock(Block block) {
+        long number = block.getNumber();
+
+        if (number % this.interval != 0 || number <= this.blocks)
+            return;
+
+        if (this.thread != null && this.thread.isAlive()) {
+            logger.warn("State pruning at block {} skipped, the previous one is running", number);
+            return;
+        }
+
+        List<byte[]> roots = this.getRetainedRoots(number);
+
+        this.thread = new Thread(() -> this.prune(roots, number), "StatePruner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * prune removes the nodes that are not used by the states kept for a best block
+     *
+     * @param bestNumber    the best block number
+     *
+     * @return  the number of removed nodes
+     */
+    public long prune(long bestNumber) {
+        return this.prune(this.getRetainedRoots(bestNumber), bestNumber);
+    }
+
+    /**
+     * getRetainedRoots returns the state roots of the blocks after the best block number
+     * minus the number of kept blocks, in any branch, and the ones of the best chain
+     * checkpoints before them
+     */
+    public List<byte[]> getRetainedRoots(long bestNumber) {
+        List<byte[]> roots = new ArrayList<>();
+        long first = Math.max(0, bestNumber - this.blocks);
+
+        // the alternative branches can be longer than the best chain
+        for (long number = first; ; number++) {
+            List<Block> branches = this.blockStore.getChainBlocksByNumber(number);
+
+            if (number > bestNumber && branches.isEmpty())
+                break;
+
+            for (Block branch : branches)
+                roots.add(branch.getStateRoot());
+        }
+
+        if (this.checkpoint > 0)
+            for (long number = 0; number < first; number += this.checkpoint) {
+                Block block = this.blockStore.getChainBlockByNumber(number);
+
+                if (block != null)
+                    roots.add(block.getStateRoot());
+            }
+
+        return roots;
+    }
+
+    private long prune(List<byte[]> roots, long bestNumber) {
+        try {
+            long saveTime = System.nanoTime();
+            long removed = this.store.prune(roots);
+            long totalTime = System.nanoTime() - saveTime;
+
+            logger.info("State pruning at block {}: {} roots kept, {} nodes removed, after [{}]nano", bestNumber, roots.size(), removed, totalTime);
+
+            return removed;
+        } catch (RuntimeException ex) {
+            logger.error(ERROR_PRUNING_STATE, ex);
+            panicProcessor.panic(PANIC_TOPIC, ERROR_PRUNING_STATE + ": " + ex.getMessage());
+            return 0;
+        }
+    }
+}
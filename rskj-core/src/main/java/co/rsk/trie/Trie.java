@@ -18,6 +18,9 @@
 
 package co.rsk.trie;
 
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * Created by ajlopez on 29/03/2017.
  */
@@ -61,4 +64,27 @@ public interface Trie {
     byte[] serialize();
 
     boolean hasStore();
+
+    /**
+     * iterator walks the values of the trie in key order, retrieving the nodes
+     * from the store on demand.
+     *
+     * The keys are the ones used in the trie: in a secure trie, the hashes of the original keys
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator();
+
+    /**
+     * iterator walks the values whose keys start with a prefix, in key order
+     *
+     * @param prefix    the key prefix (the hash prefix in a secure trie)
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] prefix);
+
+    /**
+     * iterator walks the values whose keys are in a range, in key order
+     *
+     * @param from  the first key, inclusive, null to start at the first key
+     * @param to    the last key, exclusive, null to end at the last key
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] from, byte[] to);
 }
@@ -0,0 +1,141 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.ethereum.crypto.SHA3Helper.sha3;
+
+/**
+ * TrieBuilder builds a trie from a batch of key values at once
+ *
+ * The keys are sorted, and each node is created and hashed once, from the leaves
+ * to the top node, instead of copying the path to the top node on each put. The
+ * result has the same nodes and hash as the puts of the same key values on a new
+ * trie
+ *
+ * A null or empty value removes the key from the batch. Note that the puts of such
+ * values on a trie can change its node structure, even if the key is not there,
+ * so they are not equivalent
+ */
+public class TrieBuilder {
+    private final int arity;
+    private final TrieStore store;
+    private final boolean isSecure;
+
+    // the trie keys, hashed in a secure trie, sorted in trie order
+    private final TreeMap<ByteArrayWrapper, byte[]> values = new TreeMap<>();
+
+    public TrieBuilder(int arity, TrieStore store, boolean isSecure) {
+        this.arity = arity;
+        this.store = store;
+        this.isSecure = isSecure;
+    }
+
+    /**
+     * put adds a key value to the batch, replacing the value of a key already added
+     *
+     * @return  this builder
+     */
+    public TrieBuilder put(byte[] key, byte[] value) {
+        ByteArrayWrapper trieKey = new ByteArrayWrapper(this.isSecure ? sha3(key) : key.clone());
+
+        if (value == null || value.length == 0)
+            this.values.remove(trieKey);
+        else
+            this.values.put(trieKey, value);
+
+        return this;
+    }
+
+    /**
+     * build creates the trie with the values added to the batch
+     *
+     * @return  the top node of the new trie, with the hashes of all its nodes calculated
+     */
+    public Trie build() {
+        int size = this.values.size();
+
+        if (size == 0)
+            return new TrieImpl(this.arity, this.store, this.isSecure);
+
+        TrieKeySlice[] keys = new TrieKeySlice[size];
+        byte[][] nodeValues = new byte[size][];
+        int k = 0;
+
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : this.values.entrySet()) {
+            keys[k] = TrieKeySlice.fromKey(entry.getKey().getData(), this.arity);
+            nodeValues[k] = entry.getValue();
+            k++;
+        }
+
+        return this.build(keys, nodeValues, 0, size, 0);
+    }
+
+    /**
+     * build creates the node of a range of sorted keys that share their first digits
+     *
+     * @param keys      the sorted keys
+     * @param values    the values of the keys
+     * @param from      the first key of the range, inclusive
+     * @param to        the last key of the range, exclusive
+     * @param position  the number of digits of the node position, shared by the keys in the range
+     *
+     * @return  the node, hashed
+     */
+    private TrieImpl build(TrieKeySlice[] keys, byte[][] values, int from, int to, int position) {
+        TrieKeySlice first = keys[from];
+
+        // the sorted keys share the digits that the first and the last one share
+        int lshared = first.slice(position, first.length()).lengthOfCommonPath(keys[to - 1], position);
+        int end = position + lshared;
+        int next = from;
+        byte[] value = null;
+
+        // only the first key can end at the node
+        if (first.length() == end)
+            value = values[next++];
+
+        TrieImpl[] nodes = null;
+
+        while (next < to) {
+            int digit = keys[next].get(end);
+            int last = next + 1;
+
+            while (last < to && keys[last].get(end) == digit)
+                last++;
+
+            if (nodes == null)
+                nodes = new TrieImpl[this.arity];
+
+            nodes[digit] = this.build(keys, values, next, last, end + 1);
+            next = last;
+        }
+
+        TrieKeySlice sharedPath = lshared == 0 ? null : first.slice(position, end);
+        TrieImpl node = TrieImpl.newNode(this.arity, this.store, this.isSecure, sharedPath, value, nodes);
+
+        node.getHash();
+
+        return node;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import co.rsk.config.RskSystemProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TrieHasher calculates the hashes of the new nodes of a trie, hashing the
+ * subtrees with many new nodes in parallel, on a fork join pool
+ *
+ * A subtree is forked if it has at least threshold nodes with unknown hashes. The
+ * smaller subtrees are hashed by the thread that reaches them, as TrieImpl does.
+ * The hashes are kept in the nodes, so the results are the same as a sequential
+ * calculation
+ */
+final class TrieHasher {
+    private static TrieHasher instance;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    TrieHasher(int threads, int threshold) {
+        this.pool = threads > 1 ? new ForkJoinPool(threads, TrieHasher::newThread, null, false) : null;
+        this.threshold = Math.max(threshold, 2);
+    }
+
+    /**
+     * getInstance returns the hasher shared by all the tries, configured by
+     * trie.hash.threads and trie.hash.threshold. It does nothing if there is only one thread
+     */
+    static synchronized TrieHasher getInstance() {
+        if (instance == null)
+            instance = new TrieHasher(RskSystemProperties.RSKCONFIG.trieHashThreads(), RskSystemProperties.RSKCONFIG.trieHashThreshold());
+
+        return instance;
+    }
+
+    /**
+     * hash calculates the hashes of the new nodes of a trie, if there are enough of them
+     * to hash them in parallel
+     *
+     * @param trie  the top node of the trie
+     */
+    void hash(TrieImpl trie) {
+        if (this.pool == null || trie.countUnhashedNodes(this.threshold) < this.threshold)
+            return;
+
+        this.pool.invoke(new HashTask(trie, this.threshold));
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("TrieHasher-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient TrieImpl node;
+        private final int threshold;
+
+        HashTask(TrieImpl node, int threshold) {
+            this.node = node;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            List<HashTask> tasks = new ArrayList<>();
+            List<TrieImpl> subnodes = new ArrayList<>();
+
+            for (int k = 0; k < this.node.getArity(); k++) {
+                TrieImpl subnode = this.node.getUnhashedNode(k);
+
+                if (subnode == null)
+                    continue;
+
+                if (subnode.countUnhashedNodes(threshold) >= threshold) {
+                    HashTask task = new HashTask(subnode, threshold);
+                    task.fork();
+                    tasks.add(task);
+                }
+                else
+                    subnodes.add(subnode);
+            }
+
+            for (TrieImpl subnode : subnodes)
+                subnode.calculateHash();
+
+            // the forked subnodes must be hashed before their parent reads their hashes
+            for (HashTask task : tasks)
+                task.join();
+
+            this.node.calculateHash();
+        }
+    }
+}
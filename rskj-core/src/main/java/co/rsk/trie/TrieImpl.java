@@ -34,7 +34,9 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import static org.ethereum.crypto.SHA3Helper.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
@@ -55,11 +57,11 @@ import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
  *
  * An empty node has no subnodes and a null value
  *
- * Created by ajlopez on 22/08/2016.
+ * A node can have a shared path, the key digits that all its keys have after the
+ * node position. The keys and the shared paths are walked in place as TrieKeySlices,
+ * without expanding them to a byte per digit or decoding the shared paths
  *
- * TODO(martin.medina): We shouldn't decode/encode the paths all the time. This makes multiple allocs and consumes CPU.
- * Avoiding that could bring performance gain.
- * 
+ * Created by ajlopez on 22/08/2016.
  */
 public class TrieImpl implements Trie {
     private static final Logger logger = LoggerFactory.getLogger("trie");
@@ -98,43 +100,42 @@ public class TrieImpl implements Trie {
     // no of subnodes (2, 4 or 16 are supported)
     private int arity;
 
-    // shared Path
-    private byte[] encodedSharedPath;
-    private int sharedPathLength;
+    // shared path, null if there is no shared path
+    private TrieKeySlice sharedPath;
 
     // default constructor, arity == 2 (binary tree), no secure
     public TrieImpl() {
-        this(2, null, 0, null, null, null, null);
+        this(2, null, null, null, null, null);
         this.isSecure = false;
     }
 
     public TrieImpl(boolean isSecure) {
-        this(2, null, 0, null, null, null, null);
+        this(2, null, null, null, null, null);
         this.isSecure = isSecure;
     }
 
     public TrieImpl(int arity, boolean isSecure) {
-        this(arity, null, 0, null, null, null, null);
+        this(arity, null, null, null, null, null);
         this.isSecure = isSecure;
     }
 
     public TrieImpl(TrieStore store, boolean isSecure) {
-        this(2, null, 0, null, null, null, store);
+        this(2, null, null, null, null, store);
         this.isSecure = isSecure;
     }
 
     public TrieImpl(int arity, TrieStore store, boolean isSecure) {
-        this(arity, null, 0, null, null, null, store);
+        this(arity, null, null, null, null, store);
         this.isSecure = isSecure;
     }
 
-    private TrieImpl(int arity, TrieStore store, byte[] encodedSharedPath, int sharedPathLength, byte[] value, boolean isSecure) {
-        this(arity, encodedSharedPath, sharedPathLength, value, null, null, store);
+    private TrieImpl(int arity, TrieStore store, TrieKeySlice sharedPath, byte[] value, boolean isSecure) {
+        this(arity, sharedPath, value, null, null, store);
         this.isSecure = isSecure;
     }
 
     // full constructor
-    private TrieImpl(int arity, byte[] encodedSharedPath, int sharedPathLength, byte[] value, TrieImpl[] nodes, byte[][] hashes, TrieStore store) {
+    private TrieImpl(int arity, TrieKeySlice sharedPath, byte[] value, TrieImpl[] nodes, byte[][] hashes, TrieStore store) {
         if (arity != 2 && arity != 4 && arity != 16)
             throw new IllegalArgumentException(INVALID_ARITY);
 
@@ -143,8 +144,17 @@ public class TrieImpl implements Trie {
         this.nodes = nodes;
         this.hashes = hashes;
         this.store = store;
-        this.encodedSharedPath = encodedSharedPath;
-        this.sharedPathLength = sharedPathLength;
+        this.sharedPath = sharedPath;
+    }
+
+    /**
+     * newNode creates a node from its parts, used by TrieBuilder
+     *
+     * @param sharedPath    the shared path, null if there is no shared path
+     * @param nodes         the subnodes, null if there are no subnodes
+     */
+    static TrieImpl newNode(int arity, TrieStore store, boolean isSecure, TrieKeySlice sharedPath, byte[] value, TrieImpl[] nodes) {
+        return new TrieImpl(arity, sharedPath, value, nodes, null, store).withSecure(isSecure);
     }
 
     private TrieImpl withSecure(boolean isSecure) {
@@ -154,12 +164,12 @@ public class TrieImpl implements Trie {
 
     @Override
     public Trie cloneTrie() {
-        return new TrieImpl(this.arity, this.encodedSharedPath, this.sharedPathLength, this.value, cloneNodes(true), cloneHashes(), this.store).withSecure(this.isSecure);
+        return new TrieImpl(this.arity, this.sharedPath, this.value, cloneNodes(true), cloneHashes(), this.store).withSecure(this.isSecure);
     }
 
     @Override
     public Trie cloneTrie(byte[] newValue) {
-        TrieImpl trie = new TrieImpl(this.arity, this.encodedSharedPath, this.sharedPathLength, this.value, cloneNodes(true), cloneHashes(), this.store).withSecure(this.isSecure);
+        TrieImpl trie = new TrieImpl(this.arity, this.sharedPath, this.value, cloneNodes(true), cloneHashes(), this.store).withSecure(this.isSecure);
         trie.setValue(newValue);
         return trie;
     }
@@ -210,7 +220,7 @@ public class TrieImpl implements Trie {
             int lshared = istream.readShort();
 
             int nhashes = 0;
-            int lencoded = TrieImpl.getEncodedPathLength(lshared, arity);
+            int lencoded = TrieKeySlice.getEncodedLength(lshared, arity);
 
             byte[] encodedSharedPath = null;
 
@@ -243,7 +253,8 @@ public class TrieImpl implements Trie {
                     throw new EOFException();
             }
 
-            TrieImpl trie = new TrieImpl(arity, encodedSharedPath, lshared, value, null, hashes, store).withSecure(isSecure);
+            TrieKeySlice sharedPath = encodedSharedPath == null ? null : TrieKeySlice.fromEncoded(encodedSharedPath, lshared, arity);
+            TrieImpl trie = new TrieImpl(arity, sharedPath, value, null, hashes, store).withSecure(isSecure);
 
             if (store != null)
                 trie.saved = true;
@@ -256,6 +267,24 @@ public class TrieImpl implements Trie {
         }
     }
 
+    /**
+     * attachTo returns a copy of this node associated to a store, as if it were
+     * retrieved from it. Used to share decoded nodes from a TrieNodeCache
+     *
+     * @param store     the store containing the rest of the trie nodes
+     * @param hash      the known hash of this node
+     *
+     * @return  a new saved node, that references its subnodes by hash
+     */
+    TrieImpl attachTo(TrieStore store, byte[] hash) {
+        TrieImpl trie = new TrieImpl(this.arity, this.sharedPath, this.value, null, this.cloneHashes(), store).withSecure(this.isSecure);
+
+        trie.hash = hash;
+        trie.saved = true;
+
+        return trie;
+    }
+
     /**
      * getArity returns the number of subnodes
      *
@@ -269,23 +298,78 @@ public class TrieImpl implements Trie {
     /**
      * getHash calculates and/or returns the hash associated with this node content
      *
-     * the internal variable hash could contains the cached hash
+     * the internal variable hash could contains the cached hash. The large subtrees
+     * of new nodes are hashed in parallel, see TrieHasher
      *
      * @return  a byte array with the node serialized to bytes
      */
     @Override
     public byte[] getHash() {
+        if (this.hash == null)
+            TrieHasher.getInstance().hash(this);
+
+        return ByteUtils.clone(this.calculateHash());
+    }
+
+    /**
+     * calculateHash calculates and/or returns the hash of this node, hashing the
+     * subnodes with unknown hashes in this thread
+     *
+     * @return  the hash, shared with the node, it must not be modified
+     */
+    byte[] calculateHash() {
         if (this.hash != null)
-            return ByteUtils.clone(this.hash);
+            return this.hash;
 
         if (isEmptyTrie(this.value, this.nodes, this.hashes))
-            return ByteUtils.clone(emptyHash);
+            return emptyHash;
 
         byte[] message = this.toMessage();
 
         this.hash = SHA3Helper.sha3(message);
 
-        return ByteUtils.clone(this.hash);
+        return this.hash;
+    }
+
+    /**
+     * getUnhashedNode gets the subnode at position n if it is in memory and its
+     * hash is not known yet
+     *
+     * @param n position of subnode (0 to arity - 1)
+     *
+     * @return  the node or null if there is no such subnode
+     */
+    TrieImpl getUnhashedNode(int n) {
+        if (this.hashes != null && this.hashes[n] != null)
+            return null;
+
+        TrieImpl node = this.getNode(n);
+
+        return node == null || node.hash != null ? null : node;
+    }
+
+    /**
+     * countUnhashedNodes counts this node and its subnodes that are in memory and
+     * their hashes are not known yet, up to a limit
+     *
+     * @param limit     the number of nodes to stop counting at
+     *
+     * @return  the number of nodes, at most the limit
+     */
+    int countUnhashedNodes(int limit) {
+        if (this.hash != null)
+            return 0;
+
+        int count = 1;
+
+        for (int k = 0; k < this.arity && count < limit; k++) {
+            TrieImpl node = this.getUnhashedNode(k);
+
+            if (node != null)
+                count += node.countUnhashedNodes(limit - count);
+        }
+
+        return count;
     }
 
     /**
@@ -297,45 +381,38 @@ public class TrieImpl implements Trie {
      */
     @Override
     public byte[] get(byte[] key) {
-        byte[] keyBytes = this.isSecure ? bytesToKey(sha3(key), this.arity) : bytesToKey(key, this.arity);
-        return get(keyBytes, keyBytes.length, 0);
+        return get(TrieKeySlice.fromKey(this.isSecure ? sha3(key) : key, this.arity), 0);
     }
 
     @Override
     public PartialMerkleTree getPartialMerkleTree(byte[] key) {
-        byte[] keyBytes = this.isSecure ? bytesToKey(sha3(key), this.arity) : bytesToKey(key, this.arity);
-
-        return getPartialMerkleTree(keyBytes, keyBytes.length, 0);
+        return getPartialMerkleTree(TrieKeySlice.fromKey(this.isSecure ? sha3(key) : key, this.arity), 0);
     }
 
-    private PartialMerkleTree getPartialMerkleTree(byte[] key, int length, int keyPosition) {
+    private PartialMerkleTree getPartialMerkleTree(TrieKeySlice key, int keyPosition) {
         int position = keyPosition;
 
-        if (position >= length)
+        if (position >= key.length())
             return new PartialMerkleTree(this);
 
-        if (this.encodedSharedPath != null) {
-            byte[] sharedPath = PathEncoder.decode(this.encodedSharedPath, this.arity, this.sharedPathLength);
+        if (this.sharedPath != null) {
+            if (this.sharedPath.lengthOfCommonPath(key, position) < this.sharedPath.length())
+                return null;
 
-            for (int k = 0; k < sharedPath.length; k++, position++) {
-                if (position >= length)
-                    return null;
-                if (key[position] != sharedPath[k])
-                    return null;
-            }
+            position += this.sharedPath.length();
 
-            if (position >= length)
+            if (position >= key.length())
                 return new PartialMerkleTree(this);
         }
 
-        int pos = key[position];
+        int pos = key.get(position);
 
         Trie node = this.retrieveNode(pos);
 
         if (node == null)
             return null;
 
-        PartialMerkleTree tree = ((TrieImpl)node).getPartialMerkleTree(key, length, position + 1);
+        PartialMerkleTree tree = ((TrieImpl)node).getPartialMerkleTree(key, position + 1);
 
         tree.addTrie(this, pos);
 
@@ -365,9 +442,10 @@ public class TrieImpl implements Trie {
      */
     @Override
     public Trie put(byte[] key, byte[] value) {
-        byte[] keyBytes = this.isSecure ? bytesToKey(sha3(key), this.arity) : bytesToKey(key, this.arity);
+        // the new leaves keep slices of the key, so a plain key is copied
+        byte[] keyBytes = this.isSecure ? sha3(key) : Arrays.copyOf(key, key.length);
 
-        TriePutResult putResult = put(keyBytes, keyBytes.length, 0, value);
+        TriePutResult putResult = put(TrieKeySlice.fromKey(keyBytes, this.arity), 0, value);
         Trie trie = putResult.getTrie();
 
         if (ResultAction.DELETE == putResult.getAction()) {
@@ -434,8 +512,8 @@ public class TrieImpl implements Trie {
     public byte[] toMessage() {
         int lvalue = this.value == null ? 0 : this.value.length;
         int nnodes = this.getNumberOfChildren();
-        int lshared = this.sharedPathLength;
-        int lencoded = getEncodedPathLength(lshared, this.arity);
+        int lshared = this.sharedPath == null ? 0 : this.sharedPath.length();
+        int lencoded = TrieKeySlice.getEncodedLength(lshared, this.arity);
 
         int bits = 0;
 
@@ -456,7 +534,7 @@ public class TrieImpl implements Trie {
         buffer.putShort((short) lshared);
 
         if (lshared > 0)
-            buffer.put(encodedSharedPath);
+            buffer.put(this.sharedPath.encode());
 
 
         for (int k = 0; k < this.arity; k++) {
@@ -477,19 +555,40 @@ public class TrieImpl implements Trie {
     /**
      * save saves the unsaved current trie and subnodes to their associated store
      *
+     * All the unsaved nodes are saved in only one batch
      */
     @Override
     public void save() {
         if (this.saved)
             return;
 
+        // the store uses the hashes of the new nodes, they are calculated first
+        this.getHash();
+
+        List<Trie> unsaved = new ArrayList<>();
+
+        this.collectUnsaved(unsaved);
+
+        this.store.saveAll(unsaved);
+    }
+
+    /**
+     * collectUnsaved adds the unsaved subnodes and the current node to a list,
+     * children first, marking them as saved
+     *
+     * @param unsaved   the list of nodes to save
+     */
+    private void collectUnsaved(List<Trie> unsaved) {
+        if (this.saved)
+            return;
+
         if (this.nodes != null)
             for (TrieImpl node : this.nodes)
                 if (node != null)
-                    node.save();
+                    node.collectUnsaved(unsaved);
 
-        this.store.save(this);
         this.saved = true;
+        unsaved.add(this);
     }
 
     /**
@@ -511,43 +610,105 @@ public class TrieImpl implements Trie {
         return size;
     }
 
+    @Override
+    public Iterator<Map.Entry<byte[], byte[]>> iterator() {
+        return new TrieIterator(this, null, null);
+    }
+
+    @Override
+    public Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        return TrieIterator.withPrefix(this, bytesToKey(prefix, this.arity));
+    }
+
+    @Override
+    public Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] from, byte[] to) {
+        return new TrieIterator(this, from == null ? null : bytesToKey(from, this.arity), to == null ? null : bytesToKey(to, this.arity));
+    }
+
+    /**
+     * isPristine checks if this is an empty node without a shared path, as a new trie
+     *
+     * The delete of a missing key can leave an empty node with a shared path, and
+     * the next puts split that path, so such a node is not like a new trie
+     */
+    public boolean isPristine() {
+        return isEmptyTrie(this.value, this.nodes, this.hashes) && this.getSharedPathLength() == 0;
+    }
+
+    /**
+     * getValue returns the value associated to this node, shared with the node
+     */
+    byte[] getValue() {
+        return this.value;
+    }
+
+    /**
+     * getSharedPathLength returns the number of digits in the shared path of this node
+     */
+    int getSharedPathLength() {
+        return this.sharedPath == null ? 0 : this.sharedPath.length();
+    }
+
+    /**
+     * getSharedPathDigit returns a digit of the shared path of this node
+     *
+     * @param position  the digit position, from 0 to getSharedPathLength() - 1
+     */
+    int getSharedPathDigit(int position) {
+        return this.sharedPath.get(position);
+    }
+
+    /**
+     * peekNode gets the subnode at position n, like retrieveNode, but a node
+     * retrieved from the store is not kept in this node
+     *
+     * @param n position of subnode (0 to arity - 1)
+     *
+     * @return  the node or null if no subnode at position
+     */
+    TrieImpl peekNode(int n) {
+        TrieImpl node = this.getNode(n);
+
+        if (node != null)
+            return node;
+
+        if (this.hashes == null || this.hashes[n] == null)
+            return null;
+
+        return (TrieImpl) this.store.retrieve(this.hashes[n]);
+    }
+
     /**
      * get retrieves the associated value given the key
      *
      * @param key   full key
-     * @param length key total length
      * @param keyPosition  position of key being examined/added
      *
      * @return the associated value, null if the key is not found
      *
      */
-    private byte[] get(byte[] key, int length, int keyPosition) {
+    private byte[] get(TrieKeySlice key, int keyPosition) {
         int position = keyPosition;
 
-        if (position >= length)
+        if (position >= key.length())
             return this.value;
 
-        if (this.encodedSharedPath != null) {
-            byte[] sharedPath = PathEncoder.decode(this.encodedSharedPath, this.arity, this.sharedPathLength);
+        if (this.sharedPath != null) {
+            if (this.sharedPath.lengthOfCommonPath(key, position) < this.sharedPath.length())
+                return null;
 
-            for (int k = 0; k < sharedPath.length; k++, position++) {
-                if (position >= length)
-                    return null;
-
-                if (key[position] != sharedPath[k])
-                    return null;
-            }
+            position += this.sharedPath.length();
 
-            if (position >= length)
+            if (position >= key.length())
                 return this.value;
         }
 
-        Trie node = this.retrieveNode(key[position]);
+        Trie node = this.retrieveNode(key.get(position));
 
         if (node == null)
             return null;
 
-        return ((TrieImpl)node).get(key, length, position + 1);
+        return ((TrieImpl)node).get(key, position + 1);
     }
 
     /**
@@ -615,7 +776,7 @@ public class TrieImpl implements Trie {
      *
      * @return  node hash or null if no node is present
      */
-    private byte[] getHash(int n) {
+    byte[] getHash(int n) {
         if (this.hashes != null && this.hashes[n] != null)
             return this.hashes[n];
 
@@ -627,7 +788,7 @@ public class TrieImpl implements Trie {
         if (isEmptyTrie(node.value, node.nodes, node.hashes))
             return null;
 
-        byte[] localHash = node.getHash();
+        byte[] localHash = ByteUtils.clone(node.calculateHash());
 
         this.setHash(n, localHash);
 
@@ -818,7 +979,6 @@ public class TrieImpl implements Trie {
      * put key with associated value, returning a new Trie
      *
      * @param key   key to be updated
-     * @param length    total length of key
      * @param keyPosition  current position of the key to be processed
      * @param value     associated value
      *
@@ -826,18 +986,17 @@ public class TrieImpl implements Trie {
      *         to finish the last step of recursion at the caller.
      *
      */
-    private TriePutResult put(byte[] key, int length, int keyPosition, byte[] value) {
+    private TriePutResult put(TrieKeySlice key, int keyPosition, byte[] value) {
         int position = keyPosition;
+        int length = key.length();
 
-        if (this.encodedSharedPath != null) {
-            byte[] sharedPath = PathEncoder.decode(this.encodedSharedPath, this.arity, this.sharedPathLength);
+        if (this.sharedPath != null) {
+            int k = this.sharedPath.lengthOfCommonPath(key, keyPosition);
 
-            int k = lengthOfCommonPath(key, length, keyPosition, sharedPath);
-
-            if (k >= sharedPath.length)
-                position += sharedPath.length;
+            if (k >= this.sharedPath.length())
+                position += this.sharedPath.length();
             else
-                return this.split(k).put(key, length, position, value);
+                return this.split(k).put(key, position, value);
         }
 
         if (position >= length) {
@@ -848,15 +1007,12 @@ public class TrieImpl implements Trie {
             if (isDeleteOperation)
                 return new TriePutResult(ResultAction.KEY_TO_DELETE_FOUND, this.getNumberOfChildren());
 
-            TrieImpl trieToReturn = new TrieImpl(this.arity, this.encodedSharedPath, this.sharedPathLength, value, newNodes, newHashes, this.store).withSecure(this.isSecure);
+            TrieImpl trieToReturn = new TrieImpl(this.arity, this.sharedPath, value, newNodes, newHashes, this.store).withSecure(this.isSecure);
             return new TriePutResult(ResultAction.PUT, trieToReturn);
         }
 
         if (isEmptyTrie(this.value, this.nodes, this.hashes)) {
-            int lshared = length - position;
-            byte[] shared = new byte[lshared];
-            System.arraycopy(key, position, shared, 0, lshared);
-            TrieImpl trieToReturn = new TrieImpl(this.arity, this.store, PathEncoder.encode(shared, this.arity), lshared, value, this.isSecure);
+            TrieImpl trieToReturn = new TrieImpl(this.arity, this.store, key.slice(position, length), value, this.isSecure);
 
             return new TriePutResult(ResultAction.PUT, trieToReturn);
         }
@@ -864,7 +1020,7 @@ public class TrieImpl implements Trie {
         TrieImpl[] newNodes = cloneNodes(true);
         byte[][] newHashes = cloneHashes();
 
-        int pos = key[position];
+        int pos = key.get(position);
 
         TrieImpl node = (TrieImpl)retrieveNode(pos);
 
@@ -872,7 +1028,7 @@ public class TrieImpl implements Trie {
             node = new TrieImpl(this.arity, this.store, this.isSecure);
 
         // do recursion to continue adding the new key or searching for the key to delete.
-        TriePutResult putResult = node.put(key, length, position + 1, value);
+        TriePutResult putResult = node.put(key, position + 1, value);
 
         if(ResultAction.KEY_TO_DELETE_FOUND == putResult.getAction()) {
             // tell my parent that he needs to delete me
@@ -884,7 +1040,7 @@ public class TrieImpl implements Trie {
         if (newHashes != null)
             newHashes[pos] = null;
 
-        TrieImpl trieToReturn = new TrieImpl(this.arity, this.encodedSharedPath, this.sharedPathLength, this.value, newNodes, newHashes, this.store).withSecure(this.isSecure);
+        TrieImpl trieToReturn = new TrieImpl(this.arity, this.sharedPath, this.value, newNodes, newHashes, this.store).withSecure(this.isSecure);
 
         return new TriePutResult(ResultAction.PUT, trieToReturn);
     }
@@ -923,24 +1079,13 @@ public class TrieImpl implements Trie {
                 newTrie = grandParent.deleteSonAndCompressOnlyOneSon(parent, putResult.getSonToDelete());
             } else {
                 // node to be deleted has more than one son, value must be set to null.
-                newTrie = new TrieImpl(grandParent.arity, grandParent.encodedSharedPath, grandParent.sharedPathLength, null, grandParent.nodes, null, grandParent.store).withSecure(grandParent.isSecure);
+                newTrie = new TrieImpl(grandParent.arity, grandParent.sharedPath, null, grandParent.nodes, grandParent.cloneHashes(), grandParent.store).withSecure(grandParent.isSecure);
             }
         }
 
         return newTrie;
     }
 
-    private int lengthOfCommonPath(byte[] key, int length, int position, byte[] sharedPath) {
-        int k;
-
-        for (k = 0; k < sharedPath.length && position + k < length; k++) {
-            if (sharedPath[k] != key[position + k])
-                break;
-        }
-
-        return k;
-    }
-
     /**
      * Used when 'this' needs to be split because a new key is been inserted.
      * This new key can be a prefix of the one the node has now or vice versa
@@ -951,95 +1096,93 @@ public class TrieImpl implements Trie {
         // create a new child trie to store 'this' current value
         TrieImpl[] newChildNodes = this.cloneNodes(false);
         byte[][] newChildHashes = this.cloneHashes();
-        TrieImpl newChildTrie = new TrieImpl(this.arity, null, 0, this.value, newChildNodes, newChildHashes, this.store).withSecure(this.isSecure);
+        TrieImpl newChildTrie = new TrieImpl(this.arity, null, this.value, newChildNodes, newChildHashes, this.store).withSecure(this.isSecure);
 
-        // set shared path for child
-        byte[] sharedPath = PathEncoder.decode(this.encodedSharedPath, this.arity, this.sharedPathLength);
-        boolean isNewKeyPrefix = sharedPath.length > sharedBitsBetweenKeys + 1;
+        // set shared path for child, the digits that are not shared between keys
+        int sharedLength = this.sharedPath.length();
+        boolean isNewKeyPrefix = sharedLength > sharedBitsBetweenKeys + 1;
         if (isNewKeyPrefix) {
-            // new child trie shared path = the bits that are not shared between keys
-            int newSharedLength = sharedPath.length - sharedBitsBetweenKeys - 1;
-            this.setSharedPath(newChildTrie, sharedBitsBetweenKeys + 1, sharedPath, newSharedLength);
+            newChildTrie.sharedPath = this.sharedPath.slice(sharedBitsBetweenKeys + 1, sharedLength);
         }
 
         // create a new parent for the recently built child
         TrieImpl newTrie = new TrieImpl(this.arity, this.store, this.isSecure);
         TrieImpl[] newNodes = new TrieImpl[this.arity];
-        int pos = sharedPath[sharedBitsBetweenKeys];
+        int pos = this.sharedPath.get(sharedBitsBetweenKeys);
         newNodes[pos] = newChildTrie;
         newTrie.nodes = newNodes;
 
         // set shared path for parent
         if (sharedBitsBetweenKeys > 0) {
-            this.setSharedPath(newTrie, 0, sharedPath, sharedBitsBetweenKeys);
+            newTrie.sharedPath = this.sharedPath.slice(0, sharedBitsBetweenKeys);
         }
 
         return newTrie;
     }
 
-    private void setSharedPath(TrieImpl newChildTrie, int pos, byte[] sharedPath, int newSharedLength) {
-        byte[] newShared = new byte[newSharedLength];
-        System.arraycopy(sharedPath, pos, newShared, 0, newSharedLength);
-        newChildTrie.encodedSharedPath = PathEncoder.encode(newShared, this.arity);
-        newChildTrie.sharedPathLength = newSharedLength;
+    /**
+     * mergeSharedPath builds the shared path of a node merged with its only subnode
+     *
+     * @param node  the node to remove
+     * @param digit the position of the subnode in the node
+     * @param son   the subnode to keep
+     *
+     * @return  the node path, the position of the subnode and the subnode path
+     */
+    private static TrieKeySlice mergeSharedPath(TrieImpl node, int digit, TrieImpl son) {
+        TrieKeySlice empty = TrieKeySlice.fromKey(EMPTY_BYTE_ARRAY, node.arity);
+        TrieKeySlice prefix = node.sharedPath == null ? empty : node.sharedPath;
+        TrieKeySlice suffix = son.sharedPath == null ? empty : son.sharedPath;
+
+        return TrieKeySlice.concat(prefix, digit, suffix);
     }
 
     private TrieImpl deleteSonAndCompressOnlyOneSon(TrieImpl parent, int sonToDeletePos) {
 
         TrieImpl sonToDelete = parent.nodes[sonToDeletePos];
 
-        // search for the son that is not going to be deleted
+        // search for the son that is not going to be deleted, it could be only in the store
         int grandSonToKeepPos = 0;
-        for(int i = 0; i < sonToDelete.nodes.length; i++) {
-            if(sonToDelete.nodes[i] != null) {
+        for(int i = 0; i < sonToDelete.arity; i++) {
+            if(sonToDelete.retrieveNode(i) != null) {
                 grandSonToKeepPos = i;
             }
         }
-        TrieImpl grandSonToKeep = sonToDelete.nodes[grandSonToKeepPos];
-
-        // get prefix and suffix to compress
-        byte[] decodedPrefix = sonToDelete.sharedPathLength == 0 ? new byte[] {} : PathEncoder.decode(sonToDelete.encodedSharedPath, sonToDelete.arity, sonToDelete.sharedPathLength);
-        byte[] decodedSuffix = grandSonToKeep.sharedPathLength == 0 ? new byte[] {} : PathEncoder.decode(grandSonToKeep.encodedSharedPath, grandSonToKeep.arity, grandSonToKeep.sharedPathLength);
-        byte[] newDecode = new byte[decodedPrefix.length + 1 + decodedSuffix.length];
+        TrieImpl grandSonToKeep = sonToDelete.getNode(grandSonToKeepPos);
 
         // build new shared path because of compression action
-        System.arraycopy(decodedPrefix, 0, newDecode, 0, decodedPrefix.length);
-        newDecode[decodedPrefix.length] = (byte)grandSonToKeepPos;
-        System.arraycopy(decodedSuffix, 0, newDecode, decodedPrefix.length + 1, decodedSuffix.length);
-        byte[] newEncode = PathEncoder.encode(newDecode, sonToDelete.arity);
+        TrieKeySlice newSharedPath = mergeSharedPath(sonToDelete, grandSonToKeepPos, grandSonToKeep);
 
         TrieImpl[] newNodes = this.cloneNodes(grandSonToKeep, false);
         byte[][] newHashes = this.cloneHashes(grandSonToKeep);
-        TrieImpl newSon = new TrieImpl(grandSonToKeep.arity, newEncode, decodedPrefix.length + 1 + decodedSuffix.length, grandSonToKeep.value, newNodes, newHashes, grandSonToKeep.store).withSecure(grandSonToKeep.isSecure);
+        TrieImpl newSon = new TrieImpl(grandSonToKeep.arity, newSharedPath, grandSonToKeep.value, newNodes, newHashes, grandSonToKeep.store).withSecure(grandSonToKeep.isSecure);
         TrieImpl[] newParentSons = this.cloneNodesNullSafe(parent);
         newParentSons[sonToDeletePos] = newSon;
 
-        return new TrieImpl(parent.arity, parent.encodedSharedPath, parent.sharedPathLength, parent.value, newParentSons, null, parent.store).withSecure(parent.isSecure);
+        // keep the hashes of the other sons, they could be only in the store
+        byte[][] newParentHashes = this.cloneHashes(parent);
+
+        if (newParentHashes != null)
+            newParentHashes[sonToDeletePos] = null;
+
+        return new TrieImpl(parent.arity, parent.sharedPath, parent.value, newParentSons, newParentHashes, parent.store).withSecure(parent.isSecure);
     }
 
     private TrieImpl deleteSonAndCompress(TrieImpl parentToReplace, int sonToDelete) {
 
-        // search for the son that is not going to be deleted
+        // search for the son that is not going to be deleted, it could be only in the store
         int sonToKeepPos = 0;
-        for(int i = 0; i < parentToReplace.nodes.length; i++) {
-            if(parentToReplace.nodes[i] != null && i != sonToDelete) {
+        for(int i = 0; i < parentToReplace.arity; i++) {
+            if(i != sonToDelete && parentToReplace.retrieveNode(i) != null) {
                 sonToKeepPos = i;
             }
         }
-        TrieImpl sonToKeep = parentToReplace.nodes[sonToKeepPos];
-
-        // get prefix and suffix to compress
-        byte[] decodedPrefix = parentToReplace.sharedPathLength == 0 ? new byte[] {} : PathEncoder.decode(parentToReplace.encodedSharedPath, parentToReplace.arity, parentToReplace.sharedPathLength);
-        byte[] decodedSuffix = sonToKeep.sharedPathLength == 0 ? new byte[] {} : PathEncoder.decode(sonToKeep.encodedSharedPath, sonToKeep.arity, sonToKeep.sharedPathLength);
-        byte[] newDecode = new byte[decodedPrefix.length + 1 + decodedSuffix.length];
+        TrieImpl sonToKeep = parentToReplace.getNode(sonToKeepPos);
 
         // build new shared path because of compression action
-        System.arraycopy(decodedPrefix, 0, newDecode, 0, decodedPrefix.length);
-        newDecode[decodedPrefix.length] = (byte)sonToKeepPos;
-        System.arraycopy(decodedSuffix, 0, newDecode, decodedPrefix.length + 1, decodedSuffix.length);
-        byte[] newEncode = PathEncoder.encode(newDecode, sonToKeep.arity);
+        TrieKeySlice newSharedPath = mergeSharedPath(parentToReplace, sonToKeepPos, sonToKeep);
 
-        return new TrieImpl(sonToKeep.arity, newEncode, decodedPrefix.length + 1 + decodedSuffix.length, sonToKeep.value, sonToKeep.nodes, sonToKeep.hashes, sonToKeep.store).withSecure(sonToKeep.isSecure);
+        return new TrieImpl(sonToKeep.arity, newSharedPath, sonToKeep.value, sonToKeep.nodes, sonToKeep.hashes, sonToKeep.store).withSecure(sonToKeep.isSecure);
     }
 
     /**
@@ -1166,6 +1309,37 @@ public class TrieImpl implements Trie {
         return keyBytes;
     }
 
+    /**
+     * keyToBytes is the inverse of bytesToKey, it packs the first digits
+     * of an expanded key into bytes
+     *
+     * @param key       expanded key
+     * @param length    number of digits to pack
+     * @param arity     number of subnodes in each node trie
+     *
+     * @return original key
+     */
+    public static byte[] keyToBytes(byte[] key, int length, int arity) {
+        int factor = 8;
+        int nbits = 1;
+
+        if (arity == 4) {
+            factor = 4;
+            nbits = 2;
+        }
+        else if (arity == 16) {
+            factor = 2;
+            nbits = 4;
+        }
+
+        byte[] bytes = new byte[(length + factor - 1) / factor];
+
+        for (int k = 0; k < length; k++)
+            bytes[k / factor] |= key[k] << (nbits * (factor - k % factor - 1));
+
+        return bytes;
+    }
+
     @Override
     public Trie getSnapshotTo(byte[] hash) {
         this.save();
@@ -1180,16 +1354,6 @@ public class TrieImpl implements Trie {
         return this.store;
     }
 
-    private static int getEncodedPathLength(int length, int arity) {
-        if (arity == 2)
-            return length / 8 + (length % 8 == 0 ? 0 : 1);
-
-        if (arity == 16)
-            return length / 2 + (length % 2 == 0 ? 0 : 1);
-
-        return 0;
-    }
-
     /**
      * makeEmpyHash creates the hash associated to empty nodes
      *
@@ -0,0 +1,244 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * TrieIterator walks the values of a trie in key order, depth first
+ *
+ * The subnodes are retrieved from the store when they are reached, and they
+ * are not kept in their parents, so the iterator only holds the nodes in the
+ * current path
+ *
+ * The iteration can be bounded by a key range. The bounds are expanded keys,
+ * see TrieImpl.bytesToKey. The subtrees out of the range are not visited
+ *
+ * The returned keys are the ones used in the trie: in a secure trie, the hashes
+ * of the original keys. The returned values are shared with the nodes, they must
+ * not be modified
+ */
+public class TrieIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+    private final int arity;
+
+    // expanded lower bound, inclusive, null if there is no lower bound
+    private final byte[] from;
+
+    // expanded upper bound, exclusive, null if there is no upper bound
+    private final byte[] to;
+
+    // the nodes in the current path, the top one is the last visited node
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    // the expanded key of the top node
+    private byte[] path = new byte[64];
+
+    private Map.Entry<byte[], byte[]> next;
+    private boolean finished;
+
+    TrieIterator(TrieImpl trie, byte[] from, byte[] to) {
+        this.arity = trie.getArity();
+        this.from = from;
+        this.to = to;
+
+        this.push(trie, 0, -1, from != null, to != null);
+    }
+
+    /**
+     * withPrefix creates an iterator over the keys with a given prefix
+     *
+     * @param trie      the trie to walk
+     * @param prefix    the expanded key prefix
+     *
+     * @return  the new iterator
+     */
+    static TrieIterator withPrefix(TrieImpl trie, byte[] prefix) {
+        return new TrieIterator(trie, prefix, successor(prefix, trie.getArity()));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null)
+            this.next = this.advance();
+
+        return this.next != null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (!this.hasNext())
+            throw new NoSuchElementException();
+
+        Map.Entry<byte[], byte[]> result = this.next;
+        this.next = null;
+
+        return result;
+    }
+
+    private Map.Entry<byte[], byte[]> advance() {
+        while (!this.finished && !this.frames.isEmpty()) {
+            Frame frame = this.frames.peek();
+
+            if (frame.nextChild < 0) {
+                // the keys below the lower bound are skipped
+                frame.nextChild = frame.lower ? this.from[frame.position] : 0;
+
+                byte[] value = frame.node.getValue();
+
+                if (!frame.lower && value != null && value.length > 0)
+                    return new AbstractMap.SimpleImmutableEntry<>(TrieImpl.keyToBytes(this.path, frame.position, this.arity), value);
+
+                continue;
+            }
+
+            if (frame.nextChild >= this.arity || frame.upper && frame.nextChild > this.to[frame.position]) {
+                this.frames.pop();
+
+                // the next subtrees are above the upper bound
+                if (frame.upper)
+                    this.finish();
+
+                continue;
+            }
+
+            int k = frame.nextChild++;
+            TrieImpl node = frame.node.peekNode(k);
+
+            if (node != null)
+                this.push(node, frame.position, k, frame.lower, frame.upper);
+        }
+
+        return null;
+    }
+
+    /**
+     * push adds a node to the current path, if its subtree can have keys in the range
+     *
+     * @param node      the node to add
+     * @param start     the length of the parent key
+     * @param digit     the position of the node in its parent, -1 for the top node
+     * @param lower     the parent key is a prefix of the lower bound
+     * @param upper     the parent key is a prefix of the upper bound
+     */
+    private void push(TrieImpl node, int start, int digit, boolean lower, boolean upper) {
+        int sharedPathLength = node.getSharedPathLength();
+        int position = start;
+
+        this.path = ensureCapacity(this.path, start + sharedPathLength + 2);
+
+        if (digit >= 0)
+            this.path[position++] = (byte) digit;
+
+        for (int k = 0; k < sharedPathLength; k++)
+            this.path[position++] = (byte) node.getSharedPathDigit(k);
+
+        boolean isLower = lower;
+        boolean isUpper = upper;
+
+        for (int k = start; k < position && (isLower || isUpper); k++) {
+            if (isLower) {
+                if (k >= this.from.length || this.path[k] > this.from[k])
+                    isLower = false;
+                else if (this.path[k] < this.from[k])
+                    return;
+            }
+
+            if (isUpper) {
+                if (k >= this.to.length || this.path[k] > this.to[k]) {
+                    this.finish();
+                    return;
+                }
+
+                if (this.path[k] < this.to[k])
+                    isUpper = false;
+            }
+        }
+
+        if (isLower && position >= this.from.length)
+            isLower = false;
+
+        if (isUpper && position >= this.to.length) {
+            this.finish();
+            return;
+        }
+
+        this.frames.push(new Frame(node, position, isLower, isUpper));
+    }
+
+    private void finish() {
+        this.finished = true;
+        this.frames.clear();
+    }
+
+    /**
+     * successor returns the first expanded key after all the keys with a given prefix
+     *
+     * @return  the successor, null if there is no such key
+     */
+    private static byte[] successor(byte[] prefix, int arity) {
+        int length = prefix.length;
+
+        while (length > 0 && prefix[length - 1] == arity - 1)
+            length--;
+
+        if (length == 0)
+            return null;
+
+        byte[] result = Arrays.copyOf(prefix, length);
+        result[length - 1]++;
+
+        return result;
+    }
+
+    private static byte[] ensureCapacity(byte[] path, int length) {
+        if (path.length >= length)
+            return path;
+
+        return Arrays.copyOf(path, Math.max(path.length * 2, length));
+    }
+
+    private static class Frame {
+        private final TrieImpl node;
+
+        // the length of the node key
+        private final int position;
+
+        // the node key is a proper prefix of the lower bound
+        private final boolean lower;
+
+        // the node key is a proper prefix of the upper bound
+        private final boolean upper;
+
+        // the next subnode to visit, -1 if the node value was not visited
+        private int nextChild = -1;
+
+        Frame(TrieImpl node, int position, boolean lower, boolean upper) {
+            this.node = node;
+            this.position = position;
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+}
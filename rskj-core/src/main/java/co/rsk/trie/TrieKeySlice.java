@@ -0,0 +1,259 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import java.util.Arrays;
+
+/**
+ * TrieKeySlice is a range of the digits packed in a byte array, as the trie keys
+ * and the encoded shared paths are. A digit has 1, 2 or 4 bits, depending on the
+ * trie arity, and the digits are packed from the most significant bit of each byte,
+ * so a key is its own encoded path
+ *
+ * The slices share the array, so the keys are walked without expanding them to
+ * a byte per digit, and the paths are split without copying them. The array must
+ * not be modified
+ */
+final class TrieKeySlice {
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final byte[] bytes;
+
+    // the position of the first digit in the array
+    private final int offset;
+
+    // the number of digits
+    private final int length;
+
+    // the number of bits of each digit
+    private final int nbits;
+
+    // the packed digits starting at a byte boundary, computed on demand
+    private byte[] encoded;
+
+    private TrieKeySlice(byte[] bytes, int offset, int length, int nbits) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.nbits = nbits;
+    }
+
+    /**
+     * fromKey creates a slice with all the digits of a key
+     *
+     * @param key       the key bytes, they are shared with the slice
+     * @param arity     the trie arity
+     */
+    static TrieKeySlice fromKey(byte[] key, int arity) {
+        int nbits = getBitsPerDigit(arity);
+
+        return new TrieKeySlice(key, 0, key.length * 8 / nbits, nbits);
+    }
+
+    /**
+     * fromEncoded creates a slice from an encoded path, as it is serialized
+     *
+     * @param encoded   the packed digits, they are shared with the slice
+     * @param length    the number of digits
+     * @param arity     the trie arity
+     */
+    static TrieKeySlice fromEncoded(byte[] encoded, int length, int arity) {
+        TrieKeySlice slice = new TrieKeySlice(encoded, 0, length, getBitsPerDigit(arity));
+
+        if (encoded.length == getEncodedLength(length, arity) && slice.hasZeroPadding())
+            slice.encoded = encoded;
+
+        return slice;
+    }
+
+    /**
+     * concat creates the path of a node merged with its only subnode
+     *
+     * @param prefix    the node path
+     * @param digit     the position of the subnode
+     * @param suffix    the subnode path
+     *
+     * @return  a new slice over a new array
+     */
+    static TrieKeySlice concat(TrieKeySlice prefix, int digit, TrieKeySlice suffix) {
+        int nbits = prefix.nbits;
+        int length = prefix.length + 1 + suffix.length;
+        byte[] result = new byte[(length * nbits + 7) / 8];
+
+        for (int k = 0; k < prefix.length; k++)
+            setDigit(result, k, nbits, prefix.get(k));
+
+        setDigit(result, prefix.length, nbits, digit);
+
+        for (int k = 0; k < suffix.length; k++)
+            setDigit(result, prefix.length + 1 + k, nbits, suffix.get(k));
+
+        TrieKeySlice slice = new TrieKeySlice(result, 0, length, nbits);
+        slice.encoded = result;
+
+        return slice;
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * get returns the digit at a position
+     *
+     * @param position  the digit position in the slice, from 0 to length - 1
+     *
+     * @return  the digit, from 0 to arity - 1
+     */
+    int get(int position) {
+        int bit = (this.offset + position) * this.nbits;
+
+        return (this.bytes[bit >> 3] >> (8 - this.nbits - (bit & 7))) & ((1 << this.nbits) - 1);
+    }
+
+    /**
+     * slice returns a range of this slice, sharing its array
+     *
+     * @param from  the first digit, inclusive
+     * @param to    the last digit, exclusive
+     */
+    TrieKeySlice slice(int from, int to) {
+        if (from == 0 && to == this.length)
+            return this;
+
+        return new TrieKeySlice(this.bytes, this.offset + from, to - from, this.nbits);
+    }
+
+    /**
+     * lengthOfCommonPath compares this slice with the digits of a key from a position
+     *
+     * @param key       the key
+     * @param position  the first digit of the key to compare
+     *
+     * @return  the number of leading digits shared by both
+     */
+    int lengthOfCommonPath(TrieKeySlice key, int position) {
+        int max = Math.min(this.length, key.length - position);
+        int digitsPerByte = 8 / this.nbits;
+        int k = 0;
+
+        // whole bytes are compared while both are aligned to a byte boundary
+        if ((this.offset % digitsPerByte) == ((key.offset + position) % digitsPerByte)) {
+            for (; k < max && (this.offset + k) % digitsPerByte != 0; k++)
+                if (this.get(k) != key.get(position + k))
+                    return k;
+
+            int i = (this.offset + k) / digitsPerByte;
+            int j = (key.offset + position + k) / digitsPerByte;
+
+            while (k + digitsPerByte <= max && this.bytes[i] == key.bytes[j]) {
+                k += digitsPerByte;
+                i++;
+                j++;
+            }
+        }
+
+        for (; k < max; k++)
+            if (this.get(k) != key.get(position + k))
+                break;
+
+        return k;
+    }
+
+    /**
+     * encode returns the digits packed from the first bit, with the unused bits
+     * of the last byte set to zero, as they are serialized
+     *
+     * @return  the packed digits, shared with the slice, they must not be modified
+     */
+    byte[] encode() {
+        if (this.encoded != null)
+            return this.encoded;
+
+        if (this.length == 0) {
+            this.encoded = EMPTY_BYTES;
+            return this.encoded;
+        }
+
+        int lencoded = (this.length * this.nbits + 7) / 8;
+        byte[] result;
+
+        if (this.offset * this.nbits % 8 == 0) {
+            int first = this.offset * this.nbits / 8;
+            result = Arrays.copyOfRange(this.bytes, first, first + lencoded);
+
+            int unused = lencoded * 8 - this.length * this.nbits;
+            result[lencoded - 1] &= 0xff << unused;
+        }
+        else {
+            result = new byte[lencoded];
+
+            for (int k = 0; k < this.length; k++)
+                setDigit(result, k, this.nbits, this.get(k));
+        }
+
+        this.encoded = result;
+
+        return result;
+    }
+
+    /**
+     * expand returns the digits, a byte per digit, see TrieImpl.bytesToKey
+     */
+    byte[] expand() {
+        byte[] digits = new byte[this.length];
+
+        for (int k = 0; k < this.length; k++)
+            digits[k] = (byte) this.get(k);
+
+        return digits;
+    }
+
+    /**
+     * getEncodedLength returns the number of bytes of an encoded path
+     *
+     * @param length    the number of digits
+     * @param arity     the trie arity
+     */
+    static int getEncodedLength(int length, int arity) {
+        return (length * getBitsPerDigit(arity) + 7) / 8;
+    }
+
+    private boolean hasZeroPadding() {
+        int unused = this.bytes.length * 8 - this.length * this.nbits;
+
+        return unused == 0 || (this.bytes[this.bytes.length - 1] & ((1 << unused) - 1)) == 0;
+    }
+
+    private static void setDigit(byte[] bytes, int position, int nbits, int digit) {
+        int bit = position * nbits;
+
+        bytes[bit >> 3] |= digit << (8 - nbits - (bit & 7));
+    }
+
+    private static int getBitsPerDigit(int arity) {
+        if (arity == 16)
+            return 4;
+
+        if (arity == 4)
+            return 2;
+
+        return 1;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import co.rsk.config.RskSystemProperties;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * TrieNodeCache keeps decoded trie nodes by hash, bounded by the total size in bytes
+ * of their serialized form, evicting the least recently used nodes first
+ *
+ * The cached nodes are detached: they have no store and reference their subnodes
+ * only by hash. TrieStoreImpl returns a fresh copy bound to itself on each hit,
+ * so the cached instances are never modified
+ *
+ * There is one cache per key value data source, shared by all the trie stores
+ * that use that data source. The caches of all the data sources are partitions of
+ * one least recently used list, so the size limit is for the whole process. A node
+ * is only found in the partition of the data source it was saved to or retrieved from
+ */
+public class TrieNodeCache {
+    // approximate memory used by an entry besides the serialized node
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private static final Map<KeyValueDataSource, TrieNodeCache> caches = new WeakHashMap<>();
+
+    // the cache whose size limit is shared by the caches of all the data sources
+    private static TrieNodeCache root;
+
+    private final Entries entries;
+
+    // the counters of this partition, guarded by the entries lock
+    private int count = 0;
+    private long sizeInBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public TrieNodeCache(long maxSizeInBytes) {
+        this(new Entries(maxSizeInBytes));
+    }
+
+    private TrieNodeCache(Entries entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * forDataSource returns the cache shared by the trie stores using a data source
+     *
+     * The in memory data sources have no cache, their nodes are already in memory
+     *
+     * @param dataSource    the key value data source
+     *
+     * @return  the shared cache, or null if the cache is disabled by configuration
+     *          or the data source is in memory
+     */
+    public static synchronized TrieNodeCache forDataSource(KeyValueDataSource dataSource) {
+        long size = RskSystemProperties.RSKCONFIG.trieNodeCacheSize();
+
+        if (size <= 0 || dataSource == null || dataSource instanceof HashMapDB)
+            return null;
+
+        TrieNodeCache cache = caches.get(dataSource);
+
+        if (cache == null) {
+            if (root == null)
+                root = new TrieNodeCache(size);
+
+            cache = root.partition();
+            caches.put(dataSource, cache);
+        }
+
+        return cache;
+    }
+
+    /**
+     * partition returns a new cache, with its own nodes, that shares the size limit
+     * and the least recently used list with this cache
+     */
+    TrieNodeCache partition() {
+        return new TrieNodeCache(this.entries);
+    }
+
+    /**
+     * get returns the cached node associated with the hash
+     *
+     * @param hash  the node hash
+     *
+     * @return  the detached node, null if it is not in cache
+     */
+    public TrieImpl get(byte[] hash) {
+        synchronized (this.entries) {
+            Entry entry = this.entries.map.get(new Key(this, hash));
+
+            if (entry == null) {
+                this.missCount++;
+                return null;
+            }
+
+            this.hitCount++;
+
+            return entry.node;
+        }
+    }
+
+    /**
+     * put adds a detached node to the cache, evicting the least recently used nodes
+     * of all the partitions if the size limit is exceeded
+     *
+     * @param hash      the node hash
+     * @param node      the node, without store
+     * @param length    the length of the node serialized form
+     */
+    public void put(byte[] hash, TrieImpl node, int length) {
+        int size = length + ENTRY_OVERHEAD;
+
+        synchronized (this.entries) {
+            if (size > this.entries.maxSizeInBytes)
+                return;
+
+            Entry previous = this.entries.map.put(new Key(this, hash), new Entry(node, size));
+
+            if (previous != null)
+                this.removed(previous.size);
+
+            this.count++;
+            this.sizeInBytes += size;
+            this.entries.sizeInBytes += size;
+
+            Iterator<Map.Entry<Key, Entry>> iterator = this.entries.map.entrySet().iterator();
+
+            while (this.entries.sizeInBytes > this.entries.maxSizeInBytes && iterator.hasNext()) {
+                Map.Entry<Key, Entry> eldest = iterator.next();
+                TrieNodeCache owner = eldest.getKey().owner;
+
+                owner.removed(eldest.getValue().size);
+                owner.evictionCount++;
+                iterator.remove();
+            }
+        }
+    }
+
+    public void remove(byte[] hash) {
+        synchronized (this.entries) {
+            Entry entry = this.entries.map.remove(new Key(this, hash));
+
+            if (entry != null)
+                this.removed(entry.size);
+        }
+    }
+
+    private void removed(int size) {
+        this.count--;
+        this.sizeInBytes -= size;
+        this.entries.sizeInBytes -= size;
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.count;
+        }
+    }
+
+    public long getSizeInBytes() {
+        synchronized (this.entries) {
+            return this.sizeInBytes;
+        }
+    }
+
+    /**
+     * getMaxSizeInBytes returns the size limit, shared with the other partitions
+     */
+    public long getMaxSizeInBytes() { return this.entries.maxSizeInBytes; }
+
+    public long getHitCount() {
+        synchronized (this.entries) {
+            return this.hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (this.entries) {
+            return this.missCount;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (this.entries) {
+            return this.evictionCount;
+        }
+    }
+
+    // the least recently used list of the nodes of all the partitions
+    private static class Entries {
+        private final long maxSizeInBytes;
+        private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long sizeInBytes = 0;
+
+        Entries(long maxSizeInBytes) {
+            this.maxSizeInBytes = maxSizeInBytes;
+        }
+    }
+
+    private static class Key {
+        private final TrieNodeCache owner;
+        private final byte[] hash;
+        private final int hashCode;
+
+        Key(TrieNodeCache owner, byte[] hash) {
+            this.owner = owner;
+            this.hash = hash;
+            this.hashCode = 31 * System.identityHashCode(owner) + Arrays.hashCode(hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+
+            Key other = (Key) o;
+
+            return this.owner == other.owner && Arrays.equals(this.hash, other.hash);
+        }
+    }
+
+    private static class Entry {
+        private final TrieImpl node;
+        private final int size;
+
+        Entry(TrieImpl node, int size) {
+            this.node = node;
+            this.size = size;
+        }
+    }
+}
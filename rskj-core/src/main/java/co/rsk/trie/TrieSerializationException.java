@@ -22,6 +22,10 @@ package co.rsk.trie;
  * Created by ajlopez on 21/04/2017.
  */
 public class TrieSerializationException extends RuntimeException {
+    public TrieSerializationException(String message) {
+        super(message);
+    }
+
     public TrieSerializationException(String message, Exception ex) {
         super(message, ex);
     }
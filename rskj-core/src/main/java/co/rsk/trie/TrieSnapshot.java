@@ -0,0 +1,274 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.crypto.SHA3Helper;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * TrieSnapshot writes the nodes of a trie in a file, and reads them into a store,
+ * in chunks, so the memory used does not depend on the size of the trie
+ *
+ * The file has a header with the format version and the root hash, followed by
+ * chunks of serialized nodes. Each chunk has its number of nodes, its length in
+ * bytes, the nodes (length and message of each one), and the CRC32 of the nodes.
+ * A chunk without nodes ends the file
+ *
+ * The nodes are written depth first, the parents before their subnodes, in
+ * subnode order. A subtree that appears twice in the trie is written twice, so
+ * no set of written hashes is kept. The reader walks the trie in the same order,
+ * so it checks that the file has exactly the nodes of the trie, and writes each
+ * chunk to the store in one batch
+ */
+class TrieSnapshot {
+    static final short VERSION = 1;
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // a chunk can be larger than the chunk size only if it has one node
+    private static final int MAX_CHUNK_LENGTH = 64 * 1024 * 1024;
+
+    private static final int HEADER_LENGTH = Short.BYTES + SHA3Helper.DEFAULT_SIZE_BYTES;
+    private static final int CHUNK_HEADER_LENGTH = Integer.BYTES * 2;
+
+    private final TrieStoreImpl store;
+    private final int chunkSize;
+
+    TrieSnapshot(TrieStoreImpl store, int chunkSize) {
+        this.store = store;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * write writes the nodes of a trie from the current channel position
+     *
+     * @param root      the root hash of the trie
+     * @param channel   the channel to write to
+     *
+     * @return  the number of written nodes
+     */
+    long write(byte[] root, FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putShort(VERSION);
+        header.put(root);
+        header.flip();
+        writeFully(channel, header);
+
+        ByteBuffer chunk = ByteBuffer.allocate(0);
+        int nodes = 0;
+        long count = 0;
+
+        Deque<byte[]> pending = new ArrayDeque<>();
+
+        if (!Arrays.equals(HashUtil.EMPTY_TRIE_HASH, root))
+            pending.push(root);
+
+        while (!pending.isEmpty()) {
+            byte[] hash = pending.pop();
+            byte[] message = this.store.getMessage(hash);
+
+            if (message == null)
+                throw new TrieSerializationException("Trie node not found in store: " + Hex.toHexString(hash));
+
+            if (nodes > 0 && chunk.remaining() < Integer.BYTES + message.length) {
+                writeChunk(channel, chunk, nodes);
+                nodes = 0;
+            }
+
+            int capacity = Math.max(this.chunkSize, Integer.BYTES + message.length);
+
+            if (nodes == 0 && chunk.capacity() != capacity)
+                chunk = ByteBuffer.allocate(checkChunkLength(capacity));
+
+            chunk.putInt(message.length);
+            chunk.put(message);
+            nodes++;
+            count++;
+
+            pushSubnodes(pending, message);
+        }
+
+        if (nodes > 0)
+            writeChunk(channel, chunk, nodes);
+
+        writeChunk(channel, chunk, 0);
+
+        return count;
+    }
+
+    /**
+     * read reads the nodes of a trie from the current channel position, and saves
+     * them in the store
+     *
+     * @param channel   the channel to read from
+     *
+     * @return  the root hash of the trie
+     */
+    byte[] read(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_LENGTH));
+        short version = header.getShort();
+
+        if (version != VERSION)
+            throw new TrieSerializationException("Unknown trie snapshot version: " + version);
+
+        byte[] root = new byte[SHA3Helper.DEFAULT_SIZE_BYTES];
+        header.get(root);
+
+        Deque<byte[]> expected = new ArrayDeque<>();
+
+        if (!Arrays.equals(HashUtil.EMPTY_TRIE_HASH, root))
+            expected.push(root);
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+        ByteBuffer chunk = ByteBuffer.allocate(this.chunkSize);
+
+        while (true) {
+            chunkHeader.clear();
+            readFully(channel, chunkHeader);
+
+            int nodes = chunkHeader.getInt();
+            int length = chunkHeader.getInt();
+
+            if (nodes == 0)
+                break;
+
+            if (nodes < 0 || length < 0 || length > MAX_CHUNK_LENGTH)
+                throw new TrieSerializationException("Invalid trie snapshot chunk");
+
+            if (chunk.capacity() < length + Long.BYTES)
+                chunk = ByteBuffer.allocate(length + Long.BYTES);
+
+            chunk.clear();
+            chunk.limit(length + Long.BYTES);
+            readFully(channel, chunk);
+
+            CRC32 crc = new CRC32();
+            crc.update(chunk.array(), 0, length);
+
+            if (crc.getValue() != chunk.getLong(length))
+                throw new TrieSerializationException("Invalid trie snapshot chunk checksum");
+
+            this.store.saveMessages(readNodes(chunk, nodes, length, expected));
+        }
+
+        if (!expected.isEmpty())
+            throw new TrieSerializationException("Trie snapshot is incomplete");
+
+        this.store.flush();
+
+        return root;
+    }
+
+    private static Map<byte[], byte[]> readNodes(ByteBuffer chunk, int nodes, int length, Deque<byte[]> expected) {
+        Map<byte[], byte[]> rows = new HashMap<>();
+
+        for (int k = 0; k < nodes; k++) {
+            if (chunk.position() + Integer.BYTES > length)
+                throw new TrieSerializationException("Invalid trie snapshot chunk");
+
+            int lmessage = chunk.getInt();
+
+            if (lmessage < 0 || chunk.position() + lmessage > length)
+                throw new TrieSerializationException("Invalid trie snapshot chunk");
+
+            byte[] message = new byte[lmessage];
+            chunk.get(message);
+
+            byte[] hash = SHA3Helper.sha3(message);
+
+            if (expected.isEmpty() || !Arrays.equals(expected.pop(), hash))
+                throw new TrieSerializationException("Unexpected node in trie snapshot");
+
+            pushSubnodes(expected, message);
+            rows.put(hash, message);
+        }
+
+        return rows;
+    }
+
+    // the subnodes are pushed in reverse order, so they are popped in order
+    private static void pushSubnodes(Deque<byte[]> pending, byte[] message) {
+        TrieImpl node = TrieImpl.fromMessage(message, null);
+
+        for (int k = node.getArity(); k-- > 0;) {
+            byte[] hash = node.getHash(k);
+
+            if (hash != null)
+                pending.push(hash);
+        }
+    }
+
+    private static void writeChunk(FileChannel channel, ByteBuffer chunk, int nodes) throws IOException {
+        int length = chunk.position();
+
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 0, length);
+
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+        chunkHeader.putInt(nodes);
+        chunkHeader.putInt(length);
+        chunkHeader.flip();
+        writeFully(channel, chunkHeader);
+
+        if (nodes > 0) {
+            chunk.flip();
+            writeFully(channel, chunk);
+
+            ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES);
+            checksum.putLong(crc.getValue());
+            checksum.flip();
+            writeFully(channel, checksum);
+        }
+
+        chunk.clear();
+    }
+
+    private static int checkChunkLength(int length) {
+        if (length > MAX_CHUNK_LENGTH)
+            throw new TrieSerializationException("Trie node too large for a snapshot chunk");
+
+        return length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Unexpected end of trie snapshot");
+
+        buffer.flip();
+
+        return buffer;
+    }
+}
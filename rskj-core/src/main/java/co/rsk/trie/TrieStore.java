@@ -18,17 +18,35 @@
 
 package co.rsk.trie;
 
+import java.util.List;
+
 /**
  * Created by ajlopez on 29/03/2017.
  */
 public interface TrieStore {
     void save(Trie trie);
 
+    void saveAll(List<Trie> tries);
+
+    void flush();
+
+    /**
+     * close writes the pending nodes and stops writing in background;
+     * the nodes saved later are written directly
+     */
+    void close();
+
     int getSaveCount();
 
     Trie retrieve(byte[] hash);
 
     int getRetrieveCount();
 
+    int getCacheHitCount();
+
+    int getCacheMissCount();
+
+    long getCacheEvictionCount();
+
     byte[] serialize();
 }
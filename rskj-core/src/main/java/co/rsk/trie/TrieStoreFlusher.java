@@ -0,0 +1,192 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import co.rsk.panic.PanicProcessor;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.ethereum.util.ByteUtil.wrap;
+
+/**
+ * TrieStoreFlusher writes batches of trie nodes to a key value data source
+ * in a background thread
+ *
+ * The queue of batches is bounded: when it is full, the writer waits until
+ * the background thread writes a batch (backpressure)
+ *
+ * Nodes are kept in memory until they are written, so they can be retrieved
+ * while they are waiting in the queue
+ */
+public class TrieStoreFlusher {
+    private static final Logger logger = LoggerFactory.getLogger("triestore");
+    private static final PanicProcessor panicProcessor = new PanicProcessor();
+    private static final String PANIC_TOPIC = "triestore";
+    private static final String ERROR_WRITING_NODES = "Error writing trie nodes";
+
+    private final KeyValueDataSource store;
+    private final BlockingQueue<Map<byte[], byte[]>> queue;
+    private final Map<ByteArrayWrapper, byte[]> pending = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    // batches enqueued but not written yet
+    private int unwritten = 0;
+    private RuntimeException failure;
+    private boolean stopped;
+
+    public TrieStoreFlusher(KeyValueDataSource store, int queueSize) {
+        this.store = store;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.thread = new Thread(this::run, "TrieStoreFlusher-" + store.getName());
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    /**
+     * write enqueues a batch of nodes, waiting if the queue is full
+     * Once the flusher is stopped, the batch is written directly
+     *
+     * @param rows  the serialized nodes by hash
+     */
+    public void write(Map<byte[], byte[]> rows) {
+        synchronized (this) {
+            if (this.failure != null)
+                throw this.failure;
+
+            if (this.stopped) {
+                this.store.updateBatch(rows);
+                return;
+            }
+
+            this.unwritten++;
+        }
+
+        for (Map.Entry<byte[], byte[]> entry : rows.entrySet())
+            this.pending.put(wrap(entry.getKey()), entry.getValue());
+
+        try {
+            this.queue.put(rows);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while enqueuing trie nodes, writing them directly");
+            this.store.updateBatch(rows);
+            this.written(rows);
+        }
+    }
+
+    /**
+     * get returns a node that is waiting to be written
+     *
+     * @param hash  the node hash
+     *
+     * @return  the serialized node, null if it is not pending
+     */
+    public byte[] get(byte[] hash) {
+        return this.pending.get(wrap(hash));
+    }
+
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * flush waits until all the enqueued batches are written
+     *
+     * @throws TrieSerializationException if a batch could not be written,
+     * or if the thread is interrupted before the batches are written
+     */
+    public synchronized void flush() {
+        while (this.unwritten > 0 && this.failure == null) {
+            try {
+                this.wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TrieSerializationException("Interrupted while flushing trie nodes", ex);
+            }
+        }
+
+        if (this.failure != null)
+            throw this.failure;
+    }
+
+    /**
+     * stop writes the enqueued batches and stops the background thread
+     * The batches written after stopping are written directly
+     */
+    public void stop() {
+        synchronized (this) {
+            this.stopped = true;
+        }
+
+        this.flush();
+        this.thread.interrupt();
+    }
+
+    public synchronized boolean isStopped() {
+        return this.stopped;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Map<byte[], byte[]> rows;
+
+            try {
+                rows = this.queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                this.store.updateBatch(rows);
+                this.written(rows);
+            } catch (RuntimeException ex) {
+                logger.error(ERROR_WRITING_NODES, ex);
+                panicProcessor.panic(PANIC_TOPIC, ERROR_WRITING_NODES + ": " + ex.getMessage());
+
+                synchronized (this) {
+                    this.failure = new TrieSerializationException(ERROR_WRITING_NODES, ex);
+                    this.notifyAll();
+                }
+
+                return;
+            }
+        }
+    }
+
+    private void written(Map<byte[], byte[]> rows) {
+        for (byte[] key : rows.keySet())
+            this.pending.remove(wrap(key));
+
+        synchronized (this) {
+            this.unwritten--;
+            this.notifyAll();
+        }
+    }
+}
@@ -21,6 +21,9 @@ package co.rsk.trie;
 import co.rsk.panic.PanicProcessor;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.KeyValueIterator;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,8 +32,19 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * TrieStoreImpl store and retrieve Trie node by hash
@@ -39,6 +53,9 @@ import java.util.List;
  *
  * Internally, it uses a key value data source
  *
+ * If pruning is enabled, the nodes that are not reachable from a set of retained
+ * roots can be removed, see prune
+ *
  * Created by ajlopez on 08/01/2017.
  */
 public class TrieStoreImpl implements TrieStore {
@@ -47,15 +64,46 @@ public class TrieStoreImpl implements TrieStore {
     private static final String PANIC_TOPIC = "triestore";
     private static final String ERROR_CREATING_STORE = "Error creating trie store";
 
+    // prefix of the original keys of a secure trie, saved by their hash
+    private static final byte[] KEY_PREFIX = { 'k' };
+
+    // the nodes are saved by their hash, the other keys are not pruned
+    private static final int NODE_KEY_LENGTH = 32;
+
+    // max number of unreachable nodes checked and removed holding the pruning lock
+    private static final int SWEEP_BATCH_SIZE = 1000;
+
     // a key value data source to use
     private KeyValueDataSource store;
 
-    // internal variables, count of saves and retrieves
-    private int saveCount = 0;
-    private int retrieveCount = 0;
+    // decoded nodes shared by the stores using the same data source, null if disabled
+    private TrieNodeCache cache;
+
+    // background writer of saved nodes, null if nodes are written synchronously
+    private volatile TrieStoreFlusher flusher;
+
+    // guards the hashes of the saved nodes, so a node is not removed while it is saved again
+    private final Object pruneLock = new Object();
+
+    // hashes saved since the last prune started, null if pruning is not enabled
+    private volatile Set<ByteArrayWrapper> recentSaves;
+
+    // hashes saved in the interval between the two last prunes
+    private Set<ByteArrayWrapper> previousSaves;
+
+    // internal variables, count of saves and retrieves, updated by concurrent readers
+    private final AtomicInteger saveCount = new AtomicInteger();
+    private final AtomicInteger retrieveCount = new AtomicInteger();
+    private final AtomicInteger cacheHitCount = new AtomicInteger();
+    private final AtomicInteger cacheMissCount = new AtomicInteger();
 
     public TrieStoreImpl(KeyValueDataSource store) {
+        this(store, TrieNodeCache.forDataSource(store));
+    }
+
+    public TrieStoreImpl(KeyValueDataSource store, TrieNodeCache cache) {
         this.store = store;
+        this.cache = cache;
     }
 
     /**
@@ -64,12 +112,211 @@ public class TrieStoreImpl implements TrieStore {
      */
     @Override
     public void save(Trie trie) {
-        this.saveCount++;
-        this.store.put(trie.getHash(), trie.toMessage());
+        this.saveCount.incrementAndGet();
+
+        byte[] hash = trie.getHash();
+        byte[] message = trie.toMessage();
+
+        if (this.recentSaves != null)
+            synchronized (this.pruneLock) {
+                this.recentSaves.add(wrap(hash));
+            }
+
+        this.store.put(hash, message);
+
+        if (this.cache != null)
+            this.cache.put(hash, TrieImpl.fromMessage(message, null), message.length);
+    }
+
+    /**
+     * saveAll saves a list of Trie nodes to the store, in only one batch write
+     * @param tries
+     */
+    @Override
+    public void saveAll(List<Trie> tries) {
+        Map<byte[], byte[]> rows = new HashMap<>();
+
+        for (Trie trie : tries) {
+            byte[] hash = trie.getHash();
+            byte[] message = trie.toMessage();
+
+            rows.put(hash, message);
+
+            if (this.cache != null)
+                this.cache.put(hash, TrieImpl.fromMessage(message, null), message.length);
+        }
+
+        this.saveCount.addAndGet(tries.size());
+
+        this.saveMessages(rows);
+    }
+
+    /**
+     * saveMessages saves serialized nodes in one batch write, without decoding them
+     *
+     * @param rows  the serialized nodes by hash
+     */
+    void saveMessages(Map<byte[], byte[]> rows) {
+        if (this.recentSaves != null)
+            synchronized (this.pruneLock) {
+                for (byte[] hash : rows.keySet())
+                    this.recentSaves.add(wrap(hash));
+            }
+
+        if (this.flusher != null)
+            this.flusher.write(rows);
+        else
+            this.store.updateBatch(rows);
+    }
+
+    /**
+     * startFlusher writes the saved nodes in a background thread from now on
+     *
+     * @param queueSize max number of batches waiting to be written
+     */
+    public void startFlusher(int queueSize) {
+        if (this.flusher != null)
+            return;
+
+        this.flusher = new TrieStoreFlusher(this.store, queueSize);
+        this.flusher.start();
     }
 
+    /**
+     * flush waits until all the saved nodes are written to the key value data source
+     */
     @Override
-    public int getSaveCount() { return this.saveCount; }
+    public void flush() {
+        if (this.flusher != null)
+            this.flusher.flush();
+    }
+
+    /**
+     * close waits until all the saved nodes are written and stops the background thread
+     */
+    @Override
+    public void close() {
+        if (this.flusher != null)
+            this.flusher.stop();
+    }
+
+    /**
+     * enablePruning starts recording the hashes of the saved nodes. A node saved
+     * since the previous prune is never removed, even if it is not reachable from
+     * the retained roots, because it can belong to a state that is being built,
+     * ie the state of a block in execution
+     */
+    public void enablePruning() {
+        synchronized (this.pruneLock) {
+            if (this.recentSaves != null)
+                return;
+
+            this.previousSaves = new HashSet<>();
+            this.recentSaves = new HashSet<>();
+        }
+    }
+
+    /**
+     * prune removes from the data source the nodes that are not reachable from the
+     * retained roots (mark and sweep), except the ones saved since the previous prune.
+     * The saves and retrieves can run while it is pruning
+     *
+     * The original keys of a secure trie are not removed. The removed nodes are also
+     * evicted from the decoded node cache
+     *
+     * @param roots the root hashes of the tries to keep, the unknown ones are ignored
+     *
+     * @return  the number of removed nodes
+     */
+    public long prune(Collection<byte[]> roots) {
+        synchronized (this.pruneLock) {
+            if (this.recentSaves == null)
+                throw new IllegalStateException("Trie store pruning is not enabled");
+
+            this.previousSaves = this.recentSaves;
+            this.recentSaves = new HashSet<>();
+        }
+
+        Set<ByteArrayWrapper> reachable = this.markReachable(roots);
+
+        return this.sweepUnreachable(reachable);
+    }
+
+    private Set<ByteArrayWrapper> markReachable(Collection<byte[]> roots) {
+        Set<ByteArrayWrapper> reachable = new HashSet<>();
+        Deque<byte[]> pending = new ArrayDeque<>();
+
+        for (byte[] root : roots)
+            if (reachable.add(wrap(root)))
+                pending.push(root);
+
+        while (!pending.isEmpty()) {
+            byte[] message = this.getMessage(pending.pop());
+
+            // the empty trie is not saved
+            if (message == null)
+                continue;
+
+            TrieImpl node = TrieImpl.fromMessage(message, null);
+
+            for (int k = 0; k < node.getArity(); k++) {
+                byte[] hash = node.getHash(k);
+
+                if (hash != null && reachable.add(wrap(hash)))
+                    pending.push(hash);
+            }
+        }
+
+        return reachable;
+    }
+
+    private long sweepUnreachable(Set<ByteArrayWrapper> reachable) {
+        List<byte[]> unreachable = new ArrayList<>();
+        long removed = 0;
+
+        try (KeyValueIterator iterator = this.store.iterator(null, null)) {
+            while (iterator.hasNext()) {
+                byte[] key = iterator.next().getKey();
+
+                if (key.length != NODE_KEY_LENGTH || reachable.contains(wrap(key)))
+                    continue;
+
+                unreachable.add(key);
+
+                if (unreachable.size() >= SWEEP_BATCH_SIZE) {
+                    removed += this.remove(unreachable);
+                    unreachable.clear();
+                }
+            }
+        }
+
+        return removed + this.remove(unreachable);
+    }
+
+    private int remove(List<byte[]> keys) {
+        int removed = 0;
+
+        synchronized (this.pruneLock) {
+            for (byte[] key : keys) {
+                ByteArrayWrapper wrapped = wrap(key);
+
+                if (this.recentSaves.contains(wrapped) || this.previousSaves.contains(wrapped))
+                    continue;
+
+                this.store.delete(key);
+
+                if (this.cache != null)
+                    this.cache.remove(key);
+
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public int getSaveCount() { return this.saveCount.get(); }
 
     /**
      * retrieve retrieves a Trie instance from store, using hash a key
@@ -80,35 +327,125 @@ public class TrieStoreImpl implements TrieStore {
      */
     @Override
     public Trie retrieve(byte[] hash) {
-        this.retrieveCount++;
+        this.retrieveCount.incrementAndGet();
+
+        if (this.cache == null)
+            return TrieImpl.fromMessage(this.getMessage(hash), this);
+
+        TrieImpl node = this.cache.get(hash);
+
+        if (node != null) {
+            this.cacheHitCount.incrementAndGet();
+            return node.attachTo(this, hash);
+        }
+
+        this.cacheMissCount.incrementAndGet();
+
+        byte[] message = this.getMessage(hash);
 
-        byte[] message = this.store.get(hash);
+        if (message == null)
+            return null;
 
-        return TrieImpl.fromMessage(message, this);
+        node = TrieImpl.fromMessage(message, null);
+        this.cache.put(hash, node, message.length);
+
+        return node.attachTo(this, hash);
+    }
+
+    /**
+     * saveKey saves the original key of a secure trie, so it can be recovered from its hash
+     *
+     * @param hash  the key hash, as used in the trie
+     * @param key   the original key
+     */
+    public void saveKey(byte[] hash, byte[] key) {
+        this.store.put(ByteUtil.merge(KEY_PREFIX, hash), key);
     }
 
+    /**
+     * retrieveKey retrieves the original key of a secure trie
+     *
+     * @param hash  the key hash, as used in the trie
+     *
+     * @return  the original key, null if it was not saved
+     */
+    public byte[] retrieveKey(byte[] hash) {
+        return this.store.get(ByteUtil.merge(KEY_PREFIX, hash));
+    }
+
+    /**
+     * writeSnapshot writes the nodes of a trie to a file in chunks, see TrieSnapshot
+     *
+     * @param root      the root hash of the trie
+     * @param channel   the file to write to, from its current position
+     *
+     * @return  the number of written nodes
+     */
+    public long writeSnapshot(byte[] root, FileChannel channel) throws IOException {
+        return new TrieSnapshot(this, TrieSnapshot.DEFAULT_CHUNK_SIZE).write(root, channel);
+    }
+
+    /**
+     * readSnapshot saves the nodes of a trie written by writeSnapshot, one batch per chunk
+     *
+     * @param channel   the file to read from, from its current position
+     *
+     * @return  the root hash of the trie
+     */
+    public byte[] readSnapshot(FileChannel channel) throws IOException {
+        return new TrieSnapshot(this, TrieSnapshot.DEFAULT_CHUNK_SIZE).read(channel);
+    }
+
+    byte[] getMessage(byte[] hash) {
+        if (this.flusher != null) {
+            byte[] message = this.flusher.get(hash);
+
+            if (message != null)
+                return message;
+        }
+
+        return this.store.get(hash);
+    }
+
+    @Override
+    public int getRetrieveCount() { return this.retrieveCount.get(); }
+
+    @Override
+    public int getCacheHitCount() { return this.cacheHitCount.get(); }
+
     @Override
-    public int getRetrieveCount() { return this.retrieveCount; }
+    public int getCacheMissCount() { return this.cacheMissCount.get(); }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return this.cache == null ? 0 : this.cache.getEvictionCount();
+    }
 
     @Override
     public byte[] serialize() {
+        this.flush();
+
         List<byte[]> keys = new ArrayList<>();
         List<byte[]> values = new ArrayList<>();
 
         int lkeys = 0;
         int lvalues = 0;
 
-        for (byte[] key : this.store.keys()) {
-            byte[] value = this.store.get(key);
+        // ordered by key, so the same content is always serialized in the same way
+        try (KeyValueIterator iterator = this.store.iterator(null, null)) {
+            while (iterator.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                byte[] value = entry.getValue();
 
-            if (value == null || value.length == 0)
-                continue;
+                if (value == null || value.length == 0)
+                    continue;
 
-            keys.add(key);
-            values.add(value);
+                keys.add(entry.getKey());
+                values.add(value);
 
-            lkeys += key.length;
-            lvalues += value.length;
+                lkeys += entry.getKey().length;
+                lvalues += value.length;
+            }
         }
 
         int nkeys = keys.size();
@@ -133,10 +470,16 @@ public class TrieStoreImpl implements TrieStore {
     }
 
     public void copyFrom(TrieStoreImpl originalTrieStore) {
+        originalTrieStore.flush();
+
         KeyValueDataSource ds = originalTrieStore.store;
 
-        for (byte[] key : ds.keys())
-            this.store.put(key, ds.get(key));
+        try (KeyValueIterator iterator = ds.iterator(null, null)) {
+            while (iterator.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                this.store.put(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     public static TrieStoreImpl deserialize(byte[] bytes) {
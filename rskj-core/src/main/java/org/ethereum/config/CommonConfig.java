@@ -54,10 +54,23 @@ public class CommonConfig {
 
     @Bean
     public Repository repository() {
-        KeyValueDataSource ds = makeDataSource("state");
         KeyValueDataSource detailsDS = makeDataSource("details");
+        KeyValueDataSource codeDS = makeDataSource("code");
 
-        return new RepositoryImpl(new TrieStoreImpl(ds), detailsDS);
+        return new RepositoryImpl(stateTrieStore(), detailsDS, codeDS);
+    }
+
+    @Bean
+    public TrieStoreImpl stateTrieStore() {
+        TrieStoreImpl store = new TrieStoreImpl(makeDataSource("state"));
+
+        if (RskSystemProperties.RSKCONFIG.isTrieFlusherEnabled())
+            store.startFlusher(RskSystemProperties.RSKCONFIG.trieFlusherQueueSize());
+
+        if (RskSystemProperties.RSKCONFIG.isTriePruningEnabled())
+            store.enablePruning();
+
+        return store;
     }
 
     private KeyValueDataSource makeDataSource(String name) {
@@ -21,6 +21,7 @@ package org.ethereum.config;
 
 import co.rsk.config.RskSystemProperties;
 import co.rsk.core.NetworkStateExporter;
+import co.rsk.db.StatePruner;
 import co.rsk.metrics.BlockHeaderElement;
 import co.rsk.metrics.HashRateCalculator;
 import co.rsk.metrics.HashRateCalculatorImpl;
@@ -118,6 +119,11 @@ public class DefaultConfig {
         return indexedBlockStore;
     }
 
+    @Bean
+    public StatePruner statePruner() {
+        return new StatePruner(commonConfig.stateTrieStore(), blockStore());
+    }
+
     @Bean
     @Scope("prototype")
     LevelDbDataSource levelDbDataSource(String name) {
@@ -135,6 +141,14 @@ public class DefaultConfig {
         return store;
     }
 
+    @Bean
+    public LogIndex logIndex() {
+        KeyValueDataSource ds = new LevelDbDataSource("logs");
+        ds.init();
+
+        return new LogIndex(ds, appCtx.getBean(BlockStore.class), appCtx.getBean(ReceiptStore.class));
+    }
+
     @Bean
     public HashRateCalculator hashRateCalculator() {
         BlockStore blockStore = appCtx.getBean(BlockStore.class);
@@ -29,6 +29,7 @@ import org.ethereum.config.blockchain.RegTestConfig;
 import org.ethereum.config.net.TestNetConfig;
 import org.ethereum.config.net.*;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.LevelDbProfile;
 import org.ethereum.net.p2p.P2pHandler;
 import org.ethereum.net.rlpx.MessageCodec;
 import org.ethereum.net.rlpx.Node;
@@ -81,6 +82,8 @@ public class SystemProperties {
     /* Testing */
     private final static Boolean DEFAULT_VMTEST_LOAD_LOCAL = false;
     private final static String DEFAULT_BLOCKS_LOADER = "";
+    private final static long DEFAULT_VM_CODE_ANALYSIS_CACHE_SIZE = 16 * 1024 * 1024;
+    private final static int DEFAULT_DETAILS_CACHE_SIZE = 10000;
 
     private static final String YES = "yes";
     private static final String NO = "no";
@@ -480,11 +483,25 @@ public class SystemProperties {
         return config.getInt("vm.structured.initStorageLimit");
     }
 
+    public boolean vmPredecoded() {
+        return config.hasPath("vm.predecoded") ? config.getBoolean("vm.predecoded") : false;
+    }
+
+    public long vmCodeAnalysisCacheSize() {
+        return config.hasPath("vm.analysis.cache.size") ?
+                config.getLong("vm.analysis.cache.size") : DEFAULT_VM_CODE_ANALYSIS_CACHE_SIZE;
+    }
+
     @ValidateMe
     public int detailsInMemoryStorageLimit() {
         return config.getInt("details.inmemory.storage.limit");
     }
 
+    public int detailsCacheSize() {
+        return config.hasPath("details.cache.size") ?
+                config.getInt("details.cache.size") : DEFAULT_DETAILS_CACHE_SIZE;
+    }
+
     @ValidateMe
     public String vmTraceDir() {
         return config.getString("vm.structured.dir");
@@ -611,6 +628,30 @@ public class SystemProperties {
         }
     }
 
+    /**
+     * levelDbProfile returns the LevelDB tuning options for a data source,
+     * taking the built-in defaults for its kind and overriding them with
+     * the values in database.leveldb.(kind), if any
+     *
+     * @param dataSourceName    the data source name
+     */
+    public LevelDbProfile levelDbProfile(String dataSourceName) {
+        LevelDbProfile profile = LevelDbProfile.getDefault(dataSourceName);
+        String path = "database.leveldb." + LevelDbProfile.getProfileName(dataSourceName);
+
+        if (!config.hasPath(path))
+            return profile;
+
+        Config profileConfig = config.getConfig(path);
+
+        return new LevelDbProfile(
+                profileConfig.hasPath("blockSize") ? profileConfig.getBytes("blockSize").intValue() : profile.getBlockSize(),
+                profileConfig.hasPath("cacheSize") ? profileConfig.getBytes("cacheSize") : profile.getCacheSize(),
+                profileConfig.hasPath("compression") ? "snappy".equals(profileConfig.getString("compression")) : profile.hasCompression(),
+                profileConfig.hasPath("writeBufferSize") ? profileConfig.getBytes("writeBufferSize").intValue() : profile.getWriteBufferSize(),
+                profileConfig.hasPath("verifyChecksums") ? profileConfig.getBoolean("verifyChecksums") : profile.verifyChecksums());
+    }
+
     @ValidateMe
     public String getKeyValueDataSource() {
         return config.getString("keyvalue.datasource");
@@ -96,6 +96,10 @@ public class BlockHeader implements SerializableObject {
     private byte[] minimumGasPrice;
     private int uncleCount;
 
+    /* The cached hashes of the header, cleared by every setter */
+    private byte[] hash;
+    private byte[] hashForMergedMining;
+
     public BlockHeader(byte[] encoded) {
         this((RLPList) RLP.decode2(encoded).get(0));
     }
@@ -211,6 +215,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setUncleCount(int uCount) {
         uncleCount = uCount;
+        clearHashes();
     }
 
     public byte[] getUnclesHash() {
@@ -219,6 +224,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setUnclesHash(byte[] unclesHash) {
         this.unclesHash = unclesHash;
+        clearHashes();
     }
 
     public byte[] getCoinbase() {
@@ -227,6 +233,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setCoinbase(byte[] coinbase) {
         this.coinbase = coinbase;
+        clearHashes();
     }
 
     public byte[] getStateRoot() {
@@ -235,6 +242,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setStateRoot(byte[] stateRoot) {
         this.stateRoot = stateRoot;
+        clearHashes();
     }
 
     public byte[] getTxTrieRoot() {
@@ -243,6 +251,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setReceiptsRoot(byte[] receiptTrieRoot) {
         this.receiptTrieRoot = receiptTrieRoot;
+        clearHashes();
     }
 
     public byte[] getReceiptsRoot() {
@@ -251,6 +260,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setTransactionsRoot(byte[] stateRoot) {
         this.txTrieRoot = stateRoot;
+        clearHashes();
     }
 
 
@@ -269,6 +279,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setDifficulty(byte[] difficulty) {
         this.difficulty = difficulty;
+        clearHashes();
     }
 
     public long getTimestamp() {
@@ -277,6 +288,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
+        clearHashes();
     }
 
     public long getNumber() {
@@ -285,6 +297,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setNumber(long number) {
         this.number = number;
+        clearHashes();
     }
 
     public byte[] getGasLimit() {
@@ -293,6 +306,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setGasLimit(byte[] gasLimit) {
         this.gasLimit = gasLimit;
+        clearHashes();
     }
 
     public long getGasUsed() {
@@ -301,6 +315,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setPaidFees(long paidFees) {
         this.paidFees = paidFees;
+        clearHashes();
     }
 
     public long getPaidFees() {
@@ -309,6 +324,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setGasUsed(long gasUsed) {
         this.gasUsed = gasUsed;
+        clearHashes();
     }
 
     public byte[] getExtraData() {
@@ -317,14 +333,19 @@ public class BlockHeader implements SerializableObject {
 
     public void setLogsBloom(byte[] logsBloom) {
         this.logsBloom = logsBloom;
+        clearHashes();
     }
 
     public void setExtraData(byte[] extraData) {
         this.extraData = extraData;
+        clearHashes();
     }
 
     public byte[] getHash() {
-        return HashUtil.sha3(getEncoded());
+        if (this.hash == null)
+            this.hash = HashUtil.sha3(getEncoded());
+
+        return ByteUtils.clone(this.hash);
     }
 
     public byte[] getEncoded() {
@@ -341,6 +362,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setMinimumGasPrice(byte[] minimumGasPrice) {
         this.minimumGasPrice = minimumGasPrice;
+        clearHashes();
     }
 
     public byte[] getEncoded(boolean withMergedMiningFields) {
@@ -475,6 +497,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setBitcoinMergedMiningHeader(byte[] bitcoinMergedMiningHeader) {
         this.bitcoinMergedMiningHeader = bitcoinMergedMiningHeader;
+        clearHashes();
     }
 
     public byte[] getBitcoinMergedMiningMerkleProof() {
@@ -483,6 +506,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setBitcoinMergedMiningMerkleProof(byte[] bitcoinMergedMiningMerkleProof) {
         this.bitcoinMergedMiningMerkleProof = bitcoinMergedMiningMerkleProof;
+        clearHashes();
     }
 
     public byte[] getBitcoinMergedMiningCoinbaseTransaction() {
@@ -491,6 +515,7 @@ public class BlockHeader implements SerializableObject {
 
     public void setBitcoinMergedMiningCoinbaseTransaction(byte[] bitcoinMergedMiningCoinbaseTransaction) {
         this.bitcoinMergedMiningCoinbaseTransaction = bitcoinMergedMiningCoinbaseTransaction;
+        clearHashes();
     }
 
     public String getShortHashForMergedMining() {
@@ -498,6 +523,14 @@ public class BlockHeader implements SerializableObject {
     }
 
     public byte[] getHashForMergedMining() {
-        return HashUtil.sha3(getEncoded(false));
+        if (this.hashForMergedMining == null)
+            this.hashForMergedMining = HashUtil.sha3(getEncoded(false));
+
+        return ByteUtils.clone(this.hashForMergedMining);
+    }
+
+    private void clearHashes() {
+        this.hash = null;
+        this.hashForMergedMining = null;
     }
 }
@@ -352,7 +352,7 @@ public class Transaction implements SerializableObject {
     public synchronized byte[] getSender() {
         try {
             if (sendAddress == null) {
-                ECKey key = ECKey.signatureToKey(getRawHash(), getSignature().toBase64());
+                ECKey key = ECKey.signatureToKey(getRawHash(), getSignature());
                 sendAddress = key.getAddress();
             }
             return sendAddress;
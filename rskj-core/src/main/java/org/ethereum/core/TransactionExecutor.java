@@ -270,7 +270,8 @@ public class TransactionExecutor {
                         programInvokeFactory.createProgramInvoke(tx, executionBlock, cacheTrack, blockStore);
 
                 this.vm = new VM();
-                this.program = new Program(code, programInvoke, tx);
+                byte[] codeHash = track.getAccountState(targetAddress).getCodeHash();
+                this.program = new Program(codeHash, code, programInvoke, tx);
             }
         }
 
@@ -19,7 +19,7 @@
 
 package org.ethereum.core.genesis;
 
-import co.rsk.trie.TrieImpl;
+import co.rsk.trie.TrieBuilder;
 import com.google.common.io.ByteStreams;
 import org.apache.commons.lang3.StringUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -28,7 +28,6 @@ import org.ethereum.core.AccountState;
 import org.ethereum.core.Genesis;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.ContractDetails;
-import co.rsk.trie.Trie;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -109,12 +108,12 @@ public class GenesisLoader {
 
     private static byte[] generateRootHash(Map<ByteArrayWrapper, InitialAddressState> premine){
 
-        Trie state = new TrieImpl(null, true);
+        TrieBuilder builder = new TrieBuilder(2, null, true);
 
-        for (ByteArrayWrapper key : premine.keySet())
-            state = state.put(key.getData(), premine.get(key).getAccountState().getEncoded());
+        for (Map.Entry<ByteArrayWrapper, InitialAddressState> entry : premine.entrySet())
+            builder.put(entry.getKey().getData(), entry.getValue().getAccountState().getEncoded());
 
-        return state.getHash();
+        return builder.build().getHash();
     }
 
 }
@@ -572,13 +572,35 @@ public class ECKey implements Serializable {
         // Parse the signature bytes into r/s and the selector value.
         if (signatureEncoded.length < 65)
             throw new SignatureException("Signature truncated, expected 65 bytes and got " + signatureEncoded.length);
-        int header = signatureEncoded[0] & 0xFF;
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signatureEncoded, 1, 33));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signatureEncoded, 33, 65));
+        ECDSASignature sig = new ECDSASignature(r, s);
+        sig.v = signatureEncoded[0];
+        return signatureToKey(messageHash, sig);
+    }
+
+    /**
+     * Given the hash of a message and its signature components, returns an ECKey
+     * containing the public key that was used to sign it.
+     *
+     * It gives the same results as signatureToKey using the signature in base64,
+     * without encoding and decoding it
+     *
+     * @param messageHash the hash of the signed message
+     * @param signature the signature, including the header byte in v
+     *
+     * @return -
+     * @throws SignatureException If the public key could not be recovered or if there was a signature format error.
+     */
+    public static ECKey signatureToKey(byte[] messageHash, ECDSASignature signature) throws SignatureException {
+        int header = signature.v & 0xFF;
         // The header byte: 0x1B = first key with even y, 0x1C = first key with odd y,
         //                  0x1D = second key with even y, 0x1E = second key with odd y
         if (header < 27 || header > 34)
             throw new SignatureException("Header byte out of range: " + header);
-        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signatureEncoded, 1, 33));
-        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signatureEncoded, 33, 65));
+        // r and s are taken as 32 bytes values, as in the 65 bytes encoded signature
+        BigInteger r = new BigInteger(1, bigIntegerToBytes(signature.r, 32));
+        BigInteger s = new BigInteger(1, bigIntegerToBytes(signature.s, 32));
         ECDSASignature sig = new ECDSASignature(r, s);
         boolean compressed = false;
         if (header >= 31) {
@@ -20,6 +20,7 @@
 package org.ethereum.datasource;
 
 import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
 import org.iq80.leveldb.DBException;
 
 import java.util.*;
@@ -86,6 +87,34 @@ public class HashMapDB implements KeyValueDataSource {
         return keys;
     }
 
+    @Override
+    public synchronized List<byte[]> getValuesByPrefix(byte[] prefix) {
+        return new ArrayList<>(getRows(prefix, ByteUtil.nextPrefix(prefix)).values());
+    }
+
+    /**
+     * iterator walks a copy of the rows in the range, taken when it is created
+     */
+    @Override
+    public synchronized KeyValueIterator iterator(byte[] from, byte[] to) {
+        return new SortedRowsIterator(getRows(from, to));
+    }
+
+    @Override
+    public KeyValueIterator iterator(byte[] prefix) {
+        return iterator(prefix, ByteUtil.nextPrefix(prefix));
+    }
+
+    private SortedMap<ByteArrayWrapper, byte[]> getRows(byte[] from, byte[] to) {
+        SortedMap<ByteArrayWrapper, byte[]> rows = new TreeMap<>();
+
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : storage.entrySet())
+            if (ByteUtil.isInRange(entry.getKey().getData(), from, to))
+                rows.put(entry.getKey(), entry.getValue());
+
+        return rows;
+    }
+
     @Override
     public synchronized void updateBatch(Map<byte[], byte[]> rows) {
         for (byte[] key :  rows.keySet()){
@@ -19,6 +19,7 @@
 
 package org.ethereum.datasource;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -36,5 +37,35 @@ public interface KeyValueDataSource extends DataSource {
 
     Set<byte[]> keys();
 
+    /**
+     * getValuesByPrefix returns the values of the keys that start with a prefix,
+     * ordered by key
+     *
+     * @param prefix    the key prefix
+     *
+     * @return  the values, an empty list if there are no keys with the prefix
+     */
+    List<byte[]> getValuesByPrefix(byte[] prefix);
+
+    /**
+     * iterator walks the rows with keys in a range, ordered by key,
+     * without loading all the keys in memory
+     *
+     * @param from  the first key, inclusive, null to start at the first key
+     * @param to    the last key, exclusive, null to end at the last key
+     *
+     * @return  the iterator, it must be closed
+     */
+    KeyValueIterator iterator(byte[] from, byte[] to);
+
+    /**
+     * iterator walks the rows whose keys start with a prefix, ordered by key
+     *
+     * @param prefix    the key prefix
+     *
+     * @return  the iterator, it must be closed
+     */
+    KeyValueIterator iterator(byte[] prefix);
+
     void updateBatch(Map<byte[], byte[]> rows);
 }
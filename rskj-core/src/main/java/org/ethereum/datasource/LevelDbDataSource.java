@@ -21,6 +21,8 @@ package org.ethereum.datasource;
 
 import co.rsk.panic.PanicProcessor;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
 import org.iq80.leveldb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,9 +36,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -61,6 +67,9 @@ public class LevelDbDataSource implements KeyValueDataSource {
     DB db;
     boolean alive;
 
+    // tuning options, taken from the configuration if not set
+    LevelDbProfile profile;
+
     // The native LevelDB insert/update/delete are normally thread-safe
     // However close operation is not thread-safe and may lead to a native crash when
     // accessing a closed DB.
@@ -69,6 +78,9 @@ public class LevelDbDataSource implements KeyValueDataSource {
     // however blocks them on init/close/delete operations
     private ReadWriteLock resetDbLock = new ReentrantReadWriteLock();
 
+    // the iterators that were not closed yet
+    private final Set<LevelDbIterator> iterators = ConcurrentHashMap.newKeySet();
+
     public LevelDbDataSource() {
     }
 
@@ -77,6 +89,11 @@ public class LevelDbDataSource implements KeyValueDataSource {
         logger.info("New LevelDbDataSource: " + name);
     }
 
+    public LevelDbDataSource(String name, LevelDbProfile profile) {
+        this(name);
+        this.profile = profile;
+    }
+
     @Override
     public void init() {
         resetDbLock.writeLock().lock();
@@ -87,14 +104,15 @@ public class LevelDbDataSource implements KeyValueDataSource {
 
             if (name == null) throw new NullPointerException("no name set to the db");
 
+            if (profile == null)
+                profile = config.levelDbProfile(name);
+
+            logger.debug("Database '{}' options: {}", name, profile);
+
             Options options = new Options();
             options.createIfMissing(true);
-            options.compressionType(CompressionType.NONE);
-            options.blockSize(10 * 1024 * 1024);
-            options.writeBufferSize(10 * 1024 * 1024);
-            options.cacheSize(0);
             options.paranoidChecks(true);
-            options.verifyChecksums(true);
+            profile.applyTo(options);
 
             try {
                 logger.debug("Opening database");
@@ -226,6 +244,52 @@ public class LevelDbDataSource implements KeyValueDataSource {
         }
     }
 
+    @Override
+    public List<byte[]> getValuesByPrefix(byte[] prefix) {
+        if (logger.isTraceEnabled()) logger.trace("~> LevelDbDataSource.getValuesByPrefix(): " + name + ", prefix: " + Hex.toHexString(prefix));
+
+        List<byte[]> result = new ArrayList<>();
+
+        try (KeyValueIterator iterator = iterator(prefix)) {
+            while (iterator.hasNext())
+                result.add(iterator.next().getValue());
+        }
+
+        if (logger.isTraceEnabled()) logger.trace("<~ LevelDbDataSource.getValuesByPrefix(): " + name + ", " + result.size());
+
+        return result;
+    }
+
+    @Override
+    public KeyValueIterator iterator(byte[] from, byte[] to) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> LevelDbDataSource.iterator(): " + name);
+
+            if (!isAlive())
+                throw new IllegalStateException("Database " + name + " is closed");
+
+            DBIterator dbIterator = db.iterator();
+
+            if (from == null)
+                dbIterator.seekToFirst();
+            else
+                dbIterator.seek(from);
+
+            LevelDbIterator iterator = new LevelDbIterator(dbIterator, to);
+            iterators.add(iterator);
+
+            return iterator;
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public KeyValueIterator iterator(byte[] prefix) {
+        return iterator(prefix, ByteUtil.nextPrefix(prefix));
+    }
+
     private void updateBatchInternal(Map<byte[], byte[]> rows) throws IOException {
         try (WriteBatch batch = db.createWriteBatch()) {
             for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
@@ -268,6 +332,11 @@ public class LevelDbDataSource implements KeyValueDataSource {
 
             try {
                 logger.debug("Close db: {}", name);
+
+                // the native iterators must be released before closing the database
+                for (LevelDbIterator iterator : new ArrayList<>(iterators))
+                    iterator.close();
+
                 db.close();
 
                 alive = false;
@@ -279,4 +348,76 @@ public class LevelDbDataSource implements KeyValueDataSource {
             resetDbLock.writeLock().unlock();
         }
     }
+
+    /**
+     * LevelDbIterator walks the database with a native iterator, reading the rows
+     * on demand. It is closed when the database is closed
+     */
+    private class LevelDbIterator implements KeyValueIterator {
+        private final DBIterator iterator;
+        private final byte[] to;
+
+        private Map.Entry<byte[], byte[]> next;
+        private boolean finished;
+        private boolean closed;
+
+        LevelDbIterator(DBIterator iterator, byte[] to) {
+            this.iterator = iterator;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next != null)
+                return true;
+
+            resetDbLock.readLock().lock();
+            try {
+                if (this.closed || this.finished || !this.iterator.hasNext())
+                    return false;
+
+                Map.Entry<byte[], byte[]> entry = this.iterator.next();
+
+                if (this.to != null && FastByteComparisons.compareTo(entry.getKey(), 0, entry.getKey().length, this.to, 0, this.to.length) >= 0) {
+                    this.finished = true;
+                    return false;
+                }
+
+                this.next = entry;
+
+                return true;
+            } finally {
+                resetDbLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+
+            Map.Entry<byte[], byte[]> result = this.next;
+            this.next = null;
+
+            return result;
+        }
+
+        @Override
+        public void close() {
+            resetDbLock.readLock().lock();
+            try {
+                if (this.closed)
+                    return;
+
+                this.closed = true;
+                this.next = null;
+                iterators.remove(this);
+                this.iterator.close();
+            } catch (IOException e) {
+                logger.error("Error closing iterator of db: {}", name, e);
+            } finally {
+                resetDbLock.readLock().unlock();
+            }
+        }
+    }
 }
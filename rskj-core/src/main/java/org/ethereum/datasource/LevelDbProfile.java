@@ -0,0 +1,145 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+
+/**
+ * LevelDbProfile holds the LevelDB tuning options of a data source
+ *
+ * Each kind of data source (state, details, blocks, receipts...) has its own
+ * defaults, according to its values size and access pattern. They can be
+ * overridden in the database.leveldb section of the configuration
+ */
+public class LevelDbProfile {
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+
+    // the options used before the profiles were introduced
+    public static final LevelDbProfile LEGACY = new LevelDbProfile(10 * MB, 0, false, 10 * MB, true);
+
+    // trie nodes: small, incompressible (mostly hashes) and read at random
+    public static final LevelDbProfile STATE = new LevelDbProfile(4 * KB, 64 * MB, false, 16 * MB, true);
+
+    // contract details: contain the contract code
+    public static final LevelDbProfile DETAILS = new LevelDbProfile(16 * KB, 32 * MB, true, 8 * MB, true);
+
+    // contract storage tries: there is one data source for each big contract
+    public static final LevelDbProfile DETAILS_STORAGE = new LevelDbProfile(4 * KB, 1 * MB, false, 1 * MB, true);
+
+    // blocks: big values, compressible
+    public static final LevelDbProfile BLOCKS = new LevelDbProfile(64 * KB, 32 * MB, true, 16 * MB, true);
+
+    // receipts: medium values, logs are compressible
+    public static final LevelDbProfile RECEIPTS = new LevelDbProfile(16 * KB, 16 * MB, true, 8 * MB, true);
+
+    public static final LevelDbProfile DEFAULT = new LevelDbProfile(4 * KB, 8 * MB, false, 4 * MB, true);
+
+    private final int blockSize;
+    private final long cacheSize;
+    private final boolean compression;
+    private final int writeBufferSize;
+    private final boolean verifyChecksums;
+
+    public LevelDbProfile(int blockSize, long cacheSize, boolean compression, int writeBufferSize, boolean verifyChecksums) {
+        this.blockSize = blockSize;
+        this.cacheSize = cacheSize;
+        this.compression = compression;
+        this.writeBufferSize = writeBufferSize;
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * getProfileName returns the name of the profile associated to a data source.
+     * Data sources with names like details-storage/(address) share a profile
+     *
+     * @param dataSourceName    the data source name
+     *
+     * @return  the profile name
+     */
+    public static String getProfileName(String dataSourceName) {
+        int position = dataSourceName.indexOf('/');
+
+        return position < 0 ? dataSourceName : dataSourceName.substring(0, position);
+    }
+
+    /**
+     * getDefault returns the built-in profile for a data source
+     *
+     * @param dataSourceName    the data source name
+     *
+     * @return  the default profile
+     */
+    public static LevelDbProfile getDefault(String dataSourceName) {
+        switch (getProfileName(dataSourceName)) {
+            case "state":
+                return STATE;
+            case "details":
+                return DETAILS;
+            case "details-storage":
+                return DETAILS_STORAGE;
+            case "blocks":
+                return BLOCKS;
+            case "receipts":
+                return RECEIPTS;
+            default:
+                return DEFAULT;
+        }
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    public boolean hasCompression() {
+        return this.compression;
+    }
+
+    public int getWriteBufferSize() {
+        return this.writeBufferSize;
+    }
+
+    public boolean verifyChecksums() {
+        return this.verifyChecksums;
+    }
+
+    /**
+     * applyTo sets the profile values in LevelDB options
+     *
+     * @param options   the options used to open the database
+     */
+    public void applyTo(Options options) {
+        options.blockSize(this.blockSize);
+        options.cacheSize(this.cacheSize);
+        options.compressionType(this.compression ? CompressionType.SNAPPY : CompressionType.NONE);
+        options.writeBufferSize(this.writeBufferSize);
+        options.verifyChecksums(this.verifyChecksums);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("blockSize %d, cacheSize %d, compression %s, writeBufferSize %d, verifyChecksums %s",
+                this.blockSize, this.cacheSize, this.compression ? "snappy" : "none", this.writeBufferSize, this.verifyChecksums);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * SortedRowsIterator walks rows already collected in memory, used by the
+ * data sources that do not keep their keys ordered
+ */
+public class SortedRowsIterator implements KeyValueIterator {
+    private final Iterator<Map.Entry<ByteArrayWrapper, byte[]>> iterator;
+
+    public SortedRowsIterator(SortedMap<ByteArrayWrapper, byte[]> rows) {
+        this.iterator = rows.entrySet().iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.iterator.hasNext();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        Map.Entry<ByteArrayWrapper, byte[]> entry = this.iterator.next();
+
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey().getData(), entry.getValue());
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
@@ -21,6 +21,10 @@ package org.ethereum.datasource.mapdb;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.KeyValueIterator;
+import org.ethereum.datasource.SortedRowsIterator;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
@@ -29,8 +33,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 import static java.lang.System.getProperty;
 
@@ -110,6 +113,34 @@ public class MapDBDataSource implements KeyValueDataSource {
         return map.keySet();
     }
 
+    @Override
+    public List<byte[]> getValuesByPrefix(byte[] prefix) {
+        return new ArrayList<>(getRows(prefix, ByteUtil.nextPrefix(prefix)).values());
+    }
+
+    /**
+     * iterator walks a copy of the rows in the range, the map is not ordered by key
+     */
+    @Override
+    public KeyValueIterator iterator(byte[] from, byte[] to) {
+        return new SortedRowsIterator(getRows(from, to));
+    }
+
+    @Override
+    public KeyValueIterator iterator(byte[] prefix) {
+        return iterator(prefix, ByteUtil.nextPrefix(prefix));
+    }
+
+    private SortedMap<ByteArrayWrapper, byte[]> getRows(byte[] from, byte[] to) {
+        SortedMap<ByteArrayWrapper, byte[]> rows = new TreeMap<>();
+
+        for (Map.Entry<byte[], byte[]> entry : map.entrySet())
+            if (ByteUtil.isInRange(entry.getKey(), from, to))
+                rows.put(new ByteArrayWrapper(entry.getKey()), entry.getValue());
+
+        return rows;
+    }
+
     @Override
     public void updateBatch(Map<byte[], byte[]> rows) {
         int savedSize = 0;
@@ -51,6 +51,9 @@ public class ContractDetailsCacheImpl implements ContractDetails {
     private boolean dirty = false;
     private boolean deleted = false;
 
+    // records the changes to undo them on a rollback, null if they are not recorded
+    private RepositoryJournal journal;
+
 
     public ContractDetailsCacheImpl(ContractDetails origContract) {
         this.origContract = origContract;
@@ -59,12 +62,14 @@ public class ContractDetailsCacheImpl implements ContractDetails {
 
     @Override
     public void put(DataWord key, DataWord value) {
+        recordPut(storage, key);
         storage.put(key, value);
         this.setDirty(true);
     }
 
     @Override
     public void putBytes(DataWord key, byte[] value) {
+        recordPut(bytesStorage, key);
         bytesStorage.put(key, value);
         this.setDirty(true);
     }
@@ -112,6 +117,11 @@ public class ContractDetailsCacheImpl implements ContractDetails {
 
     @Override
     public void setCode(byte[] code) {
+        if (isRecording()) {
+            byte[] previous = this.code;
+            journal.record(() -> this.code = previous);
+        }
+
         this.code = code;
     }
 
@@ -173,11 +183,21 @@ public class ContractDetailsCacheImpl implements ContractDetails {
 
     @Override
     public void setDirty(boolean dirty) {
+        if (this.dirty != dirty && isRecording()) {
+            boolean previous = this.dirty;
+            journal.record(() -> this.dirty = previous);
+        }
+
         this.dirty = dirty;
     }
 
     @Override
     public void setDeleted(boolean deleted) {
+        if (this.deleted != deleted && isRecording()) {
+            boolean previous = this.deleted;
+            journal.record(() -> this.deleted = previous);
+        }
+
         this.deleted = deleted;
     }
 
@@ -364,5 +384,25 @@ public class ContractDetailsCacheImpl implements ContractDetails {
     public void setOriginalContractDetails(ContractDetails contractDetails) {
         this.origContract = contractDetails;
     }
+
+    void setJournal(RepositoryJournal journal) {
+        this.journal = journal;
+    }
+
+    private boolean isRecording() {
+        return journal != null && journal.isRecording();
+    }
+
+    private <T> void recordPut(Map<DataWord, T> values, DataWord key) {
+        if (!isRecording())
+            return;
+
+        if (values.containsKey(key)) {
+            T previous = values.get(key);
+            journal.record(() -> values.put(key, previous));
+        }
+        else
+            journal.record(() -> values.remove(key));
+    }
 }
 
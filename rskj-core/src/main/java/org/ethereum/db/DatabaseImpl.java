@@ -20,13 +20,13 @@
 package org.ethereum.db;
 
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.KeyValueIterator;
 import org.ethereum.util.ByteUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -98,10 +98,12 @@ public class DatabaseImpl implements Database {
 
         ArrayList<ByteArrayWrapper> keys = new ArrayList<>();
 
-        for (byte[] key : keyValueDataSource.keys()) {
-            keys.add(ByteUtil.wrap(key));
+        // the iterator is already ordered by key
+        try (KeyValueIterator iterator = keyValueDataSource.iterator(null, null)) {
+            while (iterator.hasNext())
+                keys.add(ByteUtil.wrap(iterator.next().getKey()));
         }
-        Collections.sort(keys);
+
         return keys;
     }
 }
\ No newline at end of file
@@ -19,32 +19,79 @@
 
 package org.ethereum.db;
 
+import co.rsk.db.CodeStore;
 import co.rsk.db.ContractDetailsImpl;
+import org.ethereum.config.SystemProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
 
 import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.wrap;
 
+/**
+ * DetailsDataStore keeps the contract details of the accounts, in a cache
+ * of the recently used details that survives the flushes
+ *
+ * A flush only writes the details updated or modified since the previous flush.
+ * After it, the least recently used details are evicted if the cache exceeds
+ * its maximum number of entries
+ */
 public class DetailsDataStore {
 
     private static final Logger gLogger = LoggerFactory.getLogger("general");
 
     private DatabaseImpl db = null;
-    private Map<ByteArrayWrapper, ContractDetails> cache = new ConcurrentHashMap<>();
-    private Set<ByteArrayWrapper> removes = new HashSet<>();
+    private CodeStore codeStore = null;
+    private final int maxCacheSize;
+    private final LinkedHashMap<ByteArrayWrapper, ContractDetails> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<ByteArrayWrapper> updates = new HashSet<>();
+    private final Set<ByteArrayWrapper> removes = new HashSet<>();
+
+    private long lastWrittenCount;
+    private long lastSkippedCount;
+    private long writtenCount;
+    private long skippedCount;
+
+    public DetailsDataStore() {
+        this(SystemProperties.CONFIG.detailsCacheSize());
+    }
+
+    public DetailsDataStore(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
 
     public synchronized void setDB(DatabaseImpl db) {
         this.db = db;
     }
 
+    /**
+     * setCodeStore keeps the contract codes in a code store, the details
+     * are saved only with the code hash
+     *
+     * @param codeStore     the code store
+     */
+    public synchronized void setCodeStore(CodeStore codeStore) {
+        this.codeStore = codeStore;
+    }
+
+    public synchronized CodeStore getCodeStore() {
+        return this.codeStore;
+    }
+
+    /**
+     * getCode returns a contract code from the code store
+     *
+     * @param codeHash  the code hash
+     *
+     * @return  the code, null if there is no code store or the code is not in it
+     */
+    public synchronized byte[] getCode(byte[] codeHash) {
+        return this.codeStore == null ? null : this.codeStore.get(codeHash);
+    }
+
     public synchronized ContractDetails get(byte[] key) {
         ByteArrayWrapper wrappedKey = wrap(key);
         ContractDetails details = cache.get(wrappedKey);
@@ -69,62 +116,128 @@ public class DetailsDataStore {
     }
 
     protected ContractDetails createContractDetails(byte[] data) {
-        return new ContractDetailsImpl(data);
+        return new ContractDetailsImpl(data, codeStore);
     }
 
     public synchronized void update(byte[] key, ContractDetails contractDetails) {
         contractDetails.setAddress(key);
 
+        // the new code is available by hash before the next flush
+        if (codeStore != null && contractDetails instanceof ContractDetailsImpl)
+            ((ContractDetailsImpl) contractDetails).storeCode(codeStore);
+
         ByteArrayWrapper wrappedKey = wrap(key);
         cache.put(wrappedKey, contractDetails);
+        updates.add(wrappedKey);
         removes.remove(wrappedKey);
     }
 
     public synchronized void remove(byte[] key) {
         ByteArrayWrapper wrappedKey = wrap(key);
         cache.remove(wrappedKey);
+        updates.remove(wrappedKey);
         removes.add(wrappedKey);
     }
 
     public synchronized void flush() {
-        long keys = cache.size();
-
         long start = System.nanoTime();
         long totalSize = flushInternal();
         long finish = System.nanoTime();
 
         float flushSize = (float) totalSize / 1_048_576;
         float flushTime = (float) (finish - start) / 1_000_000;
-        gLogger.info(format("Flush details in: %02.2f ms, %d keys, %02.2fMB", flushTime, keys, flushSize));
+        gLogger.info(format("Flush details in: %02.2f ms, %d written, %d skipped, %02.2fMB", flushTime, lastWrittenCount, lastSkippedCount, flushSize));
     }
 
+    /**
+     * getLastWrittenCount returns the number of details written by the last flush
+     */
+    public synchronized long getLastWrittenCount() { return this.lastWrittenCount; }
+
+    /**
+     * getLastSkippedCount returns the number of cached details not written by the
+     * last flush, because they were not modified
+     */
+    public synchronized long getLastSkippedCount() { return this.lastSkippedCount; }
+
+    public synchronized long getWrittenCount() { return this.writtenCount; }
+
+    public synchronized long getSkippedCount() { return this.skippedCount; }
+
+    public synchronized int getCacheSize() { return this.cache.size(); }
+
     private long flushInternal() {
         long totalSize = 0;
+        long written = 0;
+        long skipped = 0;
 
         Map<byte[], byte[]> batch = new HashMap<>();
         for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
             ContractDetails details = entry.getValue();
+
+            if (!details.isDirty() && !updates.contains(entry.getKey())) {
+                skipped++;
+                continue;
+            }
+
             details.syncStorage();
 
             byte[] key = entry.getKey().getData();
-            byte[] value = details.getEncoded();
+            byte[] value = encode(details);
 
             batch.put(key, value);
             totalSize += value.length;
+            written++;
+
+            details.setDirty(false);
+
+            // the details with the storage in memory are decoded again, so the cached
+            // details don't keep the trie nodes of their previous storage states
+            if (details instanceof ContractDetailsImpl && !((ContractDetailsImpl) details).hasExternalStorage())
+                entry.setValue(createContractDetails(value));
         }
 
+        // the codes are written before the details that reference them
+        if (codeStore != null)
+            totalSize += codeStore.flush();
+
         db.getDb().updateBatch(batch);
 
         for (ByteArrayWrapper key : removes) {
             db.delete(key.getData());
         }
 
-        cache.clear();
+        updates.clear();
         removes.clear();
 
+        evict();
+
+        this.lastWrittenCount = written;
+        this.lastSkippedCount = skipped;
+        this.writtenCount += written;
+        this.skippedCount += skipped;
+
         return totalSize;
     }
 
+    // only called after a flush, when all the cached details are saved
+    private void evict() {
+        Iterator<ContractDetails> iterator = cache.values().iterator();
+
+        while (cache.size() > maxCacheSize && iterator.hasNext()) {
+            // releases the external storage data source
+            iterator.next().syncStorage();
+            iterator.remove();
+        }
+    }
+
+
+    private byte[] encode(ContractDetails details) {
+        if (codeStore != null && details instanceof ContractDetailsImpl)
+            return ((ContractDetailsImpl) details).getEncoded(codeStore);
+
+        return details.getEncoded();
+    }
 
     public synchronized Set<ByteArrayWrapper> keys() {
         Set<ByteArrayWrapper> keys = new HashSet<>();
@@ -0,0 +1,467 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.crypto.SHA3Helper;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * LogIndex is a persistent index of the transaction logs, to find the logs
+ * of an address or a topic without reading every block and receipt of a range
+ *
+ * It is updated with the receipts of each connected block (in the main chain
+ * or not), and keeps:
+ *
+ * - for each range of RANGE_SIZE blocks, the bloom filter of all their logs,
+ * to skip the ranges that can't contain a match
+ *
+ * - for each bucket of BUCKET_SIZE blocks, the posting lists of the log
+ * addresses, of the topics (by position) and of all the transactions with
+ * logs: the block number, block hash and index of the transactions
+ *
+ * The index only knows the blocks between the first and the last indexed
+ * numbers: the blocks connected before the index was created are not indexed,
+ * so the caller has to read them
+ */
+public class LogIndex {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    static final int RANGE_SIZE = 1024;
+    static final int BUCKET_SIZE = 64;
+
+    // block number, block hash, transaction index
+    private static final int ENTRY_SIZE = 8 + 32 + 4;
+
+    private static final byte ADDRESS_PREFIX = 'a';
+    private static final byte TOPIC_PREFIX = 't';
+    private static final byte ANY_PREFIX = 'l';
+    private static final byte RANGE_PREFIX = 'r';
+    private static final byte BLOCK_PREFIX = 'b';
+
+    private static final byte[] FIRST_KEY = "first".getBytes();
+    private static final byte[] LAST_KEY = "last".getBytes();
+
+    private final KeyValueDataSource indexDS;
+    private final BlockStore blockStore;
+    private final ReceiptStore receiptStore;
+
+    private long first = -1;
+    private long last = -1;
+
+    public LogIndex(KeyValueDataSource indexDS, BlockStore blockStore, ReceiptStore receiptStore) {
+        this.indexDS = indexDS;
+        this.blockStore = blockStore;
+        this.receiptStore = receiptStore;
+
+        byte[] firstBytes = indexDS.get(FIRST_KEY);
+        byte[] lastBytes = indexDS.get(LAST_KEY);
+
+        if (firstBytes != null && lastBytes != null) {
+            this.first = ByteUtil.byteArrayToLong(firstBytes);
+            this.last = ByteUtil.byteArrayToLong(lastBytes);
+        }
+    }
+
+    /**
+     * getFirstIndexedNumber returns the number of the first indexed block, -1 if the index is empty
+     */
+    public synchronized long getFirstIndexedNumber() {
+        return this.first;
+    }
+
+    /**
+     * getLastIndexedNumber returns the greatest indexed block number, -1 if the index is empty
+     */
+    public synchronized long getLastIndexedNumber() {
+        return this.last;
+    }
+
+    /**
+     * onBlock adds the logs of a connected block. If some main chain blocks were
+     * connected without being indexed (i.e. the node was stopped before indexing them)
+     * they are indexed first, reading their receipts from the receipt store
+     *
+     * @param block     the connected block
+     * @param receipts  the block transaction receipts
+     */
+    public synchronized void onBlock(Block block, List<TransactionReceipt> receipts) {
+        long number = block.getNumber();
+
+        if (this.last >= 0 && number > this.last + 1) {
+            logger.info("Indexing logs of blocks {} to {}", this.last + 1, number - 1);
+
+            for (long missing = this.last + 1; missing < number; missing++) {
+                Block missingBlock = this.blockStore.getChainBlockByNumber(missing);
+
+                if (missingBlock == null)
+                    break;
+
+                addBlock(missingBlock, getReceipts(missingBlock));
+            }
+        }
+
+        addBlock(block, receipts);
+    }
+
+    /**
+     * find returns the transactions that may have logs matching a filter.
+     * Some of them could not match (i.e. a transaction with a log of the address
+     * and another log with the topic), so their logs have to be checked
+     *
+     * @param addresses     the log addresses, empty to match any address
+     * @param topics        the topics by position, null or empty at a position to match any topic
+     * @param fromNumber    the first block number
+     * @param toNumber      the last block number
+     *
+     * @return  the transactions with their blocks, ordered by block number and transaction index,
+     * including transactions of blocks out of the main chain
+     */
+    public List<Entry> find(byte[][] addresses, List<byte[][]> topics, long fromNumber, long toNumber) {
+        long from;
+        long to;
+
+        synchronized (this) {
+            if (this.first < 0)
+                return new ArrayList<>();
+
+            from = Math.max(fromNumber, this.first);
+            to = Math.min(toNumber, this.last);
+        }
+
+        List<List<byte[]>> clauses = getClauses(addresses, topics);
+        List<Bloom[]> blooms = getBlooms(clauses);
+        List<Entry> result = new ArrayList<>();
+
+        for (long range = from / RANGE_SIZE; range <= to / RANGE_SIZE; range++) {
+            byte[] rangeBloom = this.indexDS.get(getKey(RANGE_PREFIX, null, range));
+
+            if (rangeBloom == null || !matches(new Bloom(rangeBloom), blooms))
+                continue;
+
+            long firstBucket = Math.max(from, range * RANGE_SIZE) / BUCKET_SIZE;
+            long lastBucket = Math.min(to, (range + 1) * RANGE_SIZE - 1) / BUCKET_SIZE;
+
+            for (long bucket = firstBucket; bucket <= lastBucket; bucket++)
+                for (Entry entry : findInBucket(clauses, bucket))
+                    if (entry.getBlockNumber() >= from && entry.getBlockNumber() <= to)
+                        result.add(entry);
+        }
+
+        return result;
+    }
+
+    private void addBlock(Block block, List<TransactionReceipt> receipts) {
+        byte[] blockKey = getKey(BLOCK_PREFIX, block.getHash(), 0);
+
+        if (this.indexDS.get(blockKey) != null)
+            return;
+
+        long number = block.getNumber();
+        long bucket = number / BUCKET_SIZE;
+        Map<ByteArrayWrapper, ByteArrayWrapper> postings = new HashMap<>();
+        Bloom blockBloom = new Bloom();
+        int txIndex = 0;
+
+        for (TransactionReceipt receipt : receipts) {
+            List<LogInfo> logs = receipt.getLogInfoList();
+
+            if (!logs.isEmpty()) {
+                byte[] entry = encodeEntry(number, block.getHash(), txIndex);
+                Set<ByteArrayWrapper> keys = new HashSet<>();
+
+                keys.add(new ByteArrayWrapper(getKey(ANY_PREFIX, null, bucket)));
+
+                for (LogInfo log : logs) {
+                    blockBloom.or(log.getBloom());
+                    keys.add(new ByteArrayWrapper(getKey(ADDRESS_PREFIX, log.getAddress(), bucket)));
+
+                    List<DataWord> logTopics = log.getTopics();
+
+                    for (int position = 0; position < logTopics.size(); position++)
+                        keys.add(new ByteArrayWrapper(getKey(TOPIC_PREFIX, getTopicTerm(position, logTopics.get(position).getData()), bucket)));
+                }
+
+                for (ByteArrayWrapper key : keys) {
+                    ByteArrayWrapper entries = postings.get(key);
+
+                    if (entries == null) {
+                        byte[] stored = this.indexDS.get(key.getData());
+                        entries = new ByteArrayWrapper(stored == null ? ByteUtil.EMPTY_BYTE_ARRAY : stored);
+                    }
+
+                    postings.put(key, new ByteArrayWrapper(ByteUtil.merge(entries.getData(), entry)));
+                }
+            }
+
+            txIndex++;
+        }
+
+        Map<byte[], byte[]> rows = new HashMap<>();
+
+        for (Map.Entry<ByteArrayWrapper, ByteArrayWrapper> posting : postings.entrySet())
+            rows.put(posting.getKey().getData(), posting.getValue().getData());
+
+        if (!postings.isEmpty()) {
+            byte[] rangeKey = getKey(RANGE_PREFIX, null, number / RANGE_SIZE);
+            byte[] stored = this.indexDS.get(rangeKey);
+            Bloom rangeBloom = stored == null ? new Bloom() : new Bloom(stored);
+            rangeBloom.or(blockBloom);
+            rows.put(rangeKey, rangeBloom.getData());
+        }
+
+        // a block before the first indexed one (i.e. of a fork) doesn't extend the
+        // indexed numbers, the main chain blocks before it weren't indexed
+        if (this.first < 0) {
+            this.first = number;
+            rows.put(FIRST_KEY, ByteUtil.longToBytes(number));
+        }
+
+        if (number > this.last) {
+            this.last = number;
+            rows.put(LAST_KEY, ByteUtil.longToBytes(number));
+        }
+
+        rows.put(blockKey, new byte[] { 1 });
+
+        this.indexDS.updateBatch(rows);
+    }
+
+    private List<TransactionReceipt> getReceipts(Block block) {
+        List<TransactionReceipt> receipts = new ArrayList<>();
+
+        for (Transaction tx : block.getTransactionsList()) {
+            TransactionInfo txInfo = this.receiptStore.get(tx.getHash(), block.getHash(), null);
+
+            if (txInfo == null) {
+                receipts.add(new TransactionReceipt());
+                continue;
+            }
+
+            receipts.add(txInfo.getReceipt());
+        }
+
+        return receipts;
+    }
+
+    private List<Entry> findInBucket(List<List<byte[]>> clauses, long bucket) {
+        Set<Entry> result = null;
+
+        for (List<byte[]> clause : clauses) {
+            Set<Entry> entries = new HashSet<>();
+
+            for (byte[] key : clause) {
+                byte[] stored = this.indexDS.get(withBucket(key, bucket));
+
+                if (stored != null)
+                    decodeEntries(stored, entries);
+            }
+
+            if (result == null)
+                result = entries;
+            else
+                result.retainAll(entries);
+
+            if (result.isEmpty())
+                return new ArrayList<>();
+        }
+
+        List<Entry> sorted = new ArrayList<>(result);
+        Collections.sort(sorted);
+
+        return sorted;
+    }
+
+    // a list of keys (without the bucket) for each condition, that match if any key matches
+    private static List<List<byte[]>> getClauses(byte[][] addresses, List<byte[][]> topics) {
+        List<List<byte[]>> clauses = new ArrayList<>();
+
+        if (addresses != null && addresses.length > 0) {
+            List<byte[]> clause = new ArrayList<>();
+
+            for (byte[] address : addresses)
+                clause.add(getKey(ADDRESS_PREFIX, address, 0));
+
+            clauses.add(clause);
+        }
+
+        if (topics != null)
+            for (int position = 0; position < topics.size(); position++) {
+                byte[][] orTopics = topics.get(position);
+
+                if (orTopics == null || orTopics.length == 0)
+                    continue;
+
+                List<byte[]> clause = new ArrayList<>();
+
+                for (byte[] topic : orTopics)
+                    clause.add(getKey(TOPIC_PREFIX, getTopicTerm(position, new DataWord(topic).getData()), 0));
+
+                clauses.add(clause);
+            }
+
+        if (clauses.isEmpty())
+            clauses.add(Collections.singletonList(getKey(ANY_PREFIX, null, 0)));
+
+        return clauses;
+    }
+
+    private static List<Bloom[]> getBlooms(List<List<byte[]>> clauses) {
+        List<Bloom[]> blooms = new ArrayList<>();
+
+        for (List<byte[]> clause : clauses) {
+            if (clause.get(0)[0] == ANY_PREFIX)
+                continue;
+
+            Bloom[] orBlooms = new Bloom[clause.size()];
+
+            for (int k = 0; k < orBlooms.length; k++) {
+                byte[] key = clause.get(k);
+                // the term is after the prefix (and the topic position)
+                int offset = key[0] == TOPIC_PREFIX ? 2 : 1;
+                byte[] term = Arrays.copyOfRange(key, offset, key.length - 8);
+                orBlooms[k] = Bloom.create(SHA3Helper.sha3(term));
+            }
+
+            blooms.add(orBlooms);
+        }
+
+        return blooms;
+    }
+
+    private static boolean matches(Bloom bloom, List<Bloom[]> blooms) {
+        for (Bloom[] orBlooms : blooms) {
+            boolean orMatches = false;
+
+            for (Bloom orBloom : orBlooms)
+                if (bloom.matches(orBloom)) {
+                    orMatches = true;
+                    break;
+                }
+
+            if (!orMatches)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static byte[] getTopicTerm(int position, byte[] topic) {
+        byte[] term = new byte[1 + topic.length];
+        term[0] = (byte) position;
+        System.arraycopy(topic, 0, term, 1, topic.length);
+        return term;
+    }
+
+    // prefix, term and bucket (or range) number
+    private static byte[] getKey(byte prefix, byte[] term, long number) {
+        int length = term == null ? 0 : term.length;
+
+        return ByteBuffer.allocate(1 + length + 8)
+                .put(prefix)
+                .put(term == null ? ByteUtil.EMPTY_BYTE_ARRAY : term)
+                .putLong(number)
+                .array();
+    }
+
+    private static byte[] withBucket(byte[] key, long bucket) {
+        byte[] result = Arrays.copyOf(key, key.length);
+        ByteBuffer.wrap(result, result.length - 8, 8).putLong(bucket);
+        return result;
+    }
+
+    private static byte[] encodeEntry(long number, byte[] blockHash, int txIndex) {
+        return ByteBuffer.allocate(ENTRY_SIZE).putLong(number).put(blockHash).putInt(txIndex).array();
+    }
+
+    private static void decodeEntries(byte[] data, Set<Entry> entries) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        while (buffer.remaining() >= ENTRY_SIZE) {
+            long number = buffer.getLong();
+            byte[] hash = new byte[32];
+            buffer.get(hash);
+            int txIndex = buffer.getInt();
+            entries.add(new Entry(number, hash, txIndex));
+        }
+    }
+
+    public static class Entry implements Comparable<Entry> {
+        private final long blockNumber;
+        private final byte[] blockHash;
+        private final int transactionIndex;
+
+        public Entry(long blockNumber, byte[] blockHash, int transactionIndex) {
+            this.blockNumber = blockNumber;
+            this.blockHash = blockHash;
+            this.transactionIndex = transactionIndex;
+        }
+
+        public long getBlockNumber() {
+            return this.blockNumber;
+        }
+
+        public byte[] getBlockHash() {
+            return this.blockHash;
+        }
+
+        public int getTransactionIndex() {
+            return this.transactionIndex;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (this.blockNumber != other.blockNumber)
+                return Long.compare(this.blockNumber, other.blockNumber);
+
+            if (this.transactionIndex != other.transactionIndex)
+                return Integer.compare(this.transactionIndex, other.transactionIndex);
+
+            return FastByteComparisons.compareTo(this.blockHash, 0, this.blockHash.length, other.blockHash, 0, other.blockHash.length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+
+            Entry other = (Entry) o;
+
+            return this.blockNumber == other.blockNumber && this.transactionIndex == other.transactionIndex
+                    && Arrays.equals(this.blockHash, other.blockHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.blockHash) * 31 + this.transactionIndex;
+        }
+    }
+}
@@ -22,41 +22,64 @@ package org.ethereum.db;
 import org.ethereum.core.Block;
 import org.ethereum.core.TransactionReceipt;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.KeyValueIterator;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * Created by Ruben on 6/1/2016.
  * Class used to store transaction receipts
+ *
+ * Each receipt is stored with the transaction hash and the block hash as key,
+ * so the receipts of a block are saved in one batch, without reading the stored ones
  */
 
 public class ReceiptStoreImpl implements ReceiptStore {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    // the receipts were stored in a list for each transaction hash, before version 1
+    private static final byte[] VERSION_KEY = "version".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VERSION = new byte[] { 1 };
+
+    // the order of the stored receipts, to return them as they were added
+    private static final byte[] SEQUENCE_KEY = "sequence".getBytes(StandardCharsets.UTF_8);
+
+    // transaction hashes to migrate in each batch
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+
     private KeyValueDataSource receiptsDS;
+    private final int migrationBatchSize;
+    private long sequence;
 
     public ReceiptStoreImpl(KeyValueDataSource receiptsDS){
-        this.receiptsDS = receiptsDS;
+        this(receiptsDS, MIGRATION_BATCH_SIZE);
     }
 
-    @Override
-    public void add(byte[] blockHash, int transactionIndex, TransactionReceipt receipt){
-        byte[] txHash = receipt.getTransaction().getHash();
-
-        TransactionInfo newTxInfo = new TransactionInfo(receipt, blockHash, transactionIndex);
-
-        List<TransactionInfo> txsInfo = getAll(txHash);
+    ReceiptStoreImpl(KeyValueDataSource receiptsDS, int migrationBatchSize) {
+        this.receiptsDS = receiptsDS;
+        this.migrationBatchSize = migrationBatchSize;
 
-        txsInfo.add(newTxInfo);
+        byte[] sequenceBytes = receiptsDS.get(SEQUENCE_KEY);
+        this.sequence = sequenceBytes == null ? 0 : ByteUtil.byteArrayToLong(sequenceBytes);
 
-        List<byte[]> encodedTxs = new ArrayList<>();
+        if (!Arrays.equals(receiptsDS.get(VERSION_KEY), VERSION))
+            migrate();
+    }
 
-        for (TransactionInfo ti : txsInfo)
-            encodedTxs.add(ti.getEncoded());
+    @Override
+    public synchronized void add(byte[] blockHash, int transactionIndex, TransactionReceipt receipt){
+        Map<byte[], byte[]> rows = new HashMap<>();
 
-        byte[][] txsBytes = encodedTxs.toArray(new byte[encodedTxs.size()][]);
+        addRow(rows, blockHash, transactionIndex, receipt);
 
-        receiptsDS.put(receipt.getTransaction().getHash(), RLP.encodeList(txsBytes));
+        receiptsDS.updateBatch(rows);
     }
 
     @Override
@@ -165,27 +188,111 @@ public class ReceiptStoreImpl implements ReceiptStore {
 
     @Override
     public List<TransactionInfo> getAll(byte[] transactionHash) {
-        byte[] txsBytes = receiptsDS.get(transactionHash);
+        List<byte[]> values = receiptsDS.getValuesByPrefix(transactionHash);
+        List<Map.Entry<Long, TransactionInfo>> txsInfo = new ArrayList<>();
 
-        if (txsBytes == null || txsBytes.length == 0)
-            return new ArrayList<TransactionInfo>();
+        for (byte[] value : values) {
+            RLPList rlpData = (RLPList) RLP.decode2(value).get(0);
+            long order = ByteUtil.byteArrayToLong(rlpData.get(0).getRLPData());
+            txsInfo.add(new AbstractMap.SimpleEntry<>(order, new TransactionInfo(rlpData.get(1).getRLPData())));
+        }
 
-        List<TransactionInfo> txsInfo = new ArrayList<>();
-        RLPList txsList = (RLPList) RLP.decode2(txsBytes).get(0);
+        txsInfo.sort(Comparator.comparing(Map.Entry::getKey));
 
-        for (int i = 0; i < txsList.size(); ++i) {
-            RLPList rlpData = ((RLPList) txsList.get(i));
-            txsInfo.add(new TransactionInfo(rlpData.getRLPData()));
-        }
+        List<TransactionInfo> result = new ArrayList<>();
 
-        return txsInfo;
+        for (Map.Entry<Long, TransactionInfo> txInfo : txsInfo)
+            result.add(txInfo.getValue());
+
+        return result;
     }
 
     @Override
-    public void saveMultiple(byte[] blockHash, List<TransactionReceipt> receipts) {
+    public synchronized void saveMultiple(byte[] blockHash, List<TransactionReceipt> receipts) {
+        Map<byte[], byte[]> rows = new HashMap<>();
         int i = 0;
-        for (TransactionReceipt receipt : receipts) {
-            this.add(blockHash, i++, receipt);
+
+        for (TransactionReceipt receipt : receipts)
+            addRow(rows, blockHash, i++, receipt);
+
+        receiptsDS.updateBatch(rows);
+    }
+
+    private void addRow(Map<byte[], byte[]> rows, byte[] blockHash, int transactionIndex, TransactionReceipt receipt) {
+        byte[] txHash = receipt.getTransaction().getHash();
+
+        TransactionInfo txInfo = new TransactionInfo(receipt, blockHash, transactionIndex);
+
+        rows.put(getKey(txHash, blockHash), encode(++sequence, txInfo));
+        rows.put(SEQUENCE_KEY, ByteUtil.longToBytes(sequence));
+    }
+
+    /**
+     * migrate moves the receipts stored as a list for each transaction hash
+     * to a row for each transaction and block
+     *
+     * The keys are walked in order, a batch at a time, so they are not loaded
+     * in memory all at once
+     */
+    private void migrate() {
+        byte[] from = null;
+        long migrated = 0;
+
+        while (true) {
+            List<Map.Entry<byte[], byte[]>> batch = new ArrayList<>();
+
+            try (KeyValueIterator iterator = receiptsDS.iterator(from, null)) {
+                while (batch.size() < migrationBatchSize && iterator.hasNext()) {
+                    Map.Entry<byte[], byte[]> entry = iterator.next();
+
+                    // the only keys with the length of a hash are the old lists
+                    if (entry.getKey().length == 32)
+                        batch.add(entry);
+                }
+            }
+
+            if (batch.isEmpty())
+                break;
+
+            if (migrated == 0)
+                logger.info("Migrating the receipts");
+
+            Map<byte[], byte[]> rows = new HashMap<>();
+
+            for (Map.Entry<byte[], byte[]> entry : batch) {
+                RLPList txsList = (RLPList) RLP.decode2(entry.getValue()).get(0);
+
+                for (int i = 0; i < txsList.size(); ++i) {
+                    TransactionInfo txInfo = new TransactionInfo(txsList.get(i).getRLPData());
+                    rows.put(getKey(entry.getKey(), txInfo.getBlockHash()), encode(++sequence, txInfo));
+                }
+            }
+
+            rows.put(SEQUENCE_KEY, ByteUtil.longToBytes(sequence));
+            receiptsDS.updateBatch(rows);
+
+            // the old lists are removed once their rows are written, so an interrupted
+            // migration can be resumed
+            for (Map.Entry<byte[], byte[]> entry : batch)
+                receiptsDS.delete(entry.getKey());
+
+            migrated += batch.size();
+
+            // the last list is removed, so the next batch starts after it
+            from = batch.get(batch.size() - 1).getKey();
         }
+
+        if (migrated > 0)
+            logger.info("Migrated the receipts of {} transactions", migrated);
+
+        receiptsDS.put(VERSION_KEY, VERSION);
+    }
+
+    private static byte[] getKey(byte[] transactionHash, byte[] blockHash) {
+        return ByteUtil.merge(transactionHash, blockHash);
+    }
+
+    private static byte[] encode(long order, TransactionInfo txInfo) {
+        return RLP.encodeList(RLP.encodeBigInteger(BigInteger.valueOf(order)), txInfo.getEncoded());
     }
 }
@@ -0,0 +1,147 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * RepositoryJournal keeps the changes done in a RepositoryTrack while there are open
+ * checkpoints, as an append-only list of undo actions
+ *
+ * A checkpoint is a position in the journal: opening one is O(1), committing it only
+ * drops the position, so its changes belong to the enclosing checkpoint, and rolling
+ * it back runs the later undo actions in reverse order and truncates the journal
+ *
+ * The checkpoints are opened lazily, when they are used. Using a checkpoint, or the
+ * track itself, rolls back the checkpoints opened after it that were not committed,
+ * as the changes of a discarded nested track never reached its parent
+ */
+public class RepositoryJournal {
+    private final List<Runnable> entries = new ArrayList<>();
+    private final Deque<Checkpoint> checkpoints = new ArrayDeque<>();
+
+    /**
+     * newCheckpoint creates a nested checkpoint, it is opened on its first use
+     *
+     * @param parent    the enclosing checkpoint, null if it is on the track itself
+     *
+     * @return  the new checkpoint
+     */
+    public Checkpoint newCheckpoint(Checkpoint parent) {
+        return new Checkpoint(parent);
+    }
+
+    /**
+     * activate makes a checkpoint the current one, before using it
+     *
+     * @param checkpoint    the checkpoint to use, null for the track itself
+     */
+    public void activate(Checkpoint checkpoint) {
+        if (checkpoint != null && !checkpoint.open) {
+            this.activate(checkpoint.parent);
+
+            checkpoint.mark = this.entries.size();
+            checkpoint.open = true;
+            this.checkpoints.push(checkpoint);
+
+            return;
+        }
+
+        while (!this.checkpoints.isEmpty() && this.checkpoints.peek() != checkpoint)
+            this.revert(this.checkpoints.peek());
+    }
+
+    /**
+     * commit keeps the changes of a checkpoint, as changes of the enclosing one
+     */
+    public void commit(Checkpoint checkpoint) {
+        this.activate(checkpoint);
+        this.close(checkpoint);
+    }
+
+    /**
+     * rollback undoes the changes done since a checkpoint was opened
+     */
+    public void rollback(Checkpoint checkpoint) {
+        this.activate(checkpoint);
+        this.revert(checkpoint);
+    }
+
+    /**
+     * record adds the undo action of a change. The changes done out of any checkpoint
+     * are not recorded, they can only be discarded with the whole track
+     *
+     * @param undo  the action that restores the previous state
+     */
+    public void record(Runnable undo) {
+        if (this.isRecording())
+            this.entries.add(undo);
+    }
+
+    public boolean isRecording() {
+        return !this.checkpoints.isEmpty();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * clear drops all the entries and closes all the checkpoints, when the track is
+     * committed or rolled back
+     */
+    public void clear() {
+        for (Checkpoint checkpoint : this.checkpoints)
+            checkpoint.open = false;
+
+        this.checkpoints.clear();
+        this.entries.clear();
+    }
+
+    private void revert(Checkpoint checkpoint) {
+        for (int k = this.entries.size(); k-- > checkpoint.mark;)
+            this.entries.remove(k).run();
+
+        this.close(checkpoint);
+    }
+
+    private void close(Checkpoint checkpoint) {
+        this.checkpoints.pop();
+        checkpoint.open = false;
+
+        // without open checkpoints, the changes cannot be undone
+        if (this.checkpoints.isEmpty())
+            this.entries.clear();
+    }
+
+    public static class Checkpoint {
+        private final Checkpoint parent;
+
+        // the journal size when the checkpoint was opened
+        private int mark;
+        private boolean open;
+
+        private Checkpoint(Checkpoint parent) {
+            this.parent = parent;
+        }
+    }
+}
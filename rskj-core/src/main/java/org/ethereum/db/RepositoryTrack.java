@@ -41,6 +41,13 @@ import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.wrap;
 
 /**
+ * RepositoryTrack keeps the changes to a repository in memory, until they are committed
+ *
+ * The nested tracks, from startTracking, share the accounts and details of this track,
+ * and are checkpoints in a single journal: starting one is O(1), and a rollback undoes
+ * only the changes done since its checkpoint. A nested track has to be committed or
+ * rolled back before its parent is used again, or its changes are discarded
+ *
  * @author Roman Mandeleil
  * @since 17.11.2014
  */
@@ -48,16 +55,35 @@ public class RepositoryTrack implements Repository {
     private static final byte[] EMPTY_DATA_HASH = HashUtil.sha3(EMPTY_BYTE_ARRAY);
     private static final Logger logger = LoggerFactory.getLogger("repository");
 
-    Map<ByteArrayWrapper, AccountState> cacheAccounts = new HashMap<>();
-    Map<ByteArrayWrapper, ContractDetails> cacheDetails = new HashMap<>();
+    final Map<ByteArrayWrapper, AccountState> cacheAccounts;
+    final Map<ByteArrayWrapper, ContractDetails> cacheDetails;
+
+    final DetailsDataStore dds;
 
-    DetailsDataStore dds = new DetailsDataStore();
+    final Repository repository;
 
-    Repository repository;
+    private final RepositoryJournal journal;
+
+    // the checkpoint of a nested track, null for the track itself
+    private final RepositoryJournal.Checkpoint checkpoint;
 
     public RepositoryTrack(Repository repository) {
         this.repository = repository;
-        dds.setDB(new DatabaseImpl(new HashMapDB()));
+        this.cacheAccounts = new HashMap<>();
+        this.cacheDetails = new HashMap<>();
+        this.dds = new DetailsDataStore();
+        this.dds.setDB(new DatabaseImpl(new HashMapDB()));
+        this.journal = new RepositoryJournal();
+        this.checkpoint = null;
+    }
+
+    private RepositoryTrack(RepositoryTrack track) {
+        this.repository = track.repository;
+        this.cacheAccounts = track.cacheAccounts;
+        this.cacheDetails = track.cacheDetails;
+        this.dds = track.dds;
+        this.journal = track.journal;
+        this.checkpoint = track.journal.newCheckpoint(track.checkpoint);
     }
 
     @Override
@@ -66,11 +92,15 @@ public class RepositoryTrack implements Repository {
         synchronized (repository) {
             logger.trace("createAccount: [{}]", Hex.toHexString(addr));
 
+            journal.activate(checkpoint);
+            recordAccount(wrap(addr));
+
             AccountState accountState = new AccountState();
             cacheAccounts.put(wrap(addr), accountState);
 
-            ContractDetails contractDetails = new ContractDetailsCacheImpl(null);
+            ContractDetailsCacheImpl contractDetails = new ContractDetailsCacheImpl(null);
             contractDetails.setDirty(true);
+            contractDetails.setJournal(journal);
             cacheDetails.put(wrap(addr), contractDetails);
 
             return accountState;
@@ -81,11 +111,12 @@ public class RepositoryTrack implements Repository {
     public AccountState getAccountState(byte[] addr) {
 
         synchronized (repository) {
+            journal.activate(checkpoint);
 
             AccountState accountState = cacheAccounts.get(wrap(addr));
 
             if (accountState == null) {
-                repository.loadAccount(addr, cacheAccounts, cacheDetails);
+                load(addr);
 
                 accountState = cacheAccounts.get(wrap(addr));
             }
@@ -97,6 +128,8 @@ public class RepositoryTrack implements Repository {
     public boolean isExist(byte[] addr) {
 
         synchronized (repository) {
+            journal.activate(checkpoint);
+
             AccountState accountState = cacheAccounts.get(wrap(addr));
             if (accountState != null)
                 return !accountState.isDeleted();
@@ -109,10 +142,12 @@ public class RepositoryTrack implements Repository {
     public ContractDetails getContractDetails(byte[] addr) {
 
         synchronized (repository) {
+            journal.activate(checkpoint);
+
             ContractDetails contractDetails = cacheDetails.get(wrap(addr));
 
             if (contractDetails == null) {
-                repository.loadAccount(addr, cacheAccounts, cacheDetails);
+                load(addr);
                 contractDetails = cacheDetails.get(wrap(addr));
             }
 
@@ -125,11 +160,13 @@ public class RepositoryTrack implements Repository {
                             Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
 
         synchronized (repository) {
+            journal.activate(checkpoint);
+
             AccountState accountState = this.cacheAccounts.get(wrap(addr));
             ContractDetails contractDetails = this.cacheDetails.get(wrap(addr));
 
             if (accountState == null) {
-                repository.loadAccount(addr, this.cacheAccounts, this.cacheDetails);
+                load(addr);
                 accountState = this.cacheAccounts.get(wrap(addr));
                 contractDetails = this.cacheDetails.get(wrap(addr));
             }
@@ -146,7 +183,7 @@ public class RepositoryTrack implements Repository {
         logger.trace("delete account: [{}]", Hex.toHexString(addr));
 
         synchronized (repository) {
-            getAccountState(addr).setDeleted(true);
+            getAccountStateToChange(addr).setDeleted(true);
             getContractDetails(addr).setDeleted(true);
         }
     }
@@ -155,7 +192,7 @@ public class RepositoryTrack implements Repository {
     public BigInteger increaseNonce(byte[] addr) {
 
         synchronized (repository) {
-            AccountState accountState = getAccountState(addr);
+            AccountState accountState = getAccountStateToChange(addr);
 
             if (accountState == null)
                 accountState = createAccount(addr);
@@ -176,7 +213,7 @@ public class RepositoryTrack implements Repository {
     public void hibernate(byte[] addr) {
 
         synchronized (repository) {
-            AccountState accountState = getAccountState(addr);
+            AccountState accountState = getAccountStateToChange(addr);
 
             if (accountState == null)
                 accountState = createAccount(addr);
@@ -190,7 +227,7 @@ public class RepositoryTrack implements Repository {
 
     public BigInteger setNonce(byte[] addr, BigInteger bigInteger) {
         synchronized (repository) {
-            AccountState accountState = getAccountState(addr);
+            AccountState accountState = getAccountStateToChange(addr);
 
             if (accountState == null)
                 accountState = createAccount(addr);
@@ -224,7 +261,7 @@ public class RepositoryTrack implements Repository {
     public BigInteger addBalance(byte[] addr, BigInteger value) {
 
         synchronized (repository) {
-            AccountState accountState = getAccountState(addr);
+            AccountState accountState = getAccountStateToChange(addr);
             if (accountState == null) {
                 accountState = createAccount(addr);
             }
@@ -246,7 +283,7 @@ public class RepositoryTrack implements Repository {
         synchronized (repository) {
             getContractDetails(addr).setCode(code);
             getContractDetails(addr).setDirty(true);
-            getAccountState(addr).setCodeHash(sha3(code));
+            getAccountStateToChange(addr).setCodeHash(sha3(code));
         }
     }
 
@@ -339,11 +376,19 @@ public class RepositoryTrack implements Repository {
     public void commit() {
 
         synchronized (repository) {
+            if (checkpoint != null) {
+                journal.commit(checkpoint);
+                return;
+            }
+
+            journal.activate(null);
+
             applyCacheDetailsChanges();
 
             repository.updateBatch(cacheAccounts, cacheDetails);
             cacheAccounts.clear();
             cacheDetails.clear();
+            journal.clear();
             logger.debug("committed changes");
         }
     }
@@ -367,8 +412,16 @@ public class RepositoryTrack implements Repository {
     public void rollback() {
         logger.debug("rollback changes");
 
-        cacheAccounts.clear();
-        cacheDetails.clear();
+        synchronized (repository) {
+            if (checkpoint != null) {
+                journal.rollback(checkpoint);
+                return;
+            }
+
+            cacheAccounts.clear();
+            cacheDetails.clear();
+            journal.clear();
+        }
     }
 
     public void dumpChanges() {
@@ -395,11 +448,16 @@ public class RepositoryTrack implements Repository {
                             Map<ByteArrayWrapper, ContractDetails> contractDetails) {
 
         synchronized (repository) {
+            journal.activate(checkpoint);
+
             for (Map.Entry<ByteArrayWrapper, AccountState> entry : accountStates.entrySet()) {
+                recordAccount(entry.getKey());
                 cacheAccounts.put(entry.getKey(), entry.getValue());
             }
 
             for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : contractDetails.entrySet()) {
+                if (!accountStates.containsKey(entry.getKey()))
+                    recordAccount(entry.getKey());
 
                 ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) entry.getValue();
                 if (    contractDetailsCache.origContract != null
@@ -407,6 +465,11 @@ public class RepositoryTrack implements Repository {
                     cacheDetails.put(entry.getKey(), contractDetailsCache.origContract);
                 else
                     cacheDetails.put(entry.getKey(), contractDetailsCache);
+
+                ContractDetails details = cacheDetails.get(entry.getKey());
+
+                if (details instanceof ContractDetailsCacheImpl)
+                    ((ContractDetailsCacheImpl) details).setJournal(journal);
             }
         }
     }
@@ -451,7 +514,11 @@ public class RepositoryTrack implements Repository {
     public void updateContractDetails(byte[] address, ContractDetails contractDetails) {
         synchronized (repository) {
             logger.trace("updateContractDetails: [{}]", Hex.toHexString(address));
-            ContractDetails contractDetailsCache = new ContractDetailsCacheImpl(null);
+            journal.activate(checkpoint);
+            recordAccount(wrap(address));
+
+            ContractDetailsCacheImpl contractDetailsCache = new ContractDetailsCacheImpl(null);
+            contractDetailsCache.setJournal(journal);
             contractDetails.setDirty(true);
             cacheDetails.put(wrap(address), contractDetailsCache);
         }
@@ -461,7 +528,60 @@ public class RepositoryTrack implements Repository {
     public void updateAccountState(byte[] address, AccountState accountState) {
         synchronized (repository) {
             logger.trace("updateAccountState: [{}]", Hex.toHexString(address));
+            journal.activate(checkpoint);
+            recordAccount(wrap(address));
             cacheAccounts.put(wrap(address), accountState);
         }
     }
+
+    private void load(byte[] addr) {
+        repository.loadAccount(addr, cacheAccounts, cacheDetails);
+
+        ContractDetails contractDetails = cacheDetails.get(wrap(addr));
+
+        if (contractDetails instanceof ContractDetailsCacheImpl)
+            ((ContractDetailsCacheImpl) contractDetails).setJournal(journal);
+    }
+
+    /**
+     * getAccountStateToChange returns the account state to be changed in place,
+     * recording a copy of its current values
+     */
+    private AccountState getAccountStateToChange(byte[] addr) {
+        AccountState accountState = getAccountState(addr);
+
+        if (accountState != null && journal.isRecording()) {
+            ByteArrayWrapper key = wrap(addr);
+            AccountState previous = accountState.clone();
+            previous.setDirty(accountState.isDirty());
+            previous.setDeleted(accountState.isDeleted());
+
+            journal.record(() -> cacheAccounts.put(key, previous));
+        }
+
+        return accountState;
+    }
+
+    /**
+     * recordAccount records the current account state and details entries, before replacing them
+     */
+    private void recordAccount(ByteArrayWrapper key) {
+        if (!journal.isRecording())
+            return;
+
+        AccountState accountState = cacheAccounts.get(key);
+        ContractDetails contractDetails = cacheDetails.get(key);
+
+        journal.record(() -> {
+            restore(cacheAccounts, key, accountState);
+            restore(cacheDetails, key, contractDetails);
+        });
+    }
+
+    private static <T> void restore(Map<ByteArrayWrapper, T> map, ByteArrayWrapper key, T value) {
+        if (value == null)
+            map.remove(key);
+        else
+            map.put(key, value);
+    }
 }
@@ -27,6 +27,7 @@ import co.rsk.net.BlockProcessor;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.PendingState;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.LogIndex;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.client.ConfigCapabilities;
 import org.ethereum.net.client.PeerClient;
@@ -67,6 +68,8 @@ public interface WorldManager {
 
     PendingState getPendingState();
 
+    LogIndex getLogIndex();
+
     void close() ;
 
     ConfigCapabilities getConfigCapabilities();
@@ -25,13 +25,17 @@ import co.rsk.mine.MinerClient;
 import co.rsk.mine.MinerServer;
 import co.rsk.net.BlockProcessor;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.core.Block;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.PendingState;
 import org.ethereum.core.Repository;
+import org.ethereum.core.TransactionReceipt;
 import org.ethereum.core.genesis.BlockChainLoader;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.LogIndex;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.net.NodeManager;
 import org.ethereum.net.client.ConfigCapabilities;
 import org.ethereum.net.client.PeerClient;
@@ -44,6 +48,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.List;
 
 /**
  * WorldManager is a singleton containing references to different parts of the system.
@@ -83,6 +88,9 @@ public class WorldManagerImpl implements WorldManager {
     @Autowired
     private PendingState pendingState;
 
+    @Autowired
+    private LogIndex logIndex;
+
     @Autowired
     SystemProperties config;
 
@@ -110,6 +118,13 @@ public class WorldManagerImpl implements WorldManager {
     public void init() {
         BlockChainLoader loader = new BlockChainLoader(this.blockchain, this.config, this.blockStore, this.repository, this.listener);
         loader.loadBlockchain();
+
+        addListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(Block block, List<TransactionReceipt> receipts) {
+                logIndex.onBlock(block, receipts);
+            }
+        });
     }
 
     public void addListener(EthereumListener listener) {
@@ -149,6 +164,10 @@ public class WorldManagerImpl implements WorldManager {
         return pendingState;
     }
 
+    public LogIndex getLogIndex() {
+        return logIndex;
+    }
+
     @PreDestroy
     public void close() {
         repository.close();
@@ -47,6 +47,14 @@ public class LogFilter {
         return this;
     }
 
+    public byte[][] getContractAddresses() {
+        return contractAddresses;
+    }
+
+    public List<byte[][]> getTopics() {
+        return topics;
+    }
+
     private void initBlooms() {
         if (filterBlooms != null) return;
 
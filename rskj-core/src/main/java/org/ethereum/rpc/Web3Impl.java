@@ -37,6 +37,7 @@ import org.ethereum.core.*;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.BlockInformation;
+import org.ethereum.db.LogIndex;
 import org.ethereum.db.TransactionInfo;
 import org.ethereum.facade.Ethereum;
 import org.ethereum.listener.CompositeEthereumListener;
@@ -1016,15 +1017,7 @@ public class Web3Impl implements Web3 {
 
         void onTransaction(Transaction tx, Block b, int txIndex) {
             TransactionInfo txInfo = worldManager.getBlockchain().getTransactionInfo(tx.getHash());
-            TransactionReceipt receipt = txInfo.getReceipt();
-
-            LogFilterElement[] logs = new LogFilterElement[receipt.getLogInfoList().size()];
-            for (int i = 0; i < logs.length; i++) {
-                LogInfo logInfo = receipt.getLogInfoList().get(i);
-                if (logFilter.matchesContractAddress(logInfo.getAddress())) {
-                    onTransactionReceipt(receipt, b, txIndex);
-                }
-            }
+            onTransactionReceipt(txInfo.getReceipt(), b, txIndex);
         }
 
         void onBlock(Block b) {
@@ -1098,9 +1091,7 @@ public class Web3Impl implements Web3 {
             if (blockFrom != null) {
                 // need to add historical data
                 blockTo = blockTo == null ? worldManager.getBlockchain().getBestBlock() : blockTo;
-                for (long blockNum = blockFrom.getNumber(); blockNum <= blockTo.getNumber(); blockNum++) {
-                    filter.onBlock(worldManager.getBlockchain().getBlockByNumber(blockNum));
-                }
+                addHistoricalLogs(filter, blockFrom.getNumber(), blockTo.getNumber());
             }
 
             // the following is not precisely documented
@@ -1119,6 +1110,59 @@ public class Web3Impl implements Web3 {
         }
     }
 
+    /**
+     * addHistoricalLogs adds to a filter the logs of a range of blocks. The blocks known
+     * by the log index are searched in it, reading only the blocks and receipts of the
+     * matching transactions; the rest of the blocks are read one by one
+     */
+    private void addHistoricalLogs(JsonLogFilter filter, long fromNumber, long toNumber) {
+        LogIndex logIndex = worldManager.getLogIndex();
+        long indexedFrom = toNumber + 1;
+        long indexedTo = toNumber;
+
+        if (logIndex != null && logIndex.getFirstIndexedNumber() >= 0) {
+            indexedFrom = max(fromNumber, logIndex.getFirstIndexedNumber());
+            indexedTo = Math.min(toNumber, logIndex.getLastIndexedNumber());
+        }
+
+        if (indexedFrom > indexedTo) {
+            addBlocksLogs(filter, fromNumber, toNumber);
+            return;
+        }
+
+        addBlocksLogs(filter, fromNumber, indexedFrom - 1);
+
+        Blockchain blockchain = worldManager.getBlockchain();
+        LogFilter logFilter = filter.logFilter;
+        Block block = null;
+
+        for (LogIndex.Entry entry : logIndex.find(logFilter.getContractAddresses(), logFilter.getTopics(), indexedFrom, indexedTo)) {
+            if (block == null || block.getNumber() != entry.getBlockNumber())
+                block = blockchain.getBlockByNumber(entry.getBlockNumber());
+
+            // the entries of the blocks out of the main chain are skipped
+            if (block == null || !Arrays.equals(block.getHash(), entry.getBlockHash()))
+                continue;
+
+            Transaction tx = block.getTransactionsList().get(entry.getTransactionIndex());
+            TransactionInfo txInfo = blockchain.getReceiptStore().get(tx.getHash(), block.getHash(), null);
+
+            if (txInfo == null)
+                continue;
+
+            txInfo.setTransaction(tx);
+            filter.onTransactionReceipt(txInfo.getReceipt(), block, entry.getTransactionIndex());
+        }
+
+        addBlocksLogs(filter, indexedTo + 1, toNumber);
+    }
+
+    private void addBlocksLogs(JsonLogFilter filter, long fromNumber, long toNumber) {
+        for (long blockNum = fromNumber; blockNum <= toNumber; blockNum++) {
+            filter.onBlock(worldManager.getBlockchain().getBlockByNumber(blockNum));
+        }
+    }
+
     @Override
     public String eth_newBlockFilter() {
         String s = null;
@@ -511,6 +511,52 @@ public class ByteUtil {
         return mergedArray;
     }
 
+    /**
+     * @param array - the array to check
+     * @param prefix - the expected first bytes
+     * @return - true if the array starts with the prefix
+     */
+    public static boolean startsWith(byte[] array, byte[] prefix) {
+        if (array.length < prefix.length)
+            return false;
+
+        return FastByteComparisons.compareTo(array, 0, prefix.length, prefix, 0, prefix.length) == 0;
+    }
+
+    /**
+     * nextPrefix returns the first array after all the arrays that start with a prefix
+     *
+     * @param prefix - the prefix
+     * @return - the next array, null if there is no such array
+     */
+    public static byte[] nextPrefix(byte[] prefix) {
+        int length = prefix.length;
+
+        while (length > 0 && prefix[length - 1] == (byte) 0xff)
+            length--;
+
+        if (length == 0)
+            return null;
+
+        byte[] result = Arrays.copyOf(prefix, length);
+        result[length - 1]++;
+
+        return result;
+    }
+
+    /**
+     * @param array - the array to check
+     * @param from - the first array of the range, inclusive, null if there is no lower bound
+     * @param to - the last array of the range, exclusive, null if there is no upper bound
+     * @return - true if the array is in the range, comparing the bytes as unsigned
+     */
+    public static boolean isInRange(byte[] array, byte[] from, byte[] to) {
+        if (from != null && FastByteComparisons.compareTo(array, 0, array.length, from, 0, from.length) < 0)
+            return false;
+
+        return to == null || FastByteComparisons.compareTo(array, 0, array.length, to, 0, to.length) < 0;
+    }
+
     public static boolean isNullOrZeroArray(byte[] array){
         return (array == null) || (array.length == 0);
     }
@@ -47,6 +47,10 @@ public class DataWord implements Comparable<DataWord> {
     public static final DataWord ONE = new DataWord(1);
     public static final DataWord ZERO_EMPTY_ARRAY = new DataWord(new byte[0]);      // don't push it in to the stack
 
+    // the operands of the arithmetic operations, reused by each thread
+    private static final ThreadLocal<UInt256[]> operands =
+            ThreadLocal.withInitial(() -> new UInt256[] { new UInt256(), new UInt256(), new UInt256() });
+
     private byte[] data; // Optimization, do not initialize until needed
 
     public DataWord() {
@@ -335,14 +339,9 @@ public class DataWord implements Comparable<DataWord> {
         this.data = ByteUtil.copyToArray(MAX_VALUE.subtract(this.value()));
     }
 
-    // By   : Holger
-    // From : http://stackoverflow.com/a/24023466/459349
     public void add(DataWord word) {
-        for (int i = 31, overflow = 0; i >= 0; i--) {
-            int v = (this.data[i] & 0xff) + (word.data[i] & 0xff) + overflow;
-            this.data[i] = (byte) v;
-            overflow = v >>> 8;
-        }
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).add(values[1].load(word.data)));
     }
 
     // old add-method with BigInteger quick hack
@@ -351,96 +350,56 @@ public class DataWord implements Comparable<DataWord> {
         this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
     }
 
-    // TODO: mul can be done in more efficient way
-    // TODO:     with shift left shift right trick
-    // TODO      without BigInteger quick hack
     public void mul(DataWord word) {
-        BigInteger result = value().multiply(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).mul(values[1].load(word.data)));
     }
 
-    // TODO: improve with no BigInteger
     public void div(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = value().divide(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).div(values[1].load(word.data)));
     }
 
-    // TODO: improve with no BigInteger
     public void sDiv(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = sValue().divide(word.sValue());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).sdiv(values[1].load(word.data)));
     }
 
-
-    // TODO: improve with no BigInteger
     public void sub(DataWord word) {
-        BigInteger result = value().subtract(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).sub(values[1].load(word.data)));
     }
 
-    // TODO: improve with no BigInteger
     public void exp(DataWord word) {
-        BigInteger result = value().modPow(word.value(), _2_256);
-        this.data = ByteUtil.copyToArray(result);
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).exp(values[1].load(word.data)));
     }
 
-    // TODO: improve with no BigInteger
     public void mod(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = value().mod(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).mod(values[1].load(word.data)));
     }
 
     public void sMod(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = sValue().abs().mod(word.sValue().abs());
-        result = (sValue().signum() == -1) ? result.negate() : result;
-
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).smod(values[1].load(word.data)));
     }
 
     public void addmod(DataWord word1, DataWord word2) {
-        if (word1.data[0] != 0 || data[0] != 0) {
-            // overflow possible: slower path
-            this.mod(word2);
-            word1 = word1.clone();
-            word1.mod(word2);
-        }
-        this.add(word1);
-        this.mod(word2);
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).addmod(values[1].load(word1.data), values[2].load(word2.data)));
     }
 
     public void mulmod(DataWord word1, DataWord word2) {
+        UInt256[] values = operands.get();
+        store(values[0].load(this.data).mulmod(values[1].load(word1.data), values[2].load(word2.data)));
+    }
 
-        if (word2.isZero()) {
+    private void store(UInt256 value) {
+        if (this.data.length != 32)
             this.data = new byte[32];
-            return;
-        }
 
-        BigInteger result = value().multiply(word1.value()).mod(word2.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        value.store(this.data);
     }
 
     @JsonValue
@@ -502,10 +461,22 @@ public class DataWord implements Comparable<DataWord> {
         else return 0;
     }
 
+    /**
+     * sCompareTo compares the signed (two's complement) values
+     */
+    public int sCompareTo(DataWord o) {
+        boolean negative = isNegative();
+
+        if (negative != o.isNegative())
+            return negative ? -1 : 1;
+
+        return compareTo(o);
+    }
+
     public void signExtend(byte k) {
         if (0 > k || k > 31)
             throw new IndexOutOfBoundsException();
-        byte mask = this.sValue().testBit((k * 8) + 7) ? (byte) 0xff : 0;
+        byte mask = (this.data[31 - k] & 0x80) != 0 ? (byte) 0xff : 0;
         for (int i = 31; i > k; i--) {
             this.data[31 - i] = mask;
         }
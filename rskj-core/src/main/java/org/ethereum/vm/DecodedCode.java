@@ -0,0 +1,296 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.vm.program.CodeAnalysis;
+import org.ethereum.vm.program.Program;
+
+/**
+ * DecodedCode is the contract bytecode decoded once into an instruction array,
+ * indexed by program counter, to be executed by the VM pre-decoded engine
+ *
+ * Each instruction has its opcode already resolved (null if it is invalid for the
+ * code script version), and the value of the PUSH instructions. A PUSH followed
+ * by a JUMP or a JUMPI to a valid jump destination keeps the target, so both
+ * instructions are executed at once
+ *
+ * The instructions are grouped in runs: sequences of instructions with static gas
+ * cost, that only can be entered by its first instruction (they begin at the start
+ * of the code, at a JUMPDEST, or after an instruction that changes the flow or has
+ * a dynamic cost) and that end with a jump, STOP or GAS. The VM charges the gas of a
+ * run and checks the stack limits once, before executing its instructions
+ *
+ * The decoded code only depends on the bytecode, so it is kept with the code
+ * analysis, and shared by the programs that share the analysis (see CodeAnalysisCache)
+ */
+public class DecodedCode {
+    private final Instruction[] instructions;
+
+    private DecodedCode(Instruction[] instructions) {
+        this.instructions = instructions;
+    }
+
+    /**
+     * forProgram returns the decoded code of a program, decoding it the first
+     * time the code analysis of the program is used by the pre-decoded engine
+     *
+     * @param program   the program to execute
+     *
+     * @return  the decoded code
+     */
+    public static DecodedCode forProgram(Program program) {
+        CodeAnalysis analysis = program.getCodeAnalysis();
+        DecodedCode code = analysis.getDecodedCode();
+
+        if (code == null) {
+            // two programs can decode the same code at the same time, both results are equal
+            code = decode(program);
+            analysis.setDecodedCode(code);
+        }
+
+        return code;
+    }
+
+    /**
+     * getInstruction returns the instruction at a position of the code
+     *
+     * @param pc    the position
+     *
+     * @return  the instruction, null if the position is not the start of an instruction
+     */
+    public Instruction getInstruction(int pc) {
+        return pc < this.instructions.length ? this.instructions[pc] : null;
+    }
+
+    static DecodedCode decode(Program program) {
+        byte[] code = program.getCode();
+        int scriptVersion = program.getScriptVersion();
+        Instruction[] instructions = new Instruction[code.length];
+        RunBuilder run = null;
+        Instruction previous = null;
+
+        for (int pc = program.getStartAddr(); pc < code.length;) {
+            OpCode op = OpCode.code(code[pc]);
+
+            if (op != null && op.scriptVersion() > scriptVersion)
+                op = null;
+
+            Instruction instruction = new Instruction(op);
+            instructions[pc] = instruction;
+
+            int next = pc + 1;
+
+            if (op != null && isPush(op)) {
+                int n = op.val() - OpCode.PUSH1.val() + 1;
+                instruction.value = new DataWord();
+                instruction.value.assignDataRange(code, pc + 1, n);
+                next = pc + 1 + n;
+            }
+
+            // a PUSH followed by a jump to a valid destination
+            if (previous != null && previous.op != null && isPush(previous.op)
+                    && (op == OpCode.JUMP || op == OpCode.JUMPI)
+                    && !previous.value.occupyMoreThan(4) && program.isJumpDest(previous.value.intValue()))
+                previous.target = previous.value.intValue();
+
+            long gas = op == null ? -1 : getStaticGas(op);
+
+            if (run != null && (gas < 0 || op == OpCode.JUMPDEST)) {
+                run.close();
+                run = null;
+            }
+
+            if (gas >= 0) {
+                if (run == null)
+                    run = new RunBuilder(instruction);
+
+                run.add(op, gas);
+
+                if (endsRun(op)) {
+                    run.close();
+                    run = null;
+                }
+            }
+
+            previous = instruction;
+            pc = next;
+        }
+
+        if (run != null)
+            run.close();
+
+        return new DecodedCode(instructions);
+    }
+
+    /**
+     * getStaticGas returns the gas cost of the instructions that don't depend
+     * on their arguments or on the memory size, as charged by the VM
+     *
+     * @param op    the opcode
+     *
+     * @return  the gas cost, -1 if it is dynamic
+     */
+    static long getStaticGas(OpCode op) {
+        switch (op) {
+            case STOP:
+                return GasCost.STOP;
+            case BALANCE:
+                return GasCost.BALANCE;
+            case EXTCODESIZE:
+                return GasCost.EXT_CODE_SIZE;
+            case SLOAD:
+                return GasCost.SLOAD;
+            case ADD: case MUL: case SUB: case DIV: case SDIV: case MOD: case SMOD:
+            case ADDMOD: case MULMOD: case SIGNEXTEND:
+            case LT: case GT: case SLT: case SGT: case EQ: case ISZERO:
+            case AND: case OR: case XOR: case NOT: case BYTE:
+            case ADDRESS: case ORIGIN: case CALLER: case CALLVALUE:
+            case CALLDATALOAD: case CALLDATASIZE: case CODESIZE: case GASPRICE:
+            case BLOCKHASH: case COINBASE: case TIMESTAMP: case NUMBER: case DIFFICULTY: case GASLIMIT:
+            case POP: case JUMP: case JUMPI: case PC: case MSIZE: case GAS: case JUMPDEST:
+                return op.getTier().asInt();
+            default:
+                if (isPush(op) || isDup(op) || isSwap(op))
+                    return op.getTier().asInt();
+
+                return -1;
+        }
+    }
+
+    private static boolean endsRun(OpCode op) {
+        // GAS ends the run, so the remaining gas it returns is the same as running
+        // instruction by instruction
+        return op == OpCode.JUMP || op == OpCode.JUMPI || op == OpCode.STOP || op == OpCode.GAS;
+    }
+
+    static boolean isPush(OpCode op) {
+        return op.val() >= OpCode.PUSH1.val() && op.val() <= OpCode.PUSH32.val();
+    }
+
+    private static boolean isDup(OpCode op) {
+        return (op.val() & 0xff) >= (OpCode.DUP1.val() & 0xff) && (op.val() & 0xff) <= (OpCode.DUP16.val() & 0xff);
+    }
+
+    private static boolean isSwap(OpCode op) {
+        return (op.val() & 0xff) >= (OpCode.SWAP1.val() & 0xff) && (op.val() & 0xff) <= (OpCode.SWAP16.val() & 0xff);
+    }
+
+    public static class Instruction {
+        private final OpCode op;
+        private DataWord value;
+        private int target = -1;
+        private Run run;
+
+        Instruction(OpCode op) {
+            this.op = op;
+        }
+
+        /**
+         * getOp returns the opcode, null if it is invalid
+         */
+        public OpCode getOp() {
+            return this.op;
+        }
+
+        /**
+         * getValue returns the value pushed by a PUSH instruction
+         */
+        public DataWord getValue() {
+            return this.value;
+        }
+
+        /**
+         * getTarget returns the validated jump destination of a PUSH
+         * followed by a jump, -1 in other cases
+         */
+        public int getTarget() {
+            return this.target;
+        }
+
+        /**
+         * getRun returns the run that starts with this instruction, null if
+         * it is not the start of a run
+         */
+        public Run getRun() {
+            return this.run;
+        }
+    }
+
+    public static class Run {
+        private final long gas;
+        private final int length;
+        private final int minStackSize;
+        private final int maxStackGrowth;
+
+        Run(long gas, int length, int minStackSize, int maxStackGrowth) {
+            this.gas = gas;
+            this.length = length;
+            this.minStackSize = minStackSize;
+            this.maxStackGrowth = maxStackGrowth;
+        }
+
+        public long getGas() {
+            return this.gas;
+        }
+
+        /**
+         * getLength returns the number of instructions in the run
+         */
+        public int getLength() {
+            return this.length;
+        }
+
+        /**
+         * canRun checks that no instruction of the run would fail because
+         * of the stack size
+         *
+         * @param stackSize     the stack size before the first instruction
+         *
+         * @return  true if the run can be executed without stack checks
+         */
+        public boolean canRun(int stackSize) {
+            return stackSize >= this.minStackSize && stackSize + this.maxStackGrowth <= Program.MAX_STACKSIZE;
+        }
+    }
+
+    private static class RunBuilder {
+        private final Instruction first;
+        private long gas;
+        private int length;
+        private int stackDelta;
+        private int minStackSize;
+        private int maxStackGrowth = Integer.MIN_VALUE;
+
+        RunBuilder(Instruction first) {
+            this.first = first;
+        }
+
+        void add(OpCode op, long gas) {
+            this.gas += gas;
+            this.length++;
+            this.minStackSize = Math.max(this.minStackSize, op.require() - this.stackDelta);
+            this.stackDelta += op.ret() - op.require();
+            this.maxStackGrowth = Math.max(this.maxStackGrowth, this.stackDelta);
+        }
+
+        void close() {
+            this.first.run = new Run(this.gas, this.length, this.minStackSize, this.maxStackGrowth);
+        }
+    }
+}
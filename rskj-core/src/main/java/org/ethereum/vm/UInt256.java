@@ -0,0 +1,650 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+/**
+ * UInt256 is a mutable 256-bit number held in four longs, with the EVM
+ * arithmetic done in place, without BigInteger and without allocating
+ * (the work arrays used by multiplication and division are created once
+ * per instance)
+ *
+ * Signed operations interpret the number in two's complement. The results
+ * are the same as the DataWord operations implemented with BigInteger
+ *
+ * The operands can be this same instance only in add, sub, mul and exp
+ */
+public final class UInt256 {
+    private static final long MASK = 0xffffffffL;
+    private static final int DIGITS = 8;
+
+    // w0 is the least significant long
+    private long w0;
+    private long w1;
+    private long w2;
+    private long w3;
+
+    // 32-bit digits, least significant first, used by mul, div and mod
+    private int[] x;
+    private int[] y;
+    private int[] z;
+    private int[] p;
+    private int[] q;
+    private int[] un;
+    private int[] vn;
+    private UInt256 work;
+
+    public UInt256() {
+    }
+
+    public UInt256(long value) {
+        this.w0 = value;
+    }
+
+    /**
+     * load sets the value from a big-endian byte array of up to 32 bytes
+     *
+     * @param data  the bytes, right aligned
+     *
+     * @return  this
+     */
+    public UInt256 load(byte[] data) {
+        if (data.length == 32) {
+            this.w3 = getLong(data, 0);
+            this.w2 = getLong(data, 8);
+            this.w1 = getLong(data, 16);
+            this.w0 = getLong(data, 24);
+            return this;
+        }
+
+        if (data.length > 32)
+            throw new IllegalArgumentException(String.format("Data can't exceed 32 bytes: %d", data.length));
+
+        setZero();
+
+        for (int k = 0; k < data.length; k++)
+            setByte(data.length - 1 - k, data[k]);
+
+        return this;
+    }
+
+    /**
+     * store writes the value in a 32 bytes big-endian array
+     *
+     * @param data  the destination
+     */
+    public void store(byte[] data) {
+        putLong(data, 0, this.w3);
+        putLong(data, 8, this.w2);
+        putLong(data, 16, this.w1);
+        putLong(data, 24, this.w0);
+    }
+
+    public byte[] toByteArray() {
+        byte[] data = new byte[32];
+        store(data);
+        return data;
+    }
+
+    public UInt256 set(UInt256 value) {
+        this.w0 = value.w0;
+        this.w1 = value.w1;
+        this.w2 = value.w2;
+        this.w3 = value.w3;
+        return this;
+    }
+
+    public UInt256 set(long value) {
+        this.w0 = value;
+        this.w1 = 0;
+        this.w2 = 0;
+        this.w3 = 0;
+        return this;
+    }
+
+    public UInt256 setZero() {
+        return set(0);
+    }
+
+    public boolean isZero() {
+        return (this.w0 | this.w1 | this.w2 | this.w3) == 0;
+    }
+
+    public boolean isNegative() {
+        return this.w3 < 0;
+    }
+
+    public boolean fitsInLong() {
+        return (this.w1 | this.w2 | this.w3) == 0;
+    }
+
+    public long longValue() {
+        return this.w0;
+    }
+
+    /**
+     * compareTo compares the unsigned values
+     */
+    public int compareTo(UInt256 value) {
+        if (this.w3 != value.w3)
+            return Long.compareUnsigned(this.w3, value.w3) < 0 ? -1 : 1;
+        if (this.w2 != value.w2)
+            return Long.compareUnsigned(this.w2, value.w2) < 0 ? -1 : 1;
+        if (this.w1 != value.w1)
+            return Long.compareUnsigned(this.w1, value.w1) < 0 ? -1 : 1;
+        if (this.w0 != value.w0)
+            return Long.compareUnsigned(this.w0, value.w0) < 0 ? -1 : 1;
+
+        return 0;
+    }
+
+    /**
+     * signedCompareTo compares the two's complement values
+     */
+    public int signedCompareTo(UInt256 value) {
+        if (this.w3 != value.w3)
+            return this.w3 < value.w3 ? -1 : 1;
+
+        return compareTo(value);
+    }
+
+    public UInt256 add(UInt256 value) {
+        long r0 = this.w0 + value.w0;
+        long c = Long.compareUnsigned(r0, this.w0) < 0 ? 1 : 0;
+        long r1 = this.w1 + value.w1 + c;
+        c = carry(this.w1, r1, c);
+        long r2 = this.w2 + value.w2 + c;
+        c = carry(this.w2, r2, c);
+
+        this.w3 = this.w3 + value.w3 + c;
+        this.w2 = r2;
+        this.w1 = r1;
+        this.w0 = r0;
+
+        return this;
+    }
+
+    public UInt256 sub(UInt256 value) {
+        long r0 = this.w0 - value.w0;
+        long b = Long.compareUnsigned(this.w0, value.w0) < 0 ? 1 : 0;
+        long r1 = this.w1 - value.w1 - b;
+        b = borrow(this.w1, value.w1, b);
+        long r2 = this.w2 - value.w2 - b;
+        b = borrow(this.w2, value.w2, b);
+
+        this.w3 = this.w3 - value.w3 - b;
+        this.w2 = r2;
+        this.w1 = r1;
+        this.w0 = r0;
+
+        return this;
+    }
+
+    public UInt256 negate() {
+        this.w0 = ~this.w0;
+        this.w1 = ~this.w1;
+        this.w2 = ~this.w2;
+        this.w3 = ~this.w3;
+
+        if (++this.w0 == 0 && ++this.w1 == 0 && ++this.w2 == 0)
+            ++this.w3;
+
+        return this;
+    }
+
+    public UInt256 mul(UInt256 value) {
+        if (fitsInLong() && value.fitsInLong() && (this.w0 | value.w0) >>> 32 == 0) {
+            this.w0 *= value.w0;
+            return this;
+        }
+
+        ensureWork();
+        toDigits(this, this.x);
+        toDigits(value, this.y);
+        multiply(this.x, this.y, this.z, DIGITS);
+
+        return fromDigits(this.z);
+    }
+
+    public UInt256 div(UInt256 value) {
+        if (value.isZero())
+            return setZero();
+
+        if (fitsInLong() && value.fitsInLong()) {
+            this.w0 = Long.divideUnsigned(this.w0, value.w0);
+            return this;
+        }
+
+        ensureWork();
+        toDigits(this, this.x);
+        toDigits(value, this.y);
+        divide(this.x, DIGITS, this.y, this.q, null);
+
+        return fromDigits(this.q);
+    }
+
+    public UInt256 mod(UInt256 value) {
+        if (value.isZero())
+            return setZero();
+
+        if (fitsInLong() && value.fitsInLong()) {
+            this.w0 = Long.remainderUnsigned(this.w0, value.w0);
+            return this;
+        }
+
+        ensureWork();
+        toDigits(this, this.x);
+        toDigits(value, this.y);
+        divide(this.x, DIGITS, this.y, this.q, this.z);
+
+        return fromDigits(this.z);
+    }
+
+    /**
+     * sdiv divides the signed values, rounding towards zero
+     */
+    public UInt256 sdiv(UInt256 value) {
+        if (value.isZero())
+            return setZero();
+
+        boolean negative = isNegative() != value.isNegative();
+
+        ensureWork();
+        absToDigits(this, this.x);
+        absToDigits(value, this.y);
+        divide(this.x, DIGITS, this.y, this.q, null);
+        fromDigits(this.q);
+
+        return negative ? negate() : this;
+    }
+
+    /**
+     * smod returns the remainder of the signed division, with the sign of this value
+     */
+    public UInt256 smod(UInt256 value) {
+        if (value.isZero())
+            return setZero();
+
+        boolean negative = isNegative();
+
+        ensureWork();
+        absToDigits(this, this.x);
+        absToDigits(value, this.y);
+        divide(this.x, DIGITS, this.y, this.q, this.z);
+        fromDigits(this.z);
+
+        return negative ? negate() : this;
+    }
+
+    /**
+     * exp raises this value to a power, modulo 2^256
+     */
+    public UInt256 exp(UInt256 exponent) {
+        int bits = exponent.bitLength();
+
+        if (bits == 0)
+            return set(1);
+
+        if (bits == 1 || isZero())
+            return this;
+
+        // the exponent could be this same instance
+        long e0 = exponent.w0;
+        long e1 = exponent.w1;
+        long e2 = exponent.w2;
+        long e3 = exponent.w3;
+
+        ensureWork();
+        UInt256 base = this.work.set(this);
+        set(1);
+
+        for (int k = bits - 1; k >= 0; k--) {
+            mul(this);
+
+            long e = k < 64 ? e0 : k < 128 ? e1 : k < 192 ? e2 : e3;
+
+            if ((e >>> (k & 63) & 1) != 0)
+                mul(base);
+        }
+
+        return this;
+    }
+
+    /**
+     * addmod adds a value modulo another value. When any of the numbers uses the most
+     * significant byte, both are reduced before adding them, and the sum wraps around
+     * at 2^256, as in the byte array implementation
+     *
+     * @param value     the value to add
+     * @param modulus   the modulus, the result is zero if it is zero
+     *
+     * @return  this
+     */
+    public UInt256 addmod(UInt256 value, UInt256 modulus) {
+        if ((this.w3 >>> 56) == 0 && (value.w3 >>> 56) == 0)
+            return add(value).mod(modulus);
+
+        ensureWork();
+        UInt256 reduced = this.work.set(value).mod(modulus);
+
+        return mod(modulus).add(reduced).mod(modulus);
+    }
+
+    /**
+     * mulmod multiplies by a value modulo another value, without overflow
+     *
+     * @param value     the value to multiply by
+     * @param modulus   the modulus, the result is zero if it is zero
+     *
+     * @return  this
+     */
+    public UInt256 mulmod(UInt256 value, UInt256 modulus) {
+        if (modulus.isZero())
+            return setZero();
+
+        ensureWork();
+        toDigits(this, this.x);
+        toDigits(value, this.y);
+
+        multiply(this.x, this.y, this.p, 2 * DIGITS);
+
+        toDigits(modulus, this.y);
+        divide(this.p, 2 * DIGITS, this.y, this.q, this.z);
+
+        return fromDigits(this.z);
+    }
+
+    public int bitLength() {
+        if (this.w3 != 0)
+            return 256 - Long.numberOfLeadingZeros(this.w3);
+        if (this.w2 != 0)
+            return 192 - Long.numberOfLeadingZeros(this.w2);
+        if (this.w1 != 0)
+            return 128 - Long.numberOfLeadingZeros(this.w1);
+
+        return 64 - Long.numberOfLeadingZeros(this.w0);
+    }
+
+    public boolean testBit(int n) {
+        return (getLong(n >>> 6) >>> (n & 63) & 1) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+
+        if (!(o instanceof UInt256))
+            return false;
+
+        UInt256 value = (UInt256) o;
+
+        return this.w0 == value.w0 && this.w1 == value.w1 && this.w2 == value.w2 && this.w3 == value.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.w0 ^ this.w1 ^ this.w2 ^ this.w3);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x%016x%016x", this.w3, this.w2, this.w1, this.w0);
+    }
+
+    private long getLong(int n) {
+        switch (n) {
+            case 0: return this.w0;
+            case 1: return this.w1;
+            case 2: return this.w2;
+            default: return this.w3;
+        }
+    }
+
+    private void setByte(int n, byte value) {
+        long v = (value & 0xffL) << ((n & 7) << 3);
+
+        switch (n >>> 3) {
+            case 0: this.w0 |= v; break;
+            case 1: this.w1 |= v; break;
+            case 2: this.w2 |= v; break;
+            default: this.w3 |= v; break;
+        }
+    }
+
+    private void ensureWork() {
+        if (this.x != null)
+            return;
+
+        this.x = new int[DIGITS];
+        this.y = new int[DIGITS];
+        this.z = new int[DIGITS];
+        this.p = new int[2 * DIGITS];
+        this.q = new int[2 * DIGITS];
+        this.un = new int[2 * DIGITS + 1];
+        this.vn = new int[DIGITS];
+        this.work = new UInt256();
+    }
+
+    private UInt256 fromDigits(int[] digits) {
+        this.w0 = (digits[0] & MASK) | (long) digits[1] << 32;
+        this.w1 = (digits[2] & MASK) | (long) digits[3] << 32;
+        this.w2 = (digits[4] & MASK) | (long) digits[5] << 32;
+        this.w3 = (digits[6] & MASK) | (long) digits[7] << 32;
+        return this;
+    }
+
+    private static void toDigits(UInt256 value, int[] digits) {
+        toDigits(value.w0, value.w1, value.w2, value.w3, digits);
+    }
+
+    private static void absToDigits(UInt256 value, int[] digits) {
+        if (!value.isNegative()) {
+            toDigits(value, digits);
+            return;
+        }
+
+        long r0 = -value.w0;
+        long r1 = ~value.w1;
+        long r2 = ~value.w2;
+        long r3 = ~value.w3;
+
+        if (r0 == 0 && ++r1 == 0 && ++r2 == 0)
+            ++r3;
+
+        toDigits(r0, r1, r2, r3, digits);
+    }
+
+    private static void toDigits(long w0, long w1, long w2, long w3, int[] digits) {
+        digits[0] = (int) w0;
+        digits[1] = (int) (w0 >>> 32);
+        digits[2] = (int) w1;
+        digits[3] = (int) (w1 >>> 32);
+        digits[4] = (int) w2;
+        digits[5] = (int) (w2 >>> 32);
+        digits[6] = (int) w3;
+        digits[7] = (int) (w3 >>> 32);
+    }
+
+    private static int length(int[] digits, int length) {
+        while (length > 0 && digits[length - 1] == 0)
+            length--;
+
+        return length;
+    }
+
+    // z = x * y, truncated to zlength digits
+    private static void multiply(int[] x, int[] y, int[] z, int zlength) {
+        java.util.Arrays.fill(z, 0, zlength, 0);
+
+        int xlength = length(x, DIGITS);
+        int ylength = length(y, DIGITS);
+
+        for (int i = 0; i < xlength; i++) {
+            long xi = x[i] & MASK;
+
+            if (xi == 0)
+                continue;
+
+            long carry = 0;
+            int j = 0;
+
+            for (; j < ylength && i + j < zlength; j++) {
+                long t = xi * (y[j] & MASK) + (z[i + j] & MASK) + carry;
+                z[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+
+            if (i + j < zlength)
+                z[i + j] = (int) carry;
+        }
+    }
+
+    // q = u / v and r = u % v (if r is not null), using Knuth's algorithm D with 32-bit digits;
+    // v is not zero and has up to 8 digits, q has ulength digits and r has 8 digits
+    private void divide(int[] u, int ulength, int[] v, int[] q, int[] r) {
+        int m = length(u, ulength);
+        int n = length(v, DIGITS);
+
+        java.util.Arrays.fill(q, 0, ulength, 0);
+
+        if (r != null)
+            java.util.Arrays.fill(r, 0, DIGITS, 0);
+
+        if (m < n) {
+            if (r != null)
+                System.arraycopy(u, 0, r, 0, m);
+
+            return;
+        }
+
+        if (n == 1) {
+            long divisor = v[0] & MASK;
+            long k = 0;
+
+            for (int j = m - 1; j >= 0; j--) {
+                long t = k << 32 | (u[j] & MASK);
+                q[j] = (int) Long.divideUnsigned(t, divisor);
+                k = Long.remainderUnsigned(t, divisor);
+            }
+
+            if (r != null)
+                r[0] = (int) k;
+
+            return;
+        }
+
+        // normalize, so the most significant digit of the divisor has its high bit set
+        int s = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] un = this.un;
+        int[] vn = this.vn;
+
+        for (int i = n - 1; i > 0; i--)
+            vn[i] = v[i] << s | (s == 0 ? 0 : v[i - 1] >>> (32 - s));
+
+        vn[0] = v[0] << s;
+
+        un[m] = s == 0 ? 0 : u[m - 1] >>> (32 - s);
+
+        for (int i = m - 1; i > 0; i--)
+            un[i] = u[i] << s | (s == 0 ? 0 : u[i - 1] >>> (32 - s));
+
+        un[0] = u[0] << s;
+
+        long vtop = vn[n - 1] & MASK;
+        long vnext = vn[n - 2] & MASK;
+
+        for (int j = m - n; j >= 0; j--) {
+            long num = (un[j + n] & MASK) << 32 | (un[j + n - 1] & MASK);
+            long qhat = Long.divideUnsigned(num, vtop);
+            long rhat = Long.remainderUnsigned(num, vtop);
+
+            while (qhat > MASK || Long.compareUnsigned(qhat * vnext, rhat << 32 | (un[j + n - 2] & MASK)) > 0) {
+                qhat--;
+                rhat += vtop;
+
+                if (rhat > MASK)
+                    break;
+            }
+
+            // multiply and subtract
+            long k = 0;
+            long t;
+
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & MASK);
+                t = (un[i + j] & MASK) - k - (p & MASK);
+                un[i + j] = (int) t;
+                k = (p >>> 32) - (t >> 32);
+            }
+
+            t = (un[j + n] & MASK) - k;
+            un[j + n] = (int) t;
+
+            q[j] = (int) qhat;
+
+            // the estimation was one too large, add back
+            if (t < 0) {
+                q[j]--;
+                k = 0;
+
+                for (int i = 0; i < n; i++) {
+                    t = (un[i + j] & MASK) + (vn[i] & MASK) + k;
+                    un[i + j] = (int) t;
+                    k = t >>> 32;
+                }
+
+                un[j + n] += (int) k;
+            }
+        }
+
+        if (r != null)
+            for (int i = 0; i < n; i++)
+                r[i] = un[i] >>> s | (s == 0 ? 0 : un[i + 1] << (32 - s));
+    }
+
+    private static long carry(long a, long sum, long carryIn) {
+        return Long.compareUnsigned(sum, a) < 0 || (carryIn != 0 && sum == a) ? 1 : 0;
+    }
+
+    private static long borrow(long a, long b, long borrowIn) {
+        return Long.compareUnsigned(a, b) < 0 || (borrowIn != 0 && a == b) ? 1 : 0;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return (data[offset] & 0xffL) << 56
+                | (data[offset + 1] & 0xffL) << 48
+                | (data[offset + 2] & 0xffL) << 40
+                | (data[offset + 3] & 0xffL) << 32
+                | (data[offset + 4] & 0xffL) << 24
+                | (data[offset + 5] & 0xffL) << 16
+                | (data[offset + 6] & 0xffL) << 8
+                | (data[offset + 7] & 0xffL);
+    }
+
+    private static void putLong(byte[] data, int offset, long value) {
+        data[offset] = (byte) (value >>> 56);
+        data[offset + 1] = (byte) (value >>> 48);
+        data[offset + 2] = (byte) (value >>> 40);
+        data[offset + 3] = (byte) (value >>> 32);
+        data[offset + 4] = (byte) (value >>> 24);
+        data[offset + 5] = (byte) (value >>> 16);
+        data[offset + 6] = (byte) (value >>> 8);
+        data[offset + 7] = (byte) value;
+    }
+}
@@ -93,8 +93,18 @@ public class VM {
     private final static long dumpBlock = CONFIG.dumpBlock();
     private boolean computeGas = true; // for performance comp
 
+    private final boolean usePredecoded;
+
     public VM() {
+        this(CONFIG.vmPredecoded());
+    }
+
+    /**
+     * @param usePredecoded     run the programs using the pre-decoded code engine
+     */
+    public VM(boolean usePredecoded) {
         isLogEnabled = logger.isInfoEnabled();
+        this.usePredecoded = usePredecoded;
     }
 
 
@@ -361,14 +371,12 @@ public class VM {
     protected void doLT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.value() + " < " + word2.value();
 
-        // TODO: We should compare the performance of BigInteger comparison with DataWord comparison:
         if (word1.compareTo(word2)==-1) {
             word1.setTrue();
         } else {
@@ -382,14 +390,13 @@ public class VM {
     protected void doSLT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.sValue() + " < " + word2.sValue();
 
-        if (word1.sValue().compareTo(word2.sValue()) == -1) {
+        if (word1.sCompareTo(word2) == -1) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -402,14 +409,13 @@ public class VM {
     protected void doSGT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.sValue() + " > " + word2.sValue();
 
-        if (word1.sValue().compareTo(word2.sValue()) == 1) {
+        if (word1.sCompareTo(word2) == 1) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -423,14 +429,13 @@ public class VM {
     protected void doGT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.value() + " > " + word2.value();
 
-        if (word1.value().compareTo(word2.value()) == 1) {
+        if (word1.compareTo(word2) == 1) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -805,33 +810,12 @@ public class VM {
         int codeOffset = codeOffsetDW.intValueSafe(); // where to start reading
         int lengthData = lengthDataDW.intValueSafe(); // amount of bytes to copy
 
-        int sizeToBeCopied;
-        if ((long) codeOffset + lengthData > fullCode.length) {
-            // if user wants to read more info from code what actual code has then..
-            // if all code that users wants lies after code has ended..
-            if (codeOffset >=fullCode.length)
-                sizeToBeCopied=0; // do not copy anything
-            else
-                sizeToBeCopied = fullCode.length - codeOffset; // copy only the remaining
-
-        } else
-           // Code is longer, so limit by user length value
-            sizeToBeCopied =lengthData;
-
-        // The part not copied must be filled with zeros, so here we allocate
-        // enough space to contain filling also.
-        byte[] codeCopy = new byte[lengthData];
-
-        if (codeOffset < fullCode.length)
-            System.arraycopy(fullCode, codeOffset, codeCopy, 0, sizeToBeCopied);
+        // the bytes after the end of the code are saved as zeros
+        program.memoryCopy(memOffset, fullCode, codeOffset, lengthData);
 
         if (isLogEnabled)
-            hint = "code: " + Hex.toHexString(codeCopy);
+            hint = "code: " + Hex.toHexString(program.memoryChunk(memOffset, lengthData));
 
-        // TODO: an optimization to avoid double-copying would be to override programSave
-        // to receive a byte[] buffer and a length, and to create another method memoryZero(offset,length)
-        // to fill the gap.
-        program.memorySave(memOffset, codeCopy);
         program.disposeWord(memOffsetDW);
         program.disposeWord(codeOffsetDW);
         program.disposeWord(lengthDataDW);
@@ -1716,6 +1700,12 @@ public class VM {
         program = aprogram;
         stack = program.getStack();
 
+        // the pre-decoded engine doesn't trace, log or dump each instruction
+        if (usePredecoded && !isLogEnabled && !vmTrace && dumpBlock < 0 && vmHook == null && !program.isGasLogEnabled()) {
+            stepsPredecoded(steps);
+            return;
+        }
+
         try {
 
             for(long s=0;s<steps;s++) {
@@ -1773,6 +1763,120 @@ public class VM {
         }
     }
 
+    /**
+     * stepsPredecoded executes the program using its decoded code. The runs of
+     * instructions with static gas are executed charging their gas and checking
+     * the stack size once. Any other instruction, or a run that could fail, is
+     * executed as in steps
+     */
+    private void stepsPredecoded(long steps) {
+        DecodedCode code = DecodedCode.forProgram(program);
+
+        try {
+            long s = 0;
+
+            while (s < steps && !program.isStopped()) {
+                DecodedCode.Instruction instruction = code.getInstruction(program.getPC());
+                DecodedCode.Run run = instruction == null ? null : instruction.getRun();
+
+                if (run != null && run.getLength() <= steps - s
+                        && program.getRemainingGas() >= run.getGas() && run.canRun(stack.size())) {
+                    executeRun(code, run);
+                    s += run.getLength();
+                } else {
+                    executeStep();
+                    s++;
+                }
+            }
+        } catch (RuntimeException e) {
+                logger.warn("VM halted: [{}]", e);
+                panicProcessor.panic("vm", String.format("VM halted: [%s]", e.getMessage()));
+                program.spendAllGas();
+                program.resetFutureRefund();
+                program.stop();
+                throw e;
+        }
+    }
+
+    private void executeStep() {
+        op = OpCode.code(program.getCurrentOp());
+
+        checkOpcode();
+        program.setLastOp(op.val());
+        program.verifyStackSize(op.require());
+        program.verifyStackOverflow(op.require(), op.ret());
+
+        oldMemSize = program.getMemSize();
+        gasCost = op.getTier().asInt();
+
+        executeOpcode();
+        program.setPreviouslyExecutedOp(op.val());
+        vmCounter++;
+    }
+
+    private void executeRun(DecodedCode code, DecodedCode.Run run) {
+        program.spendGas(run.getGas(), "instructions run");
+
+        boolean computeGasBefore = computeGas;
+        computeGas = false;
+
+        try {
+            for (int k = 0; k < run.getLength() && !program.isStopped(); k++) {
+                DecodedCode.Instruction instruction = code.getInstruction(program.getPC());
+
+                op = instruction.getOp();
+                program.setLastOp(op.val());
+
+                if (instruction.getValue() == null) {
+                    executeOpcode();
+                } else if (instruction.getTarget() < 0) {
+                    doPUSH(instruction.getValue());
+                } else {
+                    doPUSHJump(code, instruction.getTarget());
+                    k++;
+                }
+
+                program.setPreviouslyExecutedOp(op.val());
+                vmCounter++;
+            }
+        } finally {
+            computeGas = computeGasBefore;
+        }
+    }
+
+    private void doPUSH(DataWord value) {
+        int nPush = op.val() - OpCode.PUSH1.val() + 1;
+
+        program.stackPush(program.newDataWord(value));
+        program.setPC(program.getPC() + 1 + nPush);
+    }
+
+    // executes a PUSH and the following JUMP or JUMPI, without using the stack for the destination
+    private void doPUSHJump(DecodedCode code, int target) {
+        int nPush = op.val() - OpCode.PUSH1.val() + 1;
+        int jumpPC = program.getPC() + 1 + nPush;
+
+        program.setPreviouslyExecutedOp(op.val());
+        vmCounter++;
+
+        op = code.getInstruction(jumpPC).getOp();
+        program.setLastOp(op.val());
+
+        if (op == OpCode.JUMP) {
+            program.setPC(target);
+            return;
+        }
+
+        DataWord cond = program.stackPop();
+
+        if (!cond.isZero())
+            program.setPC(target);
+        else
+            program.setPC(jumpPC + 1);
+
+        program.disposeWord(cond);
+    }
+
     public void initDebugData() {
         gasBefore = 0;
         stepBefore = 0;
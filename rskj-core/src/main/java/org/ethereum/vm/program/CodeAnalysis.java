@@ -0,0 +1,124 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.program;
+
+import co.rsk.vm.BitSet;
+import org.ethereum.vm.DecodedCode;
+import org.ethereum.vm.OpCode;
+
+/**
+ * CodeAnalysis keeps the results of analysing a contract bytecode: the valid jump
+ * destinations, and the reachable bytecodes mask and the decoded code (only built
+ * when requested)
+ *
+ * The results only depend on the bytecode, so an instance can be shared by all
+ * the programs running the same code. The jump destinations are never modified
+ * after being built
+ */
+public class CodeAnalysis {
+    private final int codeLength;
+    private final BitSet jumpdests;
+    private final long analysisTime;
+
+    private BitSet reachableMask;
+    private volatile DecodedCode decodedCode;
+
+    private CodeAnalysis(int codeLength, BitSet jumpdests, long analysisTime) {
+        this.codeLength = codeLength;
+        this.jumpdests = jumpdests;
+        this.analysisTime = analysisTime;
+    }
+
+    /**
+     * analyze finds the jump destinations of a bytecode, skipping the PUSH data
+     *
+     * @param code          the bytecode
+     * @param startAddr     the position of the first instruction, after the code header
+     *
+     * @return  the analysis
+     */
+    public static CodeAnalysis analyze(byte[] code, int startAddr) {
+        long start = System.nanoTime();
+        BitSet jumpdests = new BitSet(code.length);
+
+        for (int i = startAddr; i < code.length; ++i) {
+            OpCode op = OpCode.code(code[i]);
+
+            if (op == null)
+                continue;
+
+            if (op == OpCode.JUMPDEST)
+                jumpdests.set(i);
+
+            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt())
+                i += op.asInt() - OpCode.PUSH1.asInt() + 1;
+        }
+
+        return new CodeAnalysis(code.length, jumpdests, System.nanoTime() - start);
+    }
+
+    public int getCodeLength() {
+        return this.codeLength;
+    }
+
+    /**
+     * getAnalysisTime returns the nanoseconds spent finding the jump destinations
+     */
+    public long getAnalysisTime() {
+        return this.analysisTime;
+    }
+
+    public boolean isJumpDest(int pc) {
+        return pc >= 0 && pc < this.codeLength && this.jumpdests.get(pc);
+    }
+
+    /**
+     * isReachable checks if a position could be executed, according to the
+     * reachable bytecodes mask. The mask is built the first time it is used
+     *
+     * @param code  the analysed bytecode
+     * @param pc    the position
+     *
+     * @return  true if the position is reachable
+     */
+    public boolean isReachable(byte[] code, int pc) {
+        BitSet mask;
+
+        synchronized (this) {
+            if (this.reachableMask == null)
+                this.reachableMask = Program.buildReachableBytecodesMask(code);
+
+            mask = this.reachableMask;
+        }
+
+        return pc >= 0 && pc < this.codeLength && mask.get(pc);
+    }
+
+    /**
+     * getDecodedCode returns the code decoded for the pre-decoded engine,
+     * null if it is not decoded yet
+     */
+    public DecodedCode getDecodedCode() {
+        return this.decodedCode;
+    }
+
+    public void setDecodedCode(DecodedCode decodedCode) {
+        this.decodedCode = decodedCode;
+    }
+}
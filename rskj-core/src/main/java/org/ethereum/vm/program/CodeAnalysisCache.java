@@ -0,0 +1,141 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.program;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * CodeAnalysisCache keeps the analysis of the contracts bytecode by code hash, bounded
+ * by the total length of the analysed bytecodes, evicting the least recently used first
+ *
+ * The cache is shared by all the programs. It is only used when the code hash is
+ * already known (the one saved in the account state), because hashing the code
+ * takes longer than analysing it
+ */
+public class CodeAnalysisCache {
+    private static CodeAnalysisCache instance;
+    private static boolean initialized;
+
+    private final long maxCodeSize;
+    private final LinkedHashMap<ByteArrayWrapper, CodeAnalysis> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long codeSize = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private long analysisTime = 0;
+    private long savedAnalysisTime = 0;
+
+    public CodeAnalysisCache(long maxCodeSize) {
+        this.maxCodeSize = maxCodeSize;
+    }
+
+    /**
+     * getInstance returns the cache shared by all the programs
+     *
+     * @return  the shared cache, or null if the cache is disabled by configuration
+     */
+    public static synchronized CodeAnalysisCache getInstance() {
+        if (!initialized) {
+            long size = SystemProperties.CONFIG.vmCodeAnalysisCacheSize();
+            instance = size > 0 ? new CodeAnalysisCache(size) : null;
+            initialized = true;
+        }
+
+        return instance;
+    }
+
+    /**
+     * getAnalysis returns the cached analysis of a bytecode, analysing it if it is not in cache
+     *
+     * @param codeHash      the code hash
+     * @param code          the bytecode
+     * @param startAddr     the position of the first instruction, after the code header
+     *
+     * @return  the code analysis
+     */
+    public CodeAnalysis getAnalysis(byte[] codeHash, byte[] code, int startAddr) {
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+
+        synchronized (this) {
+            CodeAnalysis analysis = this.entries.get(key);
+
+            // the length check protects from a code hash that doesn't match the code
+            if (analysis != null && analysis.getCodeLength() == code.length) {
+                this.hitCount++;
+                this.savedAnalysisTime += analysis.getAnalysisTime();
+                return analysis;
+            }
+        }
+
+        CodeAnalysis analysis = CodeAnalysis.analyze(code, startAddr);
+
+        synchronized (this) {
+            this.missCount++;
+            this.analysisTime += analysis.getAnalysisTime();
+
+            if (code.length > this.maxCodeSize)
+                return analysis;
+
+            CodeAnalysis previous = this.entries.put(key, analysis);
+
+            if (previous != null)
+                this.codeSize -= previous.getCodeLength();
+
+            this.codeSize += code.length;
+
+            Iterator<CodeAnalysis> iterator = this.entries.values().iterator();
+
+            while (this.codeSize > this.maxCodeSize && iterator.hasNext()) {
+                this.codeSize -= iterator.next().getCodeLength();
+                iterator.remove();
+                this.evictionCount++;
+            }
+        }
+
+        return analysis;
+    }
+
+    public synchronized int size() { return this.entries.size(); }
+
+    public synchronized long getCodeSize() { return this.codeSize; }
+
+    public long getMaxCodeSize() { return this.maxCodeSize; }
+
+    public synchronized long getHitCount() { return this.hitCount; }
+
+    public synchronized long getMissCount() { return this.missCount; }
+
+    public synchronized long getEvictionCount() { return this.evictionCount; }
+
+    /**
+     * getAnalysisTime returns the nanoseconds spent analysing the bytecodes not found in cache
+     */
+    public synchronized long getAnalysisTime() { return this.analysisTime; }
+
+    /**
+     * getSavedAnalysisTime returns the nanoseconds that the cache hits would have spent
+     * analysing their bytecodes, measured when each bytecode was analysed
+     */
+    public synchronized long getSavedAnalysisTime() { return this.savedAnalysisTime; }
+}
@@ -23,6 +23,7 @@ import org.ethereum.vm.DataWord;
 import org.ethereum.vm.program.listener.ProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -32,12 +33,17 @@ import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.oneByteToHexString;
 
+/**
+ * Memory is the program memory, kept in one array that doubles its
+ * capacity when it has to grow
+ */
 public class Memory implements ProgramListenerAware {
 
     private static final int CHUNK_SIZE = 1024;
     private static final int WORD_SIZE = 32;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
 
-    private List<byte[]> chunks = new LinkedList<>();
+    private byte[] data = EMPTY_BYTE_ARRAY;
     private int softSize;
     private ProgramListener traceListener;
 
@@ -50,27 +56,8 @@ public class Memory implements ProgramListenerAware {
         if (size <= 0) return EMPTY_BYTE_ARRAY;
 
         extend(address, size);
-        byte[] data = new byte[size];
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        int toGrab = data.length;
-        int start = 0;
-
-        while (toGrab > 0) {
-            int copied = grabMax(chunkIndex, chunkOffset, toGrab, data, start);
-
-            // read next chunk from the start
-            ++chunkIndex;
-            chunkOffset = 0;
 
-            // mark remind
-            toGrab -= copied;
-            start += copied;
-        }
-
-        return data;
+        return Arrays.copyOfRange(this.data, address, address + size);
     }
 
     public void write(int address, byte[] data, int dataSize, boolean limited) {
@@ -81,31 +68,41 @@ public class Memory implements ProgramListenerAware {
         if (!limited)
             extend(address, dataSize);
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
         int toCapture = 0;
         if (limited)
             toCapture = (address + dataSize > softSize) ? softSize - address : dataSize;
         else
             toCapture = dataSize;
 
-        int start = 0;
-        while (toCapture > 0) {
-            int captured = captureMax(chunkIndex, chunkOffset, toCapture, data, start);
-
-            // capture next chunk
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toCapture -= captured;
-            start += captured;
-        }
+        if (toCapture > 0)
+            System.arraycopy(data, 0, this.data, address, toCapture);
 
         if (traceListener != null) traceListener.onMemoryWrite(address, data, dataSize);
     }
 
+    /**
+     * copy writes a range of a source array, without copying it to an intermediate array.
+     * The bytes beyond the end of the source are written as zeros
+     *
+     * @param address       the memory address
+     * @param source        the source array
+     * @param sourceOffset  the first byte to copy
+     * @param size          the number of bytes to write
+     */
+    public void copy(int address, byte[] source, int sourceOffset, int size) {
+        extend(address, size);
+
+        int available = sourceOffset >= source.length ? 0 : min(size, source.length - sourceOffset);
+
+        if (available > 0)
+            System.arraycopy(source, sourceOffset, this.data, address, available);
+
+        if (size > available)
+            Arrays.fill(this.data, address + available, address + size, (byte) 0);
+
+        if (traceListener != null)
+            traceListener.onMemoryWrite(address, size <= 0 ? EMPTY_BYTE_ARRAY : Arrays.copyOfRange(this.data, address, address + size), size);
+    }
 
     public void extendAndWrite(int address, int allocSize, byte[] data) {
         extend(address, allocSize);
@@ -117,16 +114,14 @@ public class Memory implements ProgramListenerAware {
 
         final int newSize = address + size;
 
-        int toAllocate = newSize - internalSize();
-        if (toAllocate > 0) {
-            addChunks((int) ceil((double) toAllocate / CHUNK_SIZE));
-        }
-
-        toAllocate = newSize - softSize;
+        int toAllocate = newSize - softSize;
         if (toAllocate > 0) {
             toAllocate = (int) ceil((double) toAllocate / WORD_SIZE) * WORD_SIZE;
             softSize += toAllocate;
 
+            if (softSize > this.data.length)
+                grow(softSize);
+
             if (traceListener != null) traceListener.onMemoryExtend(toAllocate);
         }
     }
@@ -135,15 +130,24 @@ public class Memory implements ProgramListenerAware {
         return new DataWord(read(address, 32));
     }
 
-    // just access expecting all data valid
-    public byte readByte(int address) {
+    /**
+     * readWord reads a word into an existing DataWord, without allocating
+     *
+     * @param address   the memory address
+     * @param word      the word to overwrite
+     */
+    public void readWord(int address, DataWord word) {
+        extend(address, WORD_SIZE);
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
+        if (word.getData().length != WORD_SIZE)
+            word.assign(new byte[WORD_SIZE]);
 
-        byte[] chunk = chunks.get(chunkIndex);
+        System.arraycopy(this.data, address, word.getData(), 0, WORD_SIZE);
+    }
 
-        return chunk[chunkOffset];
+    // just access expecting all data valid
+    public byte readByte(int address) {
+        return this.data[address];
     }
 
     @Override
@@ -180,36 +184,32 @@ public class Memory implements ProgramListenerAware {
         return softSize;
     }
 
+    /**
+     * internalSize returns the size rounded up to 1 KB, the memory that the
+     * chunked implementation allocated
+     */
     public int internalSize() {
-        return chunks.size() * CHUNK_SIZE;
+        return (int) ceil((double) softSize / CHUNK_SIZE) * CHUNK_SIZE;
     }
 
+    /**
+     * getChunks returns copies of the memory content, split in chunks of 1 KB
+     */
     public List<byte[]> getChunks() {
-        return new LinkedList<>(chunks);
-    }
-
-    private int captureMax(int chunkIndex, int chunkOffset, int size, byte[] src, int srcPos) {
+        List<byte[]> chunks = new LinkedList<>();
 
-        byte[] chunk = chunks.get(chunkIndex);
-        int toCapture = min(size, chunk.length - chunkOffset);
+        for (int offset = 0; offset < internalSize(); offset += CHUNK_SIZE) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            System.arraycopy(this.data, offset, chunk, 0, min(CHUNK_SIZE, this.data.length - offset));
+            chunks.add(chunk);
+        }
 
-        System.arraycopy(src, srcPos, chunk, chunkOffset, toCapture);
-        return toCapture;
+        return chunks;
     }
 
-    private int grabMax(int chunkIndex, int chunkOffset, int size, byte[] dest, int destPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toGrab = min(size, chunk.length - chunkOffset);
+    private void grow(int minCapacity) {
+        long capacity = Math.max((long) this.data.length * 2, CHUNK_SIZE);
 
-        System.arraycopy(chunk, chunkOffset, dest, destPos, toGrab);
-
-        return toGrab;
-    }
-
-    private void addChunks(int num) {
-        for (int i = 0; i < num; ++i) {
-            chunks.add(new byte[CHUNK_SIZE]);
-        }
+        this.data = Arrays.copyOf(this.data, (int) Math.min(Math.max(capacity, minCapacity), MAX_CAPACITY));
     }
 }
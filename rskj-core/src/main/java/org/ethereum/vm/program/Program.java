@@ -78,7 +78,7 @@ public class Program {
     public static final long MAX_MEMORY = (1<<30);
 
     //Max size for stack checks
-    private static final int MAX_STACKSIZE = 1024;
+    public static final int MAX_STACKSIZE = 1024;
 
     private Transaction transaction;
 
@@ -105,7 +105,8 @@ public class Program {
     private byte scriptVersion; // currently limited to 0..127
     private int startAddr;
 
-    private BitSet jumpdest;
+    private CodeAnalysis analysis;
+    private byte[] codeHash;
     /**********************************************************************************************************
      * About DataWord Pool:
      *---------------------------------------------------------------------------------------------------------
@@ -176,14 +177,29 @@ public class Program {
     boolean isGasLogEnabled;
 
     public Program(byte[] ops, ProgramInvoke programInvoke) {
+        this(null, ops, programInvoke);
+    }
+
+    /**
+     * Creates a program for a code with known hash (the one saved in the account state),
+     * so the code analysis can be taken from the shared cache
+     *
+     * @param codeHash          the code hash, or null if it is unknown
+     * @param ops               the code
+     * @param programInvoke     the invoke context
+     */
+    public Program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke) {
         isLogEnabled = logger.isInfoEnabled();
         isGasLogEnabled =gasLogger.isInfoEnabled();
 
         this.invoke = programInvoke;
 
         this.ops = nullToEmpty(ops);
+        this.codeHash = this.ops.length == 0 ? null : codeHash;
 
-        this.memory = setupProgramListener(new Memory());
+        // the memory actions are only traced when enabled, so the memory
+        // doesn't have to build the written data for the listener
+        this.memory = traceListener.isEnabled() ? setupProgramListener(new Memory()) : new Memory();
         this.stack = setupProgramListener(new Stack());
         this.stack.ensureCapacity(1024); // faster?
         this.storage = setupProgramListener(new Storage(programInvoke));
@@ -206,6 +222,11 @@ public class Program {
         this.transaction = transaction;
     }
 
+    public Program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
+        this(codeHash, ops, programInvoke);
+        this.transaction = transaction;
+    }
+
     public static void setUseDataWordPool(Boolean value) {
         useDataWordPool = value;
     }
@@ -214,6 +235,10 @@ public class Program {
         return useDataWordPool;
     }
 
+    public boolean isGasLogEnabled() {
+        return isGasLogEnabled;
+    }
+
     public int getCallDeep() {
         return invoke.getCallDeep();
     }
@@ -477,12 +502,22 @@ public class Program {
     }
 
 
+    /**
+     * memoryCopy saves a range of an array in memory, filling with zeros
+     * the bytes beyond the end of the array
+     */
+    public void memoryCopy(int addr, byte[] source, int sourceOffset, int size) {
+        memory.copy(addr, source, sourceOffset, size);
+    }
+
     public DataWord memoryLoad(DataWord addr) {
-        return memory.readWord(addr.intValue());
+        return memoryLoad(addr.intValue());
     }
 
     public DataWord memoryLoad(int address) {
-        return memory.readWord(address);
+        DataWord word = getNewDataWordFast();
+        memory.readWord(address, word);
+        return word;
     }
 
     public byte[] memoryChunk(int offset, int size) {
@@ -792,7 +827,8 @@ public class Program {
         }
 
         // FETCH THE CODE
-        byte[] programCode = dstExists ? getStorage().getCode(codeAddress) : EMPTY_BYTE_ARRAY;// If scriptVersion is not zero, then value must be accepted explicitely.
+        byte[] programCode = dstExists ? getStorage().getCode(codeAddress) : EMPTY_BYTE_ARRAY;
+        byte[] programCodeHash = dstExists ? dstState.getCodeHash() : null;// If scriptVersion is not zero, then value must be accepted explicitely.
 
         // Always first remove funds from sender
         track.addBalance(senderAddress, endowment.negate());
@@ -818,7 +854,7 @@ public class Program {
 
         boolean callResult;
         if (isNotEmpty(programCode)) {
-            callResult = executeCode(msg,contextAddress, contextBalance,internalTx,track,programCode,senderAddress,data);
+            callResult = executeCode(msg,contextAddress, contextBalance,internalTx,track,programCodeHash,programCode,senderAddress,data);
         }
         else {
             track.commit();
@@ -838,6 +874,7 @@ public class Program {
             BigInteger contextBalance,
             InternalTransaction internalTx,
             Repository track,
+            byte[] programCodeHash,
             byte[] programCode,
             byte[] senderAddress,
             byte[] data ) {
@@ -850,7 +887,7 @@ public class Program {
                 limitToMaxLong(msg.getGas()), contextBalance, data, track, this.invoke.getBlockStore(), byTestingSuite());
 
         VM vm = new VM();
-        Program program = new Program(programCode, programInvoke, internalTx);
+        Program program = new Program(programCodeHash, programCode, programInvoke, internalTx);
         vm.play(program);
         childResult  = program.getResult();
 
@@ -973,6 +1010,13 @@ public class Program {
         return ops;
     }
 
+    public byte[] getCodeHash() {
+        if (codeHash == null)
+            codeHash = HashUtil.sha3(ops);
+
+        return codeHash;
+    }
+
     public byte[] getCodeAt(DataWord address) {
         return getCodeAt(address.getLast20Bytes());
     }
@@ -1232,26 +1276,13 @@ public class Program {
         startAddr = 0;
         pc = 0;
         i = processAndSkipCodeHeader(i);
-        computeJumpDests(i);
-    }
-
-    public void computeJumpDests(int i) {
-        if (jumpdest == null)
-            jumpdest = new BitSet(ops.length);
-
-        for (; i < ops.length; ++i) {
-            OpCode op = OpCode.code(ops[i]);
-
-            if (op == null)
-                continue;
 
-            if (op == OpCode.JUMPDEST)
-                jumpdest.set(i);
+        CodeAnalysisCache cache = codeHash == null ? null : CodeAnalysisCache.getInstance();
 
-            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
-                i += op.asInt() - OpCode.PUSH1.asInt() + 1;
-            }
-        }
+        if (cache == null)
+            analysis = CodeAnalysis.analyze(ops, i);
+        else
+            analysis = cache.getAnalysis(codeHash, ops, i);
     }
 
     static String formatBinData(byte[] binData, int startPC) {
@@ -1404,12 +1435,20 @@ public class Program {
             throw Program.Exception.badJumpDestination(-1);
         }
         int ret = nextPC.intValue(); // could be negative
-        if (ret < 0 || ret >= jumpdest.size() || !jumpdest.get(ret)) {
+        if (!isJumpDest(ret)) {
             throw Program.Exception.badJumpDestination(ret);
         }
         return ret;
     }
 
+    public boolean isJumpDest(int pc) {
+        return analysis.isJumpDest(pc);
+    }
+
+    public CodeAnalysis getCodeAnalysis() {
+        return analysis;
+    }
+
     public void callToPrecompiledAddress(MessageCall msg, PrecompiledContract contract) {
 
         if (getCallDeep() == MAX_DEPTH) {
@@ -29,6 +29,10 @@ public class ProgramTraceListener extends ProgramListenerAdaptor {
     private final boolean enabled = CONFIG.vmTrace();
     private OpActions actions = new OpActions();
 
+    public boolean isEnabled() {
+        return enabled;
+    }
+
     @Override
     public void onMemoryExtend(int delta) {
         if (enabled) actions.addMemoryExtend(delta);
@@ -0,0 +1,93 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.ImportResult;
+import org.ethereum.crypto.HashUtil;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the import of a chain of blocks, and the cost of the header hashes
+ * with and without the cached value (re-encoding and hashing on every call)
+ */
+@Ignore
+public class BlockImportPerformanceTest {
+    private static final int NBLOCKS = 500;
+    private static final int NHASHES = 1000000;
+
+    // To execute as a standalone application, remove @Ignore and @Test and run main.
+    public static void main(String[] args) {
+        new BlockImportPerformanceTest().measureBlockImport();
+    }
+
+    @Test
+    public void measureBlockImport() {
+        BlockChainImpl blockChain = BlockChainImplTest.createBlockChain();
+        Block genesis = BlockChainImplTest.getGenesisBlock(blockChain);
+
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, blockChain.tryToConnect(genesis));
+
+        // decode the blocks again, as if they were received from a peer
+        List<Block> blocks = new ArrayList<>();
+
+        for (Block block : BlockGenerator.getBlockChain(genesis, NBLOCKS))
+            blocks.add(new Block(block.getEncoded()));
+
+        long start = System.nanoTime();
+
+        for (Block block : blocks)
+            Assert.assertEquals(ImportResult.IMPORTED_BEST, blockChain.tryToConnect(block));
+
+        long elapsed = System.nanoTime() - start;
+
+        BlockHeader header = blocks.get(NBLOCKS - 1).getHeader();
+
+        long cached = measureHashes(header, true);
+        long uncached = measureHashes(header, false);
+
+        System.out.println(String.format("block import   : %d ns/block", elapsed / NBLOCKS));
+        System.out.println(String.format("cached hash    : %d ns/call", cached));
+        System.out.println(String.format("uncached hash  : %d ns/call", uncached));
+    }
+
+    private static long measureHashes(BlockHeader header, boolean cached) {
+        int total = 0;
+        long start = System.nanoTime();
+
+        for (int k = 0; k < NHASHES; k++) {
+            byte[] hash = cached ? header.getHash() : HashUtil.sha3(header.getEncoded());
+            total += hash[0];
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        // keep the loop alive
+        Assert.assertNotEquals(Integer.MIN_VALUE, total);
+
+        return elapsed / NHASHES;
+    }
+}
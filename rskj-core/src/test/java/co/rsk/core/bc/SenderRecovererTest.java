@@ -0,0 +1,104 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.crypto.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SenderRecovererTest {
+    @Test
+    public void recoverSendersOfBlockTransactions() {
+        List<ECKey> keys = new ArrayList<>();
+        List<Transaction> txs = new ArrayList<>();
+
+        for (int k = 0; k < 10; k++) {
+            ECKey key = new ECKey();
+            keys.add(key);
+            txs.add(createTransaction(key, k));
+        }
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        Block block = new Block(BlockGenerator.createChildBlock(genesis, txs).getEncoded());
+
+        SenderRecoverer recoverer = new SenderRecoverer(4);
+        recoverer.recoverSenders(block);
+        recoverer.shutdown();
+
+        List<Transaction> blockTxs = block.getTransactionsList();
+
+        Assert.assertEquals(10, blockTxs.size());
+
+        for (int k = 0; k < 10; k++)
+            Assert.assertArrayEquals(keys.get(k).getAddress(), blockTxs.get(k).getSender());
+    }
+
+    @Test
+    public void skipTransactionWithInvalidSignature() {
+        ECKey key = new ECKey();
+        List<Transaction> txs = new ArrayList<>();
+
+        txs.add(createTransaction(key, 0));
+        txs.add(new Transaction(BigInteger.ONE.toByteArray(), BigInteger.ONE.toByteArray(), BigInteger.valueOf(21000).toByteArray(),
+                new ECKey().getAddress(), BigInteger.TEN.toByteArray(), null, new byte[] { 1 }, new byte[] { 1 }, (byte) 27));
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        Block block = BlockGenerator.createChildBlock(genesis, txs);
+
+        SenderRecoverer recoverer = new SenderRecoverer(2);
+        recoverer.recoverSenders(block);
+        recoverer.shutdown();
+
+        Assert.assertArrayEquals(key.getAddress(), block.getTransactionsList().get(0).getSender());
+    }
+
+    @Test
+    public void sharedPoolIsNotShutdownByARecoverer() {
+        ECKey key = new ECKey();
+        List<Transaction> txs = new ArrayList<>();
+
+        txs.add(createTransaction(key, 0));
+        txs.add(createTransaction(key, 1));
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        Block block = new Block(BlockGenerator.createChildBlock(genesis, txs).getEncoded());
+
+        new SenderRecoverer().shutdown();
+
+        SenderRecoverer recoverer = new SenderRecoverer();
+        recoverer.recoverSenders(block);
+
+        for (Transaction tx : block.getTransactionsList())
+            Assert.assertArrayEquals(key.getAddress(), tx.getSender());
+    }
+
+    private static Transaction createTransaction(ECKey key, int nonce) {
+        Transaction tx = new Transaction(BigInteger.valueOf(nonce).toByteArray(), BigInteger.ONE.toByteArray(), BigInteger.valueOf(21000).toByteArray(),
+                new ECKey().getAddress(), BigInteger.TEN.toByteArray(), null);
+        tx.sign(key.getPrivKeyBytes());
+        return tx;
+    }
+}
@@ -20,9 +20,12 @@ package co.rsk.datasource;
 
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.KeyValueIterator;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Map;
+
 /**
  * Created by ajlopez on 3/1/2016.
  */
@@ -77,4 +80,57 @@ public class HashMapDBTest {
 
         Assert.assertNull(result);
     }
+
+    @Test
+    public void iterateKeysInOrder() {
+        KeyValueDataSource ds = createDataSource();
+
+        try (KeyValueIterator iterator = ds.iterator(null, null)) {
+            Assert.assertArrayEquals(new byte[] { 0x01, 0x02 }, iterator.next().getKey());
+            Assert.assertArrayEquals(new byte[] { 0x01, 0x03 }, iterator.next().getKey());
+            Assert.assertArrayEquals(new byte[] { 0x01, 0x03, 0x01 }, iterator.next().getKey());
+            Assert.assertArrayEquals(new byte[] { 0x01, (byte) 0xff }, iterator.next().getKey());
+
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+
+            Assert.assertArrayEquals(new byte[] { (byte) 0x80 }, entry.getKey());
+            Assert.assertArrayEquals(new byte[] { 0x05 }, entry.getValue());
+            Assert.assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void iterateKeysWithPrefixAndInRange() {
+        KeyValueDataSource ds = createDataSource();
+
+        Assert.assertEquals(2, count(ds.iterator(new byte[] { 0x01, 0x03 })));
+        Assert.assertEquals(4, count(ds.iterator(new byte[] { 0x01 })));
+        Assert.assertEquals(0, count(ds.iterator(new byte[] { 0x02 })));
+        Assert.assertEquals(2, count(ds.iterator(new byte[] { 0x01, 0x03 }, new byte[] { 0x01, 0x04 })));
+        Assert.assertEquals(2, count(ds.iterator(new byte[] { 0x01, 0x04 }, null)));
+        Assert.assertEquals(1, count(ds.iterator(null, new byte[] { 0x01, 0x03 })));
+    }
+
+    private static KeyValueDataSource createDataSource() {
+        KeyValueDataSource ds = new HashMapDB();
+
+        ds.put(new byte[] { 0x01, 0x02 }, new byte[] { 0x01 });
+        ds.put(new byte[] { 0x01, 0x03, 0x01 }, new byte[] { 0x03 });
+        ds.put(new byte[] { (byte) 0x80 }, new byte[] { 0x05 });
+        ds.put(new byte[] { 0x01, 0x03 }, new byte[] { 0x02 });
+        ds.put(new byte[] { 0x01, (byte) 0xff }, new byte[] { 0x04 });
+
+        return ds;
+    }
+
+    private static int count(KeyValueIterator iterator) {
+        int count = 0;
+
+        try (KeyValueIterator it = iterator) {
+            for (; it.hasNext(); it.next())
+                count++;
+        }
+
+        return count;
+    }
 }
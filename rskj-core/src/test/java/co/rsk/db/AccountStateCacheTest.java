@@ -0,0 +1,131 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AccountStateCacheTest {
+    private static final ByteArrayWrapper ADDRESS1 = new ByteArrayWrapper(new byte[] { 0x01 });
+    private static final ByteArrayWrapper ADDRESS2 = new ByteArrayWrapper(new byte[] { 0x02 });
+    private static final ByteArrayWrapper ADDRESS3 = new ByteArrayWrapper(new byte[] { 0x03 });
+
+    @Test
+    public void putAndGetStates() {
+        AccountStateCache cache = new AccountStateCache(10);
+        AccountState state = new AccountState(BigInteger.ONE, BigInteger.TEN);
+
+        Assert.assertNull(cache.get(ADDRESS1));
+
+        cache.put(ADDRESS1, state, cache.getVersion());
+        cache.put(ADDRESS2, null, cache.getVersion());
+
+        Assert.assertSame(state, cache.get(ADDRESS1));
+        Assert.assertSame(AccountStateCache.MISSING, cache.get(ADDRESS2));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void doNotPutStatesReadBeforeAChange() {
+        AccountStateCache cache = new AccountStateCache(10);
+        AccountState state = new AccountState(BigInteger.ONE, BigInteger.TEN);
+        AccountState newState = new AccountState(BigInteger.ONE, BigInteger.ONE);
+
+        long version = cache.getVersion();
+
+        cache.update(ADDRESS1, newState);
+        cache.put(ADDRESS1, state, version);
+        cache.put(ADDRESS2, state, version);
+
+        Assert.assertSame(newState, cache.get(ADDRESS1));
+        Assert.assertNull(cache.get(ADDRESS2));
+
+        version = cache.getVersion();
+
+        cache.clear();
+        cache.put(ADDRESS1, state, version);
+
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedStates() {
+        AccountStateCache cache = new AccountStateCache(2);
+
+        cache.update(ADDRESS1, new AccountState());
+        cache.update(ADDRESS2, new AccountState());
+        cache.get(ADDRESS1);
+        cache.update(ADDRESS3, null);
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get(ADDRESS1));
+        Assert.assertNull(cache.get(ADDRESS2));
+        Assert.assertNotNull(cache.get(ADDRESS3));
+    }
+
+    @Test
+    public void readWhileUpdating() throws InterruptedException {
+        AccountStateCache cache = new AccountStateCache(16);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<>();
+
+        for (int k = 0; k < 4; k++) {
+            Thread reader = new Thread(() -> {
+                for (int n = 0; n < 100000; n++) {
+                    AccountState state = cache.get(new ByteArrayWrapper(new byte[] { (byte) (n % 32) }));
+
+                    if (state != null && state != AccountStateCache.MISSING && state.getNonce().intValue() != n % 32)
+                        failed.set(true);
+                }
+            });
+
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int n = 0; n < 100000; n++)
+            cache.update(new ByteArrayWrapper(new byte[] { (byte) (n % 32) }), new AccountState(BigInteger.valueOf(n % 32), BigInteger.TEN));
+
+        for (Thread reader : readers)
+            reader.join();
+
+        Assert.assertFalse(failed.get());
+        Assert.assertEquals(16, cache.getSize());
+        Assert.assertEquals(400000, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void disabledCache() {
+        AccountStateCache cache = new AccountStateCache(0);
+
+        cache.update(ADDRESS1, new AccountState());
+        cache.put(ADDRESS2, null, cache.getVersion());
+
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertNull(cache.get(ADDRESS1));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.ethereum.TestUtils.randomBytes;
+
+public class CodeStoreTest {
+    @Test
+    public void getUnknownCode() {
+        CodeStore store = new CodeStore(new HashMapDB(), 1024);
+
+        Assert.assertNull(store.get(HashUtil.sha3(new byte[] { 0x01 })));
+        Assert.assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void putGetAndFlush() {
+        HashMapDB dataSource = new HashMapDB();
+        CodeStore store = new CodeStore(dataSource, 1024);
+        byte[] code = randomBytes(100);
+        byte[] hash = HashUtil.sha3(code);
+
+        store.put(hash, code);
+
+        Assert.assertArrayEquals(code, store.get(hash));
+        Assert.assertNull(dataSource.get(hash));
+        Assert.assertEquals(1, store.getPendingCount());
+
+        Assert.assertEquals(100, store.flush());
+
+        Assert.assertArrayEquals(code, dataSource.get(hash));
+        Assert.assertEquals(0, store.getPendingCount());
+        Assert.assertArrayEquals(code, store.get(hash));
+        Assert.assertEquals(0, store.getMissCount());
+
+        // known codes are not written again
+        store.put(hash, code);
+
+        Assert.assertEquals(0, store.getPendingCount());
+        Assert.assertEquals(0, store.flush());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedCodes() {
+        HashMapDB dataSource = new HashMapDB();
+        CodeStore store = new CodeStore(dataSource, 250);
+        byte[][] codes = new byte[3][];
+
+        for (int k = 0; k < codes.length; k++) {
+            codes[k] = randomBytes(100);
+            store.put(HashUtil.sha3(codes[k]), codes[k]);
+        }
+
+        store.flush();
+
+        Assert.assertEquals(200, store.getCacheSize());
+
+        // the evicted code is read again from the data source
+        for (int k = codes.length; k-- > 0;)
+            Assert.assertArrayEquals(codes[k], store.get(HashUtil.sha3(codes[k])));
+
+        Assert.assertEquals(1, store.getMissCount());
+        Assert.assertEquals(200, store.getCacheSize());
+    }
+
+    @Test
+    public void reopenStore() {
+        HashMapDB dataSource = new HashMapDB();
+        CodeStore store = new CodeStore(dataSource, 1024);
+        byte[] code = randomBytes(100);
+        byte[] hash = HashUtil.sha3(code);
+
+        store.put(hash, code);
+        store.flush();
+
+        CodeStore store2 = new CodeStore(dataSource, 1024);
+
+        Assert.assertArrayEquals(code, store2.get(hash));
+        Assert.assertEquals(1, store2.getMissCount());
+        Assert.assertArrayEquals(code, store2.get(hash));
+        Assert.assertEquals(1, store2.getHitCount());
+    }
+}
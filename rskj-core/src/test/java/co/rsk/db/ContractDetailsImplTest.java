@@ -20,8 +20,10 @@ package co.rsk.db;
 
 import co.rsk.trie.*;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.db.ContractDetails;
+import org.ethereum.util.RLP;
 import org.ethereum.vm.DataWord;
 import org.junit.Assert;
 import org.junit.Test;
@@ -216,6 +218,118 @@ public class ContractDetailsImplTest {
         Assert.assertArrayEquals(code, details.getCode());
     }
 
+    @Test
+    public void getEncodedWithCodeStoreAndLoadCodeOnDemand() {
+        byte[] code = randomBytes(100);
+        CodeStore codeStore = new CodeStore(new HashMapDB(), 1024);
+
+        ContractDetailsImpl details = new ContractDetailsImpl();
+        details.setCode(code);
+        details.put(DataWord.ONE, new DataWord(42));
+
+        byte[] encoded = details.getEncoded(codeStore);
+
+        Assert.assertTrue(encoded.length < details.getEncoded().length);
+        Assert.assertArrayEquals(code, codeStore.get(HashUtil.sha3(code)));
+
+        ContractDetailsImpl result = new ContractDetailsImpl(encoded, codeStore);
+
+        long hits = codeStore.getHitCount();
+
+        Assert.assertFalse(result.isNullObject());
+        Assert.assertEquals(hits, codeStore.getHitCount());
+        Assert.assertArrayEquals(code, result.getCode());
+        Assert.assertEquals(hits + 1, codeStore.getHitCount());
+        Assert.assertEquals(new DataWord(42), result.get(DataWord.ONE));
+        Assert.assertArrayEquals(encoded, result.getEncoded(codeStore));
+        Assert.assertArrayEquals(details.getEncoded(), result.getEncoded());
+    }
+
+    @Test
+    public void decodeEncodedWithCodeAndMoveItToCodeStore() {
+        byte[] code = randomBytes(100);
+        CodeStore codeStore = new CodeStore(new HashMapDB(), 1024);
+
+        ContractDetailsImpl details = new ContractDetailsImpl();
+        details.setCode(code);
+
+        ContractDetailsImpl result = new ContractDetailsImpl(details.getEncoded(), codeStore);
+
+        Assert.assertArrayEquals(code, result.getCode());
+        Assert.assertNull(codeStore.get(HashUtil.sha3(code)));
+
+        result.storeCode(codeStore);
+
+        Assert.assertArrayEquals(code, codeStore.get(HashUtil.sha3(code)));
+    }
+
+    @Test
+    public void countStorageKeysWithValue() {
+        ContractDetailsImpl details = new ContractDetailsImpl();
+
+        details.put(DataWord.ONE, new DataWord(42));
+        details.put(new DataWord(2), new DataWord(43));
+        details.put(DataWord.ONE, new DataWord(44));
+        details.putBytes(new DataWord(3), new byte[] { 0x01 });
+
+        Assert.assertEquals(3, details.getStorageSize());
+
+        details.put(new DataWord(2), DataWord.ZERO);
+        details.putBytes(new DataWord(3), null);
+        details.put(new DataWord(4), DataWord.ZERO);
+
+        Assert.assertEquals(1, details.getStorageSize());
+        Assert.assertEquals(1, details.getStorageKeys().size());
+        Assert.assertTrue(details.getStorageKeys().contains(DataWord.ONE));
+        Assert.assertEquals(new DataWord(44), details.getStorage().get(DataWord.ONE));
+    }
+
+    @Test
+    public void getStorageKeysAfterDecoding() {
+        ContractDetailsImpl details = new ContractDetailsImpl();
+
+        for (int k = 1; k <= 10; k++)
+            details.put(new DataWord(k), new DataWord(k * 10));
+
+        details.put(new DataWord(5), DataWord.ZERO);
+
+        ContractDetailsImpl result = new ContractDetailsImpl(details.getEncoded());
+
+        Assert.assertEquals(9, result.getStorageSize());
+
+        Map<DataWord, DataWord> storage = result.getStorage();
+
+        Assert.assertEquals(9, storage.size());
+
+        for (int k = 1; k <= 10; k++)
+            Assert.assertEquals(k == 5 ? null : new DataWord(k * 10), storage.get(new DataWord(k)));
+    }
+
+    @Test
+    public void decodeEncodedWithStorageKeys() {
+        // a storage trie without the original keys
+        Trie trie = new TrieImpl(new TrieStoreImpl(new HashMapDB()), true);
+        trie = trie.put(DataWord.ONE.getData(), new DataWord(42).getNoLeadZeroesData());
+        trie = trie.put(new DataWord(2).getData(), new DataWord(43).getNoLeadZeroesData());
+
+        byte[] storage = trie.serialize();
+
+        // the previous encoding, with the storage keys
+        byte[] encoded = RLP.encodeList(
+                RLP.encodeElement(randomAddress()),
+                RLP.encodeByte((byte) 0),
+                RLP.encodeElement(storage),
+                RLP.encodeElement(new byte[] { 0x01 }),
+                RLP.encodeList(RLP.encodeElement(DataWord.ONE.getData()), RLP.encodeElement(new DataWord(2).getData())));
+
+        ContractDetailsImpl result = new ContractDetailsImpl(encoded);
+
+        Assert.assertEquals(2, result.getStorageSize());
+        Assert.assertEquals(new DataWord(42), result.getStorage().get(DataWord.ONE));
+        Assert.assertEquals(new DataWord(43), result.getStorage().get(new DataWord(2)));
+        Assert.assertArrayEquals(new byte[] { 0x01 }, result.getCode());
+    }
+
     @Test
     public void getStorageSizeInEmptyDetails() {
         ContractDetailsImpl details = new ContractDetailsImpl();
@@ -419,6 +533,41 @@ public class ContractDetailsImplTest {
         Assert.assertEquals(new DataWord(144), details.get(DataWord.ONE));
     }
 
+    @Test
+    public void setStorageUsingMapLikePuts() {
+        ContractDetailsImpl details = new ContractDetailsImpl();
+        ContractDetailsImpl expected = new ContractDetailsImpl();
+
+        Map<DataWord, DataWord> map = new HashMap<>();
+
+        for (int k = 0; k < 100; k++)
+            map.put(randomDataWord(), randomDataWord());
+
+        for (Map.Entry<DataWord, DataWord> entry : map.entrySet())
+            expected.put(entry.getKey(), entry.getValue());
+
+        details.setStorage(map);
+
+        Assert.assertArrayEquals(expected.getStorageHash(), details.getStorageHash());
+        Assert.assertEquals(100, details.getStorageSize());
+        Assert.assertEquals(map, details.getStorage());
+        Assert.assertTrue(details.isDirty());
+
+        // the deletes of missing keys change the trie, the values are put one by one
+        ContractDetailsImpl details2 = new ContractDetailsImpl();
+        ContractDetailsImpl expected2 = new ContractDetailsImpl();
+
+        map.put(randomDataWord(), DataWord.ZERO);
+
+        for (Map.Entry<DataWord, DataWord> entry : map.entrySet())
+            expected2.put(entry.getKey(), entry.getValue());
+
+        details2.setStorage(map);
+
+        Assert.assertArrayEquals(expected2.getStorageHash(), details2.getStorageHash());
+        Assert.assertEquals(100, details2.getStorageSize());
+    }
+
     @Test
     public void getSnapshot() {
         ContractDetailsImpl details = new ContractDetailsImpl();
@@ -18,11 +18,14 @@
 
 package co.rsk.db;
 
+import co.rsk.trie.Trie;
+import co.rsk.trie.TrieImpl;
 import co.rsk.trie.TrieImplHashTest;
 import co.rsk.trie.TrieStore;
 import co.rsk.trie.TrieStoreImpl;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Repository;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.vm.DataWord;
@@ -34,6 +37,8 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ajlopez on 29/03/2017.
@@ -56,6 +61,21 @@ public class RepositoryImplTest {
         Assert.assertFalse(repository.isClosed());
     }
 
+    @Test
+    public void closeWritesTheQueuedTrieNodes() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+        store.startFlusher(2);
+        RepositoryImpl repository = new RepositoryImpl(store);
+
+        Trie trie = new TrieImpl(store, true).put("foo", "bar".getBytes());
+        store.save(trie);
+        repository.close();
+
+        Assert.assertTrue(repository.isClosed());
+        Assert.assertArrayEquals(trie.toMessage(), map.get(trie.getHash()));
+    }
+
     @Test
     public void hasEmptyHashAsRootWhenCreated() {
         RepositoryImpl repository = new RepositoryImpl();
@@ -252,6 +272,33 @@ public class RepositoryImplTest {
         Assert.assertArrayEquals(accCode, code);
     }
 
+    @Test
+    public void saveSameCodeInTwoAccountsAndGetItFromCodeStore() {
+        byte[] accAddress1 = randomAccountAddress();
+        byte[] accAddress2 = randomAccountAddress();
+        byte[] accCode = new byte[] { 0x01, 0x02, 0x03 };
+
+        HashMapDB detailsDS = new HashMapDB();
+        HashMapDB codeDS = new HashMapDB();
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(store, detailsDS, codeDS);
+
+        repository.saveCode(accAddress1, accCode);
+        repository.saveCode(accAddress2, accCode);
+        repository.flush();
+
+        Assert.assertEquals(1, codeDS.keys().size());
+        Assert.assertArrayEquals(accCode, codeDS.get(HashUtil.sha3(accCode)));
+
+        RepositoryImpl repository2 = new RepositoryImpl(store, detailsDS, codeDS);
+        repository2.syncToRoot(repository.getRoot());
+
+        Assert.assertArrayEquals(accCode, repository2.getCode(accAddress1));
+        Assert.assertArrayEquals(accCode, repository2.getCode(accAddress2));
+        Assert.assertArrayEquals(accCode, repository2.getContractDetails(accAddress2).getCode());
+        Assert.assertEquals(2, repository2.getDetailsDataStore().getCodeStore().getHitCount());
+    }
+
     @Test
     public void hibernateAccount() {
         byte[] accAddress = randomAccountAddress();
@@ -496,7 +543,7 @@ public class RepositoryImplTest {
     public void getStorageKeysForAccountWithSavedData() {
         byte[] accAddress = randomAccountAddress();
 
-        RepositoryImpl repository = new RepositoryImpl();
+        RepositoryImpl repository = new RepositoryImplForTesting();
 
         repository.createAccount(accAddress);
         repository.addStorageRow(accAddress, DataWord.ONE, new DataWord(2));
@@ -531,7 +578,7 @@ public class RepositoryImplTest {
     public void getStorageSizeForAccountWithSavedData() {
         byte[] accAddress = randomAccountAddress();
 
-        RepositoryImpl repository = new RepositoryImpl();
+        RepositoryImpl repository = new RepositoryImplForTesting();
 
         repository.createAccount(accAddress);
         repository.addStorageRow(accAddress, DataWord.ONE, DataWord.ONE);
@@ -602,6 +649,182 @@ public class RepositoryImplTest {
         Assert.assertTrue(repository.isExist(accAddress));
     }
 
+    @Test
+    public void readSnapshotsWhileChangingRepository() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(store);
+
+        byte[] accAddress = randomAccountAddress();
+
+        repository.addBalance(accAddress, BigInteger.TEN);
+        byte[] root = repository.getRoot();
+
+        Repository snapshot = repository.getSnapshotTo(root);
+
+        repository.addBalance(accAddress, BigInteger.ONE);
+        repository.increaseNonce(accAddress);
+
+        Assert.assertEquals(BigInteger.valueOf(11), repository.getBalance(accAddress));
+        Assert.assertEquals(BigInteger.ONE, repository.getNonce(accAddress));
+
+        Assert.assertEquals(BigInteger.TEN, snapshot.getBalance(accAddress));
+        Assert.assertEquals(BigInteger.ZERO, snapshot.getNonce(accAddress));
+
+        byte[] root2 = repository.getRoot();
+
+        Assert.assertEquals(BigInteger.valueOf(11), repository.getSnapshotTo(root2).getBalance(accAddress));
+        Assert.assertEquals(BigInteger.TEN, repository.getSnapshotTo(root).getBalance(accAddress));
+    }
+
+    @Test
+    public void readSnapshotsFromSeveralThreads() throws InterruptedException {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(store);
+
+        byte[][] addresses = new byte[10][];
+
+        for (int k = 0; k < addresses.length; k++) {
+            addresses[k] = randomAccountAddress();
+            repository.addBalance(addresses[k], BigInteger.valueOf(k + 1));
+        }
+
+        byte[] root = repository.getRoot();
+        Repository snapshot = repository.getSnapshotTo(root);
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+
+        for (int k = 0; k < readers.length; k++) {
+            readers[k] = new Thread(() -> {
+                for (int n = 0; n < 100; n++)
+                    for (int j = 0; j < addresses.length; j++)
+                        if (!BigInteger.valueOf(j + 1).equals(snapshot.getBalance(addresses[j])))
+                            errors.incrementAndGet();
+            });
+
+            readers[k].start();
+        }
+
+        // the repository is changed while the snapshot is read
+        for (int k = 0; k < 100; k++) {
+            repository.addBalance(addresses[k % addresses.length], BigInteger.ONE);
+            repository.getRoot();
+        }
+
+        for (Thread reader : readers)
+            reader.join();
+
+        Assert.assertEquals(0, errors.get());
+        Assert.assertEquals(BigInteger.valueOf(11), repository.getBalance(addresses[0]));
+    }
+
+    @Test
+    public void syncToRootWhileReadingFromSeveralThreads() throws InterruptedException {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(store);
+
+        byte[][] addresses = new byte[10][];
+
+        for (int k = 0; k < addresses.length; k++) {
+            addresses[k] = randomAccountAddress();
+            repository.addBalance(addresses[k], BigInteger.ONE);
+        }
+
+        byte[] root1 = repository.getRoot();
+
+        for (byte[] address : addresses)
+            repository.addBalance(address, BigInteger.ONE);
+
+        byte[] root2 = repository.getRoot();
+
+        AtomicInteger errors = new AtomicInteger();
+        AtomicBoolean finished = new AtomicBoolean();
+        Thread[] readers = new Thread[4];
+
+        for (int k = 0; k < readers.length; k++) {
+            readers[k] = new Thread(() -> {
+                while (!finished.get())
+                    for (byte[] address : addresses) {
+                        BigInteger balance = repository.getBalance(address);
+
+                        if (!BigInteger.ONE.equals(balance) && !BigInteger.valueOf(2).equals(balance))
+                            errors.incrementAndGet();
+                    }
+            });
+
+            readers[k].start();
+        }
+
+        // a state of the previous root cached after the sync would be read here
+        for (int k = 0; k < 1000; k++) {
+            boolean first = k % 2 == 0;
+
+            repository.syncToRoot(first ? root1 : root2);
+
+            for (byte[] address : addresses)
+                if (!BigInteger.valueOf(first ? 1 : 2).equals(repository.getBalance(address)))
+                    errors.incrementAndGet();
+        }
+
+        finished.set(true);
+
+        for (Thread reader : readers)
+            reader.join();
+
+        Assert.assertEquals(0, errors.get());
+    }
+
+    @Test
+    public void readAccountOnceFromTrie() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(store);
+        byte[] accAddress = randomAccountAddress();
+
+        repository.addBalance(accAddress, BigInteger.TEN);
+
+        RepositoryImpl snapshot = (RepositoryImpl) repository.getSnapshotTo(repository.getRoot());
+        AccountStateCache cache = snapshot.getAccountStateCache();
+
+        Assert.assertTrue(snapshot.isExist(accAddress));
+        Assert.assertEquals(BigInteger.TEN, snapshot.getBalance(accAddress));
+        Assert.assertEquals(BigInteger.ZERO, snapshot.getNonce(accAddress));
+        Assert.assertArrayEquals(new byte[0], snapshot.getCode(accAddress));
+        Assert.assertNotNull(snapshot.getContractDetails(accAddress));
+
+        Repository track = snapshot.startTracking();
+        Assert.assertEquals(BigInteger.TEN, track.getBalance(accAddress));
+
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(6, cache.getHitCount());
+    }
+
+    @Test
+    public void updateCachedAccountStates() {
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()));
+        byte[] accAddress = randomAccountAddress();
+
+        Assert.assertFalse(repository.isExist(accAddress));
+
+        repository.addBalance(accAddress, BigInteger.TEN);
+        byte[] root = repository.getRoot();
+
+        Assert.assertEquals(BigInteger.TEN, repository.getBalance(accAddress));
+
+        // the returned states can be changed without changing the repository
+        repository.getAccountState(accAddress).addToBalance(BigInteger.ONE);
+        Assert.assertEquals(BigInteger.TEN, repository.getBalance(accAddress));
+
+        repository.increaseNonce(accAddress);
+        Assert.assertEquals(BigInteger.ONE, repository.getNonce(accAddress));
+
+        repository.delete(accAddress);
+        Assert.assertFalse(repository.isExist(accAddress));
+        Assert.assertEquals(BigInteger.ZERO, repository.getBalance(accAddress));
+
+        repository.syncToRoot(root);
+        Assert.assertEquals(BigInteger.TEN, repository.getBalance(accAddress));
+        Assert.assertEquals(BigInteger.ZERO, repository.getNonce(accAddress));
+    }
+
     private static byte[] randomAccountAddress() {
         byte[] bytes = new byte[20];
 
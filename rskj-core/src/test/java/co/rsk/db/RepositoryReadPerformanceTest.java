@@ -0,0 +1,125 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the reads of balances and nonces from several threads, as the RPC
+ * calls do, on a shared snapshot of the last root, while blocks are processed
+ * on the same repository
+ */
+@Ignore
+public class RepositoryReadPerformanceTest {
+    private static final int NACCOUNTS = 10000;
+    private static final int NBLOCKS = 200;
+    private static final int NTXS = 100;
+    private static final int NREADERS = 4;
+
+    // To execute as a standalone application, remove @Ignore and @Test and run main.
+    public static void main(String[] args) throws InterruptedException {
+        new RepositoryReadPerformanceTest().measureReadsWhileProcessingBlocks();
+    }
+
+    @Test
+    public void measureReadsWhileProcessingBlocks() throws InterruptedException {
+        Random random = new Random(1);
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()));
+        byte[][] addresses = new byte[NACCOUNTS][];
+
+        for (int k = 0; k < NACCOUNTS; k++) {
+            addresses[k] = new byte[20];
+            random.nextBytes(addresses[k]);
+            repository.addBalance(addresses[k], BigInteger.valueOf(1000000));
+        }
+
+        AtomicReference<Repository> lastSnapshot = new AtomicReference<>(repository.getSnapshotTo(repository.getRoot()));
+        AtomicBoolean processing = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        Thread[] readers = new Thread[NREADERS];
+
+        for (int k = 0; k < NREADERS; k++) {
+            Random readerRandom = new Random(k);
+
+            readers[k] = new Thread(() -> {
+                long count = 0;
+
+                while (processing.get()) {
+                    Repository snapshot = lastSnapshot.get();
+                    byte[] address = addresses[readerRandom.nextInt(NACCOUNTS)];
+
+                    Assert.assertNotNull(snapshot.getBalance(address));
+                    Assert.assertNotNull(snapshot.getNonce(address));
+                    count += 2;
+                }
+
+                reads.addAndGet(count);
+            });
+        }
+
+        for (Thread reader : readers)
+            reader.start();
+
+        long start = System.nanoTime();
+
+        // each block is executed on a snapshot of the last root, as the block executor
+        // does, and the repository is moved to the new root, as the best block changes
+        for (int k = 0; k < NBLOCKS; k++) {
+            Repository snapshot = repository.getSnapshotTo(lastSnapshot.get().getRoot());
+            Repository track = snapshot.startTracking();
+
+            for (int n = 0; n < NTXS; n++) {
+                byte[] sender = addresses[random.nextInt(NACCOUNTS)];
+                byte[] receiver = addresses[random.nextInt(NACCOUNTS)];
+
+                track.increaseNonce(sender);
+                track.addBalance(sender, BigInteger.ONE.negate());
+                track.addBalance(receiver, BigInteger.ONE);
+            }
+
+            track.commit();
+
+            byte[] root = snapshot.getRoot();
+
+            repository.syncToRoot(root);
+            lastSnapshot.set(repository.getSnapshotTo(root));
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        processing.set(false);
+
+        for (Thread reader : readers)
+            reader.join();
+
+        System.out.println(String.format("blocks         : %d ms/block", elapsed / NBLOCKS / 1000000));
+        System.out.println(String.format("reads          : %d reads/s with %d readers", reads.get() * 1000000000L / elapsed, NREADERS));
+    }
+}
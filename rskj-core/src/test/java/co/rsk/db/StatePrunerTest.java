@@ -0,0 +1,153 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.trie.Trie;
+import co.rsk.trie.TrieImpl;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Block;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.IndexedBlockStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class StatePrunerTest {
+    private HashMapDB map;
+    private TrieStoreImpl store;
+    private IndexedBlockStore blockStore;
+    private List<Block> blocks;
+    private Block fork;
+
+    @Before
+    public void setup() {
+        this.map = new HashMapDB();
+        this.store = new TrieStoreImpl(this.map, null);
+        this.store.enablePruning();
+
+        this.blockStore = new IndexedBlockStore();
+        this.blockStore.init(new HashMap<>(), new HashMapDB(), null);
+
+        this.blocks = new ArrayList<>();
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        this.blockStore.saveBlock(genesis, BigInteger.ONE, true);
+        this.blocks.add(genesis);
+
+        Trie trie = new TrieImpl(this.store, true);
+
+        for (int k = 1; k <= 10; k++) {
+            trie = trie.put("counter", ("value" + k).getBytes()).put("key" + k, ("value" + k).getBytes());
+            trie.save();
+
+            Block block = BlockGenerator.createChildBlock(this.blocks.get(k - 1), null, trie.getHash());
+            this.blockStore.saveBlock(block, BigInteger.valueOf(k + 1), true);
+            this.blocks.add(block);
+        }
+
+        // an alternative branch, longer than the best chain
+        Trie forkTrie = this.store.retrieve(this.blocks.get(8).getStateRoot()).put("counter", "fork".getBytes());
+        forkTrie.save();
+
+        this.fork = BlockGenerator.createChildBlock(this.blocks.get(8), null, forkTrie.getHash());
+        this.blockStore.saveBlock(this.fork, BigInteger.ONE, false);
+
+        Block forkChild = BlockGenerator.createChildBlock(this.fork, null, forkTrie.getHash());
+        this.blockStore.saveBlock(forkChild, BigInteger.ONE, false);
+
+        this.blockStore.flush();
+    }
+
+    @Test
+    public void getRetainedRootsOfLastBlocksBranchesAndCheckpoints() {
+        StatePruner pruner = new StatePruner(this.store, this.blockStore, 3, 5, 4);
+
+        List<byte[]> roots = pruner.getRetainedRoots(10);
+
+        Assert.assertEquals(8, roots.size());
+        Assert.assertTrue(contains(roots, this.fork.getStateRoot()));
+        Assert.assertTrue(contains(roots, this.blocks.get(0).getStateRoot()));
+        Assert.assertTrue(contains(roots, this.blocks.get(4).getStateRoot()));
+
+        for (int k = 7; k <= 10; k++)
+            Assert.assertTrue(contains(roots, this.blocks.get(k).getStateRoot()));
+    }
+
+    @Test
+    public void pruneKeepsStatesOfRetainedBlocks() {
+        StatePruner pruner = new StatePruner(this.store, this.blockStore, 3, 5, 4);
+
+        Assert.assertEquals(0, pruner.prune(10));
+        Assert.assertTrue(pruner.prune(10) > 0);
+
+        RepositoryImpl repository = new RepositoryImpl(this.store);
+
+        for (int k : new int[] { 4, 7, 8, 9, 10 }) {
+            Trie trie = new TrieImpl(this.store, true).getSnapshotTo(this.blocks.get(k).getStateRoot());
+
+            Assert.assertArrayEquals(("value" + k).getBytes(), trie.get("counter"));
+
+            for (int j = 1; j <= k; j++)
+                Assert.assertArrayEquals(("value" + j).getBytes(), trie.get("key" + j));
+        }
+
+        Assert.assertArrayEquals("fork".getBytes(), this.store.retrieve(this.fork.getStateRoot()).get("counter"));
+
+        for (int k : new int[] { 1, 2, 3, 5, 6 })
+            Assert.assertNull(this.map.get(this.blocks.get(k).getStateRoot()));
+
+        byte[] root = this.blocks.get(7).getStateRoot();
+
+        Assert.assertArrayEquals(root, repository.getSnapshotTo(root).getRoot());
+    }
+
+    @Test
+    public void onBestBlockPrunesEveryInterval() throws InterruptedException {
+        StatePruner pruner = new StatePruner(this.store, this.blockStore, 3, 5, 0);
+
+        pruner.prune(10);
+
+        // not a multiple of the interval
+        pruner.onBestBlock(this.blocks.get(9));
+        Assert.assertNotNull(this.map.get(this.blocks.get(1).getStateRoot()));
+
+        pruner.onBestBlock(this.blocks.get(10));
+
+        for (int k = 0; k < 100 && this.map.get(this.blocks.get(1).getStateRoot()) != null; k++)
+            Thread.sleep(10);
+
+        Assert.assertNull(this.map.get(this.blocks.get(1).getStateRoot()));
+        Assert.assertNotNull(this.map.get(this.blocks.get(7).getStateRoot()));
+    }
+
+    private static boolean contains(List<byte[]> roots, byte[] root) {
+        for (byte[] r : roots)
+            if (Arrays.equals(r, root))
+                return true;
+
+        return false;
+    }
+}
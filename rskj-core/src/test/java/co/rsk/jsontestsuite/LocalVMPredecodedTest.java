@@ -0,0 +1,43 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.jsontestsuite;
+
+import org.junit.After;
+import org.junit.Before;
+
+import static org.ethereum.config.SystemProperties.CONFIG;
+
+/**
+ * Runs the LocalVMTest JSON tests with the pre-decoded engine
+ */
+public class LocalVMPredecodedTest extends LocalVMTest {
+    private boolean usePredecoded;
+
+    @Before
+    public void setup() {
+        usePredecoded = CONFIG.vmPredecoded();
+        CONFIG.overrideParams("vm.predecoded", "true");
+    }
+
+    @After
+    public void tearDown() {
+        CONFIG.overrideParams("vm.predecoded", String.valueOf(usePredecoded));
+    }
+}
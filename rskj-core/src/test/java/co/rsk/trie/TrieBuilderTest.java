@@ -0,0 +1,134 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TrieBuilderTest {
+    @Test
+    public void buildEmptyTrie() {
+        Trie trie = new TrieBuilder(2, null, false).build();
+
+        Assert.assertArrayEquals(new TrieImpl().getHash(), trie.getHash());
+        Assert.assertNull(trie.get("foo"));
+    }
+
+    @Test
+    public void buildTrieWithOneKey() {
+        Trie trie = new TrieBuilder(2, null, false).put(bytes("foo"), bytes("bar")).build();
+
+        Assert.assertArrayEquals(new TrieImpl().put("foo", bytes("bar")).getHash(), trie.getHash());
+        Assert.assertArrayEquals(bytes("bar"), trie.get("foo"));
+    }
+
+    @Test
+    public void buildSameTrieAsPuts() {
+        String[] keys = { "foo", "bar", "fo", "foobar", "a", "fz", "f", "g", "" };
+
+        for (int arity : new int[] { 2, 4, 16 })
+            for (boolean isSecure : new boolean[] { false, true }) {
+                Trie expected = new TrieImpl(arity, isSecure);
+                TrieBuilder builder = new TrieBuilder(arity, null, isSecure);
+
+                for (String key : keys) {
+                    expected = expected.put(key, bytes("value " + key));
+                    builder.put(bytes(key), bytes("value " + key));
+                }
+
+                Trie trie = builder.build();
+
+                Assert.assertArrayEquals(expected.getHash(), trie.getHash());
+
+                for (String key : keys)
+                    Assert.assertArrayEquals(bytes("value " + key), trie.get(key));
+            }
+    }
+
+    @Test
+    public void buildSameTrieAsPutsOfRandomKeys() {
+        Random random = new Random(1);
+        List<byte[]> keys = new ArrayList<>();
+
+        for (int k = 0; k < 1000; k++) {
+            byte[] key = new byte[1 + random.nextInt(4)];
+            random.nextBytes(key);
+            keys.add(key);
+        }
+
+        for (int arity : new int[] { 2, 4, 16 })
+            for (boolean isSecure : new boolean[] { false, true }) {
+                Trie expected = new TrieImpl(arity, isSecure);
+                TrieBuilder builder = new TrieBuilder(arity, null, isSecure);
+
+                for (byte[] key : keys) {
+                    byte[] value = new byte[1 + random.nextInt(40)];
+                    random.nextBytes(value);
+
+                    expected = expected.put(key, value);
+                    builder.put(key, value);
+                }
+
+                Assert.assertArrayEquals(expected.getHash(), builder.build().getHash());
+            }
+    }
+
+    @Test
+    public void keepLastValueOfKey() {
+        Trie trie = new TrieBuilder(16, null, false)
+                .put(bytes("foo"), bytes("1"))
+                .put(bytes("bar"), bytes("2"))
+                .put(bytes("foo"), bytes("3"))
+                .put(bytes("bar"), null)
+                .build();
+
+        Assert.assertArrayEquals(new TrieImpl(16, false).put("foo", bytes("3")).getHash(), trie.getHash());
+        Assert.assertNull(trie.get("bar"));
+    }
+
+    @Test
+    public void saveAndRetrieveBuiltTrie() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        TrieBuilder builder = new TrieBuilder(2, store, true);
+
+        for (int k = 0; k < 100; k++)
+            builder.put(bytes("key " + k), bytes("value " + k));
+
+        Trie trie = builder.build();
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        for (int k = 0; k < 100; k++)
+            Assert.assertArrayEquals(bytes("value " + k), retrieved.get(bytes("key " + k)));
+
+        Assert.assertArrayEquals(trie.getHash(), retrieved.put("key 100", bytes("value 100")).delete("key 100").getHash());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
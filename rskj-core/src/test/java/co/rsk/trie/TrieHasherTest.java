@@ -0,0 +1,103 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TrieHasherTest {
+    @Test
+    public void hashLargeTrieInParallel() {
+        TrieHasher hasher = new TrieHasher(4, 16);
+
+        for (int arity : new int[] { 2, 16 }) {
+            TrieImpl trie = createTrie(arity, 1, 2000);
+            TrieImpl expected = createTrie(arity, 1, 2000);
+
+            Assert.assertEquals(100, trie.countUnhashedNodes(100));
+
+            hasher.hash(trie);
+
+            Assert.assertEquals(0, trie.countUnhashedNodes(100));
+            Assert.assertArrayEquals(expected.calculateHash(), trie.getHash());
+        }
+    }
+
+    @Test
+    public void hashNewNodesOfHashedTrie() {
+        TrieHasher hasher = new TrieHasher(4, 16);
+        TrieImpl trie = createTrie(2, 1, 1000);
+
+        hasher.hash(trie);
+
+        TrieImpl updated = trie;
+        Random random = new Random(2);
+
+        for (int k = 0; k < 1000; k++)
+            updated = (TrieImpl) updated.put(randomBytes(random), randomBytes(random));
+
+        TrieImpl expected = createTrie(2, 1, 1000);
+
+        random = new Random(2);
+
+        for (int k = 0; k < 1000; k++)
+            expected = (TrieImpl) expected.put(randomBytes(random), randomBytes(random));
+
+        hasher.hash(updated);
+
+        Assert.assertEquals(0, updated.countUnhashedNodes(100));
+        Assert.assertArrayEquals(expected.calculateHash(), updated.getHash());
+    }
+
+    @Test
+    public void doNotHashSmallTrie() {
+        TrieImpl trie = createTrie(2, 1, 10);
+
+        new TrieHasher(4, 1000).hash(trie);
+
+        Assert.assertTrue(trie.countUnhashedNodes(1000) > 0);
+    }
+
+    @Test
+    public void doNotHashWithOneThread() {
+        TrieImpl trie = createTrie(2, 1, 1000);
+
+        new TrieHasher(1, 16).hash(trie);
+
+        Assert.assertTrue(trie.countUnhashedNodes(1000) > 0);
+    }
+
+    private static TrieImpl createTrie(int arity, long seed, int nkeys) {
+        Random random = new Random(seed);
+        Trie trie = new TrieImpl(arity, true);
+
+        for (int k = 0; k < nkeys; k++)
+            trie = trie.put(randomBytes(random), randomBytes(random));
+
+        return (TrieImpl) trie;
+    }
+
+    private static byte[] randomBytes(Random random) {
+        byte[] bytes = new byte[1 + random.nextInt(32)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures the time and the memory allocated by the gets and puts of hashed
+ * keys in the binary and hexadecimal tries
+ *
+ * The allocated bytes are read from the HotSpot thread bean, they include
+ * the new nodes created by the puts
+ */
+@Ignore
+public class TrieImplPerformanceTest {
+    private static final int NKEYS = 100000;
+    private static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // To execute as a standalone application, remove @Ignore and @Test and run main.
+    public static void main(String[] args) {
+        new TrieImplPerformanceTest().measureGetsAndPuts();
+    }
+
+    @Test
+    public void measureGetsAndPuts() {
+        Random random = new Random(1);
+        byte[][] keys = new byte[NKEYS][];
+
+        for (int k = 0; k < NKEYS; k++) {
+            keys[k] = new byte[32];
+            random.nextBytes(keys[k]);
+        }
+
+        for (int arity : new int[] { 2, 16 }) {
+            long putTime = Long.MAX_VALUE;
+            long putBytes = Long.MAX_VALUE;
+            long getTime = Long.MAX_VALUE;
+            long getBytes = Long.MAX_VALUE;
+
+            // the first rounds warm up the JIT compiler, the best values of each are kept
+            for (int round = 0; round < ROUNDS; round++) {
+                Trie trie = new TrieImpl(arity, false);
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+
+                for (byte[] key : keys)
+                    trie = trie.put(key, key);
+
+                putTime = Math.min(putTime, System.nanoTime() - start);
+                putBytes = Math.min(putBytes, allocatedBytes() - bytes);
+
+                bytes = allocatedBytes();
+                start = System.nanoTime();
+
+                for (byte[] key : keys)
+                    Assert.assertNotNull(trie.get(key));
+
+                getTime = Math.min(getTime, System.nanoTime() - start);
+                getBytes = Math.min(getBytes, allocatedBytes() - bytes);
+            }
+
+            System.out.println(String.format("arity %2d  put %5d ns/op %6d bytes/op, get %5d ns/op %5d bytes/op",
+                    arity, putTime / NKEYS, putBytes / NKEYS, getTime / NKEYS, getBytes / NKEYS));
+        }
+    }
+
+    private long allocatedBytes() {
+        return this.threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -18,9 +18,17 @@
 
 package co.rsk.trie;
 
+import org.ethereum.datasource.HashMapDB;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 /**
  * Created by ajlopez on 22/08/2016.
  */
@@ -31,5 +39,126 @@ public class TrieImplTest {
         Assert.assertArrayEquals(new byte[] { 0x0a, 0x0a }, TrieImpl.bytesToKey(new byte[] { (byte)0xaa }, 16));
         Assert.assertArrayEquals(new byte[] { 0x02, 0x02, 0x02, 0x02 }, TrieImpl.bytesToKey(new byte[] { (byte)0xaa }, 4));
     }
-}
 
+    @Test
+    public void keyToBytes() {
+        Assert.assertArrayEquals(new byte[] { (byte)0xaa }, TrieImpl.keyToBytes(TrieImpl.bytesToKey(new byte[] { (byte)0xaa }, 2), 8, 2));
+        Assert.assertArrayEquals(new byte[] { (byte)0xaa }, TrieImpl.keyToBytes(TrieImpl.bytesToKey(new byte[] { (byte)0xaa }, 16), 2, 16));
+        Assert.assertArrayEquals(new byte[] { (byte)0xaa }, TrieImpl.keyToBytes(TrieImpl.bytesToKey(new byte[] { (byte)0xaa }, 4), 4, 4));
+        Assert.assertArrayEquals(new byte[] { 0x12, 0x34 }, TrieImpl.keyToBytes(new byte[] { 0x01, 0x02, 0x03, 0x04 }, 4, 16));
+    }
+
+    @Test
+    public void iterateValuesInKeyOrder() {
+        String[] keys = { "foo", "bar", "fo", "foobar", "a", "zz" };
+
+        Trie trie = new TrieImpl(new TrieStoreImpl(new HashMapDB()), false);
+
+        for (String key : keys)
+            trie = trie.put(key, ("value " + key).getBytes(StandardCharsets.UTF_8));
+
+        trie = trie.delete("zz");
+        trie.save();
+
+        // the values are retrieved from the store
+        Trie retrieved = ((TrieImpl) trie).getStore().retrieve(trie.getHash());
+
+        List<String> visited = new ArrayList<>();
+
+        for (Iterator<Map.Entry<byte[], byte[]>> iterator = retrieved.iterator(); iterator.hasNext();) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            String skey = new String(entry.getKey(), StandardCharsets.UTF_8);
+            Assert.assertEquals("value " + skey, new String(entry.getValue(), StandardCharsets.UTF_8));
+            visited.add(skey);
+        }
+
+        Assert.assertEquals(5, visited.size());
+        Assert.assertEquals("a", visited.get(0));
+        Assert.assertEquals("bar", visited.get(1));
+        Assert.assertEquals("fo", visited.get(2));
+        Assert.assertEquals("foo", visited.get(3));
+        Assert.assertEquals("foobar", visited.get(4));
+    }
+
+    @Test
+    public void iterateEmptyTrie() {
+        Assert.assertFalse(new TrieImpl().iterator().hasNext());
+    }
+
+    @Test
+    public void deleteValuesInRetrievedTrie() {
+        String[] keys = { "foo", "bar", "fo", "foobar", "a", "fz" };
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(store, false);
+
+        for (String key : keys)
+            trie = trie.put(key, ("value " + key).getBytes(StandardCharsets.UTF_8));
+
+        trie.save();
+
+        for (String key : keys) {
+            // the subnodes of the retrieved trie are only in the store
+            Trie retrieved = store.retrieve(trie.getHash());
+
+            Assert.assertArrayEquals(trie.delete(key).getHash(), retrieved.delete(key).getHash());
+            Assert.assertNull(retrieved.delete(key).get(key));
+        }
+    }
+
+    @Test
+    public void deleteValuesInRetrievedTrieAsInMemoryTrie() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(store, false);
+        Random random = new Random(1);
+        List<byte[]> keys = new ArrayList<>();
+
+        // keys of the same length, as the hashed keys of a secure trie
+        for (int k = 0; k < 200; k++) {
+            byte[] key = new byte[4];
+            random.nextBytes(key);
+            keys.add(key);
+            trie = trie.put(key, key);
+        }
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        for (int k = 0; k < keys.size(); k += 2) {
+            trie = trie.delete(keys.get(k));
+            retrieved = retrieved.delete(keys.get(k));
+
+            Assert.assertArrayEquals(trie.getHash(), retrieved.getHash());
+
+            // reload from time to time, so the next deletes find siblings only in the store
+            if (k % 10 == 0) {
+                retrieved.save();
+                retrieved = store.retrieve(retrieved.getHash());
+            }
+        }
+
+        for (int k = 1; k < keys.size(); k += 2)
+            Assert.assertArrayEquals(keys.get(k), retrieved.get(keys.get(k)));
+    }
+
+    @Test
+    public void putGetAndDeleteInQuaternaryTrie() {
+        String[] keys = { "foo", "bar", "fo", "foobar", "a", "fz" };
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(4, store, false);
+
+        for (String key : keys)
+            trie = trie.put(key, ("value " + key).getBytes(StandardCharsets.UTF_8));
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        for (String key : keys) {
+            Assert.assertArrayEquals(("value " + key).getBytes(StandardCharsets.UTF_8), retrieved.get(key));
+            Assert.assertArrayEquals(trie.delete(key).getHash(), retrieved.delete(key).getHash());
+        }
+
+        Assert.assertNull(retrieved.get("f"));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public class TrieIteratorTest {
+    private static final String[] KEYS = { "foo", "bar", "fo", "foobar", "a", "fz", "f", "g" };
+
+    @Test
+    public void iterateAllKeys() {
+        for (int arity : new int[] { 2, 16 })
+            Assert.assertEquals("a,bar,f,fo,foo,foobar,fz,g", toString(createTrie(arity).iterator()));
+    }
+
+    @Test
+    public void iterateKeysWithPrefix() {
+        for (int arity : new int[] { 2, 16 }) {
+            Trie trie = createTrie(arity);
+
+            Assert.assertEquals("f,fo,foo,foobar,fz", toString(trie.iterator(bytes("f"))));
+            Assert.assertEquals("fo,foo,foobar", toString(trie.iterator(bytes("fo"))));
+            Assert.assertEquals("foobar", toString(trie.iterator(bytes("foob"))));
+            Assert.assertEquals("", toString(trie.iterator(bytes("c"))));
+            Assert.assertEquals("a,bar,f,fo,foo,foobar,fz,g", toString(trie.iterator(new byte[0])));
+        }
+    }
+
+    @Test
+    public void iterateKeysInRange() {
+        for (int arity : new int[] { 2, 16 }) {
+            Trie trie = createTrie(arity);
+
+            Assert.assertEquals("bar,f,fo,foo", toString(trie.iterator(bytes("b"), bytes("foob"))));
+            Assert.assertEquals("fo,foo", toString(trie.iterator(bytes("fo"), bytes("foobar"))));
+            Assert.assertEquals("foobar,fz,g", toString(trie.iterator(bytes("foo0"), null)));
+            Assert.assertEquals("a,bar", toString(trie.iterator(null, bytes("f"))));
+            Assert.assertEquals("", toString(trie.iterator(bytes("fp"), bytes("fz"))));
+            Assert.assertEquals("", toString(trie.iterator(bytes("g"), bytes("f"))));
+        }
+    }
+
+    @Test
+    public void iterateKeysWithPrefixOfMaximumBytes() {
+        Trie trie = new TrieImpl(16, false)
+                .put(new byte[] { (byte) 0xfe }, bytes("1"))
+                .put(new byte[] { (byte) 0xff }, bytes("2"))
+                .put(new byte[] { (byte) 0xff, 0x01 }, bytes("3"))
+                .put(new byte[] { (byte) 0xff, (byte) 0xff }, bytes("4"));
+
+        List<String> values = new ArrayList<>();
+
+        for (Iterator<Map.Entry<byte[], byte[]>> iterator = trie.iterator(new byte[] { (byte) 0xff }); iterator.hasNext();)
+            values.add(new String(iterator.next().getValue(), StandardCharsets.UTF_8));
+
+        Assert.assertEquals("[2, 3, 4]", values.toString());
+    }
+
+    @Test
+    public void iterateSecureTrieByKeyHashes() {
+        Trie trie = new TrieImpl(new TrieStoreImpl(new HashMapDB()), true);
+
+        for (String key : KEYS)
+            trie = trie.put(key, bytes("value " + key));
+
+        int count = 0;
+        byte[] previous = null;
+
+        for (Iterator<Map.Entry<byte[], byte[]>> iterator = trie.iterator(); iterator.hasNext(); count++) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            String value = new String(entry.getValue(), StandardCharsets.UTF_8);
+
+            Assert.assertArrayEquals(HashUtil.sha3(bytes(value.substring(6))), entry.getKey());
+
+            if (previous != null)
+                Assert.assertTrue(compare(previous, entry.getKey()) < 0);
+
+            previous = entry.getKey();
+        }
+
+        Assert.assertEquals(KEYS.length, count);
+    }
+
+    @Test
+    public void iterateDoesNotKeepRetrievedNodes() {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = createTrie(store, 2);
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        Assert.assertEquals("a,bar,f,fo,foo,foobar,fz,g", toString(retrieved.iterator()));
+
+        int count = store.getRetrieveCount();
+
+        // the subnodes are retrieved again
+        Assert.assertEquals("a,bar,f,fo,foo,foobar,fz,g", toString(retrieved.iterator()));
+        Assert.assertTrue(store.getRetrieveCount() > count);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextAfterLastValue() {
+        Iterator<Map.Entry<byte[], byte[]>> iterator = new TrieImpl().put("foo", bytes("bar")).iterator();
+
+        iterator.next();
+        iterator.next();
+    }
+
+    private static Trie createTrie(int arity) {
+        return createTrie(null, arity);
+    }
+
+    private static Trie createTrie(TrieStore store, int arity) {
+        Trie trie = new TrieImpl(arity, store, false);
+
+        for (String key : KEYS)
+            trie = trie.put(key, bytes("value " + key));
+
+        return trie.put("zz", bytes("value zz")).delete("zz");
+    }
+
+    private static String toString(Iterator<Map.Entry<byte[], byte[]>> iterator) {
+        List<String> keys = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            String key = new String(entry.getKey(), StandardCharsets.UTF_8);
+
+            Assert.assertEquals("value " + key, new String(entry.getValue(), StandardCharsets.UTF_8));
+            keys.add(key);
+        }
+
+        return String.join(",", keys);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int k = 0; k < a.length && k < b.length; k++)
+            if (a[k] != b[k])
+                return (a[k] & 0xff) - (b[k] & 0xff);
+
+        return a.length - b.length;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.ethereum.TestUtils.randomBytes;
+
+public class TrieKeySliceTest {
+    @Test
+    public void getDigitsLikeExpandedKey() {
+        byte[] key = randomBytes(32);
+
+        for (int arity : new int[] { 2, 4, 16 }) {
+            byte[] expanded = TrieImpl.bytesToKey(key, arity);
+            TrieKeySlice slice = TrieKeySlice.fromKey(key, arity);
+
+            Assert.assertEquals(expanded.length, slice.length());
+
+            for (int k = 0; k < expanded.length; k++)
+                Assert.assertEquals(expanded[k], slice.get(k));
+
+            Assert.assertArrayEquals(expanded, slice.expand());
+        }
+    }
+
+    @Test
+    public void encodeSlicesLikePathEncoder() {
+        byte[] key = randomBytes(8);
+
+        for (int arity : new int[] { 2, 16 }) {
+            byte[] expanded = TrieImpl.bytesToKey(key, arity);
+            TrieKeySlice slice = TrieKeySlice.fromKey(key, arity);
+
+            for (int from = 0; from < expanded.length; from += 3)
+                for (int to = from; to <= expanded.length; to += 5) {
+                    byte[] encoded = PathEncoder.encode(Arrays.copyOfRange(expanded, from, to), arity);
+                    TrieKeySlice part = slice.slice(from, to);
+
+                    Assert.assertEquals(to - from, part.length());
+                    Assert.assertArrayEquals(encoded, part.encode());
+                    Assert.assertEquals(encoded.length, TrieKeySlice.getEncodedLength(to - from, arity));
+                    Assert.assertArrayEquals(Arrays.copyOfRange(expanded, from, to), TrieKeySlice.fromEncoded(encoded, to - from, arity).expand());
+                }
+        }
+    }
+
+    @Test
+    public void lengthOfCommonPath() {
+        byte[] key = new byte[] { 0x12, 0x34, 0x56, 0x78 };
+        byte[] other = new byte[] { 0x12, 0x34, 0x57, 0x78 };
+
+        TrieKeySlice keySlice = TrieKeySlice.fromKey(key, 16);
+        TrieKeySlice otherSlice = TrieKeySlice.fromKey(other, 16);
+
+        Assert.assertEquals(5, keySlice.lengthOfCommonPath(otherSlice, 0));
+        Assert.assertEquals(8, keySlice.lengthOfCommonPath(keySlice, 0));
+        Assert.assertEquals(4, keySlice.slice(1, 5).lengthOfCommonPath(otherSlice, 1));
+        Assert.assertEquals(0, keySlice.slice(1, 5).lengthOfCommonPath(otherSlice, 2));
+        Assert.assertEquals(2, keySlice.slice(6, 8).lengthOfCommonPath(otherSlice, 6));
+
+        // the comparison stops at the end of the key
+        Assert.assertEquals(3, keySlice.slice(0, 8).lengthOfCommonPath(keySlice.slice(0, 3), 0));
+
+        TrieKeySlice binarySlice = TrieKeySlice.fromKey(key, 2);
+        TrieKeySlice otherBinarySlice = TrieKeySlice.fromKey(other, 2);
+
+        Assert.assertEquals(23, binarySlice.lengthOfCommonPath(otherBinarySlice, 0));
+        Assert.assertEquals(20, binarySlice.slice(3, 32).lengthOfCommonPath(otherBinarySlice, 3));
+    }
+
+    @Test
+    public void concatPaths() {
+        TrieKeySlice slice = TrieKeySlice.fromKey(new byte[] { (byte) 0xa5, (byte) 0xf0 }, 2);
+
+        TrieKeySlice path = TrieKeySlice.concat(slice.slice(1, 4), 1, slice.slice(9, 13));
+
+        Assert.assertEquals(8, path.length());
+        Assert.assertArrayEquals(new byte[] { 0x00, 0x01, 0x00, 0x01, 0x01, 0x01, 0x01, 0x00 }, path.expand());
+        Assert.assertArrayEquals(new byte[] { 0x5e }, path.encode());
+
+        TrieKeySlice empty = TrieKeySlice.fromKey(new byte[0], 16);
+
+        Assert.assertArrayEquals(new byte[] { 0x70 }, TrieKeySlice.concat(empty, 7, empty).encode());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import co.rsk.config.RskSystemProperties;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.LevelDbDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrieNodeCacheTest {
+    @Test
+    public void sameCacheForSameDataSource() {
+        LevelDbDataSource dataSource = new LevelDbDataSource("test");
+
+        TrieNodeCache cache = TrieNodeCache.forDataSource(dataSource);
+
+        Assert.assertNotNull(cache);
+        Assert.assertSame(cache, TrieNodeCache.forDataSource(dataSource));
+        Assert.assertNotSame(cache, TrieNodeCache.forDataSource(new LevelDbDataSource("test2")));
+    }
+
+    @Test
+    public void sameSizeLimitForAllDataSources() {
+        TrieNodeCache cache1 = TrieNodeCache.forDataSource(new LevelDbDataSource("test"));
+        TrieNodeCache cache2 = TrieNodeCache.forDataSource(new LevelDbDataSource("test2"));
+
+        Assert.assertEquals(RskSystemProperties.RSKCONFIG.trieNodeCacheSize(), cache1.getMaxSizeInBytes());
+        Assert.assertEquals(RskSystemProperties.RSKCONFIG.trieNodeCacheSize(), cache2.getMaxSizeInBytes());
+    }
+
+    @Test
+    public void noCacheForDataSourceInMemory() {
+        Assert.assertNull(TrieNodeCache.forDataSource(new HashMapDB()));
+        Assert.assertEquals(0, new TrieStoreImpl(new HashMapDB()).getCacheEvictionCount());
+    }
+
+    @Test
+    public void partitionsShareSizeLimit() {
+        TrieNodeCache cache1 = new TrieNodeCache(4096);
+        TrieNodeCache cache2 = cache1.partition();
+        TrieStoreImpl store1 = new TrieStoreImpl(new HashMapDB(), cache1);
+        TrieStoreImpl store2 = new TrieStoreImpl(new HashMapDB(), cache2);
+
+        Trie trie1 = new TrieImpl(store1, false);
+        Trie trie2 = new TrieImpl(store2, false);
+
+        for (int k = 0; k < 100; k++) {
+            trie1 = trie1.put(("key" + k).getBytes(), ("value" + k).getBytes());
+            trie2 = trie2.put(("key" + k).getBytes(), ("value" + k).getBytes());
+        }
+
+        trie1.save();
+
+        long size1 = cache1.getSizeInBytes();
+
+        Assert.assertTrue(size1 > 0);
+
+        // the nodes saved in the second partition evict the older nodes of the first one
+        trie2.save();
+
+        Assert.assertTrue(cache2.size() > 0);
+        Assert.assertTrue(cache1.getSizeInBytes() < size1);
+        Assert.assertTrue(cache1.getEvictionCount() > 0);
+        Assert.assertTrue(cache1.getSizeInBytes() + cache2.getSizeInBytes() <= 4096);
+    }
+
+    @Test
+    public void partitionsDoNotShareNodes() {
+        TrieNodeCache cache1 = new TrieNodeCache(1024 * 1024);
+        TrieNodeCache cache2 = cache1.partition();
+        TrieStoreImpl store1 = new TrieStoreImpl(new HashMapDB(), cache1);
+        TrieStoreImpl store2 = new TrieStoreImpl(new HashMapDB(), cache2);
+
+        Trie trie = new TrieImpl(store1, false).put("foo", "bar".getBytes());
+
+        trie.save();
+
+        Assert.assertNotNull(store1.retrieve(trie.getHash()));
+        Assert.assertNull(store2.retrieve(trie.getHash()));
+        Assert.assertEquals(0, cache2.size());
+    }
+
+    @Test
+    public void retrieveSavedNodeFromCache() {
+        HashMapDB map = new HashMapDB();
+        TrieNodeCache cache = new TrieNodeCache(1024 * 1024);
+        TrieStoreImpl store = new TrieStoreImpl(map, cache);
+
+        Trie trie = new TrieImpl(store, false).put("foo", "bar".getBytes());
+
+        trie.save();
+
+        Trie result = store.retrieve(trie.getHash());
+
+        Assert.assertNotNull(result);
+        Assert.assertArrayEquals(trie.getHash(), result.getHash());
+        Assert.assertArrayEquals("bar".getBytes(), result.get("foo"));
+        Assert.assertEquals(1, store.getRetrieveCount());
+        Assert.assertEquals(1, store.getCacheHitCount());
+        Assert.assertEquals(0, store.getCacheMissCount());
+    }
+
+    @Test
+    public void shareNodesBetweenStoresWithSameCache() {
+        HashMapDB map = new HashMapDB();
+        TrieNodeCache cache = new TrieNodeCache(1024 * 1024);
+        TrieStoreImpl store = new TrieStoreImpl(map, cache);
+
+        Trie trie = new TrieImpl(store, false)
+                .put("foo", "bar".getBytes())
+                .put("bar", "foo".getBytes());
+
+        trie.save();
+
+        TrieNodeCache sharedCache = new TrieNodeCache(1024 * 1024);
+        TrieStoreImpl store1 = new TrieStoreImpl(map, sharedCache);
+        TrieStoreImpl store2 = new TrieStoreImpl(map, sharedCache);
+
+        Trie result1 = store1.retrieve(trie.getHash());
+
+        Assert.assertEquals(trie.trieSize(), result1.trieSize());
+        Assert.assertEquals(0, store1.getCacheHitCount());
+        Assert.assertEquals(trie.trieSize(), store1.getCacheMissCount());
+
+        Trie result2 = store2.retrieve(trie.getHash());
+
+        Assert.assertArrayEquals("bar".getBytes(), result2.get("foo"));
+        Assert.assertArrayEquals("foo".getBytes(), result2.get("bar"));
+        Assert.assertEquals(trie.trieSize(), result2.trieSize());
+        Assert.assertEquals(trie.trieSize(), store2.getCacheHitCount());
+        Assert.assertEquals(0, store2.getCacheMissCount());
+    }
+
+    @Test
+    public void retrievedNodesAreNotShared() {
+        HashMapDB map = new HashMapDB();
+        TrieNodeCache cache = new TrieNodeCache(1024 * 1024);
+        TrieStoreImpl store = new TrieStoreImpl(map, cache);
+
+        Trie trie = new TrieImpl(store, false)
+                .put("foo", "bar".getBytes())
+                .put("bar", "foo".getBytes());
+
+        trie.save();
+
+        Trie result1 = store.retrieve(trie.getHash());
+        Trie result2 = store.retrieve(trie.getHash());
+
+        Assert.assertNotSame(result1, result2);
+
+        result1.removeNode(0);
+        result1.removeNode(1);
+
+        Assert.assertArrayEquals(trie.getHash(), result2.getHash());
+        Assert.assertArrayEquals(trie.getHash(), store.retrieve(trie.getHash()).getHash());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedNodes() {
+        HashMapDB map = new HashMapDB();
+        TrieNodeCache cache = new TrieNodeCache(1024);
+        TrieStoreImpl store = new TrieStoreImpl(map, cache);
+
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 100; k++)
+            trie = trie.put(("key" + k).getBytes(), ("value" + k).getBytes());
+
+        trie.save();
+
+        Assert.assertTrue(cache.getSizeInBytes() <= 1024);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertEquals(cache.getEvictionCount(), store.getCacheEvictionCount());
+
+        Trie result = new TrieStoreImpl(map, cache).retrieve(trie.getHash());
+
+        for (int k = 0; k < 100; k++)
+            Assert.assertArrayEquals(("value" + k).getBytes(), result.get(("key" + k).getBytes()));
+    }
+
+    @Test
+    public void retrieveUnknownHashIsNotCached() {
+        TrieNodeCache cache = new TrieNodeCache(1024);
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB(), cache);
+
+        Assert.assertNull(store.retrieve(new byte[] { 0x01, 0x02, 0x03, 0x04 }));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, store.getCacheMissCount());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class TrieSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndReadTrieInSeveralChunks() throws IOException {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = createTrie(store, 200);
+
+        File file = folder.newFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            Assert.assertEquals(trie.trieSize(), new TrieSnapshot(store, 256).write(trie.getHash(), channel));
+        }
+
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl newStore = new TrieStoreImpl(map);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Assert.assertArrayEquals(trie.getHash(), new TrieSnapshot(newStore, 256).read(channel));
+        }
+
+        Assert.assertEquals(trie.trieSize(), map.keys().size());
+
+        Trie result = newStore.retrieve(trie.getHash());
+
+        for (int k = 0; k < 200; k++)
+            Assert.assertArrayEquals(("value" + k).getBytes(), result.get("key" + k));
+    }
+
+    @Test
+    public void writeAndReadSnapshotOfEmptyTrie() throws IOException {
+        File file = folder.newFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            Assert.assertEquals(0, new TrieStoreImpl(new HashMapDB()).writeSnapshot(HashUtil.EMPTY_TRIE_HASH, channel));
+        }
+
+        HashMapDB map = new HashMapDB();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Assert.assertArrayEquals(HashUtil.EMPTY_TRIE_HASH, new TrieStoreImpl(map).readSnapshot(channel));
+        }
+
+        Assert.assertTrue(map.keys().isEmpty());
+    }
+
+    @Test(expected = TrieSerializationException.class)
+    public void readSnapshotWithInvalidChecksum() throws IOException {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = createTrie(store, 10);
+
+        File file = folder.newFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            store.writeSnapshot(trie.getHash(), channel);
+
+            // a byte of the first node message
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), Short.BYTES + 32 + Integer.BYTES * 3 + 1);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new TrieStoreImpl(new HashMapDB()).readSnapshot(channel);
+        }
+    }
+
+    @Test(expected = TrieSerializationException.class)
+    public void readIncompleteSnapshot() throws IOException {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = createTrie(store, 100);
+
+        File file = folder.newFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            new TrieSnapshot(store, 256).write(trie.getHash(), channel);
+
+            // the first chunk is marked as the last one
+            channel.write(ByteBuffer.allocate(Integer.BYTES * 2), Short.BYTES + 32);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new TrieStoreImpl(new HashMapDB()).readSnapshot(channel);
+        }
+    }
+
+    @Test(expected = TrieSerializationException.class)
+    public void writeSnapshotOfUnknownRoot() throws IOException {
+        File file = folder.newFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            new TrieStoreImpl(new HashMapDB()).writeSnapshot(HashUtil.sha3("foo".getBytes()), channel);
+        }
+    }
+
+    private static Trie createTrie(TrieStore store, int size) {
+        Trie trie = new TrieImpl(store, true);
+
+        for (int k = 0; k < size; k++)
+            trie = trie.put("key" + k, ("value" + k).getBytes());
+
+        trie.save();
+
+        return trie;
+    }
+}
@@ -22,6 +22,13 @@ import org.ethereum.datasource.HashMapDB;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.ethereum.crypto.SHA3Helper.sha3;
 
 /**
@@ -205,4 +212,220 @@ public class TrieStoreImplTest {
         Assert.assertArrayEquals("bar".getBytes(), result.get("foo"));
         Assert.assertArrayEquals("foo".getBytes(), result.get("bar"));
     }
+
+    @Test
+    public void saveFullTrieInOneBatch() {
+        CountingHashMapDB map = new CountingHashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie trie = new TrieImpl(store, false)
+                .put("foo", "bar".getBytes())
+                .put("bar", "foo".getBytes());
+
+        trie.save();
+
+        Assert.assertEquals(trie.trieSize(), map.keys().size());
+        Assert.assertEquals(1, map.batches);
+        Assert.assertEquals(0, map.puts);
+        Assert.assertEquals(trie.trieSize(), store.getSaveCount());
+    }
+
+    @Test
+    public void saveFullTrieUsingFlusher() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        store.startFlusher(2);
+
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 10; k++) {
+            trie = trie.put(("key" + k).getBytes(), ("value" + k).getBytes());
+            trie.save();
+        }
+
+        Trie result = store.retrieve(trie.getHash());
+
+        Assert.assertNotNull(result);
+
+        store.flush();
+
+        Assert.assertNotNull(map.get(trie.getHash()));
+        Assert.assertArrayEquals(trie.toMessage(), map.get(trie.getHash()));
+
+        Trie result2 = new TrieStoreImpl(map).retrieve(trie.getHash());
+
+        for (int k = 0; k < 10; k++)
+            Assert.assertArrayEquals(("value" + k).getBytes(), result2.get(("key" + k).getBytes()));
+    }
+
+    @Test
+    public void closeWritesPendingNodesAndWritesLaterNodesDirectly() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        store.startFlusher(2);
+
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 10; k++) {
+            trie = trie.put(("key" + k).getBytes(), ("value" + k).getBytes());
+            trie.save();
+        }
+
+        store.close();
+
+        Assert.assertArrayEquals(trie.toMessage(), map.get(trie.getHash()));
+
+        trie = trie.put("foo".getBytes(), "bar".getBytes());
+        trie.save();
+
+        Assert.assertArrayEquals(trie.toMessage(), map.get(trie.getHash()));
+
+        store.close();
+    }
+
+    @Test(expected = TrieSerializationException.class)
+    public void flushThrowsIfInterrupted() {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TrieStoreImpl blockedStore = new TrieStoreImpl(new HashMapDB() {
+            @Override
+            public void updateBatch(Map<byte[], byte[]> rows) {
+                writing.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.updateBatch(rows);
+            }
+        });
+
+        blockedStore.startFlusher(2);
+
+        try {
+            new TrieImpl(blockedStore, false).put("foo", "bar".getBytes()).save();
+
+            Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            Thread.currentThread().interrupt();
+            blockedStore.flush();
+        } catch (InterruptedException ex) {
+            Assert.fail();
+        } finally {
+            Thread.interrupted();
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void pruneRemovesNodesNotReachableFromRetainedRoots() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map, null);
+
+        store.enablePruning();
+
+        List<byte[]> roots = new ArrayList<>();
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 10; k++) {
+            trie = trie.put("counter", ("value" + k).getBytes()).put("key" + k, ("value" + k).getBytes());
+            trie.save();
+            roots.add(trie.getHash());
+        }
+
+        store.saveKey(sha3("foo".getBytes()), "foo".getBytes());
+
+        List<byte[]> retained = roots.subList(7, 10);
+
+        // the nodes saved since pruning was enabled are kept in the first prune
+        Assert.assertEquals(0, store.prune(retained));
+        Assert.assertTrue(store.prune(retained) > 0);
+
+        for (int k = 0; k < 7; k++)
+            Assert.assertNull(map.get(roots.get(k)));
+
+        for (int k = 7; k < 10; k++) {
+            Trie result = new TrieStoreImpl(map, null).retrieve(roots.get(k));
+
+            Assert.assertArrayEquals(("value" + k).getBytes(), result.get("counter"));
+
+            for (int j = 0; j <= k; j++)
+                Assert.assertArrayEquals(("value" + j).getBytes(), result.get("key" + j));
+        }
+
+        Assert.assertArrayEquals("foo".getBytes(), store.retrieveKey(sha3("foo".getBytes())));
+    }
+
+    @Test
+    public void pruneKeepsNodesSavedSincePreviousPrune() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map, null);
+
+        store.enablePruning();
+        store.prune(Collections.emptyList());
+
+        Trie trie = new TrieImpl(store, false).put("foo", "bar".getBytes());
+        trie.save();
+
+        // the trie can belong to a state that is being built
+        Assert.assertEquals(0, store.prune(Collections.emptyList()));
+        Assert.assertNotNull(map.get(trie.getHash()));
+
+        Assert.assertEquals(1, store.prune(Collections.emptyList()));
+        Assert.assertNull(map.get(trie.getHash()));
+    }
+
+    @Test
+    public void pruneEvictsRemovedNodesFromCache() {
+        HashMapDB map = new HashMapDB();
+        TrieNodeCache cache = new TrieNodeCache(1024 * 1024);
+        TrieStoreImpl store = new TrieStoreImpl(map, cache);
+
+        store.enablePruning();
+
+        Trie trie = new TrieImpl(store, false).put("foo", "bar".getBytes());
+        trie.save();
+
+        Trie trie2 = trie.put("bar", "foo".getBytes());
+        trie2.save();
+
+        Assert.assertNotNull(cache.get(trie.getHash()));
+
+        List<byte[]> retained = Collections.singletonList(trie2.getHash());
+
+        store.prune(retained);
+        store.prune(retained);
+
+        Assert.assertNull(map.get(trie.getHash()));
+        Assert.assertNull(cache.get(trie.getHash()));
+        Assert.assertNull(store.retrieve(trie.getHash()));
+        Assert.assertNotNull(cache.get(trie2.getHash()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pruneWithoutEnablingPruning() {
+        new TrieStoreImpl(new HashMapDB()).prune(Collections.emptyList());
+    }
+
+    private static class CountingHashMapDB extends HashMapDB {
+        private int puts;
+        private int batches;
+
+        @Override
+        public synchronized byte[] put(byte[] key, byte[] value) {
+            this.puts++;
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+            this.batches++;
+            super.updateBatch(rows);
+        }
+    }
 }
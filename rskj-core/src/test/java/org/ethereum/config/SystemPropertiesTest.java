@@ -19,6 +19,8 @@
 
 package org.ethereum.config;
 
+import com.typesafe.config.ConfigFactory;
+import org.ethereum.datasource.LevelDbProfile;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -47,4 +49,30 @@ public class SystemPropertiesTest {
         Assert.assertTrue(t < 10 * 1000);
         Assert.assertFalse(ip.isEmpty());
     }
+
+    @Test
+    public void defaultLevelDbProfiles() {
+        SystemProperties config = new SystemProperties();
+
+        Assert.assertSame(LevelDbProfile.STATE, config.levelDbProfile("state"));
+        Assert.assertSame(LevelDbProfile.BLOCKS, config.levelDbProfile("blocks"));
+        Assert.assertSame(LevelDbProfile.RECEIPTS, config.levelDbProfile("receipts"));
+        Assert.assertSame(LevelDbProfile.DETAILS, config.levelDbProfile("details"));
+        Assert.assertSame(LevelDbProfile.DETAILS_STORAGE, config.levelDbProfile("details-storage/0102030405"));
+        Assert.assertSame(LevelDbProfile.DEFAULT, config.levelDbProfile("wallet"));
+    }
+
+    @Test
+    public void overrideLevelDbProfile() {
+        SystemProperties config = new SystemProperties(ConfigFactory.parseString(
+                "database.leveldb.state { blockSize = 8k, cacheSize = 128m, compression = snappy }"));
+
+        LevelDbProfile profile = config.levelDbProfile("state");
+
+        Assert.assertEquals(8 * 1024, profile.getBlockSize());
+        Assert.assertEquals(128 * 1024 * 1024, profile.getCacheSize());
+        Assert.assertTrue(profile.hasCompression());
+        Assert.assertEquals(LevelDbProfile.STATE.getWriteBufferSize(), profile.getWriteBufferSize());
+        Assert.assertTrue(profile.verifyChecksums());
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.core;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import org.ethereum.crypto.HashUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class BlockHeaderTest {
+    @Test
+    public void getHashReturnsSha3OfEncoded() {
+        BlockHeader header = createHeader();
+
+        Assert.assertArrayEquals(HashUtil.sha3(header.getEncoded()), header.getHash());
+        Assert.assertArrayEquals(HashUtil.sha3(header.getEncoded(false)), header.getHashForMergedMining());
+    }
+
+    @Test
+    public void getHashReturnsACopy() {
+        BlockHeader header = createHeader();
+
+        byte[] hash = header.getHash();
+        byte[] expected = HashUtil.sha3(header.getEncoded());
+        hash[0]++;
+
+        Assert.assertArrayEquals(expected, header.getHash());
+
+        byte[] hashForMergedMining = header.getHashForMergedMining();
+        expected = HashUtil.sha3(header.getEncoded(false));
+        hashForMergedMining[0]++;
+
+        Assert.assertArrayEquals(expected, header.getHashForMergedMining());
+    }
+
+    @Test
+    public void settersClearCachedHashes() {
+        assertSetterChangesHashes(h -> h.setUncleCount(3));
+        assertSetterChangesHashes(h -> h.setUnclesHash(HashUtil.sha3(new byte[] { 1 })));
+        assertSetterChangesHashes(h -> h.setCoinbase(new byte[] { 1, 2, 3 }));
+        assertSetterChangesHashes(h -> h.setStateRoot(HashUtil.sha3(new byte[] { 2 })));
+        assertSetterChangesHashes(h -> h.setReceiptsRoot(HashUtil.sha3(new byte[] { 3 })));
+        assertSetterChangesHashes(h -> h.setTransactionsRoot(HashUtil.sha3(new byte[] { 4 })));
+        assertSetterChangesHashes(h -> h.setDifficulty(new byte[] { 5, 6 }));
+        assertSetterChangesHashes(h -> h.setTimestamp(h.getTimestamp() + 1));
+        assertSetterChangesHashes(h -> h.setNumber(h.getNumber() + 1));
+        assertSetterChangesHashes(h -> h.setGasLimit(new byte[] { 7, 8, 9 }));
+        assertSetterChangesHashes(h -> h.setPaidFees(h.getPaidFees() + 1));
+        assertSetterChangesHashes(h -> h.setGasUsed(h.getGasUsed() + 1));
+        assertSetterChangesHashes(h -> h.setLogsBloom(new byte[] { 10 }));
+        assertSetterChangesHashes(h -> h.setExtraData(new byte[] { 11 }));
+        assertSetterChangesHashes(h -> h.setMinimumGasPrice(new byte[] { 12 }));
+    }
+
+    @Test
+    public void mergedMiningSettersClearCachedHash() {
+        assertMergedMiningSetterChangesHash(h -> h.setBitcoinMergedMiningHeader(new byte[] { 1 }));
+        assertMergedMiningSetterChangesHash(h -> h.setBitcoinMergedMiningMerkleProof(new byte[] { 2 }));
+        assertMergedMiningSetterChangesHash(h -> h.setBitcoinMergedMiningCoinbaseTransaction(new byte[] { 3 }));
+    }
+
+    private static void assertSetterChangesHashes(Consumer<BlockHeader> setter) {
+        BlockHeader header = createHeader();
+
+        byte[] hash = header.getHash();
+        byte[] hashForMergedMining = header.getHashForMergedMining();
+
+        setter.accept(header);
+
+        Assert.assertFalse(Arrays.equals(hash, header.getHash()));
+        Assert.assertFalse(Arrays.equals(hashForMergedMining, header.getHashForMergedMining()));
+        Assert.assertArrayEquals(HashUtil.sha3(header.getEncoded()), header.getHash());
+        Assert.assertArrayEquals(HashUtil.sha3(header.getEncoded(false)), header.getHashForMergedMining());
+    }
+
+    private static void assertMergedMiningSetterChangesHash(Consumer<BlockHeader> setter) {
+        BlockHeader header = createHeader();
+
+        byte[] hash = header.getHash();
+        byte[] hashForMergedMining = header.getHashForMergedMining();
+
+        setter.accept(header);
+
+        Assert.assertFalse(Arrays.equals(hash, header.getHash()));
+        Assert.assertArrayEquals(hashForMergedMining, header.getHashForMergedMining());
+        Assert.assertArrayEquals(HashUtil.sha3(header.getEncoded()), header.getHash());
+    }
+
+    private static BlockHeader createHeader() {
+        Block genesis = BlockGenerator.getGenesisBlock();
+
+        return BlockGenerator.createChildBlock(genesis).getHeader();
+    }
+}
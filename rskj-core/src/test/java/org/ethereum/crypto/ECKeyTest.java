@@ -288,6 +288,27 @@ public class ECKeyTest {
         assertArrayEquals(pubKey, key.getPubKey());
     }
 
+    @Test
+    public void testSignatureComponentsToKey() throws SignatureException {
+        byte[] messageHash = HashUtil.sha3(exampleMessage.getBytes());
+        ECDSASignature signature = new ECKey().sign(messageHash);
+
+        ECKey expected = ECKey.signatureToKey(messageHash, signature.toBase64());
+        ECKey key = ECKey.signatureToKey(messageHash, signature);
+
+        assertNotNull(key);
+        assertArrayEquals(expected.getPubKey(), key.getPubKey());
+    }
+
+    @Test(expected = SignatureException.class)
+    public void testSignatureComponentsToKeyWithInvalidHeader() throws SignatureException {
+        byte[] messageHash = HashUtil.sha3(exampleMessage.getBytes());
+        ECDSASignature signature = new ECKey().sign(messageHash);
+        signature.v = 35;
+
+        ECKey.signatureToKey(messageHash, signature);
+    }
+
     @Test
     public void testGetPrivKeyBytes() {
         ECKey key = new ECKey();
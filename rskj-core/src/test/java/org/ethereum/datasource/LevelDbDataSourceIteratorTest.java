@@ -0,0 +1,162 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the LevelDB iterators on a database in a temporary directory
+ */
+public class LevelDbDataSourceIteratorTest {
+    private Path databaseDir;
+    private LevelDbDataSource dataSource;
+
+    @Before
+    public void setup() throws IOException {
+        databaseDir = Files.createTempDirectory("leveldb-iterator");
+
+        SystemProperties config = new SystemProperties();
+        config.setDataBaseDir(databaseDir.toString());
+
+        dataSource = new LevelDbDataSource("test-iterator");
+        dataSource.config = config;
+        dataSource.init();
+
+        dataSource.put(new byte[] { 1, 2 }, new byte[] { 1 });
+        dataSource.put(new byte[] { 1, 3, 1 }, new byte[] { 3 });
+        dataSource.put(new byte[] { 1, 3 }, new byte[] { 2 });
+        dataSource.put(new byte[] { 1, (byte) 0xff }, new byte[] { 4 });
+        dataSource.put(new byte[] { 1, (byte) 0xff, (byte) 0xff, 1 }, new byte[] { 5 });
+        dataSource.put(new byte[] { 2 }, new byte[] { 6 });
+        dataSource.put(new byte[] { (byte) 0x80 }, new byte[] { 7 });
+        dataSource.put(new byte[] { (byte) 0xff, (byte) 0xff, 1 }, new byte[] { 8 });
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.close();
+        FileUtil.recursiveDelete(databaseDir.toString());
+    }
+
+    @Test
+    public void iterateFromInclusiveToExclusive() {
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { 1, 3 }, new byte[] { 2 })) {
+            assertValues(iterator, 2, 3, 4, 5);
+        }
+    }
+
+    @Test
+    public void iterateComparingKeysAsUnsigned() {
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { 2 }, new byte[] { (byte) 0xff })) {
+            assertValues(iterator, 6, 7);
+        }
+    }
+
+    @Test
+    public void iterateWithoutBounds() {
+        try (KeyValueIterator iterator = dataSource.iterator(null, null)) {
+            assertValues(iterator, 1, 2, 3, 4, 5, 6, 7, 8);
+        }
+    }
+
+    @Test
+    public void iterateFromKeyAfterLastKey() {
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { (byte) 0xff, (byte) 0xff, 2 }, null)) {
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void iteratePrefix() {
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { 1, 3 })) {
+            assertValues(iterator, 2, 3);
+        }
+    }
+
+    @Test
+    public void iteratePrefixEndingWithFF() {
+        // the end of the range is the prefix 02, carrying the 0xff byte
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { 1, (byte) 0xff })) {
+            assertValues(iterator, 4, 5);
+        }
+    }
+
+    @Test
+    public void iteratePrefixOfFFOnly() {
+        // there is no key after the range, it ends at the last key
+        try (KeyValueIterator iterator = dataSource.iterator(new byte[] { (byte) 0xff, (byte) 0xff })) {
+            assertValues(iterator, 8);
+        }
+    }
+
+    @Test
+    public void closedIteratorHasNoNext() {
+        KeyValueIterator iterator = dataSource.iterator(null, null);
+
+        assertTrue(iterator.hasNext());
+
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void closeDataSourceWithOpenIterators() {
+        KeyValueIterator iterator = dataSource.iterator(null, null);
+        KeyValueIterator iterator2 = dataSource.iterator(new byte[] { 2 });
+
+        assertArrayEquals(new byte[] { 1 }, iterator.next().getValue());
+        assertTrue(iterator2.hasNext());
+
+        dataSource.close();
+
+        assertFalse(iterator.hasNext());
+
+        // the iterator can be closed again
+        iterator.close();
+        iterator2.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void iterateClosedDataSource() {
+        dataSource.close();
+        dataSource.iterator(null, null);
+    }
+
+    private static void assertValues(KeyValueIterator iterator, int... values) {
+        for (int value : values) {
+            assertTrue(iterator.hasNext());
+            assertArrayEquals(new byte[] { (byte) value }, iterator.next().getValue());
+        }
+
+        assertFalse(iterator.hasNext());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import org.ethereum.config.SystemProperties;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares random point reads of trie node like values (32 bytes keys, ~100 bytes values)
+ * using the legacy LevelDB options and the state profile
+ *
+ * Run it manually, it writes a few hundred megabytes to the database directory
+ */
+@Ignore
+public class LevelDbDataSourcePerformanceTest {
+    private static final int NKEYS = 500000;
+    private static final int NREADS = 100000;
+    private static final int BATCH_SIZE = 10000;
+
+    // To execute as a standalone application, remove @Ignore and @Test and run main.
+    public static void main(String[] args) {
+        new LevelDbDataSourcePerformanceTest().comparePointReads();
+    }
+
+    @Test
+    public void comparePointReads() {
+        long legacy = measurePointReads("perf-legacy", LevelDbProfile.LEGACY);
+        long state = measurePointReads("perf-state", LevelDbProfile.STATE);
+
+        System.out.println(String.format("legacy options: %d ns/read", legacy));
+        System.out.println(String.format("state profile : %d ns/read", state));
+    }
+
+    private static long measurePointReads(String name, LevelDbProfile profile) {
+        LevelDbDataSource dataSource = new LevelDbDataSource(name, profile);
+        dataSource.init();
+
+        Random random = new Random(1);
+        byte[][] keys = new byte[NKEYS][];
+
+        for (int k = 0; k < NKEYS; k += BATCH_SIZE) {
+            Map<byte[], byte[]> batch = new HashMap<>();
+
+            for (int j = k; j < k + BATCH_SIZE; j++) {
+                keys[j] = randomBytes(random, 32);
+                batch.put(keys[j], randomBytes(random, 70 + random.nextInt(60)));
+            }
+
+            dataSource.updateBatch(batch);
+        }
+
+        // reopen, to read from the tables instead of the memtable
+        dataSource.close();
+        dataSource.init();
+
+        long start = System.nanoTime();
+
+        for (int k = 0; k < NREADS; k++)
+            assertNotNull(dataSource.get(keys[random.nextInt(NKEYS)]));
+
+        long elapsed = System.nanoTime() - start;
+
+        dataSource.close();
+        dataSource.destroyDB(getDatabasePath(name).toFile());
+
+        return elapsed / NREADS;
+    }
+
+    private static Path getDatabasePath(String name) {
+        String databaseDir = SystemProperties.CONFIG.databaseDir();
+
+        if (Paths.get(databaseDir).isAbsolute())
+            return Paths.get(databaseDir, name);
+
+        return Paths.get(System.getProperty("user.dir"), databaseDir, name);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -23,11 +23,14 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 @Ignore
 public class LevelDbDataSourceTest {
@@ -61,6 +64,28 @@ public class LevelDbDataSourceTest {
         dataSource.close();
     }
 
+    @Test
+    public void testValuesByPrefix() {
+        LevelDbDataSource dataSource = new LevelDbDataSource("test-prefix");
+        dataSource.init();
+
+        dataSource.put(new byte[] { 1, 2 }, new byte[] { 1 });
+        dataSource.put(new byte[] { 1, 3, 1 }, new byte[] { 3 });
+        dataSource.put(new byte[] { 1, 3 }, new byte[] { 2 });
+        dataSource.put(new byte[] { 1, 4 }, new byte[] { 4 });
+        dataSource.put(new byte[] { 2, 3 }, new byte[] { 5 });
+
+        List<byte[]> values = dataSource.getValuesByPrefix(new byte[] { 1, 3 });
+
+        assertEquals(2, values.size());
+        assertArrayEquals(new byte[] { 2 }, values.get(0));
+        assertArrayEquals(new byte[] { 3 }, values.get(1));
+        assertEquals(4, dataSource.getValuesByPrefix(new byte[] { 1 }).size());
+        assertTrue(dataSource.getValuesByPrefix(new byte[] { 3 }).isEmpty());
+
+        dataSource.close();
+    }
+
     private static Map<byte[], byte[]> createBatch(int batchSize) {
         HashMap<byte[], byte[]> result = new HashMap<>();
         for (int i = 0; i < batchSize; i++) {
@@ -69,4 +94,4 @@ public class LevelDbDataSourceTest {
         return result;
     }
 
-}
\ No newline at end of file
+}
@@ -157,4 +157,78 @@ public class DetailsDataStoreTest {
         ContractDetails contractDetails = dds.get(c_key);
         assertNull(contractDetails);
     }
+
+    @Test
+    public void flushOnlyUpdatedOrModifiedDetails() {
+        HashMapDB dataSource = new HashMapDB();
+        DetailsDataStore dds = new DetailsDataStore(100);
+        dds.setDB(new DatabaseImpl(dataSource));
+
+        byte[] key1 = randomAddress();
+        byte[] key2 = randomAddress();
+
+        ContractDetails details1 = new ContractDetailsImpl();
+        details1.put(DataWord.ONE, new DataWord(1));
+        dds.update(key1, details1);
+        dds.update(key2, new ContractDetailsImpl());
+
+        dds.flush();
+
+        assertEquals(2, dds.getLastWrittenCount());
+        assertEquals(0, dds.getLastSkippedCount());
+        assertEquals(2, dataSource.keys().size());
+        assertEquals(2, dds.getCacheSize());
+
+        dds.flush();
+
+        assertEquals(0, dds.getLastWrittenCount());
+        assertEquals(2, dds.getLastSkippedCount());
+
+        // modified in place
+        dds.get(key1).put(DataWord.ONE, new DataWord(2));
+
+        dds.flush();
+
+        assertEquals(1, dds.getLastWrittenCount());
+        assertEquals(1, dds.getLastSkippedCount());
+        assertEquals(3, dds.getWrittenCount());
+        assertEquals(3, dds.getSkippedCount());
+
+        ContractDetails loaded = new ContractDetailsImpl(dataSource.get(key1));
+        assertEquals(new DataWord(2), loaded.get(DataWord.ONE));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedDetailsAfterFlush() {
+        HashMapDB dataSource = new HashMapDB();
+        DetailsDataStore dds = new DetailsDataStore(2);
+        dds.setDB(new DatabaseImpl(dataSource));
+
+        byte[][] keys = new byte[3][];
+
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = randomAddress();
+            ContractDetails details = new ContractDetailsImpl();
+            details.put(DataWord.ONE, new DataWord(k + 1));
+            dds.update(keys[k], details);
+        }
+
+        // used before the flush
+        dds.get(keys[0]);
+
+        assertEquals(3, dds.getCacheSize());
+
+        dds.flush();
+
+        assertEquals(3, dds.getLastWrittenCount());
+        assertEquals(2, dds.getCacheSize());
+
+        // the evicted details are loaded again
+        for (int k = 0; k < keys.length; k++)
+            assertEquals(new DataWord(k + 1), dds.get(keys[k]).get(DataWord.ONE));
+
+        dds.flush();
+
+        assertEquals(0, dds.getLastWrittenCount());
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.db;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class LogIndexTest {
+    private static final byte[] ADDRESS1 = Hex.decode("cd2a3d9f938e13cd947ec05abc7fe734df8dd826");
+    private static final byte[] ADDRESS2 = Hex.decode("0000000000000000000000000000000001000008");
+    private static final byte[] TOPIC1 = new DataWord(1).getData();
+    private static final byte[] TOPIC2 = new DataWord(2).getData();
+
+    @Test
+    public void emptyIndex() {
+        LogIndex index = new LogIndex(new HashMapDB(), null, null);
+
+        Assert.assertEquals(-1, index.getFirstIndexedNumber());
+        Assert.assertEquals(-1, index.getLastIndexedNumber());
+        Assert.assertTrue(index.find(null, null, 0, 1000).isEmpty());
+    }
+
+    @Test
+    public void findByAddressAndTopic() {
+        LogIndex index = new LogIndex(new HashMapDB(), null, null);
+        List<Block> blocks = BlockGenerator.getBlockChain(10);
+
+        for (Block block : blocks) {
+            List<TransactionReceipt> receipts = new ArrayList<>();
+
+            // a transaction without logs, and a log of the first address in the even blocks
+            receipts.add(createReceipt());
+
+            if (block.getNumber() % 2 == 0)
+                receipts.add(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null)));
+            else
+                receipts.add(createReceipt(new LogInfo(ADDRESS2, topics(TOPIC2, TOPIC1), null)));
+
+            index.onBlock(block, receipts);
+        }
+
+        Assert.assertEquals(1, index.getFirstIndexedNumber());
+        Assert.assertEquals(10, index.getLastIndexedNumber());
+
+        List<LogIndex.Entry> entries = index.find(new byte[][] { ADDRESS1 }, null, 0, 100);
+
+        Assert.assertEquals(5, entries.size());
+
+        for (int k = 0; k < entries.size(); k++) {
+            LogIndex.Entry entry = entries.get(k);
+            Assert.assertEquals(2 * k + 2, entry.getBlockNumber());
+            Assert.assertArrayEquals(blocks.get(2 * k + 1).getHash(), entry.getBlockHash());
+            Assert.assertEquals(1, entry.getTransactionIndex());
+        }
+
+        Assert.assertEquals(10, index.find(null, null, 0, 100).size());
+        Assert.assertEquals(10, index.find(new byte[][] { ADDRESS1, ADDRESS2 }, null, 0, 100).size());
+        Assert.assertEquals(3, index.find(new byte[][] { ADDRESS1, ADDRESS2 }, null, 4, 6).size());
+
+        // the topics are matched by position
+        Assert.assertEquals(5, index.find(null, Collections.singletonList(new byte[][] { TOPIC1 }), 0, 100).size());
+        Assert.assertEquals(5, index.find(null, Arrays.asList(null, new byte[][] { TOPIC1 }), 0, 100).size());
+        Assert.assertEquals(0, index.find(new byte[][] { ADDRESS1 }, Collections.singletonList(new byte[][] { TOPIC2 }), 0, 100).size());
+        Assert.assertEquals(0, index.find(new byte[][] { ADDRESS1 }, Collections.singletonList(new byte[][] { new DataWord(3).getData() }), 0, 100).size());
+    }
+
+    @Test
+    public void findInSeveralRanges() {
+        LogIndex index = new LogIndex(new HashMapDB(), null, null);
+        Block parent = BlockGenerator.getGenesisBlock();
+        int nblocks = LogIndex.RANGE_SIZE + 2 * LogIndex.BUCKET_SIZE;
+
+        for (int k = 0; k < nblocks; k++) {
+            Block block = BlockGenerator.createChildBlock(parent);
+
+            if (block.getNumber() % 100 == 0)
+                index.onBlock(block, Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null))));
+            else
+                index.onBlock(block, Collections.singletonList(createReceipt()));
+
+            parent = block;
+        }
+
+        List<LogIndex.Entry> entries = index.find(new byte[][] { ADDRESS1 }, null, 150, nblocks);
+
+        Assert.assertEquals(10, entries.size());
+
+        for (int k = 0; k < entries.size(); k++)
+            Assert.assertEquals(200 + k * 100, entries.get(k).getBlockNumber());
+
+        Assert.assertTrue(index.find(new byte[][] { ADDRESS2 }, null, 0, nblocks).isEmpty());
+    }
+
+    @Test
+    public void keepEntriesOfForks() {
+        LogIndex index = new LogIndex(new HashMapDB(), null, null);
+        Block genesis = BlockGenerator.getGenesisBlock();
+        Block block1 = BlockGenerator.createChildBlock(genesis);
+        Block block1b = BlockGenerator.createChildBlock(genesis, 0, 10);
+
+        index.onBlock(block1, Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null))));
+        index.onBlock(block1b, Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC2), null))));
+        // the same block again
+        index.onBlock(block1, Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null))));
+
+        List<LogIndex.Entry> entries = index.find(new byte[][] { ADDRESS1 }, null, 1, 1);
+
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(1, index.find(null, Collections.singletonList(new byte[][] { TOPIC2 }), 1, 1).size());
+        Assert.assertArrayEquals(block1b.getHash(), index.find(null, Collections.singletonList(new byte[][] { TOPIC2 }), 1, 1).get(0).getBlockHash());
+    }
+
+    @Test
+    public void onlyKnowsBlocksAfterTheFirstIndexedBlock() {
+        HashMapDB indexDS = new HashMapDB();
+        LogIndex index = new LogIndex(indexDS, null, null);
+        List<Block> blocks = BlockGenerator.getBlockChain(5);
+
+        for (Block block : blocks.subList(2, 5))
+            index.onBlock(block, Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null))));
+
+        // a fork of an older block
+        index.onBlock(BlockGenerator.createChildBlock(blocks.get(0), 0, 10), Collections.singletonList(createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null))));
+
+        Assert.assertEquals(3, index.getFirstIndexedNumber());
+        Assert.assertEquals(5, index.getLastIndexedNumber());
+        Assert.assertEquals(3, index.find(new byte[][] { ADDRESS1 }, null, 0, 10).size());
+
+        // reopened
+        LogIndex index2 = new LogIndex(indexDS, null, null);
+
+        Assert.assertEquals(3, index2.getFirstIndexedNumber());
+        Assert.assertEquals(5, index2.getLastIndexedNumber());
+        Assert.assertEquals(3, index2.find(new byte[][] { ADDRESS1 }, null, 0, 10).size());
+    }
+
+    @Test
+    public void indexMissingBlocksFromReceiptStore() {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMap<>(), new HashMapDB(), null);
+        ReceiptStore receiptStore = new ReceiptStoreImpl(new HashMapDB());
+        LogIndex index = new LogIndex(new HashMapDB(), blockStore, receiptStore);
+
+        Block parent = BlockGenerator.getGenesisBlock();
+        blockStore.saveBlock(parent, BigInteger.ONE, true);
+
+        for (int k = 1; k <= 4; k++) {
+            Transaction tx = Transaction.create("0000000000000000000000000000000001000008", BigInteger.ONE, BigInteger.valueOf(k), BigInteger.ONE, BigInteger.valueOf(21000));
+            Block block = BlockGenerator.createChildBlock(parent, Collections.singletonList(tx));
+            TransactionReceipt receipt = createReceipt(new LogInfo(ADDRESS1, topics(TOPIC1), null));
+            receipt.setTransaction(tx);
+
+            blockStore.saveBlock(block, BigInteger.valueOf(k + 1), true);
+            receiptStore.add(block.getHash(), 0, receipt);
+
+            // the second and third blocks are not notified
+            if (k == 1 || k == 4)
+                index.onBlock(block, Collections.singletonList(receipt));
+
+            parent = block;
+        }
+
+        List<LogIndex.Entry> entries = index.find(new byte[][] { ADDRESS1 }, null, 0, 10);
+
+        Assert.assertEquals(4, entries.size());
+
+        for (int k = 0; k < 4; k++)
+            Assert.assertEquals(k + 1, entries.get(k).getBlockNumber());
+    }
+
+    private static List<DataWord> topics(byte[]... topics) {
+        List<DataWord> result = new ArrayList<>();
+
+        for (byte[] topic : topics)
+            result.add(new DataWord(topic));
+
+        return result;
+    }
+
+    private static TransactionReceipt createReceipt(LogInfo... logs) {
+        TransactionReceipt receipt = new TransactionReceipt();
+        receipt.setLogInfoList(new ArrayList<>(Arrays.asList(logs)));
+        return receipt;
+    }
+}
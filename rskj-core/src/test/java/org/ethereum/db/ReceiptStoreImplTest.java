@@ -23,6 +23,7 @@ import co.rsk.test.World;
 import co.rsk.test.builders.BlockBuilder;
 import org.ethereum.core.*;
 import org.ethereum.datasource.HashMapDB;
+import org.ethereum.util.RLP;
 import org.ethereum.vm.LogInfo;
 import org.junit.Assert;
 import org.junit.Test;
@@ -30,6 +31,9 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ajlopez on 3/1/2016.
@@ -234,6 +238,151 @@ public class ReceiptStoreImplTest {
         Assert.assertNull(result);
     }
 
+    @Test
+    public void saveMultipleAndGetAllTransactions() {
+        HashMapDB receiptsDS = new HashMapDB();
+        ReceiptStore store = new ReceiptStoreImpl(receiptsDS);
+
+        TransactionReceipt receipt = createReceipt();
+        byte[] blockHash0 = Hex.decode("010203040506070809");
+        byte[] blockHash = Hex.decode("0102030405060708");
+
+        List<TransactionReceipt> receipts = new ArrayList<>();
+        receipts.add(createReceipt(Hex.decode("aa")));
+        receipts.add(receipt);
+
+        store.saveMultiple(blockHash0, receipts);
+        store.add(blockHash, 42, receipt);
+
+        List<TransactionInfo> result = store.getAll(receipt.getTransaction().getHash());
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertArrayEquals(blockHash0, result.get(0).getBlockHash());
+        Assert.assertEquals(1, result.get(0).getIndex());
+        Assert.assertArrayEquals(blockHash, result.get(1).getBlockHash());
+        Assert.assertEquals(42, result.get(1).getIndex());
+
+        // the order is kept when the store is reopened
+        ReceiptStore store2 = new ReceiptStoreImpl(receiptsDS);
+        store2.add(blockHash0, 1, receipt);
+
+        result = store2.getAll(receipt.getTransaction().getHash());
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertArrayEquals(blockHash, result.get(0).getBlockHash());
+        Assert.assertArrayEquals(blockHash0, result.get(1).getBlockHash());
+    }
+
+    @Test
+    public void migrateReceiptLists() {
+        HashMapDB receiptsDS = new HashMapDB();
+
+        TransactionReceipt receipt0 = createReceipt();
+        TransactionReceipt receipt = createReceipt(Hex.decode("aa"));
+        byte[] blockHash0 = Hex.decode("010203040506070809");
+        byte[] blockHash = Hex.decode("0102030405060708");
+
+        // the receipts of each transaction in a list, as stored before
+        byte[] txHash0 = receipt0.getTransaction().getHash();
+        byte[] txHash = receipt.getTransaction().getHash();
+        receiptsDS.put(txHash0, RLP.encodeList(new TransactionInfo(receipt0, blockHash0, 3).getEncoded(), new TransactionInfo(receipt0, blockHash, 42).getEncoded()));
+        receiptsDS.put(txHash, RLP.encodeList(new TransactionInfo(receipt, blockHash, 1).getEncoded()));
+
+        ReceiptStore store = new ReceiptStoreImpl(receiptsDS);
+
+        Assert.assertNull(receiptsDS.get(txHash0));
+        Assert.assertNull(receiptsDS.get(txHash));
+
+        List<TransactionInfo> result = store.getAll(txHash0);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertArrayEquals(blockHash0, result.get(0).getBlockHash());
+        Assert.assertEquals(3, result.get(0).getIndex());
+        Assert.assertArrayEquals(blockHash, result.get(1).getBlockHash());
+        Assert.assertEquals(42, result.get(1).getIndex());
+        Assert.assertArrayEquals(receipt0.getEncoded(), result.get(1).getReceipt().getEncoded());
+
+        TransactionInfo txInfo = store.get(txHash, blockHash, null);
+
+        Assert.assertNotNull(txInfo);
+        Assert.assertEquals(1, txInfo.getIndex());
+        Assert.assertArrayEquals(receipt.getEncoded(), txInfo.getReceipt().getEncoded());
+
+        // already migrated
+        ReceiptStore store2 = new ReceiptStoreImpl(receiptsDS);
+
+        Assert.assertEquals(2, store2.getAll(txHash0).size());
+    }
+
+    @Test
+    public void migrateReceiptListsInBatchesAndResume() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        AtomicInteger batches = new AtomicInteger();
+
+        HashMapDB receiptsDS = new HashMapDB() {
+            @Override
+            public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+                if (failing.get() && batches.incrementAndGet() > 1)
+                    throw new RuntimeException("Disk full");
+
+                super.updateBatch(rows);
+            }
+        };
+
+        byte[] blockHash0 = Hex.decode("010203040506070809");
+        byte[] blockHash = Hex.decode("0102030405060708");
+        List<TransactionReceipt> receipts = new ArrayList<>();
+
+        for (int k = 0; k < 7; k++) {
+            TransactionReceipt receipt = createReceipt(new byte[] { (byte) k });
+            receipts.add(receipt);
+
+            receiptsDS.put(receipt.getTransaction().getHash(), RLP.encodeList(new TransactionInfo(receipt, blockHash0, k).getEncoded(), new TransactionInfo(receipt, blockHash, 10 + k).getEncoded()));
+        }
+
+        try {
+            new ReceiptStoreImpl(receiptsDS, 2);
+            Assert.fail();
+        } catch (RuntimeException ex) {
+            Assert.assertEquals("Disk full", ex.getMessage());
+        }
+
+        // the lists of the first batch are migrated and removed, the others are kept
+        int remaining = 0;
+
+        for (TransactionReceipt receipt : receipts)
+            if (receiptsDS.get(receipt.getTransaction().getHash()) != null)
+                remaining++;
+
+        Assert.assertEquals(5, remaining);
+
+        failing.set(false);
+
+        ReceiptStore store = new ReceiptStoreImpl(receiptsDS, 2);
+
+        for (int k = 0; k < 7; k++) {
+            byte[] txHash = receipts.get(k).getTransaction().getHash();
+
+            Assert.assertNull(receiptsDS.get(txHash));
+
+            List<TransactionInfo> result = store.getAll(txHash);
+
+            Assert.assertEquals(2, result.size());
+            Assert.assertArrayEquals(blockHash0, result.get(0).getBlockHash());
+            Assert.assertEquals(k, result.get(0).getIndex());
+            Assert.assertArrayEquals(blockHash, result.get(1).getBlockHash());
+            Assert.assertEquals(10 + k, result.get(1).getIndex());
+        }
+    }
+
+    private static TransactionReceipt createReceipt(byte[] data) {
+        TransactionReceipt receipt = createReceipt();
+
+        receipt.setTransaction(new Transaction(null, null, null, null, null, data));
+
+        return receipt;
+    }
+
     // from TransactionTest
     private static TransactionReceipt createReceipt() {
         byte[] stateRoot = Hex.decode("f5ff3fbd159773816a7c707a9b8cb6bb778b934a8f6466c7830ed970498f4b68");
@@ -0,0 +1,193 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.db;
+
+import co.rsk.db.RepositoryImpl;
+import org.ethereum.core.Repository;
+import org.ethereum.vm.DataWord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RepositoryJournalTest {
+    private static final byte[] COW = Hex.decode("CD2A3D9F938E13CD947EC05ABC7FE734DF8DD826");
+    private static final byte[] HORSE = Hex.decode("13978AEE95F38490E9769C39B2773ED763D9CD5F");
+
+    @Test
+    public void doNotRecordOutOfCheckpoints() {
+        RepositoryJournal journal = new RepositoryJournal();
+
+        journal.record(() -> { });
+
+        Assert.assertFalse(journal.isRecording());
+        Assert.assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void rollbackNestedCheckpoint() {
+        RepositoryJournal journal = new RepositoryJournal();
+        List<Integer> values = new ArrayList<>();
+
+        RepositoryJournal.Checkpoint checkpoint1 = journal.newCheckpoint(null);
+        RepositoryJournal.Checkpoint checkpoint2 = journal.newCheckpoint(checkpoint1);
+
+        journal.activate(checkpoint1);
+        add(journal, values, 1);
+        journal.activate(checkpoint2);
+        add(journal, values, 2);
+        add(journal, values, 3);
+
+        journal.rollback(checkpoint2);
+
+        Assert.assertEquals("[1]", values.toString());
+        Assert.assertEquals(1, journal.size());
+
+        // the committed changes are undone with the enclosing checkpoint
+        journal.activate(checkpoint2);
+        add(journal, values, 4);
+        journal.commit(checkpoint2);
+
+        Assert.assertEquals("[1, 4]", values.toString());
+
+        journal.rollback(checkpoint1);
+
+        Assert.assertEquals("[]", values.toString());
+        Assert.assertEquals(0, journal.size());
+        Assert.assertFalse(journal.isRecording());
+    }
+
+    @Test
+    public void rollbackNotCommittedCheckpointsWhenUsingParent() {
+        RepositoryJournal journal = new RepositoryJournal();
+        List<Integer> values = new ArrayList<>();
+
+        RepositoryJournal.Checkpoint checkpoint1 = journal.newCheckpoint(null);
+        RepositoryJournal.Checkpoint checkpoint2 = journal.newCheckpoint(checkpoint1);
+
+        journal.activate(checkpoint2);
+        add(journal, values, 1);
+
+        journal.activate(checkpoint1);
+
+        Assert.assertEquals("[]", values.toString());
+
+        add(journal, values, 2);
+        journal.commit(checkpoint1);
+
+        Assert.assertEquals("[2]", values.toString());
+        Assert.assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void rollbackNestedTrack() {
+        Repository repository = new RepositoryImpl();
+        Repository track = repository.startTracking();
+
+        track.addBalance(COW, BigInteger.TEN);
+        track.addStorageRow(COW, DataWord.ONE, new DataWord(1));
+
+        Repository track1 = track.startTracking();
+
+        track1.addBalance(COW, BigInteger.ONE);
+        track1.increaseNonce(HORSE);
+
+        Repository track2 = track1.startTracking();
+
+        track2.addBalance(COW, BigInteger.ONE);
+        track2.addStorageRow(COW, DataWord.ONE, new DataWord(2));
+        track2.saveCode(HORSE, new byte[] { 0x01 });
+        track2.delete(COW);
+
+        Assert.assertFalse(track2.isExist(COW));
+
+        track2.rollback();
+
+        Assert.assertTrue(track1.isExist(COW));
+        Assert.assertEquals(BigInteger.valueOf(11), track1.getBalance(COW));
+        Assert.assertEquals(new DataWord(1), track1.getStorageValue(COW, DataWord.ONE));
+        Assert.assertArrayEquals(new byte[0], track1.getCode(HORSE));
+        Assert.assertEquals(BigInteger.ONE, track1.getNonce(HORSE));
+
+        track1.rollback();
+
+        Assert.assertEquals(BigInteger.TEN, track.getBalance(COW));
+        Assert.assertEquals(BigInteger.ZERO, track.getNonce(HORSE));
+
+        track.commit();
+
+        Assert.assertEquals(BigInteger.TEN, repository.getBalance(COW));
+        Assert.assertEquals(new DataWord(1), repository.getStorageValue(COW, DataWord.ONE));
+        Assert.assertFalse(repository.isExist(HORSE));
+    }
+
+    @Test
+    public void commitNestedTracksAndRollbackParent() {
+        Repository repository = new RepositoryImpl();
+        Repository track = repository.startTracking();
+
+        Repository track1 = track.startTracking();
+        track1.createAccount(HORSE);
+        track1.addBalance(HORSE, BigInteger.ONE);
+
+        Repository track2 = track1.startTracking();
+        track2.addBalance(HORSE, BigInteger.TEN);
+        track2.addStorageRow(HORSE, DataWord.ONE, new DataWord(3));
+        track2.commit();
+
+        Assert.assertEquals(BigInteger.valueOf(11), track1.getBalance(HORSE));
+        Assert.assertEquals(new DataWord(3), track1.getStorageValue(HORSE, DataWord.ONE));
+
+        track1.rollback();
+
+        Assert.assertFalse(track.isExist(HORSE));
+        Assert.assertNull(track.getStorageValue(HORSE, DataWord.ONE));
+
+        track.commit();
+
+        Assert.assertFalse(repository.isExist(HORSE));
+    }
+
+    @Test
+    public void discardNestedTrackNotCommittedBeforeUsingParent() {
+        Repository repository = new RepositoryImpl();
+        Repository track = repository.startTracking();
+
+        track.addBalance(COW, BigInteger.TEN);
+
+        Repository track1 = track.startTracking();
+        track1.addBalance(COW, BigInteger.ONE);
+
+        Assert.assertEquals(BigInteger.TEN, track.getBalance(COW));
+
+        // a nested track can be used again, as a new one
+        track1.addBalance(COW, BigInteger.ONE);
+        track1.commit();
+
+        Assert.assertEquals(BigInteger.valueOf(11), track.getBalance(COW));
+    }
+
+    private static void add(RepositoryJournal journal, List<Integer> values, int value) {
+        values.add(value);
+        journal.record(() -> values.remove(values.size() - 1));
+    }
+}
@@ -25,6 +25,7 @@ import co.rsk.mine.MinerServer;
 import co.rsk.net.BlockProcessor;
 import org.ethereum.core.PendingState;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.LogIndex;
 import org.ethereum.facade.Repository;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
@@ -46,6 +47,7 @@ public class SimpleWorldManager implements WorldManager {
     PendingState pendingState;
     BlockStore blockStore;
     EthereumListener listener;
+    LogIndex logIndex;
 
     @Override
     public void init() {
@@ -120,6 +122,15 @@ public class SimpleWorldManager implements WorldManager {
         this.pendingState = pendingState;
     }
 
+    @Override
+    public LogIndex getLogIndex() {
+        return logIndex;
+    }
+
+    public void setLogIndex(LogIndex logIndex) {
+        this.logIndex = logIndex;
+    }
+
     @Override
     public void close() {
 
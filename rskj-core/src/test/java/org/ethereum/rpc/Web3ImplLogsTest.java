@@ -26,7 +26,10 @@ import co.rsk.test.builders.AccountBuilder;
 import co.rsk.test.builders.BlockBuilder;
 import co.rsk.test.builders.TransactionBuilder;
 import org.ethereum.core.*;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.LogIndex;
 import org.ethereum.facade.Repository;
+import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.rpc.dto.TransactionReceiptDTO;
 import org.ethereum.rpc.Simples.SimpleEthereum;
 import org.ethereum.rpc.Simples.SimpleWorldManager;
@@ -243,6 +246,95 @@ public class Web3ImplLogsTest {
         Assert.assertEquals(address,((LogFilterElement)logs[0]).address);
     }
 
+    @Test
+    public void getLogsWithLogIndexFromBlockchainWithCallContract() throws Exception {
+        Web3Impl web3 = getWeb3WithContractCall(true);
+
+        Assert.assertEquals(2, web3.worldManager.getLogIndex().getFirstIndexedNumber());
+        Assert.assertEquals(3, web3.worldManager.getLogIndex().getLastIndexedNumber());
+
+        Web3.FilterRequest fr = new Web3.FilterRequest();
+        fr.fromBlock = "earliest";
+        Object[] logs = web3.eth_getLogs(fr);
+
+        Assert.assertNotNull(logs);
+        Assert.assertEquals(3, logs.length);
+        Assert.assertEquals("0x1", ((LogFilterElement)logs[0]).blockNumber);
+        Assert.assertEquals("0x2", ((LogFilterElement)logs[1]).blockNumber);
+        Assert.assertEquals("0x3", ((LogFilterElement)logs[2]).blockNumber);
+    }
+
+    @Test
+    public void getLogsWithLogIndexFromBlockchainWithCallContractAndFilterByContractAddress() throws Exception {
+        Web3Impl web3 = getWeb3WithContractCall(true);
+        Block block1 = web3.worldManager.getBlockchain().getBlockByNumber(1l);
+        Web3.FilterRequest fr = new Web3.FilterRequest();
+        fr.fromBlock = "earliest";
+        fr.address = Hex.toHexString(block1.getTransactionsList().get(0).getContractAddress());
+        Object[] logs = web3.eth_getLogs(fr);
+
+        Assert.assertNotNull(logs);
+        Assert.assertEquals(3, logs.length);
+
+        String address = "0x" + fr.address;
+
+        Assert.assertEquals(address,((LogFilterElement)logs[0]).address);
+        Assert.assertEquals(address,((LogFilterElement)logs[1]).address);
+        Assert.assertEquals(address,((LogFilterElement)logs[2]).address);
+
+        fr.address = "0000000000000000000000000000000001000008";
+
+        Assert.assertEquals(0, web3.eth_getLogs(fr).length);
+    }
+
+    @Test
+    public void getLogsWithLogIndexFromBlockchainWithCallContractAndFilterByTopic() throws Exception {
+        Web3Impl web3 = getWeb3WithContractCall(true);
+        Block block1 = web3.worldManager.getBlockchain().getBlockByNumber(1l);
+        Web3.FilterRequest fr = new Web3.FilterRequest();
+        fr.fromBlock = "earliest";
+        fr.topics = new Object[1];
+        fr.topics[0] = "1ee041944547858a75ebef916083b6d4f5ae04bea9cd809334469dd07dbf441b";
+        Object[] logs = web3.eth_getLogs(fr);
+
+        Assert.assertNotNull(logs);
+        String address = "0x" + Hex.toHexString(block1.getTransactionsList().get(0).getContractAddress());
+        Assert.assertEquals(1, logs.length);
+        Assert.assertEquals(address,((LogFilterElement)logs[0]).address);
+
+        fr.topics[0] = "0102";
+
+        Assert.assertEquals(0, web3.eth_getLogs(fr).length);
+    }
+
+    @Test
+    public void getLogsFromTransactionWithSeveralLogs() throws Exception {
+        Web3Impl web3 = getWeb3WithCallerContract(false);
+        Web3Impl web3WithLogIndex = getWeb3WithCallerContract(true);
+
+        Web3.FilterRequest fr = new Web3.FilterRequest();
+        fr.fromBlock = "earliest";
+
+        Object[] logs = web3.eth_getLogs(fr);
+        Object[] indexedLogs = web3WithLogIndex.eth_getLogs(fr);
+
+        Assert.assertEquals(2, logs.length);
+        Assert.assertEquals(2, indexedLogs.length);
+
+        for (int k = 0; k < logs.length; k++) {
+            LogFilterElement log = (LogFilterElement)logs[k];
+            LogFilterElement indexedLog = (LogFilterElement)indexedLogs[k];
+
+            Assert.assertEquals("0x2", log.blockNumber);
+            Assert.assertEquals(log.address, indexedLog.address);
+            Assert.assertEquals(log.transactionHash, indexedLog.transactionHash);
+            Assert.assertEquals(log.logIndex, indexedLog.logIndex);
+        }
+
+        Assert.assertNotEquals(((LogFilterElement)logs[0]).address, ((LogFilterElement)logs[1]).address);
+        Assert.assertNotEquals(((LogFilterElement)logs[0]).logIndex, ((LogFilterElement)logs[1]).logIndex);
+    }
+
     @Test
     public void createMainContractWithoutEvents() throws Exception {
         World world = new World();
@@ -332,13 +424,10 @@ public class Web3ImplLogsTest {
 
         Assert.assertNotNull(id);
         Assert.assertNotNull(logs);
-        Assert.assertEquals(4, logs.length);
+        Assert.assertEquals(2, logs.length);
 
-        for (int k = 0; k < 4; k++) {
-            LogFilterElement log = (LogFilterElement)logs[0];
-            if (k % 2 == 0)
-                Assert.assertEquals("0x" + mainAddress, ((LogFilterElement)log).address);
-        }
+        Assert.assertEquals("0x" + mainAddress, ((LogFilterElement)logs[0]).address);
+        Assert.assertEquals("0x" + Hex.toHexString(tx2.getContractAddress()), ((LogFilterElement)logs[1]).address);
     }
 
     @Test
@@ -397,13 +486,11 @@ public class Web3ImplLogsTest {
 
         Assert.assertNotNull(id);
         Assert.assertNotNull(logs);
-        Assert.assertEquals(5, logs.length);
+        Assert.assertEquals(3, logs.length);
 
-        for (int k = 0; k < 5; k++) {
-            LogFilterElement log = (LogFilterElement)logs[0];
-            if (k % 2 == 0 || k == 4)
-                Assert.assertEquals("0x" + mainAddress, ((LogFilterElement)log).address);
-        }
+        Assert.assertEquals("0x" + mainAddress, ((LogFilterElement)logs[0]).address);
+        Assert.assertEquals("0x" + Hex.toHexString(tx2.getContractAddress()), ((LogFilterElement)logs[1]).address);
+        Assert.assertEquals("0x" + mainAddress, ((LogFilterElement)logs[2]).address);
     }
 
     private Web3Impl getWeb3() {
@@ -543,6 +630,11 @@ public class Web3ImplLogsTest {
     }
 
     private Web3Impl getWeb3WithContractCall() {
+        return getWeb3WithContractCall(false);
+    }
+
+    // with a log index created after the first block
+    private Web3Impl getWeb3WithContractCall(boolean withLogIndex) {
         World world = new World();
         Account acc1 = new AccountBuilder(world).name("notDefault").balance(BigInteger.valueOf(10000000)).build();
 
@@ -555,6 +647,21 @@ public class Web3ImplLogsTest {
         Block block1 = new BlockBuilder(world).parent(genesis).transactions(txs).build();
         Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
 
+        LogIndex logIndex = null;
+
+        if (withLogIndex) {
+            LogIndex index = new LogIndex(new HashMapDB(), world.getBlockChain().getBlockStore(), world.getBlockChain().getReceiptStore());
+
+            world.getBlockChain().setListener(new EthereumListenerAdapter() {
+                @Override
+                public void onBlock(Block block, List<TransactionReceipt> receipts) {
+                    index.onBlock(block, receipts);
+                }
+            });
+
+            logIndex = index;
+        }
+
         byte[] contractAddress = tx.getContractAddress();
 
         Transaction tx2 = getContractTransactionWithInvoke(acc1, contractAddress);
@@ -579,6 +686,55 @@ public class Web3ImplLogsTest {
         worldManager.setBlockStore(world.getBlockChain().getBlockStore());
         PendingState pendingState = new PendingStateImpl(world.getBlockChain(), world.getRepository(), world.getBlockChain().getBlockStore(), null, null, 10, 100);
         worldManager.setPendingState(pendingState);
+        worldManager.setLogIndex(logIndex);
+        web3.worldManager = worldManager;
+        return web3;
+    }
+
+    // the caller contract creation emits a log from the main contract and a log of its own
+    private Web3Impl getWeb3WithCallerContract(boolean withLogIndex) {
+        World world = new World();
+        Account acc1 = new AccountBuilder(world).name("notDefault").balance(BigInteger.valueOf(10000000)).build();
+
+        LogIndex logIndex = null;
+
+        if (withLogIndex) {
+            LogIndex index = new LogIndex(new HashMapDB(), world.getBlockChain().getBlockStore(), world.getBlockChain().getReceiptStore());
+
+            world.getBlockChain().setListener(new EthereumListenerAdapter() {
+                @Override
+                public void onBlock(Block block, List<TransactionReceipt> receipts) {
+                    index.onBlock(block, receipts);
+                }
+            });
+
+            logIndex = index;
+        }
+
+        Block genesis = world.getBlockByName("g00");
+        Transaction tx = getMainContractTransaction(acc1);
+
+        List<Transaction> txs = new ArrayList<>();
+        txs.add(tx);
+        Block block1 = new BlockBuilder(world).parent(genesis).transactions(txs).build();
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+
+        Transaction tx2 = getCallerContractTransaction(acc1, Hex.toHexString(tx.getContractAddress()));
+        List<Transaction> tx2s = new ArrayList<>();
+        tx2s.add(tx2);
+        Block block2 = new BlockBuilder(world).parent(block1).transactions(tx2s).build();
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block2));
+
+        Web3Impl web3 = new Web3Impl(compiler, WalletFactory.createWallet());
+        web3.personal_newAccountWithSeed("notDefault");
+
+        web3.repository = (Repository) world.getBlockChain().getRepository();
+        SimpleWorldManager worldManager = new SimpleWorldManager();
+        worldManager.setBlockchain(world.getBlockChain());
+        worldManager.setBlockStore(world.getBlockChain().getBlockStore());
+        PendingState pendingState = new PendingStateImpl(world.getBlockChain(), world.getRepository(), world.getBlockChain().getBlockStore(), null, null, 10, 100);
+        worldManager.setPendingState(pendingState);
+        worldManager.setLogIndex(logIndex);
         web3.worldManager = worldManager;
         return web3;
     }
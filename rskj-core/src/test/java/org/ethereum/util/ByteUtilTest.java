@@ -383,4 +383,22 @@ public class ByteUtilTest {
         bytes = ByteUtil.longToBytes(256);
         assertArrayEquals(bytes, Hex.decode("0000000000000100"));
     }
+
+    @Test
+    public void nextPrefix() {
+        assertArrayEquals(Hex.decode("0103"), ByteUtil.nextPrefix(Hex.decode("0102")));
+        assertArrayEquals(Hex.decode("02"), ByteUtil.nextPrefix(Hex.decode("01ffff")));
+        assertNull(ByteUtil.nextPrefix(Hex.decode("ffff")));
+        assertNull(ByteUtil.nextPrefix(new byte[0]));
+    }
+
+    @Test
+    public void isInRange() {
+        assertTrue(ByteUtil.isInRange(Hex.decode("0102"), Hex.decode("01"), Hex.decode("02")));
+        assertTrue(ByteUtil.isInRange(Hex.decode("01"), Hex.decode("01"), Hex.decode("02")));
+        assertFalse(ByteUtil.isInRange(Hex.decode("02"), Hex.decode("01"), Hex.decode("02")));
+        assertFalse(ByteUtil.isInRange(Hex.decode("00ff"), Hex.decode("01"), null));
+        assertTrue(ByteUtil.isInRange(Hex.decode("ff"), Hex.decode("01"), null));
+        assertTrue(ByteUtil.isInRange(Hex.decode("80"), null, Hex.decode("81")));
+    }
 }
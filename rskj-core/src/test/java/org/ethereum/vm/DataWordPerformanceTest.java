@@ -0,0 +1,127 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.util.ByteUtil;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Compares the DataWord arithmetic with the BigInteger based implementation
+ * it replaced, by opcode family
+ *
+ * Run it manually, it takes about a minute
+ */
+@Ignore
+public class DataWordPerformanceTest {
+    private static final int NVALUES = 1024;
+    private static final int ITERATIONS = 1000000;
+    private static final int ROUNDS = 5;
+
+    private static final BigInteger _2_256 = DataWord._2_256;
+    private static final BigInteger MAX_VALUE = DataWord.MAX_VALUE;
+
+    private final byte[][] values = new byte[NVALUES][];
+    private final byte[][] smallValues = new byte[NVALUES][];
+
+    private long checksum;
+
+    // To execute as a standalone application, remove @Ignore and @Test and run main.
+    public static void main(String[] args) {
+        new DataWordPerformanceTest().compareOpcodeFamilies();
+    }
+
+    @Test
+    public void compareOpcodeFamilies() {
+        Random random = new Random(1);
+
+        for (int k = 0; k < NVALUES; k++) {
+            values[k] = ByteUtil.copyToArray(new BigInteger(256, random));
+            smallValues[k] = ByteUtil.copyToArray(new BigInteger(1 + random.nextInt(128), random));
+        }
+
+        compare("ADD", values, DataWord::add, (a, b) -> a.add(b).and(MAX_VALUE));
+        compare("SUB", values, DataWord::sub, (a, b) -> a.subtract(b).and(MAX_VALUE));
+        compare("MUL", values, DataWord::mul, (a, b) -> a.multiply(b).and(MAX_VALUE));
+        compare("DIV", values, DataWord::div, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.divide(b));
+        compare("DIV (small divisor)", smallValues, DataWord::div, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.divide(b));
+        compare("SDIV", values, DataWord::sDiv, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).divide(signed(b)).and(MAX_VALUE));
+        compare("MOD", values, DataWord::mod, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : a.mod(b));
+        compare("SMOD", values, DataWord::sMod, (a, b) -> b.signum() == 0 ? BigInteger.ZERO : signed(a).abs().mod(signed(b).abs()));
+        compare("EXP (small exponent)", smallValues, (a, b) -> { b.and(new DataWord(0xff)); a.exp(b); }, (a, b) -> a.modPow(b.and(BigInteger.valueOf(0xff)), _2_256));
+        compare("ADDMOD", values, (a, b) -> a.addmod(b, b), (a, b) -> a.add(b).mod(b));
+        compare("MULMOD", values, (a, b) -> a.mulmod(b, b), (a, b) -> a.multiply(b).mod(b));
+        compare("SLT", values, (a, b) -> a.sCompareTo(b), (a, b) -> BigInteger.valueOf(signed(a).compareTo(signed(b))));
+    }
+
+    private void compare(String name, byte[][] operands, BiConsumer<DataWord, DataWord> dataWordOp, BigIntegerOp bigIntegerOp) {
+        long setupTime = Long.MAX_VALUE;
+        long dataWordTime = Long.MAX_VALUE;
+        long bigIntegerTime = Long.MAX_VALUE;
+
+        // the first rounds warm up the JIT compiler, the best time of each is kept
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+
+            for (int k = 0; k < ITERATIONS; k++) {
+                DataWord a = new DataWord(operands[k % NVALUES].clone());
+                DataWord b = new DataWord(operands[(k * 7 + 1) % NVALUES].clone());
+                checksum += a.getData()[31] + b.getData()[31];
+            }
+
+            setupTime = Math.min(setupTime, System.nanoTime() - start);
+            start = System.nanoTime();
+
+            for (int k = 0; k < ITERATIONS; k++) {
+                DataWord a = new DataWord(operands[k % NVALUES].clone());
+                DataWord b = new DataWord(operands[(k * 7 + 1) % NVALUES].clone());
+                dataWordOp.accept(a, b);
+                checksum += a.getData()[31] + b.getData()[31];
+            }
+
+            dataWordTime = Math.min(dataWordTime, System.nanoTime() - start);
+            start = System.nanoTime();
+
+            for (int k = 0; k < ITERATIONS; k++) {
+                DataWord a = new DataWord(operands[k % NVALUES].clone());
+                DataWord b = new DataWord(operands[(k * 7 + 1) % NVALUES].clone());
+                a.assign(ByteUtil.copyToArray(bigIntegerOp.apply(a.value(), b.value()).and(MAX_VALUE)));
+                checksum += a.getData()[31] + b.getData()[31];
+            }
+
+            bigIntegerTime = Math.min(bigIntegerTime, System.nanoTime() - start);
+        }
+
+        // the time spent creating the operands is not included
+        System.out.println(String.format("%-22s DataWord %5d ns/op, BigInteger %5d ns/op (checksum %d)",
+                name, (dataWordTime - setupTime) / ITERATIONS, (bigIntegerTime - setupTime) / ITERATIONS, checksum));
+    }
+
+    private static BigInteger signed(BigInteger value) {
+        return value.testBit(255) ? value.subtract(_2_256) : value;
+    }
+
+    private interface BigIntegerOp {
+        BigInteger apply(BigInteger a, BigInteger b);
+    }
+}
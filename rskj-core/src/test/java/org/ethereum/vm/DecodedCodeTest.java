@@ -0,0 +1,147 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class DecodedCodeTest {
+    @Test
+    public void decodeStaticRun() {
+        // PUSH1 1 PUSH1 2 ADD
+        DecodedCode code = decode("6001600201");
+
+        DecodedCode.Instruction instruction = code.getInstruction(0);
+
+        Assert.assertEquals(OpCode.PUSH1, instruction.getOp());
+        Assert.assertEquals(new DataWord(1), instruction.getValue());
+        Assert.assertEquals(-1, instruction.getTarget());
+        Assert.assertNull(code.getInstruction(1));
+
+        DecodedCode.Run run = instruction.getRun();
+
+        Assert.assertNotNull(run);
+        Assert.assertEquals(3, run.getLength());
+        Assert.assertEquals(3 * OpCode.Tier.VeryLowTier.asInt(), run.getGas());
+        Assert.assertTrue(run.canRun(0));
+        Assert.assertFalse(run.canRun(Program.MAX_STACKSIZE - 1));
+
+        Assert.assertNull(code.getInstruction(2).getRun());
+        Assert.assertEquals(OpCode.ADD, code.getInstruction(4).getOp());
+    }
+
+    @Test
+    public void runRequiresStackItems() {
+        // ADD ADD
+        DecodedCode.Run run = decode("0101").getInstruction(0).getRun();
+
+        Assert.assertEquals(2, run.getLength());
+        Assert.assertFalse(run.canRun(2));
+        Assert.assertTrue(run.canRun(3));
+    }
+
+    @Test
+    public void dynamicGasInstructionEndsRun() {
+        // PUSH1 1 PUSH1 0 MSTORE PUSH1 0
+        DecodedCode code = decode("6001600052" + "6000");
+
+        Assert.assertEquals(2, code.getInstruction(0).getRun().getLength());
+        Assert.assertNull(code.getInstruction(4).getRun());
+        Assert.assertEquals(1, code.getInstruction(5).getRun().getLength());
+    }
+
+    @Test
+    public void jumpDestStartsRun() {
+        // PUSH1 1 JUMPDEST POP STOP
+        DecodedCode code = decode("60015b5000");
+
+        Assert.assertEquals(1, code.getInstruction(0).getRun().getLength());
+
+        DecodedCode.Run run = code.getInstruction(2).getRun();
+
+        Assert.assertEquals(3, run.getLength());
+        Assert.assertTrue(run.canRun(1));
+        Assert.assertFalse(run.canRun(0));
+    }
+
+    @Test
+    public void pushFollowedByJumpKeepsTarget() {
+        // PUSH1 4 JUMP STOP JUMPDEST STOP
+        DecodedCode code = decode("600456005b00");
+
+        Assert.assertEquals(4, code.getInstruction(0).getTarget());
+        Assert.assertEquals(2, code.getInstruction(0).getRun().getLength());
+        Assert.assertNotNull(code.getInstruction(3).getRun());
+    }
+
+    @Test
+    public void pushFollowedByJumpToInvalidDestinationHasNoTarget() {
+        // PUSH1 3 JUMP STOP STOP
+        DecodedCode code = decode("6003560000");
+
+        Assert.assertEquals(-1, code.getInstruction(0).getTarget());
+    }
+
+    @Test
+    public void invalidOpCodeIsNotInRun() {
+        // PUSH1 1 (invalid) PUSH1 2
+        DecodedCode code = decode("6001" + "ef" + "6002");
+
+        Assert.assertNull(code.getInstruction(2).getOp());
+        Assert.assertNull(code.getInstruction(2).getRun());
+        Assert.assertEquals(1, code.getInstruction(0).getRun().getLength());
+        Assert.assertEquals(1, code.getInstruction(3).getRun().getLength());
+    }
+
+    @Test
+    public void truncatedPushAssumesTrailingZeros() {
+        // PUSH2 01
+        DecodedCode code = decode("6101");
+
+        Assert.assertEquals(new DataWord(0x0100), code.getInstruction(0).getValue());
+        Assert.assertNull(code.getInstruction(2));
+    }
+
+    @Test
+    public void forProgramReturnsCodeKeptWithCodeAnalysis() {
+        byte[] code = Hex.decode("6001600201");
+        byte[] codeHash = HashUtil.sha3(code);
+
+        Program program = new Program(codeHash, code, new ProgramInvokeMockImpl());
+        DecodedCode decoded = DecodedCode.forProgram(program);
+
+        Assert.assertSame(decoded, program.getCodeAnalysis().getDecodedCode());
+
+        // the programs with a known code hash share the cached code analysis
+        Assert.assertSame(decoded, DecodedCode.forProgram(new Program(codeHash, code, new ProgramInvokeMockImpl())));
+        Assert.assertNotSame(decoded, DecodedCode.forProgram(new Program(code, new ProgramInvokeMockImpl())));
+    }
+
+    private static DecodedCode decode(String code) {
+        return DecodedCode.decode(newProgram(code));
+    }
+
+    private static Program newProgram(String code) {
+        return new Program(Hex.decode(code), new ProgramInvokeMockImpl());
+    }
+}
@@ -530,6 +530,75 @@ public class MemoryTest {
         assertTrue(zero == 10);
     }
 
+    @Test
+    public void readWordIntoExistingWord() {
+        Memory memory = new Memory();
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; ++i) data[i] = (byte) (i + 1);
+        memory.write(0, data, data.length, false);
+
+        DataWord word = new DataWord(new byte[32]);
+        memory.readWord(8, word);
+
+        assertArrayEquals(Arrays.copyOfRange(data, 8, 40), word.getData());
+        assertEquals(64, memory.size());
+    }
+
+    @Test
+    public void readWordExtendsMemory() {
+        Memory memory = new Memory();
+        DataWord word = new DataWord(1);
 
+        memory.readWord(1000, word);
+
+        assertTrue(word.isZero());
+        assertEquals(1056, memory.size());
+        assertEquals(2 * CHUNK_SIZE, memory.internalSize());
+    }
+
+    @Test
+    public void copyFillsWithZerosAfterTheSource() {
+        Memory memory = new Memory();
+        memory.extend(0, 64);
+        byte[] ones = new byte[64];
+        Arrays.fill(ones, (byte) 1);
+        memory.write(0, ones, ones.length, false);
+
+        byte[] source = Hex.decode("0102030405");
+        memory.copy(4, source, 2, 10);
+
+        assertArrayEquals(Hex.decode("01010101030405000000000000000101"), memory.read(0, 16));
+        assertEquals(64, memory.size());
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void copyFromBeyondTheSource() {
+        Memory memory = new Memory();
+        byte[] source = Hex.decode("0102030405");
+
+        memory.copy(0, source, Integer.MAX_VALUE, 33);
+
+        assertArrayEquals(new byte[33], memory.read(0, 33));
+        assertEquals(64, memory.size());
+    }
+
+    @Test
+    public void growsKeepingTheContent() {
+        Memory memory = new Memory();
+        byte[] data = new byte[100];
+
+        for (int k = 0; k < 100; k++) {
+            Arrays.fill(data, (byte) k);
+            memory.write(k * 100, data, data.length, false);
+        }
+
+        assertEquals(10016, memory.size());
+
+        for (int k = 0; k < 100; k++) {
+            Arrays.fill(data, (byte) k);
+            assertArrayEquals(data, memory.read(k * 100, 100));
+        }
+
+        assertEquals(0, memory.readByte(10015));
+    }
+}
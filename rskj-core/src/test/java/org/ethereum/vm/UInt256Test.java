@@ -0,0 +1,207 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.util.ByteUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the UInt256 operations with the same operations done using BigInteger,
+ * as DataWord implemented them before
+ */
+public class UInt256Test {
+    private static final BigInteger MAX_VALUE = DataWord.MAX_VALUE;
+    private static final BigInteger _2_256 = DataWord._2_256;
+
+    @Test
+    public void loadAndStore() {
+        byte[] data = new byte[32];
+
+        for (int k = 0; k < data.length; k++)
+            data[k] = (byte) (k + 1);
+
+        Assert.assertArrayEquals(data, new UInt256().load(data).toByteArray());
+        Assert.assertEquals("000000000000000000000000000000000000000000000000000000000000fe01",
+                new UInt256().load(new byte[] { (byte) 0xfe, 0x01 }).toString());
+        Assert.assertTrue(new UInt256().load(new byte[0]).isZero());
+    }
+
+    @Test
+    public void compare() {
+        for (BigInteger a : values())
+            for (BigInteger b : values()) {
+                Assert.assertEquals(Integer.signum(a.compareTo(b)), toUInt256(a).compareTo(toUInt256(b)));
+                Assert.assertEquals(Integer.signum(signed(a).compareTo(signed(b))), toUInt256(a).signedCompareTo(toUInt256(b)));
+                Assert.assertEquals(Integer.signum(signed(a).compareTo(signed(b))), new DataWord(toBytes(a)).sCompareTo(new DataWord(toBytes(b))));
+            }
+    }
+
+    @Test
+    public void addSubAndMul() {
+        for (BigInteger a : values())
+            for (BigInteger b : values()) {
+                assertValue(a.add(b).and(MAX_VALUE), toUInt256(a).add(toUInt256(b)));
+                assertValue(a.subtract(b).and(MAX_VALUE), toUInt256(a).sub(toUInt256(b)));
+                assertValue(a.multiply(b).and(MAX_VALUE), toUInt256(a).mul(toUInt256(b)));
+            }
+    }
+
+    @Test
+    public void divAndMod() {
+        for (BigInteger a : values())
+            for (BigInteger b : values()) {
+                assertValue(b.signum() == 0 ? BigInteger.ZERO : a.divide(b), toUInt256(a).div(toUInt256(b)));
+                assertValue(b.signum() == 0 ? BigInteger.ZERO : a.mod(b), toUInt256(a).mod(toUInt256(b)));
+            }
+    }
+
+    @Test
+    public void signedDivAndMod() {
+        for (BigInteger a : values())
+            for (BigInteger b : values()) {
+                BigInteger sa = signed(a);
+                BigInteger sb = signed(b);
+
+                BigInteger sdiv = sb.signum() == 0 ? BigInteger.ZERO : sa.divide(sb).and(MAX_VALUE);
+                BigInteger smod = sb.signum() == 0 ? BigInteger.ZERO : sa.abs().mod(sb.abs());
+                smod = sa.signum() == -1 ? smod.negate().and(MAX_VALUE) : smod;
+
+                assertValue(sdiv, toUInt256(a).sdiv(toUInt256(b)));
+                assertValue(smod, toUInt256(a).smod(toUInt256(b)));
+            }
+    }
+
+    @Test
+    public void exp() {
+        List<BigInteger> exponents = new ArrayList<>(values());
+        exponents.add(BigInteger.valueOf(2));
+        exponents.add(BigInteger.valueOf(255));
+        exponents.add(BigInteger.valueOf(256));
+
+        for (BigInteger a : values())
+            for (BigInteger b : exponents)
+                assertValue(a.modPow(b, _2_256), toUInt256(a).exp(toUInt256(b)));
+
+        UInt256 value = new UInt256(3);
+        assertValue(BigInteger.valueOf(27), value.exp(value));
+    }
+
+    @Test
+    public void addmodAndMulmod() {
+        List<BigInteger> values = values();
+
+        for (BigInteger a : values)
+            for (BigInteger b : values)
+                for (int k = 0; k < values.size(); k += 3) {
+                    BigInteger m = values.get(k);
+
+                    assertValue(addmod(a, b, m), toUInt256(a).addmod(toUInt256(b), toUInt256(m)));
+                    assertValue(m.signum() == 0 ? BigInteger.ZERO : a.multiply(b).mod(m),
+                            toUInt256(a).mulmod(toUInt256(b), toUInt256(m)));
+                }
+    }
+
+    @Test
+    public void dataWordOperations() {
+        for (BigInteger a : values())
+            for (BigInteger b : values()) {
+                DataWord word = new DataWord(toBytes(a));
+                word.mul(new DataWord(toBytes(b)));
+                Assert.assertEquals(a.multiply(b).and(MAX_VALUE), word.value());
+
+                word = new DataWord(toBytes(a));
+                word.sub(new DataWord(toBytes(b)));
+                Assert.assertEquals(a.subtract(b).and(MAX_VALUE), word.value());
+
+                word = new DataWord(toBytes(a));
+                word.div(new DataWord(toBytes(b)));
+                Assert.assertEquals(b.signum() == 0 ? BigInteger.ZERO : a.divide(b), word.value());
+            }
+    }
+
+    @Test
+    public void signExtend() {
+        DataWord word = new DataWord(0x80);
+        word.signExtend((byte) 0);
+        Assert.assertEquals(MAX_VALUE.subtract(BigInteger.valueOf(0x7f)), word.value());
+
+        word = new DataWord(0x7f80);
+        word.signExtend((byte) 1);
+        Assert.assertEquals(BigInteger.valueOf(0x7f80), word.value());
+    }
+
+    // the previous DataWord implementation, that reduces the operands only if they use the first byte
+    private static BigInteger addmod(BigInteger a, BigInteger b, BigInteger m) {
+        if (m.signum() == 0)
+            return BigInteger.ZERO;
+
+        if (a.bitLength() > 248 || b.bitLength() > 248) {
+            a = a.mod(m);
+            b = b.mod(m);
+        }
+
+        return a.add(b).and(MAX_VALUE).mod(m);
+    }
+
+    private static List<BigInteger> values() {
+        List<BigInteger> values = new ArrayList<>();
+
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE);
+        values.add(BigInteger.valueOf(2));
+        values.add(BigInteger.valueOf(0xffffffffL));
+        values.add(BigInteger.ONE.shiftLeft(32));
+        values.add(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+        values.add(BigInteger.ONE.shiftLeft(64));
+        values.add(BigInteger.ONE.shiftLeft(128).add(BigInteger.ONE));
+        values.add(BigInteger.ONE.shiftLeft(255));
+        values.add(BigInteger.ONE.shiftLeft(255).subtract(BigInteger.ONE));
+        values.add(MAX_VALUE);
+        values.add(MAX_VALUE.subtract(BigInteger.ONE));
+
+        Random random = new Random(42);
+
+        for (int k = 0; k < 20; k++)
+            values.add(new BigInteger(1 + random.nextInt(256), random));
+
+        return values;
+    }
+
+    private static BigInteger signed(BigInteger value) {
+        return value.testBit(255) ? value.subtract(_2_256) : value;
+    }
+
+    private static UInt256 toUInt256(BigInteger value) {
+        return new UInt256().load(toBytes(value));
+    }
+
+    private static byte[] toBytes(BigInteger value) {
+        return ByteUtil.copyToArray(value);
+    }
+
+    private static void assertValue(BigInteger expected, UInt256 value) {
+        Assert.assertEquals(expected, new BigInteger(1, value.toByteArray()));
+    }
+}
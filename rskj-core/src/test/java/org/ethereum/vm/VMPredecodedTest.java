@@ -0,0 +1,155 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+/**
+ * Runs the same programs with the classic and the pre-decoded engines,
+ * and checks that the results are the same
+ */
+public class VMPredecodedTest {
+    // PUSH1 10 JUMPDEST PUSH1 1 SWAP1 SUB DUP1 PUSH1 2 JUMPI STOP
+    private static final String LOOP = "600a5b600190038060025700";
+
+    @Test
+    public void runLoop() {
+        Program program = compare(LOOP, 1000000);
+
+        Assert.assertNull(program.getResult().getException());
+        Assert.assertEquals(1, program.getStack().size());
+        Assert.assertTrue(program.getStack().peek().isZero());
+    }
+
+    @Test
+    public void runOutOfGasInsideLoop() {
+        Program program = compare(LOOP, 100);
+
+        Assert.assertTrue(program.getResult().getException() instanceof Program.OutOfGasException);
+    }
+
+    @Test
+    public void runMemoryAndStorage() {
+        // PUSH1 32 PUSH1 0 MSTORE PUSH1 1 PUSH1 0 SSTORE PUSH1 0 MLOAD
+        Program program = compare("6020600052" + "6001600055" + "600051", 1000000);
+
+        Assert.assertNull(program.getResult().getException());
+        Assert.assertEquals(new DataWord(32), program.getStack().peek());
+    }
+
+    @Test
+    public void runStackUnderflowInsideRun() {
+        // PUSH1 1 ADD
+        Program program = compare("600101", 1000000);
+
+        Assert.assertTrue(program.getResult().getException() instanceof Program.StackTooSmallException);
+    }
+
+    @Test
+    public void runJumpToInvalidDestination() {
+        // PUSH1 3 JUMP STOP
+        Program program = compare("60035600", 1000000);
+
+        Assert.assertTrue(program.getResult().getException() instanceof Program.BadJumpDestinationException);
+    }
+
+    @Test
+    public void runInvalidOpCode() {
+        // PUSH1 1 (invalid)
+        Program program = compare("6001ef", 1000000);
+
+        Assert.assertTrue(program.getResult().getException() instanceof Program.IllegalOperationException);
+    }
+
+    @Test
+    public void runArithmeticAndLogicOpCodes() {
+        OpCode[] opcodes = {
+                OpCode.ADD, OpCode.MUL, OpCode.SUB, OpCode.DIV, OpCode.SDIV, OpCode.MOD, OpCode.SMOD,
+                OpCode.EXP, OpCode.SIGNEXTEND, OpCode.LT, OpCode.GT, OpCode.SLT, OpCode.SGT, OpCode.EQ,
+                OpCode.AND, OpCode.OR, OpCode.XOR, OpCode.BYTE, OpCode.ADDMOD, OpCode.MULMOD,
+                OpCode.ISZERO, OpCode.NOT
+        };
+
+        // the same arguments as VMPerformanceTest.measureOpcode: PUSH32 each argument, the opcode, POP
+        String[] args = {
+                "fedcba9876543210fedcba9876543210fedcba9876543210fedcba9876543210",
+                "0000000000000000000000000000000000000000000000000000000000000003",
+                "8000000000000000000000000000000000000000000000000000000000000001"
+        };
+
+        for (OpCode opcode : opcodes) {
+            StringBuilder code = new StringBuilder();
+
+            for (int k = 0; k < opcode.require(); k++)
+                code.append("7f").append(args[k]);
+
+            code.append(Hex.toHexString(new byte[] { opcode.val() }));
+            code.append("50");
+
+            Program program = compare(code.toString(), 1000000);
+
+            Assert.assertNull(program.getResult().getException());
+        }
+    }
+
+    @Test
+    public void runFibonacci() {
+        // VMPerformanceTest.testFibonacciLongTime contract with max k=100, without the creation prefix
+        String code = "60606040523615600d57600d565b607c5b60006000600060006000600091505b6064821015606b57600094508450600193508350600190505b6032811015605e5783850192508250839450845082935083505b80806001019150506038565b5b8180600101925050601f565b8360005260206000f35b5050505050565b00";
+
+        Program program = compare(code, 10000000);
+
+        Assert.assertNull(program.getResult().getException());
+        Assert.assertEquals("00000000000000000000000000000000000000000000000000000002ee333961", Hex.toHexString(program.getResult().getHReturn()));
+    }
+
+    private static Program compare(String code, long gas) {
+        Program classic = play(false, code, gas);
+        Program predecoded = play(true, code, gas);
+
+        Assert.assertEquals(classic.getResult().getGasUsed(), predecoded.getResult().getGasUsed());
+        Assert.assertEquals(classic.getPC(), predecoded.getPC());
+        Assert.assertEquals(classic.getStack(), predecoded.getStack());
+        Assert.assertArrayEquals(classic.getMemory(), predecoded.getMemory());
+        Assert.assertEquals(classic.storageLoad(new DataWord(0)), predecoded.storageLoad(new DataWord(0)));
+        Assert.assertArrayEquals(classic.getResult().getHReturn(), predecoded.getResult().getHReturn());
+
+        if (classic.getResult().getException() == null)
+            Assert.assertNull(predecoded.getResult().getException());
+        else
+            Assert.assertEquals(classic.getResult().getException().getClass(), predecoded.getResult().getException().getClass());
+
+        return predecoded;
+    }
+
+    private static Program play(boolean usePredecoded, String code, long gas) {
+        ProgramInvokeMockImpl invoke = new ProgramInvokeMockImpl();
+        invoke.setGas(gas);
+
+        Program program = new Program(Hex.decode(code), invoke);
+
+        new VM(usePredecoded).play(program);
+
+        return program;
+    }
+}
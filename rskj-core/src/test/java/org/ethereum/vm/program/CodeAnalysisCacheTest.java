@@ -0,0 +1,142 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.program;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class CodeAnalysisCacheTest {
+    // PUSH1 5B JUMPDEST PUSH2 5B5B JUMPDEST STOP
+    private static final byte[] CODE = Hex.decode("605b5b615b5b5b00");
+
+    @Test
+    public void analyzeSkipsPushData() {
+        CodeAnalysis analysis = CodeAnalysis.analyze(CODE, 0);
+
+        Assert.assertEquals(CODE.length, analysis.getCodeLength());
+        Assert.assertFalse(analysis.isJumpDest(1));
+        Assert.assertTrue(analysis.isJumpDest(2));
+        Assert.assertFalse(analysis.isJumpDest(4));
+        Assert.assertFalse(analysis.isJumpDest(5));
+        Assert.assertTrue(analysis.isJumpDest(6));
+        Assert.assertFalse(analysis.isJumpDest(-1));
+        Assert.assertFalse(analysis.isJumpDest(CODE.length));
+    }
+
+    @Test
+    public void analyzeFromStartAddress() {
+        CodeAnalysis analysis = CodeAnalysis.analyze(CODE, 3);
+
+        Assert.assertFalse(analysis.isJumpDest(2));
+        Assert.assertTrue(analysis.isJumpDest(6));
+    }
+
+    @Test
+    public void reachableBytecodes() {
+        // PUSH1 1 STOP INVALID JUMPDEST
+        byte[] code = Hex.decode("600100fe5b");
+        CodeAnalysis analysis = CodeAnalysis.analyze(code, 0);
+
+        Assert.assertTrue(analysis.isReachable(code, 0));
+        Assert.assertFalse(analysis.isReachable(code, 1));
+        Assert.assertTrue(analysis.isReachable(code, 2));
+        Assert.assertFalse(analysis.isReachable(code, 3));
+        Assert.assertFalse(analysis.isReachable(code, 4));
+        Assert.assertTrue(analysis.isJumpDest(4));
+    }
+
+    @Test
+    public void getCachedAnalysis() {
+        CodeAnalysisCache cache = new CodeAnalysisCache(1024);
+        byte[] hash = HashUtil.sha3(CODE);
+
+        CodeAnalysis analysis = cache.getAnalysis(hash, CODE, 0);
+
+        Assert.assertSame(analysis, cache.getAnalysis(hash, CODE, 0));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(CODE.length, cache.getCodeSize());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(analysis.getAnalysisTime(), cache.getAnalysisTime());
+        Assert.assertEquals(analysis.getAnalysisTime(), cache.getSavedAnalysisTime());
+    }
+
+    @Test
+    public void analyzeAgainIfCodeLengthDoesNotMatch() {
+        CodeAnalysisCache cache = new CodeAnalysisCache(1024);
+        byte[] hash = HashUtil.sha3(CODE);
+        byte[] otherCode = Hex.decode("5b00");
+
+        CodeAnalysis analysis = cache.getAnalysis(hash, CODE, 0);
+        CodeAnalysis otherAnalysis = cache.getAnalysis(hash, otherCode, 0);
+
+        Assert.assertNotSame(analysis, otherAnalysis);
+        Assert.assertTrue(otherAnalysis.isJumpDest(0));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(otherCode.length, cache.getCodeSize());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        CodeAnalysisCache cache = new CodeAnalysisCache(CODE.length * 2);
+        byte[] code1 = Hex.decode("605b5b615b5b5b01");
+        byte[] code2 = Hex.decode("605b5b615b5b5b02");
+
+        CodeAnalysis analysis = cache.getAnalysis(HashUtil.sha3(CODE), CODE, 0);
+        cache.getAnalysis(HashUtil.sha3(code1), code1, 0);
+        cache.getAnalysis(HashUtil.sha3(CODE), CODE, 0);
+        cache.getAnalysis(HashUtil.sha3(code2), code2, 0);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(CODE.length * 2, cache.getCodeSize());
+        Assert.assertSame(analysis, cache.getAnalysis(HashUtil.sha3(CODE), CODE, 0));
+    }
+
+    @Test
+    public void codeLargerThanCacheIsNotCached() {
+        CodeAnalysisCache cache = new CodeAnalysisCache(CODE.length - 1);
+
+        cache.getAnalysis(HashUtil.sha3(CODE), CODE, 0);
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getCodeSize());
+    }
+
+    @Test
+    public void programsWithCodeHashShareAnalysis() {
+        CodeAnalysisCache cache = CodeAnalysisCache.getInstance();
+        Assert.assertNotNull(cache);
+
+        byte[] hash = HashUtil.sha3(CODE);
+        long hits = cache.getHitCount();
+
+        Program program1 = new Program(hash, CODE, new ProgramInvokeMockImpl());
+        Program program2 = new Program(hash, CODE, new ProgramInvokeMockImpl());
+
+        Assert.assertTrue(cache.getHitCount() > hits);
+        Assert.assertTrue(program1.isJumpDest(6));
+        Assert.assertTrue(program2.isJumpDest(6));
+        Assert.assertFalse(program2.isJumpDest(4));
+    }
+}